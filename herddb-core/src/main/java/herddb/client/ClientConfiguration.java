@@ -87,6 +87,22 @@ public class ClientConfiguration {
     public static final int PROPERTY_CLIENT_CALLBACKS_DEFAULT = 64;
     public static final String PROPERTY_CLIENT_CALLBACKS = "client.network.thread.callback";
 
+    /**
+     * Ask the server to send result sets column by column, servers which do
+     * not support it fall back to the row format
+     */
+    public static final String PROPERTY_COLUMNAR_RESULTSETS = "client.network.resultset.columnar";
+    public static final boolean PROPERTY_COLUMNAR_RESULTSETS_DEFAULT = true;
+
+    /**
+     * Max number of chunks of a result set requested to the server before the
+     * application needs them, 0 disables prefetch. Result sets of transactions
+     * are never prefetched. Servers reject requests too far ahead, by default
+     * more than 16 chunks
+     */
+    public static final String PROPERTY_SCANNER_PREFETCH_DEPTH = "client.scanner.prefetch.depth";
+    public static final int PROPERTY_SCANNER_PREFETCH_DEPTH_DEFAULT = 2;
+
     public ClientConfiguration(Properties properties) {
         this.properties = new Properties();
         this.properties.putAll(properties);
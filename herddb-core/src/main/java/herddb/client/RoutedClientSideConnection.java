@@ -48,6 +48,7 @@ import herddb.utils.RawString;
 import herddb.utils.RecordsBatch;
 import io.netty.buffer.ByteBuf;
 import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -55,6 +56,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -75,6 +78,7 @@ public class RoutedClientSideConnection implements ChannelEventListener {
     private final HDBConnection connection;
     private final String nodeId;
     private final long timeout;
+    private final int scannerPrefetchDepth;
     private final ServerHostData server;
     private final String clientId;
     private final ReentrantReadWriteLock connectionLock = new ReentrantReadWriteLock(true);
@@ -90,6 +94,7 @@ public class RoutedClientSideConnection implements ChannelEventListener {
         this.server = server;
 
         this.timeout = connection.getClient().getConfiguration().getLong(ClientConfiguration.PROPERTY_TIMEOUT, ClientConfiguration.PROPERTY_TIMEOUT_DEFAULT);
+        this.scannerPrefetchDepth = connection.getClient().getConfiguration().getInt(ClientConfiguration.PROPERTY_SCANNER_PREFETCH_DEPTH, ClientConfiguration.PROPERTY_SCANNER_PREFETCH_DEPTH_DEFAULT);
         this.clientId = connection.getClient().getConfiguration().getString(ClientConfiguration.PROPERTY_CLIENTID, ClientConfiguration.PROPERTY_CLIENTID_DEFAULT);
     }
 
@@ -106,9 +111,11 @@ public class RoutedClientSideConnection implements ChannelEventListener {
             firstToken = saslNettyClient.evaluateChallenge(new byte[0]);
         }
 
+        byte resultSetFormat = connection.getClient().getConfiguration().getBoolean(ClientConfiguration.PROPERTY_COLUMNAR_RESULTSETS, ClientConfiguration.PROPERTY_COLUMNAR_RESULTSETS_DEFAULT)
+                ? PduCodec.ResultSetChunk.FORMAT_COLUMNS : PduCodec.ResultSetChunk.FORMAT_ROWS;
         long requestId = channel.generateRequestId();
         Pdu saslResponse = channel.sendMessageWithPduReply(requestId,
-                PduCodec.SaslTokenMessageRequest.write(requestId, SaslUtils.AUTH_DIGEST_MD5, firstToken), timeout);
+                PduCodec.SaslTokenMessageRequest.write(requestId, SaslUtils.AUTH_DIGEST_MD5, firstToken, resultSetFormat), timeout);
         try {
             for (int i = 0; i < 100; i++) {
                 byte[] responseToSendToServer;
@@ -687,9 +694,11 @@ public class RoutedClientSideConnection implements ChannelEventListener {
 
             boolean last = PduCodec.ResultSetChunk.readIsLast(reply);
             long transactionId = PduCodec.ResultSetChunk.readTx(reply);
+            boolean sequencedFetch = PduCodec.ResultSetChunk.readSupportsSequencedFetch(reply);
             RecordsBatch data = PduCodec.ResultSetChunk.startReadingData(reply);
             //LOGGER.log(Level.SEVERE, "received first " + initialFetchBuffer.size() + " records for query " + query);
-            ScanResultSetImpl impl = new ScanResultSetImpl(scannerId, data, fetchSize, last, transactionId, channel);
+            ScanResultSetImpl impl = new ScanResultSetImpl(scannerId, data, fetchSize, last, transactionId, channel,
+                    sequencedFetch);
             return impl;
         } catch (InterruptedException err) {
             if (reply != null) {
@@ -835,9 +844,17 @@ public class RoutedClientSideConnection implements ChannelEventListener {
         // in case of client death
         final Channel channel;
 
+        /**
+         * Fetch requests already sent to the server, in order of sequence
+         */
+        private final ArrayDeque<CompletableFuture<Pdu>> pendingChunks = new ArrayDeque<>();
+        private final boolean sequencedFetch;
+        private final int prefetchDepth;
+        private long nextChunkSequence = 1;
+
         private ScanResultSetImpl(
                 long scannerId, RecordsBatch firstFetchBuffer, int fetchSize, boolean onlyOneChunk, long tx,
-                Channel channel
+                Channel channel, boolean sequencedFetch
         ) {
             super(tx);
             this.channel = channel;
@@ -845,6 +862,17 @@ public class RoutedClientSideConnection implements ChannelEventListener {
             this.metadata = new ScanResultSetMetadata(firstFetchBuffer.columnNames);
             this.fetchSize = fetchSize;
             this.fetchBuffer = firstFetchBuffer;
+            this.sequencedFetch = sequencedFetch;
+            if (tx != 0) {
+                // statements of a transaction must not run concurrently on the server,
+                // no request is sent while the application could execute other statements
+                this.prefetchDepth = 0;
+            } else if (sequencedFetch) {
+                this.prefetchDepth = scannerPrefetchDepth;
+            } else {
+                // without sequence numbers the server could reorder requests, so only one can be in flight
+                this.prefetchDepth = Math.min(scannerPrefetchDepth, 1);
+            }
             if (firstFetchBuffer.isEmpty()) {
                 // empty result set
                 finished = true;
@@ -853,6 +881,8 @@ public class RoutedClientSideConnection implements ChannelEventListener {
             if (onlyOneChunk) {
                 lastChunk = true;
             }
+            // prefetch starts after the application asks for the second chunk,
+            // result sets which fit the first chunk or are read partially cost no requests
         }
 
         @Override
@@ -864,6 +894,7 @@ public class RoutedClientSideConnection implements ChannelEventListener {
         public void close() {
             finished = true;
             releaseBuffer();
+            discardPendingChunks();
 
             if (!noMoreData) {
                 // try to release resources on the server
@@ -886,6 +917,42 @@ public class RoutedClientSideConnection implements ChannelEventListener {
             }
         }
 
+        private void discardPendingChunks() {
+            CompletableFuture<Pdu> pending;
+            while ((pending = pendingChunks.poll()) != null) {
+                pending.whenComplete((pdu, error) -> {
+                    if (pdu != null) {
+                        pdu.close();
+                    }
+                });
+            }
+        }
+
+        /**
+         * Sends fetch requests without waiting for replies
+         *
+         * @param count max number of requests in flight
+         */
+        private void requestChunks(int count) {
+            if (lastChunk || finished) {
+                return;
+            }
+            while (pendingChunks.size() < count) {
+                long requestId = channel.generateRequestId();
+                long sequence = sequencedFetch ? nextChunkSequence++ : -1;
+                ByteBuf message = PduCodec.FetchScannerData.write(requestId, scannerId, fetchSize, sequence);
+                CompletableFuture<Pdu> reply = new CompletableFuture<>();
+                channel.sendRequestWithAsyncReply(requestId, message, timeout, (Pdu pdu, Throwable error) -> {
+                    if (error != null) {
+                        reply.completeExceptionally(error);
+                    } else {
+                        reply.complete(pdu);
+                    }
+                });
+                pendingChunks.add(reply);
+            }
+        }
+
         @Override
         public boolean hasNext() throws HDBException {
             if (finished) {
@@ -903,9 +970,8 @@ public class RoutedClientSideConnection implements ChannelEventListener {
 
             Pdu result = null;
             try {
-                long requestId = channel.generateRequestId();
-                ByteBuf message = PduCodec.FetchScannerData.write(requestId, scannerId, fetchSize);
-                result = channel.sendMessageWithPduReply(requestId, message, timeout);
+                requestChunks(1);
+                result = pendingChunks.poll().get(timeout, TimeUnit.MILLISECONDS);
 
                 //LOGGER.log(Level.SEVERE, "fillBuffer result " + result);
                 if (result.type == Pdu.TYPE_ERROR) {
@@ -924,8 +990,15 @@ public class RoutedClientSideConnection implements ChannelEventListener {
                     }
                 }
                 lastChunk = PduCodec.ResultSetChunk.readIsLast(result);
-                fetchBuffer = PduCodec.ResultSetChunk.startReadingData(result);
+                fetchBuffer = PduCodec.ResultSetChunk.startReadingData(result, metadata.getColumnNames());
 
+                if (lastChunk) {
+                    // requests sent after the last chunk get empty replies
+                    discardPendingChunks();
+                } else {
+                    // keep next chunks coming while the application reads this one
+                    requestChunks(prefetchDepth);
+                }
                 if (!fetchBuffer.hasNext()) {
                     noMoreData = true;
                 }
@@ -935,6 +1008,8 @@ public class RoutedClientSideConnection implements ChannelEventListener {
                 }
                 Thread.currentThread().interrupt();
                 throw new HDBException(err);
+            } catch (ExecutionException err) {
+                throw new HDBException(err.getCause());
             } catch (TimeoutException err) {
                 if (result != null) {
                     result.close();
@@ -112,8 +112,8 @@ public class DataAccessorForFullRecord extends AbstractDataAccessor {
 
     @Override
     public void forEach(BiConsumer<String, Object> consumer) {
-        // best case
-        if (table.physicalLayoutLikeLogicalLayout) {
+        // best case, values in the fixed offset format are accessed directly in the bad case loop
+        if (table.physicalLayoutLikeLogicalLayout && !RecordSerializer.isFixedOffsetValue(record.value)) {
 
             // no need to create a Map
             if (table.primaryKey.length == 1) {
@@ -20,6 +20,7 @@
 
 package herddb.codec;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import herddb.model.Column;
@@ -60,6 +61,29 @@ public final class RecordSerializer {
 
     private static final int INITIAL_BUFFER_SIZE = SystemProperties.getIntSystemProperty("herddb.serializer.initbufsize", 4 * 1024);
 
+    /**
+     * Minimum number of non primary key columns of a table to serialize values using the fixed offset format, zero
+     * (the default) disables the format. Releases which do not know the format cannot read data written with it, so
+     * it must be enabled only when there is no need to downgrade.
+     */
+    private static volatile int fixedOffsetMinColumns = SystemProperties.getIntSystemProperty("herddb.serializer.fixedoffset.mincolumns", 0);
+
+    /*
+     * Fixed offset format of values:
+     * 0x80 0x00 (a non canonical VInt, it cannot be the beginning of a value in the sequential format)
+     * format version (1 byte)
+     * size of each offset, 2 or 4 (1 byte)
+     * number of slots, the max serial position of columns plus one (2 bytes)
+     * bitmap of not null slots (1 bit per slot)
+     * offset of each slot from the beginning of data
+     * data: type and value of each not null column, as in the sequential format
+     */
+    private static final byte FIXED_OFFSET_MAGIC_0 = (byte) 0x80;
+    private static final byte FIXED_OFFSET_MAGIC_1 = 0x00;
+    private static final byte FIXED_OFFSET_VERSION = 1;
+    private static final int FIXED_OFFSET_HEADER_SIZE = 6;
+    private static final int FIXED_OFFSET_MAX_SLOTS = 0xFFFF;
+
     public static Object deserialize(Bytes data, int type) {
         switch (type) {
             case ColumnTypes.BYTEARRAY:
@@ -236,11 +260,25 @@ public final class RecordSerializer {
                 return SQLRecordPredicateFunctions.compare(datum, cvalue);
             }
             case ColumnTypes.INTEGER:
-            case ColumnTypes.NOTNULL_INTEGER:
-                return SQLRecordPredicateFunctions.compare(dii.readInt(), cvalue);
+            case ColumnTypes.NOTNULL_INTEGER: {
+                int v = dii.readInt();
+                if (cvalue instanceof Integer) {
+                    return Integer.compare(v, (int) cvalue);
+                } else if (cvalue instanceof Long) {
+                    return Long.compare(v, (long) cvalue);
+                }
+                return SQLRecordPredicateFunctions.compare(v, cvalue);
+            }
             case ColumnTypes.LONG:
-            case ColumnTypes.NOTNULL_LONG:
-                return SQLRecordPredicateFunctions.compare(dii.readLong(), cvalue);
+            case ColumnTypes.NOTNULL_LONG: {
+                long v = dii.readLong();
+                if (cvalue instanceof Integer) {
+                    return Long.compare(v, (int) cvalue);
+                } else if (cvalue instanceof Long) {
+                    return Long.compare(v, (long) cvalue);
+                }
+                return SQLRecordPredicateFunctions.compare(v, cvalue);
+            }
             case ColumnTypes.STRING:
             case ColumnTypes.NOTNULL_STRING:
                 int len = dii.readArrayLen();
@@ -261,8 +299,13 @@ public final class RecordSerializer {
                 return SQLRecordPredicateFunctions.compareNullTo(cvalue);
             case ColumnTypes.BOOLEAN:
                 return SQLRecordPredicateFunctions.compare(dii.readBoolean(), cvalue);
-            case ColumnTypes.DOUBLE:
-                return SQLRecordPredicateFunctions.compare(dii.readDouble(), cvalue);
+            case ColumnTypes.DOUBLE: {
+                double v = dii.readDouble();
+                if (cvalue instanceof Number) {
+                    return Double.compare(v, ((Number) cvalue).doubleValue());
+                }
+                return SQLRecordPredicateFunctions.compare(v, cvalue);
+            }
             default:
                 throw new IllegalArgumentException("bad column type " + type);
         }
@@ -645,6 +688,9 @@ public final class RecordSerializer {
         if (table.getColumn(property) == null) {
             throw new herddb.utils.IllegalDataAccessException("table " + table.tablespace + "." + table.name + " does not define column " + property);
         }
+        if (isFixedOffsetValue(value)) {
+            return accessFixedOffsetField(value, table.getColumn(property).serialPosition);
+        }
         try (ByteArrayCursor din = value.newCursor()) {
             while (!din.isEof()) {
                 int serialPosition;
@@ -666,6 +712,9 @@ public final class RecordSerializer {
 
     static Object accessRawDataFromValue(int index, Bytes value, Table table) throws IOException {
         Column column = table.getColumn(index);
+        if (isFixedOffsetValue(value)) {
+            return accessFixedOffsetField(value, column.serialPosition);
+        }
         try (ByteArrayCursor din = value.newCursor()) {
             while (!din.isEof()) {
                 int serialPosition;
@@ -687,6 +736,15 @@ public final class RecordSerializer {
 
     static int compareRawDataFromValue(int index, Bytes value, Table table, Object cvalue) throws IOException {
         Column column = table.getColumn(index);
+        if (isFixedOffsetValue(value)) {
+            int position = fixedOffsetFieldPosition(value, column.serialPosition);
+            if (position < 0) {
+                return SQLRecordPredicateFunctions.compareNullTo(cvalue);
+            }
+            try (ByteArrayCursor din = fixedOffsetFieldCursor(value, position)) {
+                return compareDeserializeTypeAndValue(din, cvalue);
+            }
+        }
         try (ByteArrayCursor din = value.newCursor()) {
             while (!din.isEof()) {
                 int serialPosition;
@@ -740,7 +798,7 @@ public final class RecordSerializer {
         }
     }
 
-    static int compareRawDataFromPrimaryKey(int index, Bytes key, Table table, Object cvalue) throws IOException {
+    public static int compareRawDataFromPrimaryKey(int index, Bytes key, Table table, Object cvalue) throws IOException {
         Column column = table.getColumn(index);
         if (table.primaryKey.length == 1) {
             return deserializeCompare(key, column.type, cvalue);
@@ -758,6 +816,172 @@ public final class RecordSerializer {
         }
     }
 
+    /**
+     * Checks if a value is serialized using the fixed offset format, which gives direct access to every column
+     *
+     * @param value a serialized value
+     * @return true for the fixed offset format, false for the sequential one
+     */
+    public static boolean isFixedOffsetValue(Bytes value) {
+        if (value.getLength() < FIXED_OFFSET_HEADER_SIZE) {
+            return false;
+        }
+        final byte[] buffer = value.getBuffer();
+        final int offset = value.getOffset();
+        if (buffer[offset] != FIXED_OFFSET_MAGIC_0 || buffer[offset + 1] != FIXED_OFFSET_MAGIC_1) {
+            return false;
+        }
+        if (buffer[offset + 2] != FIXED_OFFSET_VERSION) {
+            throw new IllegalStateException("unsupported record format version " + buffer[offset + 2]);
+        }
+        return true;
+    }
+
+    /**
+     * Number of slots of a value in the fixed offset format, that is the max serial position of the columns of
+     * the table at serialization time plus one
+     */
+    public static int fixedOffsetSlots(Bytes value) {
+        final byte[] buffer = value.getBuffer();
+        final int offset = value.getOffset();
+        return ((buffer[offset + 4] & 0xFF) << 8) | (buffer[offset + 5] & 0xFF);
+    }
+
+    /**
+     * Position of a field of a value in the fixed offset format
+     *
+     * @param value          a value in the fixed offset format
+     * @param serialPosition serial position of the column
+     * @return the position (inside the buffer of the value) of type and value of the field, -1 if the field is
+     * null
+     */
+    public static int fixedOffsetFieldPosition(Bytes value, int serialPosition) {
+        final byte[] buffer = value.getBuffer();
+        final int offset = value.getOffset();
+        final int slots = ((buffer[offset + 4] & 0xFF) << 8) | (buffer[offset + 5] & 0xFF);
+        if (serialPosition >= slots) {
+            return -1;
+        }
+        final int bitmapStart = offset + FIXED_OFFSET_HEADER_SIZE;
+        if ((buffer[bitmapStart + (serialPosition >> 3)] & (1 << (serialPosition & 7))) == 0) {
+            return -1;
+        }
+        final int offsetSize = buffer[offset + 3];
+        final int offsetsStart = bitmapStart + ((slots + 7) >> 3);
+        final int dataStart = offsetsStart + slots * offsetSize;
+        final int entry = offsetsStart + serialPosition * offsetSize;
+        final int fieldOffset;
+        if (offsetSize == 2) {
+            fieldOffset = ((buffer[entry] & 0xFF) << 8) | (buffer[entry + 1] & 0xFF);
+        } else {
+            fieldOffset = Bytes.toInt(buffer, entry);
+        }
+        return dataStart + fieldOffset;
+    }
+
+    /**
+     * Cursor on type and value of a field of a value in the fixed offset format
+     */
+    public static ByteArrayCursor fixedOffsetFieldCursor(Bytes value, int position) {
+        return ByteArrayCursor.wrap(value.getBuffer(), position, value.getOffset() + value.getLength() - position);
+    }
+
+    private static Object accessFixedOffsetField(Bytes value, int serialPosition) throws IOException {
+        int position = fixedOffsetFieldPosition(value, serialPosition);
+        if (position < 0) {
+            return null;
+        }
+        try (ByteArrayCursor din = fixedOffsetFieldCursor(value, position)) {
+            return deserializeTypeAndValue(din);
+        }
+    }
+
+    private static boolean useFixedOffsetFormat(Table table) {
+        final int minColumns = fixedOffsetMinColumns;
+        return minColumns > 0
+                && table.columns.length - table.primaryKey.length >= minColumns
+                && maxValueSerialPosition(table) < FIXED_OFFSET_MAX_SLOTS;
+    }
+
+    @VisibleForTesting
+    static void setFixedOffsetMinColumns(int minColumns) {
+        fixedOffsetMinColumns = minColumns;
+    }
+
+    private static int maxValueSerialPosition(Table table) {
+        int max = -1;
+        for (Column c : table.columns) {
+            if (!table.isPrimaryKeyColumn(c.name)) {
+                max = Math.max(max, c.serialPosition);
+            }
+        }
+        return max;
+    }
+
+    private static byte[] serializeFixedOffsetValue(Table table, Function<Column, Object> values, int expectedSize) {
+        final int slots = maxValueSerialPosition(table) + 1;
+        final int[] offsets = new int[slots];
+        final byte[] bitmap = new byte[(slots + 7) >> 3];
+        ByteArrayOutputStream data = new ByteArrayOutputStream(expectedSize <= 0 ? INITIAL_BUFFER_SIZE : expectedSize);
+        try (ExtendedDataOutputStream doo = new ExtendedDataOutputStream(data)) {
+            for (Column c : table.columns) {
+                if (!table.isPrimaryKeyColumn(c.name)) {
+                    Object v = values.apply(c);
+                    if (v != null) {
+                        offsets[c.serialPosition] = doo.size();
+                        bitmap[c.serialPosition >> 3] |= (byte) (1 << (c.serialPosition & 7));
+                        serializeTypeAndValue(v, c.type, doo);
+                    }
+                }
+            }
+        } catch (IOException err) {
+            throw new RuntimeException(err);
+        }
+        final int dataSize = data.size();
+        final int offsetSize = dataSize <= 0xFFFF ? 2 : 4;
+        final int dataStart = FIXED_OFFSET_HEADER_SIZE + bitmap.length + slots * offsetSize;
+        final byte[] result = new byte[dataStart + dataSize];
+        result[0] = FIXED_OFFSET_MAGIC_0;
+        result[1] = FIXED_OFFSET_MAGIC_1;
+        result[2] = FIXED_OFFSET_VERSION;
+        result[3] = (byte) offsetSize;
+        result[4] = (byte) (slots >>> 8);
+        result[5] = (byte) slots;
+        System.arraycopy(bitmap, 0, result, FIXED_OFFSET_HEADER_SIZE, bitmap.length);
+        int entry = FIXED_OFFSET_HEADER_SIZE + bitmap.length;
+        for (int i = 0; i < slots; i++) {
+            if (offsetSize == 2) {
+                result[entry++] = (byte) (offsets[i] >>> 8);
+                result[entry++] = (byte) offsets[i];
+            } else {
+                Bytes.putInt(result, entry, offsets[i]);
+                entry += 4;
+            }
+        }
+        System.arraycopy(data.toByteArray(), 0, result, dataStart, dataSize);
+        return result;
+    }
+
+    /**
+     * Rewrites the value of a record using the format preferred for the table.
+     * <p>
+     * When the fixed offset format is enabled values of tables with many columns are rewritten from the sequential
+     * format to the fixed offset one, other values are kept as they are. Data of columns dropped from the table is discarded during the rewrite.
+     * </p>
+     *
+     * @param record a record
+     * @param table  the table
+     * @return a record with the same key and the same logical content, it could be the given one
+     */
+    public static Record upgradeRecordFormat(Record record, Table table) {
+        if (record.value == null || isFixedOffsetValue(record.value) || !useFixedOffsetFormat(table)) {
+            return record;
+        }
+        final Map<String, Object> bean = toBean(record, table);
+        return new Record(record.key, Bytes.from_array(serializeFixedOffsetValue(table, c -> bean.get(c.name),
+                record.value.getLength())));
+    }
+
     private RecordSerializer() {
     }
 
@@ -927,6 +1151,9 @@ public final class RecordSerializer {
     }
 
     public static byte[] serializeValueRaw(Map<String, Object> record, Table table, int expectedSize) {
+        if (useFixedOffsetFormat(table)) {
+            return serializeFixedOffsetValue(table, c -> record.get(c.name), expectedSize);
+        }
         ByteArrayOutputStream value = new ByteArrayOutputStream(expectedSize <= 0 ? INITIAL_BUFFER_SIZE : expectedSize);
         try (ExtendedDataOutputStream doo = new ExtendedDataOutputStream(value)) {
             for (Column c : table.columns) {
@@ -947,6 +1174,9 @@ public final class RecordSerializer {
             int expectedSize, Table table,
             Function<String, Object> evaluator
     ) {
+        if (useFixedOffsetFormat(table)) {
+            return serializeFixedOffsetValue(table, c -> evaluator.apply(c.name), expectedSize);
+        }
         ByteArrayOutputStream value = new ByteArrayOutputStream(expectedSize <= 0 ? INITIAL_BUFFER_SIZE : expectedSize);
         try (ExtendedDataOutputStream doo = new ExtendedDataOutputStream(value)) {
             for (Column c : table.columns) {
@@ -987,7 +1217,18 @@ public final class RecordSerializer {
                 deserializeMultiColumnPrimaryKey(record.key, table, res);
             }
 
-            if (record.value != null && record.value.getLength() > 0) {
+            if (record.value != null && isFixedOffsetValue(record.value)) {
+                final int slots = fixedOffsetSlots(record.value);
+                for (int serialPosition = 0; serialPosition < slots; serialPosition++) {
+                    Column col = table.getColumnBySerialPosition(serialPosition);
+                    if (col != null) {
+                        Object v = accessFixedOffsetField(record.value, serialPosition);
+                        if (v != null) {
+                            res.put(col.name, v);
+                        }
+                    }
+                }
+            } else if (record.value != null && record.value.getLength() > 0) {
                 try (ByteArrayCursor din = record.value.newCursor()) {
                     while (true) {
                         int serialPosition;
@@ -20,21 +20,27 @@
 
 package herddb.core;
 
+import herddb.codec.RecordSerializer;
 import herddb.index.IndexOperation;
 import herddb.index.KeyToPageIndex;
 import herddb.log.CommitLog;
 import herddb.log.LogSequenceNumber;
 import herddb.model.Index;
+import herddb.model.Record;
 import herddb.model.StatementEvaluationContext;
 import herddb.model.StatementExecutionException;
+import herddb.model.Table;
 import herddb.model.TableContext;
 import herddb.model.Transaction;
 import herddb.storage.DataStorageManager;
 import herddb.storage.DataStorageManagerException;
 import herddb.utils.Bytes;
+import herddb.utils.DataAccessor;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
 /**
@@ -54,6 +60,17 @@ public abstract class AbstractIndexManager implements AutoCloseable {
      */
     protected long createdInTransaction;
 
+    /**
+     * Primary keys changed by DML while the index is built online, {@code null} if the index is not being built
+     */
+    private volatile Set<Bytes> changedDuringBuild;
+
+    /**
+     * Set once the index has been dropped (by itself or with its table), an online build stops as soon as it sees
+     * it
+     */
+    private volatile boolean dropped;
+
     public AbstractIndexManager(Index index, AbstractTableManager tableManager, DataStorageManager dataStorageManager, String tableSpaceUUID, CommitLog log, long createdInTransaction) {
         this.index = index;
         this.createdInTransaction = createdInTransaction;
@@ -158,7 +175,59 @@ public abstract class AbstractIndexManager implements AutoCloseable {
      * @throws StatementExecutionException
      */
     public Stream<Map.Entry<Bytes, Long>> recordSetScanner(IndexOperation operation, StatementEvaluationContext context, TableContext tableContext, KeyToPageIndex keyToPageIndex) throws DataStorageManagerException, StatementExecutionException {
-        return scanner(operation, context, tableContext).map((b) -> {
+        return mapToPages(scanner(operation, context, tableContext), keyToPageIndex);
+    }
+
+    /**
+     * Checks if this index can return records sorted by the given columns (see
+     * {@link #sortedRecordSetScanner(IndexOperation, boolean, StatementEvaluationContext, TableContext, KeyToPageIndex)})
+     *
+     * @param operation index operation to perform, {@code null} means a scan of the whole index
+     * @param columns   columns of the table
+     * @return {@code true} if records will be returned sorted by the given columns
+     */
+    public boolean isSortedBy(IndexOperation operation, String[] columns) {
+        return false;
+    }
+
+    /**
+     * Same as
+     * {@link #recordSetScanner(IndexOperation, StatementEvaluationContext, TableContext, KeyToPageIndex)} but records
+     * are returned sorted by index columns, this is supported only if {@link #isSortedBy(IndexOperation, String[])}
+     *
+     * @param operation  index operation to perform, {@code null} means a scan of the whole index
+     * @param descending {@code true} to return records in descending order
+     */
+    public Stream<Map.Entry<Bytes, Long>> sortedRecordSetScanner(IndexOperation operation, boolean descending, StatementEvaluationContext context, TableContext tableContext, KeyToPageIndex keyToPageIndex) throws DataStorageManagerException, StatementExecutionException {
+        throw new UnsupportedOperationException("index " + index.name + " of type " + index.type + " does not support sorted scans");
+    }
+
+    /**
+     * Checks if the given columns can be read from the entries of this index (see
+     * {@link #coveringRecordSetScanner(IndexOperation, boolean, StatementEvaluationContext, TableContext)})
+     *
+     * @param columns columns of the table
+     * @return {@code true} if every column is stored in index entries
+     */
+    public boolean isCovering(String[] columns) {
+        return false;
+    }
+
+    /**
+     * Returns records built from index entries only, without accessing table data. Records contain only the columns
+     * stored in the index, this is supported only if {@link #isCovering(String[])} for the columns to be read.
+     * Records are returned in the same order of
+     * {@link #sortedRecordSetScanner(IndexOperation, boolean, StatementEvaluationContext, TableContext, KeyToPageIndex)}
+     *
+     * @param operation  index operation to perform, {@code null} means a scan of the whole index
+     * @param descending {@code true} to return records in descending order
+     */
+    public Stream<Record> coveringRecordSetScanner(IndexOperation operation, boolean descending, StatementEvaluationContext context, TableContext tableContext) throws DataStorageManagerException, StatementExecutionException {
+        throw new UnsupportedOperationException("index " + index.name + " of type " + index.type + " does not support index only scans");
+    }
+
+    protected static Stream<Map.Entry<Bytes, Long>> mapToPages(Stream<Bytes> keys, KeyToPageIndex keyToPageIndex) {
+        return keys.map((b) -> {
             Long idPage = keyToPageIndex.get(b);
             if (idPage == null) {
                 return null;
@@ -167,6 +236,17 @@ public abstract class AbstractIndexManager implements AutoCloseable {
         }).filter(p -> p != null);
     }
 
+    /**
+     * Serializes the index key of a record, as passed to {@link #recordInserted(Bytes, Bytes)},
+     * {@link #recordUpdated(Bytes, Bytes, Bytes)} and {@link #recordDeleted(Bytes, Bytes)}
+     *
+     * @param values record data
+     * @return the index key
+     */
+    public Bytes serializeIndexKey(DataAccessor values) {
+        return RecordSerializer.serializePrimaryKey(values, index, index.columnNames);
+    }
+
     public abstract void recordUpdated(Bytes key, Bytes indexKeyRemoved, Bytes indexKeyAdded) throws DataStorageManagerException;
 
     public abstract void recordInserted(Bytes key, Bytes indexKey) throws DataStorageManagerException;
@@ -192,7 +272,72 @@ public abstract class AbstractIndexManager implements AutoCloseable {
     }
 
     public final boolean isAvailable() {
-        return createdInTransaction == 0;
+        return createdInTransaction == 0 && changedDuringBuild == null;
+    }
+
+    /**
+     * Starts an online build of an empty index. From now on primary keys changed by DML are tracked and the index
+     * will not be available to scans until {@link #finishOnlineBuild()}.
+     */
+    final void startOnlineBuild() {
+        changedDuringBuild = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Fills the index with current table records while DML keeps running. Records changed by DML after
+     * {@link #startOnlineBuild()} have been indexed by DML itself and they are skipped. Every record is read under
+     * its row lock so DML on the same record cannot interleave. The build fails if the index is dropped.
+     *
+     * @throws DataStorageManagerException
+     */
+    final void buildOnline() throws DataStorageManagerException {
+        final Set<Bytes> changed = changedDuringBuild;
+        if (changed == null) {
+            throw new IllegalStateException("index " + index.name + " is not being built");
+        }
+        final Table table = tableManager.getTable();
+        tableManager.scanForOnlineIndexBuild(r -> {
+            if (dropped) {
+                throw new DataStorageManagerException("index " + index.name + " has been dropped during online build");
+            }
+            DataAccessor values = r.getDataAccessor(table);
+            Bytes key = RecordSerializer.serializePrimaryKey(values, table, table.primaryKey);
+            if (!changed.contains(key)) {
+                recordInserted(key, serializeIndexKey(values));
+            }
+        });
+    }
+
+    /**
+     * Makes the index available to scans
+     */
+    final void finishOnlineBuild() {
+        changedDuringBuild = null;
+    }
+
+    public final boolean isBuilding() {
+        return changedDuringBuild != null;
+    }
+
+    /**
+     * Marks the index as dropped, data rebuilt at boot is dropped too but it doesn't mark the index
+     */
+    final void markDropped() {
+        dropped = true;
+    }
+
+    public final boolean isDropped() {
+        return dropped;
+    }
+
+    /**
+     * Tracks a primary key changed by DML, must be invoked while holding the row lock
+     */
+    final void recordChanged(Bytes key) {
+        final Set<Bytes> changed = changedDuringBuild;
+        if (changed != null) {
+            changed.add(key.nonShared());
+        }
     }
 
     /**
@@ -99,6 +99,32 @@ public interface AbstractTableManager extends AutoCloseable {
      */
     TableCheckpoint fullCheckpoint(boolean pin) throws DataStorageManagerException;
 
+    /**
+     * Perform a faster checkpoint, holding the given barrier while capturing the checkpoint log position and the
+     * pages to flush. Implementations not able to split the capture from the flush hold it for the whole
+     * checkpoint.
+     */
+    default TableCheckpoint checkpoint(boolean pin, CheckpointBarrier barrier) throws DataStorageManagerException {
+        barrier.enter();
+        try {
+            return checkpoint(pin);
+        } finally {
+            barrier.exit();
+        }
+    }
+
+    /**
+     * Performs a full deep checkpoint, holding the given barrier like {@link #checkpoint(boolean, CheckpointBarrier)}
+     */
+    default TableCheckpoint fullCheckpoint(boolean pin, CheckpointBarrier barrier) throws DataStorageManagerException {
+        barrier.enter();
+        try {
+            return fullCheckpoint(pin);
+        } finally {
+            barrier.exit();
+        }
+    }
+
     /**
      * Unpin a previously pinned checkpont (see {@link #checkpoint(boolean)})
      *
@@ -145,6 +171,28 @@ public interface AbstractTableManager extends AutoCloseable {
 
     void scanForIndexRebuild(Consumer<Record> records) throws DataStorageManagerException;
 
+    /**
+     * Scans the table to fill an index built online, while DML and checkpoints keep running on the table
+     */
+    default void scanForOnlineIndexBuild(Consumer<Record> records) throws DataStorageManagerException {
+        scanForIndexRebuild(records);
+    }
+
+    /**
+     * Keeps changes from being applied to the table while a checkpoint captures its log position
+     */
+    interface CheckpointBarrier {
+
+        void enter() throws DataStorageManagerException;
+
+        void exit();
+
+        /**
+         * Accounts the time writes to the table were still blocked by its checkpoint after the barrier exit
+         */
+        void writesBlocked(long nanos);
+    }
+
     final class TableCheckpoint {
 
         final String tableName;
@@ -57,6 +57,7 @@ import herddb.model.commands.AlterTableSpaceStatement;
 import herddb.model.commands.CreateTableSpaceStatement;
 import herddb.model.commands.DropTableSpaceStatement;
 import herddb.model.commands.GetStatement;
+import herddb.model.commands.InsertBatchStatement;
 import herddb.model.commands.ScanStatement;
 import herddb.network.Channel;
 import herddb.network.ServerHostData;
@@ -89,6 +90,8 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
@@ -143,6 +146,22 @@ public class DBManager implements AutoCloseable, MetadataChangeListener {
     private long maxLogicalPageSize = ServerConfiguration.PROPERTY_MAX_LOGICAL_PAGE_SIZE_DEFAULT;
     private long maxDataUsedMemory = ServerConfiguration.PROPERTY_MAX_DATA_MEMORY_DEFAULT;
     private long maxPKUsedMemory = ServerConfiguration.PROPERTY_MAX_PK_MEMORY_DEFAULT;
+    private long maxPKCacheUsedMemory = ServerConfiguration.PROPERTY_MAX_PK_CACHE_MEMORY_DEFAULT;
+    private boolean offHeapDataPages = ServerConfiguration.PROPERTY_MEMORY_DATA_OFFHEAP_DEFAULT;
+    private boolean fuzzyCheckpoint = ServerConfiguration.PROPERTY_CHECKPOINT_FUZZY_DEFAULT;
+
+    private final ForkJoinPool parallelScanPool;
+    private final int maxScanParallelismPerStatement;
+    private final int minPagesForParallelScan;
+    private final int maxAggregateGroupsInMemory;
+    private final int maxJoinBuildRowsInMemory;
+    private final boolean expressionsCodeGeneration;
+    private final int batchInsertMaxRows;
+    private final boolean scannerPrefetch;
+    private final ExecutorService scannerPrefetchExecutor;
+    private final int scannerMaxChunksAhead;
+    private final ExecutorService onlineIndexBuildExecutor = Executors.newCachedThreadPool(ONLINE_INDEX_BUILD_THREAD_FACTORY);
+    private final Set<String> zoneMapsColumns;
 
     private boolean clearAtBoot = false;
     private boolean haltOnTableSpaceBootError = ServerConfiguration.PROPERTY_HALT_ON_TABLESPACE_BOOT_ERROR_DEAULT;
@@ -158,6 +177,32 @@ public class DBManager implements AutoCloseable, MetadataChangeListener {
             return new FastThreadLocalThread(r, "db-dmlcall-" + count.incrementAndGet());
         }
     };
+    private static final ThreadFactory SCANNER_PREFETCH_THREAD_FACTORY = new ThreadFactory() {
+        private final AtomicLong count = new AtomicLong();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new FastThreadLocalThread(r, "db-scanner-prefetch-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    };
+    private static final ThreadFactory ONLINE_INDEX_BUILD_THREAD_FACTORY = new ThreadFactory() {
+        private final AtomicLong count = new AtomicLong();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new FastThreadLocalThread(r, "db-index-build-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    };
+    private static final ForkJoinPool.ForkJoinWorkerThreadFactory PARALLEL_SCAN_THREAD_FACTORY = (ForkJoinPool pool) -> {
+        ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        t.setName("db-scan-" + t.getPoolIndex());
+        t.setDaemon(true);
+        return t;
+    };
     private final ExecutorService followersThreadPool = Executors.newCachedThreadPool((Runnable r) -> {
         Thread t = new FastThreadLocalThread(r, r + "");
         t.setDaemon(true);
@@ -239,6 +284,68 @@ public class DBManager implements AutoCloseable, MetadataChangeListener {
                 ServerConfiguration.PROPERTY_MAX_PK_MEMORY,
                 ServerConfiguration.PROPERTY_MAX_PK_MEMORY_DEFAULT);
 
+        this.maxPKCacheUsedMemory = configuration.getLong(
+                ServerConfiguration.PROPERTY_MAX_PK_CACHE_MEMORY,
+                ServerConfiguration.PROPERTY_MAX_PK_CACHE_MEMORY_DEFAULT);
+
+        this.offHeapDataPages = configuration.getBoolean(
+                ServerConfiguration.PROPERTY_MEMORY_DATA_OFFHEAP,
+                ServerConfiguration.PROPERTY_MEMORY_DATA_OFFHEAP_DEFAULT);
+
+        this.fuzzyCheckpoint = configuration.getBoolean(
+                ServerConfiguration.PROPERTY_CHECKPOINT_FUZZY,
+                ServerConfiguration.PROPERTY_CHECKPOINT_FUZZY_DEFAULT);
+
+        int scanParallelism = configuration.getInt(
+                ServerConfiguration.PROPERTY_SCAN_PARALLELISM,
+                ServerConfiguration.PROPERTY_SCAN_PARALLELISM_DEFAULT);
+        if (scanParallelism > 0) {
+            this.parallelScanPool = new ForkJoinPool(scanParallelism, PARALLEL_SCAN_THREAD_FACTORY, null, false);
+        } else {
+            this.parallelScanPool = null;
+        }
+        this.maxScanParallelismPerStatement = configuration.getInt(
+                ServerConfiguration.PROPERTY_SCAN_PARALLELISM_MAX_PER_STATEMENT,
+                ServerConfiguration.PROPERTY_SCAN_PARALLELISM_MAX_PER_STATEMENT_DEFAULT);
+        this.minPagesForParallelScan = configuration.getInt(
+                ServerConfiguration.PROPERTY_SCAN_PARALLELISM_MIN_PAGES,
+                ServerConfiguration.PROPERTY_SCAN_PARALLELISM_MIN_PAGES_DEFAULT);
+        this.maxAggregateGroupsInMemory = configuration.getInt(
+                ServerConfiguration.PROPERTY_AGGREGATE_MAX_GROUPS_IN_MEMORY,
+                ServerConfiguration.PROPERTY_AGGREGATE_MAX_GROUPS_IN_MEMORY_DEFAULT);
+        this.maxJoinBuildRowsInMemory = configuration.getInt(
+                ServerConfiguration.PROPERTY_JOIN_MAX_BUILD_ROWS_IN_MEMORY,
+                ServerConfiguration.PROPERTY_JOIN_MAX_BUILD_ROWS_IN_MEMORY_DEFAULT);
+        this.expressionsCodeGeneration = configuration.getBoolean(
+                ServerConfiguration.PROPERTY_PLANNER_EXPRESSIONS_CODEGEN,
+                ServerConfiguration.PROPERTY_PLANNER_EXPRESSIONS_CODEGEN_DEFAULT);
+        this.batchInsertMaxRows = configuration.getInt(
+                ServerConfiguration.PROPERTY_BATCH_INSERT_MAX_ROWS,
+                ServerConfiguration.PROPERTY_BATCH_INSERT_MAX_ROWS_DEFAULT);
+        int scannerPrefetchThreads = configuration.getInt(
+                ServerConfiguration.PROPERTY_SCANNER_PREFETCH_THREADS,
+                ServerConfiguration.PROPERTY_SCANNER_PREFETCH_THREADS_DEFAULT);
+        this.scannerPrefetch = scannerPrefetchThreads > 0 && configuration.getBoolean(
+                ServerConfiguration.PROPERTY_SCANNER_PREFETCH,
+                ServerConfiguration.PROPERTY_SCANNER_PREFETCH_DEFAULT);
+        if (scannerPrefetch) {
+            this.scannerPrefetchExecutor = Executors.newFixedThreadPool(scannerPrefetchThreads, SCANNER_PREFETCH_THREAD_FACTORY);
+        } else {
+            this.scannerPrefetchExecutor = null;
+        }
+        this.scannerMaxChunksAhead = configuration.getInt(
+                ServerConfiguration.PROPERTY_SCANNER_MAX_CHUNKS_AHEAD,
+                ServerConfiguration.PROPERTY_SCANNER_MAX_CHUNKS_AHEAD_DEFAULT);
+        this.zoneMapsColumns = new HashSet<>();
+        for (String column : configuration.getString(
+                ServerConfiguration.PROPERTY_TABLE_ZONE_MAPS_COLUMNS,
+                ServerConfiguration.PROPERTY_TABLE_ZONE_MAPS_COLUMNS_DEFAULT).split(",")) {
+            column = column.trim().toLowerCase();
+            if (!column.isEmpty()) {
+                zoneMapsColumns.add(column);
+            }
+        }
+
     }
 
     public boolean isHaltOnTableSpaceBootError() {
@@ -341,6 +448,102 @@ public class DBManager implements AutoCloseable, MetadataChangeListener {
         this.maxPKUsedMemory = maxPKUsedMemory;
     }
 
+    public long getMaxPKCacheUsedMemory() {
+        return maxPKCacheUsedMemory;
+    }
+
+    public void setMaxPKCacheUsedMemory(long maxPKCacheUsedMemory) {
+        this.maxPKCacheUsedMemory = maxPKCacheUsedMemory;
+    }
+
+    public boolean isOffHeapDataPages() {
+        return offHeapDataPages;
+    }
+
+    public void setOffHeapDataPages(boolean offHeapDataPages) {
+        this.offHeapDataPages = offHeapDataPages;
+    }
+
+    public boolean isFuzzyCheckpoint() {
+        return fuzzyCheckpoint;
+    }
+
+    public void setFuzzyCheckpoint(boolean fuzzyCheckpoint) {
+        this.fuzzyCheckpoint = fuzzyCheckpoint;
+    }
+
+    /**
+     * Pool used to scan tables and to aggregate rows in parallel
+     *
+     * @return the pool or {@code null} if parallel execution is disabled
+     */
+    public ForkJoinPool getParallelScanPool() {
+        return parallelScanPool;
+    }
+
+    public int getMaxScanParallelismPerStatement() {
+        return maxScanParallelismPerStatement;
+    }
+
+    public int getMinPagesForParallelScan() {
+        return minPagesForParallelScan;
+    }
+
+    public int getMaxAggregateGroupsInMemory() {
+        return maxAggregateGroupsInMemory;
+    }
+
+    public int getMaxJoinBuildRowsInMemory() {
+        return maxJoinBuildRowsInMemory;
+    }
+
+    public boolean isExpressionsCodeGeneration() {
+        return expressionsCodeGeneration;
+    }
+
+    public int getBatchInsertMaxRows() {
+        return batchInsertMaxRows;
+    }
+
+    public boolean isScannerPrefetch() {
+        return scannerPrefetch;
+    }
+
+    public int getScannerMaxChunksAhead() {
+        return scannerMaxChunksAhead;
+    }
+
+    /**
+     * Executor filling indexes created online, each build takes a thread for the whole scan of its table.
+     */
+    public ExecutorService getOnlineIndexBuildExecutor() {
+        return onlineIndexBuildExecutor;
+    }
+
+    /**
+     * Executor producing chunks of scans in background. Producing a chunk blocks on the scan, so it must not
+     * run on the {@link #getCallbacksExecutor() callbacks executor}, which completes writes to the log.
+     *
+     * @return the executor or {@code null} if prefetch is disabled
+     */
+    public ExecutorService getScannerPrefetchExecutor() {
+        return scannerPrefetchExecutor;
+    }
+
+    /**
+     * @return true if stored pages of the table have to keep a summary of the values of the column
+     * @see ServerConfiguration#PROPERTY_TABLE_ZONE_MAPS_COLUMNS
+     */
+    public boolean isZoneMapColumn(String tableName, String columnName) {
+        if (zoneMapsColumns.isEmpty()) {
+            return false;
+        }
+        String column = columnName.toLowerCase();
+        return zoneMapsColumns.contains("*")
+                || zoneMapsColumns.contains(column)
+                || zoneMapsColumns.contains(tableName.toLowerCase() + "." + column);
+    }
+
     private final DBManagerStatsMXBean stats = new DBManagerStatsMXBean() {
 
         @Override
@@ -358,6 +561,12 @@ public class DBManager implements AutoCloseable, MetadataChangeListener {
             return planner.getCacheMisses();
         }
 
+        @Override
+        public long getOffHeapDataUsedMemory() {
+            MemoryManager current = memoryManager;
+            return current != null ? current.getOffHeapDataUsedMemory() : 0;
+        }
+
     };
 
     /**
@@ -403,7 +612,13 @@ public class DBManager implements AutoCloseable, MetadataChangeListener {
             maxPKUsedMemory = pk;
         }
 
-        memoryManager = new MemoryManager(maxDataUsedMemory, maxPKUsedMemory, maxLogicalPageSize);
+        /* Lookaside cache memory is taken from index memory, leave at least half of it to index pages */
+        if (maxPKCacheUsedMemory > maxPKUsedMemory / 2) {
+            maxPKCacheUsedMemory = maxPKUsedMemory / 2;
+        }
+
+        memoryManager = new MemoryManager(maxDataUsedMemory, maxPKUsedMemory, maxLogicalPageSize, offHeapDataPages,
+                maxPKCacheUsedMemory);
 
         metadataStorageManager.start();
 
@@ -612,6 +827,13 @@ public class DBManager implements AutoCloseable, MetadataChangeListener {
         context.setDefaultTablespace(statement.getTableSpace());
         context.setManager(this);
         context.setTransactionContext(transactionContext);
+        if (statement instanceof InsertBatchStatement) {
+            for (StatementEvaluationContext recordContext : ((InsertBatchStatement) statement).getContexts()) {
+                recordContext.setDefaultTablespace(statement.getTableSpace());
+                recordContext.setManager(this);
+                recordContext.setTransactionContext(transactionContext);
+            }
+        }
 //        LOGGER.log(Level.SEVERE, "executeStatement {0}", new Object[]{statement});
         String tableSpace = statement.getTableSpace();
         if (tableSpace == null) {
@@ -816,6 +1038,13 @@ public class DBManager implements AutoCloseable, MetadataChangeListener {
             JMXUtils.unregisterDBManagerStatsMXBean();
         }
         callbacksExecutor.shutdown();
+        if (scannerPrefetchExecutor != null) {
+            scannerPrefetchExecutor.shutdown();
+        }
+        onlineIndexBuildExecutor.shutdown();
+        if (parallelScanPool != null) {
+            parallelScanPool.shutdown();
+        }
     }
 
     public void checkpoint() throws DataStorageManagerException, LogNotAvailableException {
@@ -21,6 +21,7 @@
 package herddb.core;
 
 import herddb.model.Record;
+import herddb.storage.MappedPageRecords;
 import herddb.utils.Bytes;
 import java.util.Collection;
 import java.util.Map;
@@ -55,6 +56,10 @@ public final class DataPage extends Page<TableManager> {
         return record.getEstimatedSize() + DataPage.CONSTANT_ENTRY_BYTE_SIZE;
     }
 
+    public static long estimateEntrySize(int keyLength, int valueLength) {
+        return Record.estimateSize(keyLength, valueLength) + DataPage.CONSTANT_ENTRY_BYTE_SIZE;
+    }
+
     public final long maxSize;
     public final boolean immutable;
 
@@ -111,6 +116,37 @@ public final class DataPage extends Page<TableManager> {
 
     }
 
+    /**
+     * Convert a {@link DataPage} to immutable, eventually moving its data off-heap.
+     *
+     * @param offHeap pack page data into an off-heap slab
+     * @return immutable data page version
+     * @see #toImmutable()
+     */
+    DataPage toImmutable(boolean offHeap) {
+
+        if (!offHeap) {
+            return toImmutable();
+        }
+
+        if (immutable) {
+            throw new IllegalStateException("page " + pageId + " already is immutable!");
+        }
+
+        if (writable) {
+            throw new IllegalStateException("page " + pageId + " cannot be converted to immutable because still writable!");
+        }
+
+        final SlabRecordsMap slab = SlabRecordsMap.build(data.values());
+        if (slab == null) {
+            /* Doesn't fit a single slab, keep it on heap */
+            return toImmutable();
+        }
+
+        /* Charge the page with real slab bytes instead of per record estimates */
+        return new DataPage(owner, pageId, maxSize, slab.getSlabSize(), slab, true);
+    }
+
     Record remove(Bytes key) {
         if (immutable) {
             throw new IllegalStateException("page " + pageId + " is immutable!");
@@ -193,6 +229,24 @@ public final class DataPage extends Page<TableManager> {
         return usedMemory.get();
     }
 
+    /**
+     * Returns the real amount of off-heap memory retained by page data.
+     *
+     * @return off-heap bytes, 0 for heap backed pages
+     */
+    long getOffHeapUsedMemory() {
+        return data instanceof SlabRecordsMap ? ((SlabRecordsMap) data).getSlabSize() : 0L;
+    }
+
+    /**
+     * Notify that the page has been dropped from page knowledge.
+     *
+     * @return off-heap bytes no more accounted to this page, 0 for heap backed pages or if already released
+     */
+    long releaseOffHeapMemory() {
+        return data instanceof SlabRecordsMap ? ((SlabRecordsMap) data).release() : 0L;
+    }
+
     /**
      * Companion method of {@link #putNoMemoryHandle(Record)} and {@link #removeNoMemoryHandle(Record)}
      * to handle memory counts externally.
@@ -248,6 +302,10 @@ public final class DataPage extends Page<TableManager> {
     }
 
     void flushRecordsCache() {
+        if (data instanceof SlabRecordsMap || data instanceof MappedPageRecords) {
+            /* Off-heap records are materialized on every access, there is no cache to flush */
+            return;
+        }
         data.values().forEach(r -> r.clearCache());
     }
 
@@ -20,8 +20,10 @@
 
 package herddb.core;
 
+import herddb.index.blink.KeyToPageLookasideCache;
 import herddb.utils.SystemProperties;
 import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -41,33 +43,75 @@ public class MemoryManager {
     private final long maxPKUsedMemory;
     private final long maxLogicalPageSize;
 
+    /**
+     * Keep loaded immutable data pages into off-heap slabs
+     */
+    private final boolean offHeapDataPages;
+
+    /**
+     * Real amount of off-heap memory retained by loaded data pages
+     */
+    private final LongAdder offHeapDataUsedMemory = new LongAdder();
+
     private final PageReplacementPolicy dataPageReplacementPolicy;
     private final PageReplacementPolicy pkPageReplacementPolicy;
 
+    /**
+     * Cache of hot primary key mappings, its memory is taken from primary key index memory (could be
+     * {@code null} if disabled)
+     */
+    private final KeyToPageLookasideCache pkLookasideCache;
+
     public MemoryManager(long maxDataUsedMemory, long maxPKUsedMemory, long maxLogicalPageSize) {
+        this(maxDataUsedMemory, maxPKUsedMemory, maxLogicalPageSize, false);
+    }
+
+    public MemoryManager(long maxDataUsedMemory, long maxPKUsedMemory, long maxLogicalPageSize, boolean offHeapDataPages) {
+        this(maxDataUsedMemory, maxPKUsedMemory, maxLogicalPageSize, offHeapDataPages, 0L);
+    }
+
+    public MemoryManager(long maxDataUsedMemory, long maxPKUsedMemory, long maxLogicalPageSize, boolean offHeapDataPages,
+                         long maxPKCacheUsedMemory) {
 
         this.maxDataUsedMemory = maxDataUsedMemory;
         this.maxPKUsedMemory = maxPKUsedMemory;
         this.maxLogicalPageSize = maxLogicalPageSize;
+        this.offHeapDataPages = offHeapDataPages;
 
         if (maxDataUsedMemory < maxLogicalPageSize) {
             throw new IllegalArgumentException("Max memory for data pages (" + maxDataUsedMemory
                     + ") must be greater or equal than page size (" + maxLogicalPageSize + ")");
         }
 
-        if (maxPKUsedMemory < maxLogicalPageSize) {
+        if (maxPKCacheUsedMemory < 0) {
+            throw new IllegalArgumentException("Max memory for primary key lookaside cache (" + maxPKCacheUsedMemory
+                    + ") must not be negative");
+        }
+
+        if (maxPKUsedMemory - maxPKCacheUsedMemory < maxLogicalPageSize) {
             throw new IllegalArgumentException("Max memory for primary key index pages (" + maxPKUsedMemory
+                    + ", " + maxPKCacheUsedMemory + " of which for lookaside cache"
                     + ") must be greater or equal than page size (" + maxLogicalPageSize + ")");
         }
 
         final int dataPages = (int) (maxDataUsedMemory / maxLogicalPageSize);
-        final int pkPages = (int) (maxPKUsedMemory / maxLogicalPageSize);
+        final int pkPages = (int) ((maxPKUsedMemory - maxPKCacheUsedMemory) / maxLogicalPageSize);
 
         LOGGER.log(Level.INFO, "Maximum amount of memory for data and indexes {0}", (maxDataUsedMemory / (1024 * 1024)) + " MB");
         LOGGER.log(Level.INFO, "Maximum amount of memory for primary key indexes {0}", (maxPKUsedMemory / (1024 * 1024)) + " MB");
 
         LOGGER.log(Level.INFO, "Maximum number of loaded pages for data {0}"
                 + ", maximum number of loadedd pages for primary key indexes {1}", new Object[]{dataPages, pkPages});
+        if (offHeapDataPages) {
+            LOGGER.log(Level.INFO, "Loaded data pages will be kept off-heap");
+        }
+        if (maxPKCacheUsedMemory > 0) {
+            LOGGER.log(Level.INFO, "Maximum amount of primary key indexes memory for lookaside cache {0}",
+                    (maxPKCacheUsedMemory / (1024 * 1024)) + " MB");
+            pkLookasideCache = new KeyToPageLookasideCache(maxPKCacheUsedMemory);
+        } else {
+            pkLookasideCache = null;
+        }
         switch (PAGE_REPLACEMENT_POLICY) {
             case "random":
                 dataPageReplacementPolicy = new RandomPageReplacementPolicy(dataPages);
@@ -99,6 +143,27 @@ public class MemoryManager {
         return maxLogicalPageSize;
     }
 
+    public boolean isOffHeapDataPages() {
+        return offHeapDataPages;
+    }
+
+    /**
+     * Returns the real amount of off-heap memory currently retained by loaded data pages.
+     *
+     * @return used off-heap memory in bytes
+     */
+    public long getOffHeapDataUsedMemory() {
+        return offHeapDataUsedMemory.sum();
+    }
+
+    void offHeapDataMemoryAllocated(long bytes) {
+        offHeapDataUsedMemory.add(bytes);
+    }
+
+    void offHeapDataMemoryReleased(long bytes) {
+        offHeapDataUsedMemory.add(-bytes);
+    }
+
     public PageReplacementPolicy getDataPageReplacementPolicy() {
         return dataPageReplacementPolicy;
     }
@@ -107,4 +172,13 @@ public class MemoryManager {
         return pkPageReplacementPolicy;
     }
 
+    /**
+     * Returns the cache of primary key mappings shared by primary key indexes.
+     *
+     * @return the cache or {@code null} if not enabled
+     */
+    public KeyToPageLookasideCache getPKLookasideCache() {
+        return pkLookasideCache;
+    }
+
 }
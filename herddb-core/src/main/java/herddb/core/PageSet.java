@@ -21,6 +21,7 @@
 package herddb.core;
 
 import herddb.model.Record;
+import herddb.storage.ColumnZoneMap;
 import herddb.utils.ExtendedDataInputStream;
 import herddb.utils.ExtendedDataOutputStream;
 import java.io.IOException;
@@ -44,7 +45,7 @@ public final class PageSet {
     private static final Logger LOGGER = Logger.getLogger(PageSet.class.getName());
 
     /**
-     * Active stored pages (active/size,average-record-size,dirt,hasDeletions)
+     * Active stored pages (active/size,average-record-size,dirt,hasDeletions,zone-maps)
      */
     private final ConcurrentMap<Long, DataPageMetaData> activePages = new ConcurrentHashMap<>();
 
@@ -54,19 +55,35 @@ public final class PageSet {
         final long avgRecordSize;
         final LongAdder dirt;
 
+        /**
+         * Summaries of the values of some columns, records in stored pages never change so they are valid for the
+         * whole life of the page
+         */
+        volatile ColumnZoneMap[] zoneMaps;
+
         public DataPageMetaData(DataPage page) {
             super();
             this.size = page.getUsedMemory();
             this.avgRecordSize = size / page.size();
             this.dirt = new LongAdder();
+            this.zoneMaps = ColumnZoneMap.NONE;
         }
 
-        private DataPageMetaData(long size, long avgRecordSize, long dirt) {
+        private DataPageMetaData(long size, long avgRecordSize, long dirt, ColumnZoneMap[] zoneMaps) {
             super();
             this.size = size;
             this.avgRecordSize = avgRecordSize;
             this.dirt = new LongAdder();
             this.dirt.add(dirt);
+            this.zoneMaps = zoneMaps;
+        }
+
+        public ColumnZoneMap[] getZoneMaps() {
+            return zoneMaps;
+        }
+
+        public boolean hasZoneMaps() {
+            return zoneMaps.length > 0;
         }
 
         public void serialize(ExtendedDataOutputStream output) throws IOException {
@@ -75,8 +92,32 @@ public final class PageSet {
             output.writeVLong(dirt.sum());
         }
 
+        public void serializeZoneMaps(ExtendedDataOutputStream output) throws IOException {
+            output.writeVInt(zoneMaps.length);
+            for (ColumnZoneMap zoneMap : zoneMaps) {
+                zoneMap.serialize(output);
+            }
+        }
+
         public static DataPageMetaData deserialize(ExtendedDataInputStream input) throws IOException {
-            return new DataPageMetaData(input.readVLong(), input.readVLong(), input.readVLong());
+            return deserialize(input, false);
+        }
+
+        public static DataPageMetaData deserialize(ExtendedDataInputStream input, boolean withZoneMaps) throws IOException {
+            long size = input.readVLong();
+            long avgRecordSize = input.readVLong();
+            long dirt = input.readVLong();
+            ColumnZoneMap[] zoneMaps = ColumnZoneMap.NONE;
+            if (withZoneMaps) {
+                int count = input.readVInt();
+                if (count > 0) {
+                    zoneMaps = new ColumnZoneMap[count];
+                    for (int i = 0; i < count; i++) {
+                        zoneMaps[i] = ColumnZoneMap.deserialize(input);
+                    }
+                }
+            }
+            return new DataPageMetaData(size, avgRecordSize, dirt, zoneMaps);
         }
 
         @Override
@@ -98,6 +139,28 @@ public final class PageSet {
         return new HashMap<>(activePages);
     }
 
+    /**
+     * @return summaries of the values in a stored page, or null if the page is unknown or it has no summaries
+     */
+    ColumnZoneMap[] getZoneMaps(Long pageId) {
+        final DataPageMetaData metadata = activePages.get(pageId);
+        if (metadata == null) {
+            return null;
+        }
+        final ColumnZoneMap[] zoneMaps = metadata.zoneMaps;
+        return zoneMaps.length > 0 ? zoneMaps : null;
+    }
+
+    /**
+     * Sets the summaries of the values of a stored page, they must cover every record of the page
+     */
+    void setZoneMaps(Long pageId, ColumnZoneMap[] zoneMaps) {
+        final DataPageMetaData metadata = activePages.get(pageId);
+        if (metadata != null) {
+            metadata.zoneMaps = zoneMaps;
+        }
+    }
+
     int getActivePagesCount() {
         return activePages.size();
     }
@@ -0,0 +1,299 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.core;
+
+import herddb.model.Record;
+import herddb.utils.Bytes;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Read only records map for immutable {@link DataPage DataPages} packing every key and value into a
+ * single direct memory slab.
+ * <p>
+ * The slab is made of a data region followed by an open addressing offset table:
+ * </p>
+ *
+ * <pre>
+ * data region:  [int key length][int value length][key bytes][value bytes] ...
+ * offset table: [int key hash][int entry offset + 1] ... (0 marks an empty slot)
+ * </pre>
+ * <p>
+ * Only the slab itself and this small wrapper live on heap, records are materialized on access.
+ * </p>
+ */
+final class SlabRecordsMap extends AbstractMap<Bytes, Record> {
+
+    /**
+     * Key length plus value length
+     */
+    private static final int ENTRY_HEADER_SIZE = 8;
+
+    /**
+     * Key hash plus entry offset
+     */
+    private static final int SLOT_SIZE = 8;
+
+    private final ByteBuffer slab;
+    private final int size;
+    private final int dataSize;
+    private final int mask;
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Set<Map.Entry<Bytes, Record>> entrySet;
+
+    private SlabRecordsMap(ByteBuffer slab, int size, int dataSize, int mask) {
+        this.slab = slab;
+        this.size = size;
+        this.dataSize = dataSize;
+        this.mask = mask;
+    }
+
+    /**
+     * Pack given records into a new slab.
+     *
+     * @param records records to pack, keys must be unique
+     * @return a new slab backed map or {@code null} if records cannot fit in a single slab
+     */
+    static SlabRecordsMap build(Collection<Record> records) {
+
+        final int size = records.size();
+
+        long dataSize = 0;
+        for (Record record : records) {
+            dataSize += ENTRY_HEADER_SIZE + record.key.getLength() + record.value.getLength();
+        }
+
+        /* Keep load factor at most 0.5 to have short probe sequences */
+        final int slots = tableSizeFor(Math.max(2, size * 2));
+        final long totalSize = dataSize + (long) slots * SLOT_SIZE;
+
+        if (totalSize > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        final ByteBuffer slab = ByteBuffer.allocateDirect((int) totalSize);
+        final int mask = slots - 1;
+        final int tableOffset = (int) dataSize;
+
+        for (Record record : records) {
+            final int entryOffset = slab.position();
+            final Bytes key = record.key;
+            final Bytes value = record.value;
+
+            slab.putInt(key.getLength());
+            slab.putInt(value.getLength());
+            slab.put(key.getBuffer(), key.getOffset(), key.getLength());
+            slab.put(value.getBuffer(), value.getOffset(), value.getLength());
+
+            final int hash = key.hashCode();
+            int slot = spread(hash) & mask;
+            while (slab.getInt(tableOffset + slot * SLOT_SIZE + 4) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slab.putInt(tableOffset + slot * SLOT_SIZE, hash);
+            slab.putInt(tableOffset + slot * SLOT_SIZE + 4, entryOffset + 1);
+        }
+
+        return new SlabRecordsMap(slab, size, tableOffset, mask);
+    }
+
+    /**
+     * Returns the real amount of direct memory retained by this map.
+     *
+     * @return slab size in bytes
+     */
+    long getSlabSize() {
+        return slab.capacity();
+    }
+
+    /**
+     * Mark the slab as no more referenced from page knowledge. The direct memory is reclaimed when the
+     * map become unreachable (concurrent readers could still access it).
+     *
+     * @return released bytes, 0 if already released
+     */
+    long release() {
+        return released.compareAndSet(false, true) ? slab.capacity() : 0L;
+    }
+
+    @Override
+    public Record get(Object key) {
+        if (!(key instanceof Bytes)) {
+            return null;
+        }
+        final Bytes bytes = (Bytes) key;
+        final int entryOffset = lookup(bytes);
+        if (entryOffset < 0) {
+            return null;
+        }
+        return readRecord(entryOffset, bytes.isShared() ? null : bytes);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Bytes && lookup((Bytes) key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Set<Map.Entry<Bytes, Record>> entrySet() {
+        Set<Map.Entry<Bytes, Record>> es = entrySet;
+        if (es == null) {
+            es = new AbstractSet<Map.Entry<Bytes, Record>>() {
+
+                @Override
+                public Iterator<Map.Entry<Bytes, Record>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+            entrySet = es;
+        }
+        return es;
+    }
+
+    private int lookup(Bytes key) {
+        final int hash = key.hashCode();
+        final int tableOffset = dataSize;
+        int slot = spread(hash) & mask;
+        while (true) {
+            final int slotOffset = tableOffset + slot * SLOT_SIZE;
+            final int entryOffset = slab.getInt(slotOffset + 4) - 1;
+            if (entryOffset < 0) {
+                return -1;
+            }
+            if (slab.getInt(slotOffset) == hash && keyEquals(entryOffset, key)) {
+                return entryOffset;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean keyEquals(int entryOffset, Bytes key) {
+        final int length = key.getLength();
+        if (slab.getInt(entryOffset) != length) {
+            return false;
+        }
+        final byte[] buffer = key.getBuffer();
+        final int offset = key.getOffset();
+        final int start = entryOffset + ENTRY_HEADER_SIZE;
+
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            if (slab.getLong(start + i) != Bytes.toLong(buffer, offset + i)) {
+                return false;
+            }
+        }
+        for (; i < length; i++) {
+            if (slab.get(start + i) != buffer[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Materialize a record on heap.
+     *
+     * @param entryOffset entry offset
+     * @param knownKey    an unshared key equal to the stored one, it will be used instead of copying the
+     *                    stored key (could be {@code null})
+     * @return a new record
+     */
+    private Record readRecord(int entryOffset, Bytes knownKey) {
+        final int keyLength = slab.getInt(entryOffset);
+        final int valueLength = slab.getInt(entryOffset + 4);
+        final int keyStart = entryOffset + ENTRY_HEADER_SIZE;
+
+        final ByteBuffer reader = slab.duplicate();
+
+        final Bytes key;
+        if (knownKey != null) {
+            key = knownKey;
+        } else {
+            byte[] keyData = new byte[keyLength];
+            reader.position(keyStart);
+            reader.get(keyData);
+            key = Bytes.from_array(keyData);
+        }
+
+        byte[] valueData = new byte[valueLength];
+        reader.position(keyStart + keyLength);
+        reader.get(valueData);
+
+        return new Record(key, Bytes.from_array(valueData));
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int n = Integer.highestOneBit(capacity - 1) << 1;
+        return n < 2 ? 2 : n;
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<Bytes, Record>> {
+
+        private int position;
+
+        @Override
+        public boolean hasNext() {
+            return position < dataSize;
+        }
+
+        @Override
+        public Map.Entry<Bytes, Record> next() {
+            if (position >= dataSize) {
+                throw new NoSuchElementException();
+            }
+            final int entryOffset = position;
+            position += ENTRY_HEADER_SIZE + slab.getInt(entryOffset) + slab.getInt(entryOffset + 4);
+
+            final Record record = readRecord(entryOffset, null);
+            return new AbstractMap.SimpleImmutableEntry<>(record.key, record);
+        }
+
+    }
+
+}
@@ -58,15 +58,18 @@ import herddb.model.Transaction;
 import herddb.model.TupleComparator;
 import herddb.model.commands.DeleteStatement;
 import herddb.model.commands.GetStatement;
+import herddb.model.commands.InsertBatchStatement;
 import herddb.model.commands.InsertStatement;
 import herddb.model.commands.ScanStatement;
 import herddb.model.commands.TruncateTableStatement;
 import herddb.model.commands.UpdateStatement;
 import herddb.server.ServerConfiguration;
+import herddb.storage.ColumnZoneMap;
 import herddb.storage.DataPageDoesNotExistException;
 import herddb.storage.DataStorageManager;
 import herddb.storage.DataStorageManagerException;
 import herddb.storage.FullTableScanConsumer;
+import herddb.storage.MappedPageRecords;
 import herddb.storage.TableStatus;
 import herddb.utils.BatchOrderedExecutor;
 import herddb.utils.BooleanHolder;
@@ -78,9 +81,11 @@ import herddb.utils.ILocalLockManager;
 import herddb.utils.LegacyLocalLockManager;
 import herddb.utils.LocalLockManager;
 import herddb.utils.LockHandle;
+import herddb.utils.StripedLocalLockManager;
 import herddb.utils.SystemProperties;
 import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -90,10 +95,15 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
@@ -109,6 +119,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.apache.bookkeeper.common.concurrent.FutureUtils;
 import org.apache.bookkeeper.stats.Counter;
 import org.apache.bookkeeper.stats.StatsLogger;
@@ -141,9 +152,20 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
     private static final boolean ENABLE_STREAMING_DATA_SCANNER = SystemProperties.
             getBooleanSystemProperty("herddb.tablemanager.enableStreamingDataScanner", true);
 
+    private static final int PARALLEL_SCAN_WINDOW_SIZE = SystemProperties.
+            getIntSystemProperty("herddb.tablemanager.parallelScanWindowSize", 20_000);
+
     private static final boolean USE_LEGACY_LOCK_MANAGER = SystemProperties
             .getBooleanSystemProperty("herddb.tablemanager.legacylocks", false);
 
+    /**
+     * Max size of a single log entry written for a batch of inserts, bigger batches are split on many entries.
+     * Each entry is durable on its own: a split batch executed outside of a transaction could be partially
+     * recovered after a crash.
+     */
+    private static final int INSERT_BATCH_MAX_LOG_ENTRY_SIZE = SystemProperties
+            .getIntSystemProperty("herddb.tablemanager.insertbatch.maxlogentrysize", 1024 * 1024);
+
     /**
      * Ignores insert/update/delete failures due to missing transactions during recovery. The operation in
      * recovery will be ignored.
@@ -179,11 +201,20 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
      * Counts how many pages had been loaded
      */
     private final LongAdder unloadedPagesCount = new LongAdder();
+
+    /**
+     * Counts how many scans had been executed in parallel
+     */
+    private final LongAdder parallelScansCount = new LongAdder();
+
+    /**
+     * Counts how many stored pages had been skipped by scans thanks to their zone maps
+     */
+    private final LongAdder prunedPagesCount = new LongAdder();
     /**
      * Local locks
      */
-    private final ILocalLockManager locksManager =
-            USE_LEGACY_LOCK_MANAGER ? new LegacyLocalLockManager() : new LocalLockManager();
+    private final ILocalLockManager locksManager;
 
     /**
      * Set to {@code true} when this {@link TableManager} is fully started
@@ -192,6 +223,11 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
 
     private volatile boolean checkPointRunning = false;
 
+    /**
+     * Set once table data has been dropped, guarded by {@link #checkpointLock}
+     */
+    private boolean dropped = false;
+
     /**
      * Allow checkpoint
      */
@@ -219,6 +255,13 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
 
     private final PageReplacementPolicy pageReplacementPolicy;
 
+    private final MemoryManager memoryManager;
+
+    /**
+     * Keep immutable loaded pages in off-heap slabs
+     */
+    private final boolean offHeapDataPages;
+
     /**
      * Max logical size of a page (raw key size + raw value size)
      */
@@ -357,8 +400,11 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
         this.tableSpaceUUID = tableSpaceUUID;
         this.tableContext = buildTableContext();
         this.maxLogicalPageSize = memoryManager.getMaxLogicalPageSize();
-        this.keyToPage = dataStorageManager.createKeyToPageMap(tableSpaceUUID, table.uuid, memoryManager);
+        this.keyToPage = createKeyToPageMap(tableSpaceManager.getDbmanager().getServerConfiguration(),
+                tableSpaceManager.getTableSpaceName(), memoryManager);
 
+        this.memoryManager = memoryManager;
+        this.offHeapDataPages = memoryManager.isOffHeapDataPages();
         this.pageReplacementPolicy = memoryManager.getDataPageReplacementPolicy();
         this.pages = new ConcurrentHashMap<>();
         this.newPages = new ConcurrentHashMap<>();
@@ -377,6 +423,8 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
 
         this.checkpointTargetTime = checkpointTargetTime < 0 ? Long.MAX_VALUE : checkpointTargetTime;
 
+        this.locksManager = createLockManager(tableSpaceManager.getDbmanager().getServerConfiguration());
+
         long cleanupTargetTime = tableSpaceManager.getDbmanager().getServerConfiguration().getLong(
                 ServerConfiguration.PROPERTY_CLEANUP_DURATION,
                 ServerConfiguration.PROPERTY_CLEANUP_DURATION_DEFAULT);
@@ -551,6 +599,9 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
         } else if (statement instanceof InsertStatement) {
             InsertStatement insert = (InsertStatement) statement;
             res = executeInsertAsync(insert, transaction, context);
+        } else if (statement instanceof InsertBatchStatement) {
+            InsertBatchStatement batch = (InsertBatchStatement) statement;
+            res = executeInsertBatchAsync(batch, transaction);
         } else if (statement instanceof GetStatement) {
             GetStatement get = (GetStatement) statement;
             res = executeGetAsync(get, transaction, context);
@@ -714,6 +765,7 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
         pages.computeIfPresent(pageId, (k, remove) -> {
 
                     unloadedPagesCount.increment();
+                    releasePageMemory(remove);
                     if (LOGGER.isLoggable(Level.FINER)) {
                         LOGGER.log(Level.FINER, "table {0} removed page {1}, {2}", new Object[]{table.name, pageId, remove.getUsedMemory() / (1024 * 1024) + " MB"});
                     }
@@ -773,7 +825,7 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
                  * For similar reason we replace the page only if there actually is a page in the first place. If
                  * a concurrent thread flushed and removed the page we don't want to add it again.
                  */
-                pages.computeIfPresent(page.pageId, (i, p) -> p.toImmutable());
+                pages.computeIfPresent(page.pageId, (i, p) -> toImmutablePage(p));
                 return;
 
             case ALREADY_FLUSHED:
@@ -920,6 +972,9 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
             spareDataPage.setUsedMemory(buildingPageMemory - spareUsedMemory);
         }
 
+        /* Zone maps must cover spare data too, until they are set the page is never skipped */
+        pageSet.setZoneMaps(page.pageId, computeZoneMaps(page));
+
         LOGGER.log(Level.FINER, "flushNewPage table {0}, pageId={1} with {2} records, {3} logical page size",
                 new Object[]{table.name, page.pageId, page.size(), page.getUsedMemory()});
         dataStorageManager.writePage(tableSpaceUUID, table.uuid, page.pageId, page.getRecordsForFlush());
@@ -927,6 +982,56 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
         return FlushNewPageResult.FLUSHED;
     }
 
+    /**
+     * Summarizes the values of the columns configured with
+     * {@link ServerConfiguration#PROPERTY_TABLE_ZONE_MAPS_COLUMNS} in a page which will not change anymore
+     */
+    private ColumnZoneMap[] computeZoneMaps(DataPage page) {
+        final Table table = this.table;
+        final DBManager dbmanager = tableSpaceManager.getDbmanager();
+        List<Integer> columns = null;
+        for (int i = 0; i < table.columns.length; i++) {
+            Column column = table.columns[i];
+            switch (column.type) {
+                case ColumnTypes.INTEGER:
+                case ColumnTypes.NOTNULL_INTEGER:
+                case ColumnTypes.LONG:
+                case ColumnTypes.NOTNULL_LONG:
+                case ColumnTypes.TIMESTAMP:
+                    if (!table.isPrimaryKeyColumn(i) && dbmanager.isZoneMapColumn(table.name, column.name)) {
+                        if (columns == null) {
+                            columns = new ArrayList<>();
+                        }
+                        columns.add(i);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (columns == null) {
+            return ColumnZoneMap.NONE;
+        }
+        ColumnZoneMap.Builder[] builders = new ColumnZoneMap.Builder[columns.size()];
+        for (int i = 0; i < builders.length; i++) {
+            builders[i] = new ColumnZoneMap.Builder(table.columns[columns.get(i)].serialPosition);
+        }
+        for (Record record : page.getRecordsForFlush()) {
+            DataAccessor values = RecordSerializer.buildRawDataAccessor(record, table);
+            for (int i = 0; i < builders.length; i++) {
+                builders[i].add(values.get(columns.get(i)));
+            }
+        }
+        List<ColumnZoneMap> zoneMaps = new ArrayList<>(builders.length);
+        for (ColumnZoneMap.Builder builder : builders) {
+            ColumnZoneMap zoneMap = builder.build();
+            if (zoneMap != null) {
+                zoneMaps.add(zoneMap);
+            }
+        }
+        return zoneMaps.toArray(ColumnZoneMap.NONE);
+    }
+
     /**
      * Write a <i>mutable</i> but not <i>new</i> page.
      * <p>
@@ -984,10 +1089,11 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
 
             /* Set the page as a fully active page */
             pageSet.pageCreated(page.pageId, page);
+            pageSet.setZoneMaps(page.pageId, computeZoneMaps(page));
 
             if (keepPageInMemory) {
                 /* If we must keep the page in memory we "covert" the page to immutable */
-                pages.put(page.pageId, page.toImmutable());
+                pages.put(page.pageId, toImmutablePage(page));
 
                 /*
                  * And we load to page replacement policy. This is a critic point: after adding page to page
@@ -1015,6 +1121,43 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
 
     }
 
+    private KeyToPageIndex createKeyToPageMap(ServerConfiguration configuration, String tableSpaceName,
+                                              MemoryManager memoryManager) throws DataStorageManagerException {
+        String type = configuration.getString(ServerConfiguration.PROPERTY_TABLE_PK_INDEX,
+                ServerConfiguration.PROPERTY_TABLE_PK_INDEX_DEFAULT);
+        type = configuration.getString(ServerConfiguration.PROPERTY_TABLE_PK_INDEX + "." + tableSpaceName + "." + table.name, type);
+        switch (type) {
+            case ServerConfiguration.TABLE_PK_INDEX_DEFAULT:
+                return dataStorageManager.createKeyToPageMap(tableSpaceUUID, table.uuid, memoryManager);
+            case ServerConfiguration.TABLE_PK_INDEX_OFFHEAP:
+                return dataStorageManager.createOffHeapKeyToPageMap(tableSpaceUUID, table.uuid, memoryManager);
+            default:
+                throw new DataStorageManagerException("unsupported primary key index " + type + " for table " + table.name);
+        }
+    }
+
+    private static ILocalLockManager createLockManager(ServerConfiguration configuration) {
+        String type = configuration.getString(ServerConfiguration.PROPERTY_TABLE_LOCK_MANAGER,
+                USE_LEGACY_LOCK_MANAGER ? ServerConfiguration.TABLE_LOCK_MANAGER_LEGACY
+                        : ServerConfiguration.PROPERTY_TABLE_LOCK_MANAGER_DEFAULT);
+        switch (type) {
+            case ServerConfiguration.TABLE_LOCK_MANAGER_DEFAULT:
+                return new LocalLockManager();
+            case ServerConfiguration.TABLE_LOCK_MANAGER_LEGACY:
+                return new LegacyLocalLockManager();
+            case ServerConfiguration.TABLE_LOCK_MANAGER_STRIPED:
+                return new StripedLocalLockManager(configuration.getInt(
+                        ServerConfiguration.PROPERTY_TABLE_LOCK_MANAGER_STRIPES,
+                        ServerConfiguration.PROPERTY_TABLE_LOCK_MANAGER_STRIPES_DEFAULT));
+            default:
+                throw new IllegalArgumentException("unsupported lock manager " + type);
+        }
+    }
+
+    ILocalLockManager getLocksManager() {
+        return locksManager;
+    }
+
     private LockHandle lockForWrite(Bytes key, Transaction transaction) {
 //        LOGGER.log(Level.SEVERE, "lockForWrite for " + key + " tx " + transaction);
         if (transaction != null) {
@@ -1027,12 +1170,12 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
                     // transaction already locked the key, but we need to upgrade the lock
                     locksManager.releaseLock(lock);
                     transaction.unregisterUpgradedLocksOnTable(table.name, lock);
-                    lock = locksManager.acquireWriteLockForKey(key);
+                    lock = locksManager.acquireWriteLockForKey(key, transaction);
                     transaction.registerLockOnTable(this.table.name, lock);
                     return lock;
                 }
             } else {
-                lock = locksManager.acquireWriteLockForKey(key);
+                lock = locksManager.acquireWriteLockForKey(key, transaction);
                 transaction.registerLockOnTable(this.table.name, lock);
                 return lock;
             }
@@ -1048,7 +1191,7 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
                 // transaction already locked the key
                 return lock;
             } else {
-                lock = locksManager.acquireReadLockForKey(key);
+                lock = locksManager.acquireReadLockForKey(key, transaction);
                 transaction.registerLockOnTable(this.table.name, lock);
                 return lock;
             }
@@ -1120,6 +1263,129 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
         return res;
     }
 
+    private CompletableFuture<StatementExecutionResult> executeInsertBatchAsync(InsertBatchStatement batch, Transaction transaction) {
+        /*
+         all the records are computed and validated before writing anything,
+         keys are locked in order to prevent deadlocks with other batches
+         and records are written to the log with a few INSERT_BATCH entries,
+         the batch fails as a whole if any of the records cannot be inserted.
+         Without a transaction only the log entries are atomic, a crash could
+         leave just the first entries of a split batch
+         */
+        InsertStatement insert = batch.getInsert();
+        List<StatementEvaluationContext> contexts = batch.getContexts();
+        Map<String, AbstractIndexManager> indexes = tableSpaceManager.getIndexesOnTable(table.name);
+        List<Record> records = new ArrayList<>(contexts.size());
+        Set<Bytes> keys = new HashSet<>();
+        try {
+            for (StatementEvaluationContext context : contexts) {
+                Bytes key = Bytes.from_array(insert.getKeyFunction().computeNewValue(null, context, tableContext));
+                byte[] value = insert.getValuesFunction().computeNewValue(new Record(key, null), context, tableContext);
+                if (indexes != null) {
+                    try {
+                        DataAccessor values = new Record(key, Bytes.from_array(value)).getDataAccessor(table);
+                        for (AbstractIndexManager index : indexes.values()) {
+                            RecordSerializer.validatePrimaryKey(values, index.getIndex(), index.getColumnNames());
+                        }
+                    } catch (IllegalArgumentException err) {
+                        return FutureUtils.exception(new StatementExecutionException(err.getMessage(), err));
+                    }
+                }
+                final long size = DataPage.estimateEntrySize(key, value);
+                if (size > maxLogicalPageSize) {
+                    return FutureUtils
+                            .exception(new RecordTooBigException("New record " + key + " is to big to be inserted: size " + size + ", max size " + maxLogicalPageSize));
+                }
+                if (!keys.add(key)) {
+                    return FutureUtils.exception(new DuplicatePrimaryKeyException(key, "key " + key + ", decoded as " + RecordSerializer.deserializePrimaryKey(key, table) + ", is inserted twice in the same batch in table " + table.name));
+                }
+                records.add(new Record(key, Bytes.from_array(value)));
+            }
+        } catch (StatementExecutionException validationError) {
+            return FutureUtils.exception(validationError);
+        }
+
+        List<Bytes> sortedKeys = new ArrayList<>(keys);
+        Collections.sort(sortedKeys);
+        List<LockHandle> locks = new ArrayList<>(sortedKeys.size());
+        /*
+         without a transaction the locks are held by the batch itself, lock managers
+         mapping many keys to the same lock grant them as reentrant acquisitions
+         */
+        final Object batchOwner = transaction == null ? new Object() : null;
+        CompletableFuture<StatementExecutionResult> res = null;
+        try {
+            for (Bytes key : sortedKeys) {
+                locks.add(transaction != null
+                        ? lockForWrite(key, transaction)
+                        : locksManager.acquireWriteLockForKey(key, batchOwner));
+            }
+            res = writeInsertBatch(records, transaction);
+        } catch (RuntimeException err) {
+            /* Locks already acquired must be released too (transaction locks are released by the transaction) */
+            res = FutureUtils.exception(err);
+        }
+        if (transaction == null) {
+            for (LockHandle lock : locks) {
+                res = releaseWriteLock(res, lock);
+            }
+        }
+        return res;
+    }
+
+    private CompletableFuture<StatementExecutionResult> writeInsertBatch(List<Record> records, Transaction transaction) {
+        CompletableFuture<StatementExecutionResult> res = null;
+        for (Record record : records) {
+            Bytes key = record.key;
+            if (transaction != null) {
+                if (transaction.recordDeleted(table.name, key)) {
+                    // OK, INSERT on a DELETED record inside this transaction
+                } else if (transaction.recordInserted(table.name, key) != null) {
+                    res = FutureUtils.exception(new DuplicatePrimaryKeyException(key, "key " + key + ", decoded as " + RecordSerializer.deserializePrimaryKey(key, table) + ", already exists in table " + table.name + " inside transaction " + transaction.transactionId));
+                } else if (keyToPage.containsKey(key)) {
+                    res = FutureUtils.exception(new DuplicatePrimaryKeyException(key, "key " + key + ", decoded as " + RecordSerializer.deserializePrimaryKey(key, table) + ", already exists in table " + table.name + " during transaction " + transaction.transactionId));
+                }
+            } else if (keyToPage.containsKey(key)) {
+                res = FutureUtils.exception(new DuplicatePrimaryKeyException(key, "key " + key + ", decoded as " + RecordSerializer.deserializePrimaryKey(key, table) + ", already exists in table " + table.name));
+            }
+            if (res != null) {
+                break;
+            }
+        }
+        if (res == null) {
+            List<LogEntry> entries = new ArrayList<>();
+            int start = 0;
+            long entrySize = 0;
+            for (int i = 0; i < records.size(); i++) {
+                Record record = records.get(i);
+                long size = record.key.getLength() + record.value.getLength();
+                if (i > start && entrySize + size > INSERT_BATCH_MAX_LOG_ENTRY_SIZE) {
+                    entries.add(LogEntryFactory.insertBatch(table, records.subList(start, i), transaction));
+                    start = i;
+                    entrySize = 0;
+                }
+                entrySize += size;
+            }
+            entries.add(LogEntryFactory.insertBatch(table, records.subList(start, records.size()), transaction));
+
+            List<CommitLogResult> positions = new ArrayList<>(entries.size());
+            CompletableFuture<?>[] written = new CompletableFuture<?>[entries.size()];
+            for (int i = 0; i < written.length; i++) {
+                LogEntry entry = entries.get(i);
+                CommitLogResult pos = log.log(entry, entry.transactionId <= 0);
+                positions.add(pos);
+                written[i] = pos.logSequenceNumber;
+            }
+            res = CompletableFuture.allOf(written).thenApplyAsync((v) -> {
+                for (int i = 0; i < written.length; i++) {
+                    apply(positions.get(i), entries.get(i), false);
+                }
+                return new DMLStatementExecutionResult(entries.get(0).transactionId, records.size());
+            }, tableSpaceManager.getCallbacksExecutor());
+        }
+        return res;
+    }
+
     private CompletableFuture<StatementExecutionResult> releaseWriteLock(
             CompletableFuture<StatementExecutionResult> promise, LockHandle lock
     ) {
@@ -1398,6 +1664,7 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
 
         pageSet.truncate();
 
+        pages.values().forEach(this::releasePageMemory);
         pages.clear();
         newPages.clear();
 
@@ -1451,6 +1718,16 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
             }
         }
 
+        Map<Bytes, Record> changedRecords = transaction.changedRecords.get(table.name);
+        // transaction is still holding locks on each record, so we can change records
+        Map<Bytes, Record> newRecords = transaction.newRecords.get(table.name);
+        Set<Bytes> deletedRecords = transaction.deletedRecords.get(table.name);
+        if (changedRecords == null && newRecords == null && deletedRecords == null && !forceFlushTableData) {
+            /* Nothing to apply, do not wait for a running checkpoint of this table */
+            transaction.releaseLocksOnTable(table.name, locksManager);
+            return;
+        }
+
         boolean lockAcquired;
         try {
             lockAcquired = checkpointLock.asReadLock().tryLock(CHECKPOINT_LOCK_READ_TIMEOUT, SECONDS);
@@ -1461,9 +1738,6 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
             throw new DataStorageManagerException("timed out while acquiring checkpoint lock during a commit");
         }
         try {
-            Map<Bytes, Record> changedRecords = transaction.changedRecords.get(table.name);
-            // transaction is still holding locks on each record, so we can change records
-            Map<Bytes, Record> newRecords = transaction.newRecords.get(table.name);
             if (newRecords != null) {
                 for (Record record : newRecords.values()) {
                     applyInsert(record.key, record.value, true);
@@ -1474,7 +1748,6 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
                     applyUpdate(r.key, r.value);
                 }
             }
-            Set<Bytes> deletedRecords = transaction.deletedRecords.get(table.name);
             if (deletedRecords != null) {
                 for (Bytes key : deletedRecords) {
                     applyDelete(key);
@@ -1600,6 +1873,30 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
                 }
                 break;
             }
+            case LogEntryType.INSERT_BATCH: {
+                Record[] records = entry.getBatchRecords();
+                if (entry.transactionId > 0) {
+                    Transaction transaction = tableSpaceManager.getTransaction(entry.transactionId);
+                    if (transaction == null) {
+                        /* Ignore missing transaction only if during recovery and ignore property is active */
+                        if (recovery && ignoreMissingTransactionsOnRecovery) {
+                            LOGGER.log(Level.WARNING, "Ignoring insert of {0} records due to missing transaction {1}",
+                                    new Object[]{records.length, entry.transactionId});
+                        } else {
+                            throw new DataStorageManagerException("no such transaction " + entry.transactionId);
+                        }
+                    } else {
+                        for (Record record : records) {
+                            transaction.registerInsertOnTable(table.name, record.key, record.value, writeResult);
+                        }
+                    }
+                } else {
+                    for (Record record : records) {
+                        applyInsert(record.key, record.value, false);
+                    }
+                }
+                break;
+            }
             case LogEntryType.TRUNCATE_TABLE: {
                 applyTruncate();
             }
@@ -1686,8 +1983,9 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
             /* If there are indexes e have already forced a page load and previous record has been loaded */
             DataAccessor values = previous.getDataAccessor(table);
             for (AbstractIndexManager index : indexes.values()) {
-                Bytes indexKey = RecordSerializer.serializePrimaryKey(values, index.getIndex(), index.getColumnNames());
+                Bytes indexKey = index.serializeIndexKey(values);
                 index.recordDeleted(key, indexKey);
+                index.recordChanged(key);
             }
         }
     }
@@ -1821,26 +2119,33 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
             DataAccessor prevValues = previous.getDataAccessor(table);
             DataAccessor newValues = record.getDataAccessor(table);
             for (AbstractIndexManager index : indexes.values()) {
-                Index indexDef = index.getIndex();
-                String[] indexColumnNames = index.getColumnNames();
-                Bytes indexKeyRemoved = RecordSerializer.serializePrimaryKey(prevValues, indexDef, indexColumnNames);
-                Bytes indexKeyAdded = RecordSerializer.serializePrimaryKey(newValues, indexDef, indexColumnNames);
+                Bytes indexKeyRemoved = index.serializeIndexKey(prevValues);
+                Bytes indexKeyAdded = index.serializeIndexKey(newValues);
                 index.recordUpdated(key, indexKeyRemoved, indexKeyAdded);
+                index.recordChanged(key);
             }
         }
     }
 
     @Override
     public void dropTableData() throws DataStorageManagerException {
-        dataStorageManager.dropTable(tableSpaceUUID, table.uuid);
-        keyToPage.dropData();
-        final Map<String, AbstractIndexManager> indexes = tableSpaceManager.getIndexesOnTable(table.name);
-        if (indexes != null) {
-            for (AbstractIndexManager indexManager : indexes.values()) {
-                indexManager.dropIndexData();
+        /* Fuzzy checkpoints flush pages concurrently with commits, wait for a running one */
+        long lockStamp = checkpointLock.writeLock();
+        try {
+            dropped = true;
+            dataStorageManager.dropTable(tableSpaceUUID, table.uuid);
+            keyToPage.dropData();
+            final Map<String, AbstractIndexManager> indexes = tableSpaceManager.getIndexesOnTable(table.name);
+            if (indexes != null) {
+                for (AbstractIndexManager indexManager : indexes.values()) {
+                    indexManager.markDropped();
+                    indexManager.dropIndexData();
+                }
             }
+            unloadAllPagesForTruncate();
+        } finally {
+            checkpointLock.unlockWrite(lockStamp);
         }
-        unloadAllPagesForTruncate();
     }
 
     @Override
@@ -1872,6 +2177,35 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
 
     }
 
+    @Override
+    public void scanForOnlineIndexBuild(Consumer<Record> records) throws DataStorageManagerException {
+        LocalScanPageCache localPageCache = new LocalScanPageCache();
+        Consumer<Map.Entry<Bytes, Long>> scanExecutor = (Map.Entry<Bytes, Long> entry) -> {
+            Bytes key = entry.getKey();
+            LockHandle lock = lockForRead(key, null);
+            try {
+                /* Checkpoints are not blocked, the record could have been moved after the scan has seen it */
+                Long pageId = keyToPage.get(key);
+                if (pageId != null) {
+                    Record record = fetchRecord(key, pageId, localPageCache);
+                    if (record != null) {
+                        records.accept(record);
+                    }
+                }
+            } catch (StatementExecutionException error) {
+                throw new DataStorageManagerException(error);
+            } finally {
+                locksManager.releaseReadLock(lock);
+            }
+        };
+        try {
+            Stream<Map.Entry<Bytes, Long>> scanner = keyToPage.scanner(null, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), tableContext, null);
+            scanner.forEach(scanExecutor);
+        } catch (StatementExecutionException impossible) {
+            throw new DataStorageManagerException(impossible);
+        }
+    }
+
     @Override
     public void dump(LogSequenceNumber sequenceNumber, FullTableScanConsumer receiver) throws DataStorageManagerException {
         dataStorageManager.fullTableScan(tableSpaceUUID, table.uuid, sequenceNumber, receiver);
@@ -1980,8 +2314,9 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
             /* Standard insert */
             DataAccessor values = record.getDataAccessor(table);
             for (AbstractIndexManager index : indexes.values()) {
-                Bytes indexKey = RecordSerializer.serializePrimaryKey(values, index.getIndex(), index.getColumnNames());
+                Bytes indexKey = index.serializeIndexKey(values);
                 index.recordInserted(key, indexKey);
+                index.recordChanged(key);
             }
         }
 
@@ -1999,6 +2334,7 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
 
     @Override
     public void close() {
+        pages.values().forEach(this::releasePageMemory);
         dataStorageManager.releaseKeyToPageMap(tableSpaceUUID, table.uuid, keyToPage);
     }
 
@@ -2088,7 +2424,8 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
 
         long ioStop = System.currentTimeMillis();
 
-        final DataPage result = buildImmutableDataPage(pageId, page);
+        /* Temporary pages are never known to page knowledge, keep them on heap */
+        final DataPage result = buildImmutableDataPage(pageId, page, false);
 
         if (LOGGER.isLoggable(Level.FINE)) {
             long stop = System.currentTimeMillis();
@@ -2115,16 +2452,22 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
                 try {
                     computed.value = true;
                     List<Record> page;
+                    MappedPageRecords mapped;
                     maxCurrentPagesLoads.acquireUninterruptibly();
                     try {
-                        page = dataStorageManager.readPage(tableSpaceUUID, table.uuid, pageId);
+                        /* Use a mapped page if storage supports it, page data doesn't need to be loaded at all */
+                        mapped = dataStorageManager.readMappedPage(tableSpaceUUID, table.uuid, pageId);
+                        page = mapped == null ? dataStorageManager.readPage(tableSpaceUUID, table.uuid, pageId) : null;
                     } finally {
                         maxCurrentPagesLoads.release();
                     }
 
                     loadedPagesCount.increment();
 
-                    return buildImmutableDataPage(pageId, page);
+                    if (mapped != null) {
+                        return new DataPage(this, pageId, maxLogicalPageSize, mapped.getEstimatedSize(), mapped, true);
+                    }
+                    return buildImmutableDataPage(pageId, page, offHeapDataPages);
                 } catch (DataStorageManagerException err) {
                     throw new RuntimeException(err);
                 }
@@ -2160,24 +2503,63 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
         return result;
     }
 
-    private DataPage buildImmutableDataPage(long pageId, List<Record> page) {
-        Map<Bytes, Record> newPageMap = new HashMap<>(page.size());
+    private DataPage buildImmutableDataPage(long pageId, List<Record> page, boolean offHeap) {
+        if (offHeap) {
+            SlabRecordsMap slab = SlabRecordsMap.build(page);
+            if (slab != null) {
+                /* Off-heap pages are charged with real slab bytes */
+                memoryManager.offHeapDataMemoryAllocated(slab.getSlabSize());
+                return new DataPage(this, pageId, maxLogicalPageSize, slab.getSlabSize(), slab, true);
+            }
+        }
         long estimatedPageSize = 0;
         for (Record r : page) {
-            newPageMap.put(r.key, r);
             estimatedPageSize += DataPage.estimateEntrySize(r);
         }
+        Map<Bytes, Record> newPageMap = new HashMap<>(page.size());
+        for (Record r : page) {
+            newPageMap.put(r.key, r);
+        }
         return new DataPage(this, pageId, maxLogicalPageSize, estimatedPageSize, newPageMap, true);
     }
 
+    /**
+     * Convert a flushed mutable page to its immutable version, packing it off-heap if configured.
+     */
+    private DataPage toImmutablePage(DataPage page) {
+        final DataPage immutable = page.toImmutable(offHeapDataPages);
+        memoryManager.offHeapDataMemoryAllocated(immutable.getOffHeapUsedMemory());
+        return immutable;
+    }
+
+    /**
+     * Update memory accounting for a page dropped from {@link #pages}.
+     */
+    private void releasePageMemory(DataPage page) {
+        final long released = page.releaseOffHeapMemory();
+        if (released > 0) {
+            memoryManager.offHeapDataMemoryReleased(released);
+        }
+    }
+
     @Override
     public TableCheckpoint fullCheckpoint(boolean pin) throws DataStorageManagerException {
-        return checkpoint(Double.NEGATIVE_INFINITY, fillThreshold, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, pin);
+        return checkpoint(Double.NEGATIVE_INFINITY, fillThreshold, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, pin, null);
     }
 
     @Override
     public TableCheckpoint checkpoint(boolean pin) throws DataStorageManagerException {
-        return checkpoint(dirtyThreshold, fillThreshold, checkpointTargetTime, cleanupTargetTime, compactionTargetTime, pin);
+        return checkpoint(dirtyThreshold, fillThreshold, checkpointTargetTime, cleanupTargetTime, compactionTargetTime, pin, null);
+    }
+
+    @Override
+    public TableCheckpoint fullCheckpoint(boolean pin, CheckpointBarrier barrier) throws DataStorageManagerException {
+        return checkpoint(Double.NEGATIVE_INFINITY, fillThreshold, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, pin, barrier);
+    }
+
+    @Override
+    public TableCheckpoint checkpoint(boolean pin, CheckpointBarrier barrier) throws DataStorageManagerException {
+        return checkpoint(dirtyThreshold, fillThreshold, checkpointTargetTime, cleanupTargetTime, compactionTargetTime, pin, barrier);
     }
 
     @Override
@@ -2340,8 +2722,11 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
 
                 for (Record record : records) {
 
+                    /* Records are rewritten in the format preferred for the table while they are moved */
+                    final Record unshared = RecordSerializer.upgradeRecordFormat(record, table).nonShared();
+
                     /* Flush the page if it would exceed max page size */
-                    final long recordSize = DataPage.estimateEntrySize(record);
+                    final long recordSize = DataPage.estimateEntrySize(unshared);
 
                     if (buildingPageSize + recordSize > maxLogicalPageSize) {
 
@@ -2376,8 +2761,6 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
                     /* Current rebuilt page will be kept in memory if current page was in memory */
                     keepFlushedPageInMemory |= currentPageWasInMemory;
 
-                    Record unshared = record.nonShared();
-
                     if (page.dirty) {
 
                         /*
@@ -2442,6 +2825,8 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
                     final DataPage removedDataPage = pages.remove(page.pageId);
 
                     if (removedDataPage != null) {
+                        releasePageMemory(removedDataPage);
+
                         /*
                          * DataPage can be removed due to an unload request from PageReplacementPolicy and
                          * could be event reloaded again in the meantime due to a concurrent read.
@@ -2494,6 +2879,45 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
 
     }
 
+    /**
+     * Flushes every new page but the one currently receiving records, without blocking writes to the table.
+     * <p>
+     * Pages are sealed and written like when they are unloaded, concurrent writes see them as not writable and
+     * mark them dirty, so this is safe as long as no exclusive checkpoint is running.
+     * </p>
+     */
+    private void preFlushNewPages() throws DataStorageManagerException {
+        boolean lockAcquired;
+        try {
+            lockAcquired = checkpointLock.asReadLock().tryLock(CHECKPOINT_LOCK_READ_TIMEOUT, SECONDS);
+        } catch (InterruptedException err) {
+            throw new DataStorageManagerException("interrupted while waiting for checkpoint lock", err);
+        }
+        if (!lockAcquired) {
+            throw new DataStorageManagerException("timed out while waiting for checkpoint lock");
+        }
+        try {
+            if (dropped) {
+                return;
+            }
+            final long start = System.currentTimeMillis();
+            final long currentPageId = currentDirtyRecordsPage.get();
+            long flushedNewPages = 0;
+            for (DataPage dataPage : new ArrayList<>(newPages.values())) {
+                if (dataPage.pageId != currentPageId && !dataPage.isEmpty()) {
+                    flushNewPageForCheckpoint(dataPage, null);
+                    ++flushedNewPages;
+                }
+            }
+            if (flushedNewPages > 0) {
+                LOGGER.log(Level.INFO, "checkpoint {0}, flushed {1} new pages before blocking writes in {2} ms",
+                        new Object[]{table.name, flushedNewPages, Long.toString(System.currentTimeMillis() - start)});
+            }
+        } finally {
+            checkpointLock.asReadLock().unlock();
+        }
+    }
+
     /**
      * @param sequenceNumber
      * @param dirtyThreshold
@@ -2501,12 +2925,14 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
      * @param checkpointTargetTime checkpoint target max milliseconds
      * @param cleanupTargetTime    cleanup target max milliseconds
      * @param compactionTargetTime compaction target max milliseconds
+     * @param barrier              held only while capturing log position and pages to flush, can be null
      * @return
      * @throws DataStorageManagerException
      */
     private TableCheckpoint checkpoint(
             double dirtyThreshold, double fillThreshold,
-            long checkpointTargetTime, long cleanupTargetTime, long compactionTargetTime, boolean pin
+            long checkpointTargetTime, long cleanupTargetTime, long compactionTargetTime, boolean pin,
+            CheckpointBarrier barrier
     ) throws DataStorageManagerException {
         LOGGER.log(Level.INFO, "tableCheckpoint dirtyThreshold: " + dirtyThreshold + ", {0}.{1} (pin: {2})", new Object[]{tableSpaceUUID, table.name, pin});
         if (createdInTransaction > 0) {
@@ -2532,26 +2958,64 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
 
         TableCheckpoint result;
 
+        if (barrier != null) {
+            /*
+             * Write the new pages filled since the last checkpoint while writes are still running, the exclusive
+             * phase below will only flush the pages changed meanwhile
+             */
+            preFlushNewPages();
+        }
+
+        /*
+         * The barrier must be entered before the checkpoint lock: commits hold it while waiting to apply their
+         * changes on the table
+         */
+        boolean barrierHeld = false;
+        if (barrier != null) {
+            barrier.enter();
+            barrierHeld = true;
+        }
+        long writesBlockedSince = 0;
         boolean lockAcquired;
         try {
             lockAcquired = checkpointLock.asWriteLock().tryLock(CHECKPOINT_LOCK_WRITE_TIMEOUT, TimeUnit.SECONDS);
         } catch (InterruptedException err) {
+            if (barrierHeld) {
+                barrier.exit();
+            }
             throw new DataStorageManagerException("interrupted while waiting for checkpoint lock", err);
         }
         if (!lockAcquired) {
+            if (barrierHeld) {
+                barrier.exit();
+            }
             throw new DataStorageManagerException("timed out while waiting for checkpoint lock, write lock " + checkpointLock.writeLock());
         }
         try {
 
-            LogSequenceNumber sequenceNumber = log.getLastSequenceNumber();
+            LogSequenceNumber sequenceNumber;
+            final Map<Long, DataPageMetaData> activePages;
+            try {
+                if (dropped) {
+                    LOGGER.log(Level.INFO, "checkpoint for table {0} skipped, table dropped", table.name);
+                    return null;
+                }
+                sequenceNumber = log.getLastSequenceNumber();
+                activePages = pageSet.getActivePages();
+            } finally {
+                if (barrierHeld) {
+                    /* Pages are flushed without the barrier, only this table is blocked by the checkpoint lock */
+                    barrierHeld = false;
+                    barrier.exit();
+                    writesBlockedSince = System.nanoTime();
+                }
+            }
 
             getlock = System.currentTimeMillis();
             checkPointRunning = true;
 
             final long checkpointLimitInstant = sumOverflowWise(getlock, checkpointTargetTime);
 
-            final Map<Long, DataPageMetaData> activePages = pageSet.getActivePages();
-
             long flushedRecords = 0;
 
             List<CheckpointingPage> flushingDirtyPages = new ArrayList<>();
@@ -2752,6 +3216,10 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
             final Map<String, AbstractIndexManager> indexes = tableSpaceManager.getIndexesOnTable(table.name);
             if (indexes != null) {
                 for (AbstractIndexManager indexManager : indexes.values()) {
+                    if (indexManager.isBuilding()) {
+                        // partial index, without a checkpoint it will be rebuilt at boot
+                        continue;
+                    }
                     // Checkpoint at the same position of current TableManager
                     actions.addAll(indexManager.checkpoint(sequenceNumber, pin));
                 }
@@ -2795,6 +3263,9 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
 
         } finally {
             checkpointLock.asWriteLock().unlock();
+            if (writesBlockedSince != 0) {
+                barrier.writesBlocked(System.nanoTime() - writesBlockedSince);
+            }
         }
 
         long delta = end - start;
@@ -2836,7 +3307,9 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
             boolean sortedByClusteredIndex = comparator != null
                     && comparator.isOnlyPrimaryKeyAndAscending()
                     && keyToPageSortedAscending;
-            if (!sortedByClusteredIndex) {
+            if (!sortedByClusteredIndex && !isSortedByClusteredIndexDescending(statement)
+                    && getIndexForSortedAccess(statement, context, transaction) == null
+                    && getIndexForIndexOnlyScan(statement, transaction, lockRequired, forWrite) == null) {
                 return scanNoStream(statement, context, transaction, lockRequired, forWrite);
             }
         }
@@ -2869,7 +3342,28 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
             int maxRows = limits == null ? 0 : limits.computeMaxRows(context);
             int offset = limits == null ? 0 : limits.computeOffset(context);
             boolean sortDone = false;
-            if (maxRows > 0) {
+            Stream<DataAccessor> parallelTableData = sortedByClusteredIndex && maxRows > 0 ? null
+                    : parallelStreamTableData(statement, context, transaction, lockRequired, forWrite, (Record record) -> {
+                        if (applyProjectionDuringScan) {
+                            return projection.map(record.getDataAccessor(table), context);
+                        } else {
+                            return record.getDataAccessor(table);
+                        }
+                    });
+            if (parallelTableData != null) {
+                if (maxRows > 0 && sorted) {
+                    InStreamTupleSorter sorter = new InStreamTupleSorter(offset + maxRows, statement.getComparator());
+                    parallelTableData.forEach(sorter::collect);
+                    sorter.flushToRecordSet(recordSet);
+                    sortDone = true;
+                } else {
+                    if (maxRows > 0) {
+                        // if no sort is present the limits can be applying during the scan and perform an early exit
+                        parallelTableData = parallelTableData.limit(offset + maxRows);
+                    }
+                    parallelTableData.forEach(recordSet::add);
+                }
+            } else if (maxRows > 0) {
                 if (sortedByClusteredIndex) {
                     // leverage the sorted nature of the clustered primary key index
                     AtomicInteger remaining = new AtomicInteger(maxRows);
@@ -3001,14 +3495,42 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
         try {
             final TupleComparator comparator = statement.getComparator();
             boolean sorted = comparator != null;
+            IndexOperation indexOperation = statement.getPredicate() != null ? statement.getPredicate().getIndexOperation() : null;
             boolean sortedByClusteredIndex = comparator != null
                     && comparator.isOnlyPrimaryKeyAndAscending()
-                    && keyToPageSortedAscending;
+                    && keyToPageSortedAscending
+                    && getIndexForTbleAccess(indexOperation) == null;
             final Projection projection = statement.getProjection();
             final boolean applyProjectionDuringScan = projection != null && !sorted;
             ScanLimits limits = statement.getLimits();
             int maxRows = limits == null ? 0 : limits.computeMaxRows(context);
             int offset = limits == null ? 0 : limits.computeOffset(context);
+
+            // look for an index which returns records in the requested order
+            AbstractIndexManager coveringIndex = getIndexForIndexOnlyScan(statement, transaction, lockRequired, forWrite);
+            Stream<Map.Entry<Bytes, Long>> sortedEntries = null;
+            Stream<Record> coveredRecords = null;
+            boolean sortedByIndex = sortedByClusteredIndex;
+            if (sorted && !sortedByClusteredIndex) {
+                if (isSortedByClusteredIndexDescending(statement)) {
+                    sortedEntries = keyToPage.descendingScanner(indexOperation, context, tableContext);
+                    sortedByIndex = true;
+                } else {
+                    AbstractIndexManager sortedIndex = getIndexForSortedAccess(statement, context, transaction);
+                    if (sortedIndex != null && sortedIndex == coveringIndex) {
+                        coveredRecords = coveringIndex.coveringRecordSetScanner(indexOperation, comparator.isDescending(),
+                                context, tableContext);
+                        sortedByIndex = true;
+                    } else if (sortedIndex != null) {
+                        sortedEntries = sortedIndex.sortedRecordSetScanner(indexOperation, comparator.isDescending(),
+                                context, tableContext, keyToPage);
+                        sortedByIndex = true;
+                    }
+                }
+            }
+            if (coveringIndex != null && coveredRecords == null) {
+                coveredRecords = coveringIndex.coveringRecordSetScanner(indexOperation, false, context, tableContext);
+            }
             Stream<DataAccessor> result;
             Function<Record, DataAccessor> mapper = (Record record) -> {
                 DataAccessor tuple;
@@ -3028,10 +3550,21 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
                 fromTransactionSorted = fromTransactionSorted.sorted(comparator);
             }
 
-            Stream<DataAccessor> tableData = streamTableData(statement, context, transaction, lockRequired, forWrite)
-                    .map(mapper);
+            Stream<DataAccessor> tableData = sortedByIndex || coveredRecords != null ? null
+                    : parallelStreamTableData(statement, context, transaction, lockRequired, forWrite, mapper);
+            if (tableData == null && coveredRecords != null) {
+                // index only scan, records contain only the columns stored in the index
+                statement.validateContext(context);
+                Predicate predicate = statement.getPredicate();
+                tableData = coveredRecords
+                        .filter(record -> predicate == null || predicate.evaluate(record, context))
+                        .map(mapper);
+            } else if (tableData == null) {
+                tableData = streamTableData(statement, context, transaction, lockRequired, forWrite, sortedEntries)
+                        .map(mapper);
+            }
             if (maxRows > 0) {
-                if (sortedByClusteredIndex) {
+                if (sortedByIndex) {
                     // already sorted if needed
                     if (fromTransactionSorted != null) {
                         // already sorted from index
@@ -3071,7 +3604,7 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
                     result = Stream.concat(fromTransactionSorted, tableData);
                 }
             } else {
-                if (sortedByClusteredIndex) {
+                if (sortedByIndex) {
                     // already sorted from index
                     if (fromTransactionSorted != null) {
                         tableData = tableData.sorted(comparator);
@@ -3141,6 +3674,7 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
             IndexOperation indexOperation = predicate != null ? predicate.getIndexOperation() : null;
             boolean primaryIndexSeek = indexOperation instanceof PrimaryIndexSeek;
             AbstractIndexManager useIndex = getIndexForTbleAccess(indexOperation);
+            PagePruning pagePruning = pagePruning(predicate, context);
 
             class RecordProcessor implements BatchOrderedExecutor.Executor<Entry<Bytes, Long>>,
                     Consumer<Map.Entry<Bytes, Long>> {
@@ -3192,6 +3726,9 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
                                     pkFilterCompleteMatch = true;
                                 }
                             }
+                            if (!pkFilterCompleteMatch && pagePruning != null && pagePruning.skipPage(pageId)) {
+                                return;
+                            }
                             Record record = fetchRecord(key, pageId, lastPageRead);
                             if (record != null && (pkFilterCompleteMatch || predicate == null || predicate.evaluate(record, context))) {
                                 // now the consumer is the owner of the lock on the record
@@ -3284,6 +3821,19 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
             ScanStatement statement, StatementEvaluationContext context,
             Transaction transaction,
             boolean lockRequired, boolean forWrite
+    ) throws StatementExecutionException {
+        return streamTableData(statement, context, transaction, lockRequired, forWrite, null);
+    }
+
+    /**
+     * @param sortedEntries entries to access, already sorted as requested by the statement, if {@code null} the
+     *                      index operation of the predicate will be used
+     */
+    private Stream<Record> streamTableData(
+            ScanStatement statement, StatementEvaluationContext context,
+            Transaction transaction,
+            boolean lockRequired, boolean forWrite,
+            Stream<Map.Entry<Bytes, Long>> sortedEntries
     ) throws StatementExecutionException {
         statement.validateContext(context);
         Predicate predicate = statement.getPredicate();
@@ -3291,8 +3841,16 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
         LocalScanPageCache lastPageRead = acquireLock ? null : new LocalScanPageCache();
         IndexOperation indexOperation = predicate != null ? predicate.getIndexOperation() : null;
         boolean primaryIndexSeek = indexOperation instanceof PrimaryIndexSeek;
-        AbstractIndexManager useIndex = getIndexForTbleAccess(indexOperation);
-        Stream<Map.Entry<Bytes, Long>> scanner = keyToPage.scanner(indexOperation, context, tableContext, useIndex);
+        Stream<Map.Entry<Bytes, Long>> scanner = sortedEntries;
+        if (scanner == null) {
+            AbstractIndexManager useIndex = getIndexForTbleAccess(indexOperation);
+            scanner = keyToPage.scanner(indexOperation, context, tableContext, useIndex);
+        }
+        // records changed by the transaction are not in the pages
+        PagePruning pagePruning = transaction == null ? pagePruning(predicate, context) : null;
+        if (pagePruning != null) {
+            scanner = scanner.filter(entry -> !pagePruning.skipPage(entry.getValue()));
+        }
 
         Stream<Record> resultFromTable = scanner.map(entry -> {
             return accessRecord(entry, predicate, context,
@@ -3301,6 +3859,246 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
         return resultFromTable;
     }
 
+    /**
+     * Scans table data using the parallel scan pool of the {@link DBManager}.
+     * <p>
+     * Entries of the primary key index are read in windows, each window is sorted by page and split in at most
+     * {@link DBManager#getMaxScanParallelismPerStatement()} partitions at page boundaries. Partitions are processed
+     * concurrently: each one loads its pages (page loads are still bounded by {@link #maxCurrentPagesLoads}),
+     * evaluates the predicate and maps matching records. Results are merged in partition order, the next window is
+     * processed only when the current one has been consumed.
+     * </p>
+     *
+     * @return a stream over mapped records or {@code null} if the scan cannot be executed in parallel
+     */
+    private <T> Stream<T> parallelStreamTableData(
+            ScanStatement statement, StatementEvaluationContext context,
+            Transaction transaction, boolean lockRequired, boolean forWrite,
+            Function<Record, T> mapper
+    ) throws StatementExecutionException {
+        if (transaction != null || lockRequired || forWrite) {
+            // records must be locked and transaction data must be looked up for each key
+            return null;
+        }
+        DBManager dbmanager = tableSpaceManager.getDbmanager();
+        ForkJoinPool pool = dbmanager.getParallelScanPool();
+        if (pool == null || pageSet.getActivePagesCount() < dbmanager.getMinPagesForParallelScan()) {
+            return null;
+        }
+        // the thread which executes the statement processes a partition too
+        int parallelism = Math.min(dbmanager.getMaxScanParallelismPerStatement(), pool.getParallelism() + 1);
+        if (parallelism < 2) {
+            return null;
+        }
+        Predicate predicate = statement.getPredicate();
+        IndexOperation indexOperation = predicate != null ? predicate.getIndexOperation() : null;
+        if (indexOperation instanceof PrimaryIndexSeek) {
+            return null;
+        }
+        statement.validateContext(context);
+        // initialize lazy values of the context before sharing it among threads
+        context.getCurrentTimestamp();
+
+        AbstractIndexManager useIndex = getIndexForTbleAccess(indexOperation);
+        Iterator<Map.Entry<Bytes, Long>> entries = keyToPage.scanner(indexOperation, context, tableContext, useIndex).iterator();
+        parallelScansCount.increment();
+
+        Iterator<T> results = new Iterator<T>() {
+
+            private Iterator<T> window = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!window.hasNext()) {
+                    if (!entries.hasNext()) {
+                        return false;
+                    }
+                    window = parallelScanWindow(entries, parallelism, pool, predicate, context, mapper).iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return window.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(results,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private <T> List<T> parallelScanWindow(
+            Iterator<Map.Entry<Bytes, Long>> entries, int parallelism, ForkJoinPool pool,
+            Predicate predicate, StatementEvaluationContext context, Function<Record, T> mapper
+    ) throws StatementExecutionException, DataStorageManagerException {
+        List<Map.Entry<Bytes, Long>> window = new ArrayList<>();
+        while (window.size() < PARALLEL_SCAN_WINDOW_SIZE && entries.hasNext()) {
+            window.add(entries.next());
+        }
+        window.sort(SORTED_PAGE_ACCESS_COMPARATOR);
+
+        // split at page boundaries, a page is read by only one partition
+        int size = window.size();
+        int partitionSize = (size + parallelism - 1) / parallelism;
+        List<List<Map.Entry<Bytes, Long>>> partitions = new ArrayList<>(parallelism);
+        int start = 0;
+        while (start < size) {
+            int end = Math.min(start + partitionSize, size);
+            while (end < size && window.get(end).getValue().equals(window.get(end - 1).getValue())) {
+                end++;
+            }
+            partitions.add(window.subList(start, end));
+            start = end;
+        }
+        if (partitions.size() <= 1) {
+            return parallelScanPartition(window, predicate, context, mapper);
+        }
+
+        List<ForkJoinTask<List<T>>> tasks = new ArrayList<>(partitions.size() - 1);
+        try {
+            for (int i = 1; i < partitions.size(); i++) {
+                List<Map.Entry<Bytes, Long>> partition = partitions.get(i);
+                tasks.add(pool.submit(() -> parallelScanPartition(partition, predicate, context, mapper)));
+            }
+            List<T> result = parallelScanPartition(partitions.get(0), predicate, context, mapper);
+            for (ForkJoinTask<List<T>> task : tasks) {
+                result.addAll(task.join());
+            }
+            return result;
+        } catch (RuntimeException err) {
+            for (ForkJoinTask<List<T>> task : tasks) {
+                task.cancel(false);
+            }
+            throw err;
+        }
+    }
+
+    private <T> List<T> parallelScanPartition(
+            List<Map.Entry<Bytes, Long>> partition,
+            Predicate predicate, StatementEvaluationContext context, Function<Record, T> mapper
+    ) throws StatementExecutionException, DataStorageManagerException {
+        LocalScanPageCache lastPageRead = new LocalScanPageCache();
+        PagePruning pagePruning = pagePruning(predicate, context);
+        List<T> result = new ArrayList<>();
+        for (Map.Entry<Bytes, Long> entry : partition) {
+            if (pagePruning != null && pagePruning.skipPage(entry.getValue())) {
+                continue;
+            }
+            Record record = accessRecord(entry, predicate, context, null, lastPageRead, false, false, false);
+            if (record != null) {
+                result.add(mapper.apply(record));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Number of scans executed in parallel since the table has been loaded
+     */
+    long getParallelScansCount() {
+        return parallelScansCount.sum();
+    }
+
+    /**
+     * Number of stored pages skipped by scans since the table has been loaded
+     */
+    long getPrunedPagesCount() {
+        return prunedPagesCount.sum();
+    }
+
+    /**
+     * Skips the stored pages whose zone maps prove that no record can match the predicate of a scan. Entries are
+     * mostly sorted by page, so the outcome for the last page is remembered.
+     */
+    private final class PagePruning {
+
+        private final Predicate predicate;
+        private final StatementEvaluationContext context;
+        private long lastPageId = -1;
+        private boolean lastPageSkipped;
+
+        private PagePruning(Predicate predicate, StatementEvaluationContext context) {
+            this.predicate = predicate;
+            this.context = context;
+        }
+
+        boolean skipPage(Long pageId) throws StatementExecutionException {
+            if (pageId == null) {
+                return false;
+            }
+            if (pageId == lastPageId) {
+                return lastPageSkipped;
+            }
+            ColumnZoneMap[] zoneMaps = pageSet.getZoneMaps(pageId);
+            boolean skip = zoneMaps != null && !predicate.mayMatchPage(zoneMaps, context);
+            if (skip) {
+                prunedPagesCount.increment();
+            }
+            lastPageId = pageId;
+            lastPageSkipped = skip;
+            return skip;
+        }
+    }
+
+    private PagePruning pagePruning(Predicate predicate, StatementEvaluationContext context) {
+        if (predicate == null || predicate.getIndexOperation() instanceof PrimaryIndexSeek) {
+            return null;
+        }
+        return new PagePruning(predicate, context);
+    }
+
+    /**
+     * Executes the same seek on the primary key or on a secondary index for a batch of values, outside of any
+     * transaction and without acquiring locks.
+     * <p>
+     * Keys found by all of the seeks are sorted by page and records are fetched using a single
+     * {@link LocalScanPageCache}, so that each page is accessed only once per batch.
+     * </p>
+     *
+     * @param seek         a {@link PrimaryIndexSeek} or a {@link herddb.index.SecondaryIndexSeek}
+     * @param seekContexts one context for each seek, they provide the values to look for
+     * @param predicate    a predicate to be evaluated on each record, it may be null
+     * @param context      the context used to evaluate the predicate
+     * @return for each seek the records found, in the same order of seekContexts
+     */
+    public List<List<Record>> seekRecords(
+            IndexOperation seek, List<? extends StatementEvaluationContext> seekContexts,
+            Predicate predicate, StatementEvaluationContext context
+    ) throws StatementExecutionException, DataStorageManagerException {
+        AbstractIndexManager useIndex = getIndexForTbleAccess(seek);
+        List<Map.Entry<Bytes, Long>> entries = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        final int size = seekContexts.size();
+        for (int i = 0; i < size; i++) {
+            final Integer position = i;
+            keyToPage.scanner(seek, seekContexts.get(i), tableContext, useIndex).forEach(entry -> {
+                entries.add(entry);
+                positions.add(position);
+            });
+        }
+        Integer[] order = new Integer[entries.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> SORTED_PAGE_ACCESS_COMPARATOR.compare(entries.get(a), entries.get(b)));
+
+        List<List<Record>> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(new ArrayList<>(1));
+        }
+        LocalScanPageCache lastPageRead = new LocalScanPageCache();
+        for (Integer index : order) {
+            Record record = accessRecord(entries.get(index), predicate, context, null, lastPageRead, false, false, false);
+            if (record != null) {
+                result.get(positions.get(index)).add(record);
+            }
+        }
+        return result;
+    }
+
     /**
      * Data from new records INSERTed during current transaction
      *
@@ -3392,6 +4190,76 @@ public final class TableManager implements AbstractTableManager, Page.Owner {
         }
     }
 
+    /**
+     * Checks if the ORDER BY clause of the statement is the descending order of the primary key, which could be
+     * satisfied walking backwards the primary key index
+     */
+    private boolean isSortedByClusteredIndexDescending(ScanStatement statement) {
+        TupleComparator comparator = statement.getComparator();
+        if (comparator == null || !comparator.isDescending() || !keyToPageSortedAscending) {
+            return false;
+        }
+        String[] columns = comparator.getSortedColumns();
+        IndexOperation indexOperation = statement.getPredicate() != null ? statement.getPredicate().getIndexOperation() : null;
+        return columns != null && columns.length == 1 && table.primaryKey.length == 1
+                && columns[0].equals(table.primaryKey[0])
+                && getIndexForTbleAccess(indexOperation) == null;
+    }
+
+    /**
+     * Looks for the secondary index used to access the table, if it stores every column read by the statement
+     * records will be built from index entries without accessing table data
+     *
+     * @return the index or {@code null} if table data must be read
+     */
+    private AbstractIndexManager getIndexForIndexOnlyScan(ScanStatement statement, Transaction transaction, boolean lockRequired, boolean forWrite) {
+        String[] columns = statement.getColumnsCoveredByIndex();
+        if (columns == null || transaction != null || lockRequired || forWrite) {
+            // records changed by the transaction and row locks are handled only reading table data
+            return null;
+        }
+        IndexOperation indexOperation = statement.getPredicate() != null ? statement.getPredicate().getIndexOperation() : null;
+        AbstractIndexManager useIndex = getIndexForTbleAccess(indexOperation);
+        if (useIndex == null || !useIndex.isCovering(columns)) {
+            return null;
+        }
+        return useIndex;
+    }
+
+    /**
+     * Looks for a secondary index which returns records in the order requested by the ORDER BY clause of the
+     * statement
+     *
+     * @return the index or {@code null} if records must be sorted
+     */
+    private AbstractIndexManager getIndexForSortedAccess(ScanStatement statement, StatementEvaluationContext context, Transaction transaction) {
+        TupleComparator comparator = statement.getComparator();
+        if (comparator == null || comparator.getSortedColumns() == null || transaction != null) {
+            // records changed by the transaction could have moved in the index
+            return null;
+        }
+        String[] columns = comparator.getSortedColumns();
+        IndexOperation indexOperation = statement.getPredicate() != null ? statement.getPredicate().getIndexOperation() : null;
+        AbstractIndexManager useIndex = getIndexForTbleAccess(indexOperation);
+        if (useIndex != null) {
+            return useIndex.isSortedBy(indexOperation, columns) ? useIndex : null;
+        }
+        ScanLimits limits = statement.getLimits();
+        if (indexOperation != null || limits == null || limits.computeMaxRows(context) <= 0) {
+            // walking a whole index costs a lookup for every record, it pays only when reading the first records
+            return null;
+        }
+        Map<String, AbstractIndexManager> indexes = tableSpaceManager.getIndexesOnTable(table.name);
+        if (indexes != null) {
+            for (AbstractIndexManager index : indexes.values()) {
+                if (index.isAvailable() && index.isSortedBy(null, columns)) {
+                    return index;
+                }
+            }
+        }
+        return null;
+    }
+
     private AbstractIndexManager getIndexForTbleAccess(IndexOperation indexOperation) {
         AbstractIndexManager useIndex = null;
         if (indexOperation != null) {
@@ -45,6 +45,7 @@ import herddb.core.system.SystablespacesTableManager;
 import herddb.core.system.SystablestatsTableManager;
 import herddb.core.system.SystransactionsTableManager;
 import herddb.index.MemoryHashIndexManager;
+import herddb.index.blink.BLinkIndexManager;
 import herddb.index.brin.BRINIndexManager;
 import herddb.jmx.JMXUtils;
 import herddb.log.CommitLog;
@@ -141,6 +142,7 @@ public class TableSpaceManager {
 
     final StatsLogger tablespaceStasLogger;
     final OpStatsLogger checkpointTimeStats;
+    final OpStatsLogger checkpointStallTimeStats;
 
     private final MetadataStorageManager metadataStorageManager;
     private final DataStorageManager dataStorageManager;
@@ -153,15 +155,23 @@ public class TableSpaceManager {
     private final ConcurrentHashMap<String, AbstractIndexManager> indexes = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, Map<String, AbstractIndexManager>> indexesByTable = new ConcurrentHashMap<>();
     private final StampedLock generalLock = new StampedLock();
+    /**
+     * Guards the gap between writing a COMMIT to the log and applying it to every table. Fuzzy checkpoints
+     * take it exclusively while each table captures its checkpoint position, otherwise a table could save a
+     * checkpoint position after a commit not yet applied to its data.
+     */
+    private final StampedLock commitLock = new StampedLock();
     private final AtomicLong newTransactionId = new AtomicLong();
     private final DBManager dbmanager;
     private final ExecutorService callbacksExecutor;
+    private final ExecutorService onlineIndexBuildExecutor;
     private final boolean virtual;
 
     private volatile boolean leader;
     private volatile boolean closed;
     private volatile boolean failed;
     private LogSequenceNumber actualLogSequenceNumber;
+    private volatile long lastCheckpointStallTime;
 
     // only for tests
     private Runnable afterTableCheckPointAction;
@@ -174,6 +184,13 @@ public class TableSpaceManager {
         this.afterTableCheckPointAction = afterTableCheckPointAction;
     }
 
+    // only for tests
+    private Runnable beforeOnlineIndexBuildAction;
+
+    public void setBeforeOnlineIndexBuildAction(Runnable beforeOnlineIndexBuildAction) {
+        this.beforeOnlineIndexBuildAction = beforeOnlineIndexBuildAction;
+    }
+
     public String getTableSpaceName() {
         return tableSpaceName;
     }
@@ -186,6 +203,7 @@ public class TableSpaceManager {
         this.nodeId = nodeId;
         this.dbmanager = manager;
         this.callbacksExecutor = dbmanager.getCallbacksExecutor();
+        this.onlineIndexBuildExecutor = dbmanager.getOnlineIndexBuildExecutor();
         this.metadataStorageManager = metadataStorageManager;
         this.dataStorageManager = dataStorageManager;
         this.log = log;
@@ -194,6 +212,7 @@ public class TableSpaceManager {
         this.virtual = virtual;
         this.tablespaceStasLogger = this.dbmanager.getStatsLogger().scope(this.tableSpaceName);
         this.checkpointTimeStats = this.tablespaceStasLogger.getOpStatsLogger("checkpointTime");
+        this.checkpointStallTimeStats = this.tablespaceStasLogger.getOpStatsLogger("checkpointStallTime");
     }
 
     private void bootSystemTables() {
@@ -382,6 +401,7 @@ public class TableSpaceManager {
                         for (String dropped : transaction.droppedIndexes) {
                             for (AbstractIndexManager manager : indexManagers) {
                                 if (manager.getIndex().name.equals(dropped)) {
+                                    manager.markDropped();
                                     manager.dropIndexData();
                                     manager.close();
                                     indexes.remove(manager.getIndex().name);
@@ -465,6 +485,7 @@ public class TableSpaceManager {
                 } else {
                     AbstractIndexManager manager = indexes.get(indexName);
                     if (manager != null) {
+                        manager.markDropped();
                         manager.dropIndexData();
                         manager.close();
                         indexes.remove(manager.getIndexName());
@@ -1134,7 +1155,11 @@ public class TableSpaceManager {
             } else if (statement instanceof CreateTableStatement) {
                 res = CompletableFuture.completedFuture(createTable((CreateTableStatement) statement, transaction, context));
             } else if (statement instanceof CreateIndexStatement) {
-                res = CompletableFuture.completedFuture(createIndex((CreateIndexStatement) statement, transaction, context));
+                if (transaction == null && context.getTableSpaceLock() == 0) {
+                    res = createIndexOnline((CreateIndexStatement) statement);
+                } else {
+                    res = CompletableFuture.completedFuture(createIndex((CreateIndexStatement) statement, transaction, context));
+                }
             } else if (statement instanceof DropTableStatement) {
                 res = CompletableFuture.completedFuture(dropTable((DropTableStatement) statement, transaction, context));
             } else if (statement instanceof DropIndexStatement) {
@@ -1367,6 +1392,98 @@ public class TableSpaceManager {
         }
     }
 
+    /**
+     * Creates an index without blocking DML for the whole build. The index is registered under the tablespace
+     * write lock in a building state, then the index is filled from table data without holding the tablespace
+     * lock, so DML and checkpoints keep running while DML maintains the index. Scans will use the index only once
+     * it is complete. If the index is dropped (by itself or with its table) the build stops, if the build fails
+     * the index is dropped.
+     */
+    private CompletableFuture<StatementExecutionResult> createIndexOnline(CreateIndexStatement statement) throws StatementExecutionException {
+        final Index index = statement.getIndexefinition();
+        final AbstractIndexManager indexManager;
+        long lockStamp = acquireWriteLock(statement);
+        try {
+            if (indexes.containsKey(index.name)) {
+                throw new IndexAlreadyExistsException(index.name);
+            }
+            AbstractTableManager tableManager = tables.get(index.table);
+            if (tableManager == null) {
+                throw new TableDoesNotExistException("no table " + index.table + " in tablespace " + tableSpaceName);
+            }
+            LogEntry entry = LogEntryFactory.createIndex(index, null);
+            CommitLogResult pos = log.log(entry, true);
+            // same as apply(), but the index is not rebuilt here
+            this.actualLogSequenceNumber = pos.getLogSequenceNumber();
+            indexManager = bootIndex(index, tableManager, 0, false, false, true);
+            writeTablesOnDataStorageManager(pos, false);
+        } catch (DataStorageManagerException | LogNotAvailableException err) {
+            throw new StatementExecutionException(err);
+        } finally {
+            releaseWriteLock(lockStamp, statement);
+        }
+
+        CompletableFuture<StatementExecutionResult> res = new CompletableFuture<>();
+        onlineIndexBuildExecutor.execute(() -> {
+            long _start = System.currentTimeMillis();
+            try {
+                Runnable beforeBuild = beforeOnlineIndexBuildAction;
+                if (beforeBuild != null) {
+                    beforeBuild.run();
+                }
+                indexManager.buildOnline();
+                long readLockStamp = acquireReadLock(statement);
+                try {
+                    if (indexManager.isDropped()) {
+                        throw new IndexDoesNotExistException("index " + index.name + " has been dropped during online build");
+                    }
+                    indexManager.finishOnlineBuild();
+                } finally {
+                    releaseReadLock(readLockStamp, statement);
+                }
+                dbmanager.getPlanner().clearCache();
+                LOGGER.log(Level.INFO, "online build of index {0} {1}.{2} time {3} ms",
+                        new Object[]{nodeId, tableSpaceName, index.name, (System.currentTimeMillis() - _start) + ""});
+                res.complete(new DDLStatementExecutionResult(0));
+            } catch (Throwable err) {
+                if (indexManager.isDropped()) {
+                    LOGGER.log(Level.INFO, "index {0} {1}.{2} dropped during online build",
+                            new Object[]{nodeId, tableSpaceName, index.name});
+                    res.completeExceptionally(new IndexDoesNotExistException("index " + index.name + " has been dropped during online build"));
+                    return;
+                }
+                LOGGER.log(Level.SEVERE, "online build of index " + index.name + " failed", err);
+                dropFailedOnlineIndex(indexManager, statement);
+                if (err instanceof StatementExecutionException) {
+                    res.completeExceptionally(err);
+                } else {
+                    res.completeExceptionally(new StatementExecutionException(err));
+                }
+            }
+        });
+        return res;
+    }
+
+    /**
+     * CREATE INDEX has already been logged when an online build fails, the index must be dropped otherwise it
+     * would stay in building state
+     */
+    private void dropFailedOnlineIndex(AbstractIndexManager indexManager, CreateIndexStatement statement) {
+        long lockStamp = acquireWriteLock(statement);
+        try {
+            if (indexManager.isDropped() || indexes.get(indexManager.getIndexName()) != indexManager) {
+                return;
+            }
+            LogEntry entry = LogEntryFactory.dropIndex(indexManager.getIndexName(), null);
+            CommitLogResult pos = log.log(entry, true);
+            apply(pos, entry, false);
+        } catch (DataStorageManagerException | LogNotAvailableException | DDLException err) {
+            LOGGER.log(Level.SEVERE, "cannot drop index " + indexManager.getIndexName() + " after a failed online build", err);
+        } finally {
+            releaseWriteLock(lockStamp, statement);
+        }
+    }
+
     private StatementExecutionResult dropTable(DropTableStatement statement, Transaction transaction, StatementEvaluationContext context) throws StatementExecutionException {
         boolean lockAcquired = false;
         if (context.getTableSpaceLock() == 0) {
@@ -1485,6 +1602,14 @@ public class TableSpaceManager {
     }
 
     AbstractIndexManager bootIndex(Index index, AbstractTableManager tableManager, long transaction, boolean rebuild, boolean restore) throws DataStorageManagerException {
+        return bootIndex(index, tableManager, transaction, rebuild, restore, false);
+    }
+
+    /**
+     * @param onlineBuild boot a new empty index to be filled by {@link AbstractIndexManager#buildOnline()}
+     */
+    private AbstractIndexManager bootIndex(Index index, AbstractTableManager tableManager, long transaction, boolean rebuild, boolean restore,
+                                           boolean onlineBuild) throws DataStorageManagerException {
         long _start = System.currentTimeMillis();
         LOGGER.log(Level.INFO, "bootIndex {0} {1}.{2}.{3} uuid {4} - {5}",
                 new Object[] { nodeId, tableSpaceName, index.table, index.name, index.uuid, index.type });
@@ -1515,10 +1640,18 @@ public class TableSpaceManager {
             case Index.TYPE_BRIN:
                 indexManager = new BRINIndexManager(index, dbmanager.getMemoryManager(), tableManager, log, dataStorageManager, this, tableSpaceUUID, transaction);
                 break;
+            case Index.TYPE_BTREE:
+                indexManager = new BLinkIndexManager(index, dbmanager.getMemoryManager(), tableManager, log, dataStorageManager, this, tableSpaceUUID, transaction);
+                break;
             default:
                 throw new DataStorageManagerException("invalid index type " + index.type);
         }
 
+        if (onlineBuild) {
+            // track DML before the index becomes visible to TableManager
+            indexManager.startOnlineBuild();
+        }
+
         indexes.put(index.name, indexManager);
 
         Map<String, AbstractIndexManager> newMap = new HashMap<>(); // this must be mutable (see DROP INDEX)
@@ -1529,7 +1662,7 @@ public class TableSpaceManager {
             map.putAll(b);
             return map;
         });
-        indexManager.start(tableManager.getBootSequenceNumber());
+        indexManager.start(onlineBuild ? LogSequenceNumber.START_OF_TIME : tableManager.getBootSequenceNumber());
         long _stop = System.currentTimeMillis();
         LOGGER.log(Level.INFO, "bootIndex {0} {1}.{2} time {3} ms", new Object[]{nodeId, tableSpaceName, index.name, (_stop - _start) + ""});
         if (rebuild) {
@@ -1615,9 +1748,17 @@ public class TableSpaceManager {
         try {
             List<PostCheckpointAction> actions = new ArrayList<>();
 
+            /* Fuzzy checkpoints hold the tablespace write lock only to take a consistent snapshot of log
+             * position, transactions and tables metadata, tables are flushed holding just a read lock */
+            final boolean fuzzy = !alreadLocked && leader && dbmanager.isFuzzyCheckpoint();
             long lockStamp = 0;
+            boolean writeLocked = false;
+            long lockAcquired = 0;
+            final CommitBarrier commitBarrier = new CommitBarrier();
             if (!alreadLocked) {
                 lockStamp = acquireWriteLock("checkpoint");
+                lockAcquired = System.nanoTime();
+                writeLocked = true;
             }
             try {
                 logSequenceNumber = log.getLastSequenceNumber();
@@ -1634,13 +1775,34 @@ public class TableSpaceManager {
                 actions.addAll(dataStorageManager.writeTransactionsAtCheckpoint(tableSpaceUUID, logSequenceNumber, new ArrayList<>(transactions.values())));
                 actions.addAll(writeTablesOnDataStorageManager(new CommitLogResult(logSequenceNumber, false, true), true));
 
+                if (fuzzy) {
+                    // let DML statements run again, DDL statements are still blocked by the read lock
+                    lockStamp = generalLock.tryConvertToReadLock(lockStamp);
+                    writeLocked = false;
+                    commitBarrier.stallNanos += System.nanoTime() - lockAcquired;
+                    LOGGER.log(Level.INFO, "{0} checkpoint {1} at {2}, flushing tables without tablespace lock",
+                            new Object[]{nodeId, tableSpaceName, logSequenceNumber});
+                }
+
                 // we checkpoint all data to disk and save the actual log sequence number
                 for (AbstractTableManager tableManager : tables.values()) {
                     // each TableManager will save its own checkpoint sequence number (on TableStatus) and upon recovery will replay only actions with log position after the actual table-local checkpoint
                     // remember that the checkpoint for a table can last "minutes" and we do not want to stop the world
 
                     if (!tableManager.isSystemTable()) {
-                        TableCheckpoint checkpoint = full ? tableManager.fullCheckpoint(pin) : tableManager.checkpoint(pin);
+                        TableCheckpoint checkpoint;
+                        if (fuzzy) {
+                            // table sequence number could be after logSequenceNumber: entries before it will be skipped upon recovery
+                            if (tables.get(tableManager.getTable().name) != tableManager) {
+                                // dropped by a concurrent commit
+                                continue;
+                            }
+                            checkpoint = full
+                                    ? tableManager.fullCheckpoint(pin, commitBarrier)
+                                    : tableManager.checkpoint(pin, commitBarrier);
+                        } else {
+                            checkpoint = full ? tableManager.fullCheckpoint(pin) : tableManager.checkpoint(pin);
+                        }
 
                         if (checkpoint != null) {
                             LOGGER.log(Level.INFO, "checkpoint done for table {0}.{1} (pin: {2})", new Object[]{tableSpaceName, tableManager.getTable().name, pin});
@@ -1664,7 +1826,14 @@ public class TableSpaceManager {
                 _logSequenceNumber = log.getLastSequenceNumber();
             } finally {
                 if (!alreadLocked) {
-                    releaseWriteLock(lockStamp, "checkpoint");
+                    if (writeLocked) {
+                        commitBarrier.stallNanos += System.nanoTime() - lockAcquired;
+                        registerCheckpointStall(commitBarrier.stallNanos);
+                        releaseWriteLock(lockStamp, "checkpoint");
+                    } else {
+                        registerCheckpointStall(commitBarrier.stallNanos);
+                        releaseReadLock(lockStamp, "checkpoint");
+                    }
                 }
             }
 
@@ -1685,6 +1854,40 @@ public class TableSpaceManager {
         }
     }
 
+    private void registerCheckpointStall(long stall) {
+        lastCheckpointStallTime = TimeUnit.NANOSECONDS.toMillis(stall);
+        checkpointStallTimeStats.registerSuccessfulEvent(stall, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Exclusive hold of {@link #commitLock} during the capture phase of a table checkpoint. Commits are stalled
+     * while the lock is awaited too, so waiting time is accounted as checkpoint stall time, like the time writes
+     * to the table are blocked while it is flushed.
+     */
+    private final class CommitBarrier implements AbstractTableManager.CheckpointBarrier {
+
+        private long stallNanos;
+        private long enteredAt;
+        private long stamp;
+
+        @Override
+        public void enter() {
+            enteredAt = System.nanoTime();
+            stamp = commitLock.writeLock();
+        }
+
+        @Override
+        public void exit() {
+            commitLock.unlockWrite(stamp);
+            stallNanos += System.nanoTime() - enteredAt;
+        }
+
+        @Override
+        public void writesBlocked(long nanos) {
+            stallNanos += nanos;
+        }
+    }
+
     private CompletableFuture<StatementExecutionResult> beginTransactionAsync(StatementEvaluationContext context, boolean releaseLock) throws StatementExecutionException {
 
         long id = newTransactionId.incrementAndGet();
@@ -1750,11 +1953,21 @@ public class TableSpaceManager {
             context.setTableSpaceLock(lockStamp);
             lockAcquired = true;
         }
-        CommitLogResult pos = log.log(entry, true);
-        CompletableFuture<StatementExecutionResult> res = pos.logSequenceNumber.thenApplyAsync((lsn) -> {
-            apply(pos, entry, false);
-            return new TransactionResult(txId, TransactionResult.OutcomeType.COMMIT);
-        }, callbacksExecutor);
+        long commitLockStamp = commitLock.readLock();
+        CompletableFuture<StatementExecutionResult> res;
+        try {
+            CommitLogResult pos = log.log(entry, true);
+            res = pos.logSequenceNumber.thenApplyAsync((lsn) -> {
+                apply(pos, entry, false);
+                return new TransactionResult(txId, TransactionResult.OutcomeType.COMMIT);
+            }, callbacksExecutor);
+        } catch (RuntimeException err) {
+            commitLock.unlockRead(commitLockStamp);
+            throw err;
+        }
+        res = res.whenComplete((r, error) -> {
+            commitLock.unlockRead(commitLockStamp);
+        });
         if (lockAcquired) {
             res = releaseReadLock(res, lockStamp, statement)
                     .thenApply(s -> {
@@ -1941,6 +2154,11 @@ public class TableSpaceManager {
                     .mapToLong(TableManagerStats::getKeysUsedMemory)
                     .sum();
         }
+
+        @Override
+        public long getLastCheckpointStallTime() {
+            return lastCheckpointStallTime;
+        }
     };
 
     public TableSpaceManagerStats getStats() {
@@ -25,6 +25,7 @@ import herddb.log.CommitLogResult;
 import herddb.log.LogEntry;
 import herddb.log.LogNotAvailableException;
 import herddb.log.LogSequenceNumber;
+import herddb.utils.Bytes;
 import herddb.utils.ExtendedDataInputStream;
 import herddb.utils.ExtendedDataOutputStream;
 import herddb.utils.FileUtils;
@@ -32,9 +33,11 @@ import herddb.utils.ODirectFileOutputStream;
 import herddb.utils.OpenFileUtils;
 import herddb.utils.SimpleBufferedOutputStream;
 import herddb.utils.SystemProperties;
+import herddb.utils.VisibleByteArrayOutputStream;
 import java.io.BufferedInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
@@ -50,6 +53,7 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -98,6 +102,22 @@ public class FileCommitLog extends CommitLog {
 
     private final BlockingQueue<LogEntryHolderFuture> writeQueue = new LinkedBlockingQueue<>(WRITE_QUEUE_SIZE);
 
+    private static final int ENTRY_BUFFER_SIZE = SystemProperties.getIntSystemProperty(
+            "herddb.file.entrybuffersize", 4 * 1024);
+
+    /**
+     * Thread local buffers bigger than this will not be retained after serializing an entry
+     */
+    private static final int MAX_RETAINED_ENTRY_BUFFER_SIZE = SystemProperties.getIntSystemProperty(
+            "herddb.file.maxretainedentrybuffersize", 1024 * 1024);
+
+    /**
+     * Minimum time to wait for new entries while a group commit fsync is running
+     */
+    private static final long MIN_GROUP_COMMIT_WAIT = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private static final ThreadLocal<EntrySerializer> ENTRY_SERIALIZERS = ThreadLocal.withInitial(EntrySerializer::new);
+
     private final int maxUnsyncedBatchSize;
     private final int maxUnsyncedBatchBytes;
     private final long maxSyncTime;
@@ -105,6 +125,13 @@ public class FileCommitLog extends CommitLog {
     // CHECKSTYLE.OFF: MemberName
     private final boolean enableO_DIRECT;
     // CHECKSTYLE.ON: MemberName
+    private final boolean groupCommit;
+
+    /**
+     * Running average of fsync latency, in nanoseconds
+     */
+    private volatile long fsyncLatency;
+    private final AtomicBoolean groupSyncRunning = new AtomicBoolean();
 
     public static final String LOGFILEEXTENSION = ".txlog";
 
@@ -182,6 +209,43 @@ public class FileCommitLog extends CommitLog {
             return entrySize;
         }
 
+        /**
+         * Write pre-serialized entries, with a single gathering write if possible.
+         *
+         * @return written bytes
+         */
+        private long writeEntries(List<LogEntryHolderFuture> entries) throws IOException {
+            long size = 0;
+            if (enableO_DIRECT) {
+                // O_DIRECT needs block aligned writes, let the stream pad them
+                for (LogEntryHolderFuture entry : entries) {
+                    this.out.write(entry.serialized);
+                    size += entry.serialized.length;
+                }
+            } else {
+                final ByteBuffer[] buffers = new ByteBuffer[entries.size()];
+                for (int i = 0; i < buffers.length; ++i) {
+                    buffers[i] = ByteBuffer.wrap(entries.get(i).serialized);
+                    size += buffers[i].remaining();
+                }
+                long remaining = size;
+                int first = 0;
+                while (remaining > 0) {
+                    remaining -= this.channel.write(buffers, first, buffers.length - first);
+                    while (first < buffers.length && !buffers[first].hasRemaining()) {
+                        ++first;
+                    }
+                }
+            }
+            writtenBytes += size;
+
+            if (!requireSync) {
+                needsSync = true;
+            }
+
+            return size;
+        }
+
         public void flush() throws IOException {
             this.out.flush();
         }
@@ -206,6 +270,8 @@ public class FileCommitLog extends CommitLog {
             }
             final long time = System.nanoTime() - now;
             statsFsyncTime.registerSuccessfulEvent(time, TimeUnit.NANOSECONDS);
+            final long latency = fsyncLatency;
+            fsyncLatency = latency == 0 ? time : latency - (latency >> 3) + (time >> 3);
         }
 
         @Override
@@ -348,6 +414,22 @@ public class FileCommitLog extends CommitLog {
             boolean requireSync,
             boolean enableO_DIRECT
     ) {
+        this(logDirectory, tableSpaceName, maxLogFileSize, fsyncThreadPool, statslogger, onClose,
+                maxUnsynchedBatchSize, maxUnsynchedBatchBytes, maxSyncTime, requireSync, enableO_DIRECT, false);
+    }
+
+    public FileCommitLog(
+            Path logDirectory, String tableSpaceName,
+            long maxLogFileSize, ExecutorService fsyncThreadPool, StatsLogger statslogger,
+            Consumer<FileCommitLog> onClose,
+            int maxUnsynchedBatchSize,
+            int maxUnsynchedBatchBytes,
+            int maxSyncTime,
+            boolean requireSync,
+            boolean enableO_DIRECT,
+            boolean groupCommit
+    ) {
+        this.groupCommit = groupCommit;
         this.maxUnsyncedBatchSize = maxUnsynchedBatchSize;
         this.maxUnsyncedBatchBytes = maxUnsynchedBatchBytes;
         this.maxSyncTime = TimeUnit.MILLISECONDS.toNanos(maxSyncTime);
@@ -357,7 +439,7 @@ public class FileCommitLog extends CommitLog {
         this.maxLogFileSize = maxLogFileSize;
         this.tableSpaceName = tableSpaceName;
         this.logDirectory = logDirectory.toAbsolutePath();
-        this.spool = new Thread(new SpoolTask(), "commitlog-" + tableSpaceName);
+        this.spool = new Thread(groupCommit ? new GroupCommitSpoolTask() : new SpoolTask(), "commitlog-" + tableSpaceName);
         this.spool.setDaemon(true);
         this.statsFsyncTime = statslogger.getOpStatsLogger("fsync");
         this.statsEntryLatency = statslogger.getOpStatsLogger("entryLatency");
@@ -392,7 +474,7 @@ public class FileCommitLog extends CommitLog {
         });
 
         this.fsyncThreadPool = fsyncThreadPool;
-        LOGGER.log(Level.FINE, "tablespace {2}, logdirectory: {0}, maxLogFileSize {1} bytes", new Object[]{logDirectory, maxLogFileSize, tableSpaceName});
+        LOGGER.log(Level.FINE, "tablespace {2}, logdirectory: {0}, maxLogFileSize {1} bytes, groupCommit {3}", new Object[]{logDirectory, maxLogFileSize, tableSpaceName, groupCommit});
     }
 
     private class SyncTask implements Runnable {
@@ -401,16 +483,32 @@ public class FileCommitLog extends CommitLog {
 
         private final int unsyncedCount;
         private final long unsyncedBytes;
+        private final boolean groupSync;
 
         public SyncTask(List<LogEntryHolderFuture> syncNeeded, int unsyncedCount, long unsyncedBytes) {
+            this(syncNeeded, unsyncedCount, unsyncedBytes, false);
+        }
+
+        public SyncTask(List<LogEntryHolderFuture> syncNeeded, int unsyncedCount, long unsyncedBytes, boolean groupSync) {
             super();
             this.syncNeeded = syncNeeded;
             this.unsyncedBytes = unsyncedBytes;
             this.unsyncedCount = unsyncedCount;
+            this.groupSync = groupSync;
         }
 
         @Override
         public void run() {
+            try {
+                doSync();
+            } finally {
+                if (groupSync) {
+                    groupSyncRunning.set(false);
+                }
+            }
+        }
+
+        private void doSync() {
             long now = System.currentTimeMillis();
             try {
                 synch();
@@ -508,6 +606,125 @@ public class FileCommitLog extends CommitLog {
         }
     }
 
+    /**
+     * Spool for group commit mode: entries are already serialized by callers, the spool drains the whole queue
+     * and writes it at once. A new fsync is issued as soon as previous one completes so every fsync covers all
+     * the entries written meanwhile, the wait for new entries follows measured fsync latency.
+     */
+    private class GroupCommitSpoolTask implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                openNewLedger();
+                List<LogEntryHolderFuture> batch = new ArrayList<>();
+                List<LogEntryHolderFuture> syncNeeded = new ArrayList<>();
+                long unsyncedBytes = 0;
+                int unsyncedCount = 0;
+                boolean closeRequested = false;
+                while (!closeRequested && (!closed || !writeQueue.isEmpty())) {
+                    final long timeout = syncNeeded.isEmpty()
+                            ? maxSyncTime
+                            : Math.max(MIN_GROUP_COMMIT_WAIT, fsyncLatency >> 2);
+                    LogEntryHolderFuture first = writeQueue.poll(timeout, TimeUnit.NANOSECONDS);
+                    if (first != null) {
+                        batch.add(first);
+                        writeQueue.drainTo(batch);
+                        for (int i = 0; i < batch.size(); ++i) {
+                            if (batch.get(i).entry == null) {
+                                // force close placeholder
+                                batch.subList(i, batch.size()).clear();
+                                closeRequested = true;
+                                break;
+                            }
+                        }
+                        if (!batch.isEmpty()) {
+                            queueSize.addAndGet(-batch.size());
+                            unsyncedBytes += writeEntries(batch);
+                            unsyncedCount += batch.size();
+                            for (LogEntryHolderFuture entry : batch) {
+                                if (entry.sync) {
+                                    syncNeeded.add(entry);
+                                }
+                            }
+                            batch.clear();
+                        }
+                    }
+
+                    if (unsyncedCount > 0) {
+                        final boolean full = unsyncedCount >= maxUnsyncedBatchSize || unsyncedBytes >= maxUnsyncedBatchBytes;
+                        if (syncNeeded.isEmpty()) {
+                            if (first == null || full) {
+                                flush();
+                                unsyncedCount = 0;
+                                unsyncedBytes = 0L;
+                            }
+                        } else if (groupSyncRunning.compareAndSet(false, true)) {
+                            flush();
+                            SyncTask syncTask = new SyncTask(syncNeeded, unsyncedCount, unsyncedBytes, true);
+                            syncNeeded = new ArrayList<>();
+                            unsyncedCount = 0;
+                            unsyncedBytes = 0L;
+                            fsyncThreadPool.submit(syncTask);
+                        } else if (full) {
+                            /* Don't wait running fsync, the pool will serialize them */
+                            flush();
+                            SyncTask syncTask = new SyncTask(syncNeeded, unsyncedCount, unsyncedBytes);
+                            syncNeeded = new ArrayList<>();
+                            unsyncedCount = 0;
+                            unsyncedBytes = 0L;
+                            fsyncThreadPool.submit(syncTask);
+                        }
+                    }
+                }
+
+                /* Don't flush if there is nothing */
+                if (unsyncedCount > 0) {
+                    LOGGER.log(Level.INFO, "flushing last {0} entries", unsyncedCount);
+
+                    flush();
+
+                    /* Don't synch if there is nothing */
+                    if (!syncNeeded.isEmpty()) {
+                        LOGGER.log(Level.INFO, "synching last {0} entries", unsyncedCount);
+                        SyncTask syncTask = new SyncTask(syncNeeded, unsyncedCount, unsyncedBytes);
+                        syncTask.run();
+                    }
+                }
+
+            } catch (LogNotAvailableException | InterruptedException | IOException t) {
+                failed = true;
+                LOGGER.log(Level.SEVERE, "general commit log failure on " + FileCommitLog.this.logDirectory, t);
+            }
+        }
+    }
+
+    private static final class EntrySerializer {
+
+        final VisibleByteArrayOutputStream buffer = new VisibleByteArrayOutputStream(ENTRY_BUFFER_SIZE);
+        final ExtendedDataOutputStream out = new ExtendedDataOutputStream(buffer);
+
+    }
+
+    /**
+     * Serialize an entry with its header and footer using a thread local buffer. The sequence number is
+     * left blank, it will be assigned by the writer.
+     */
+    static byte[] serializeEntry(LogEntry entry) throws IOException {
+        final EntrySerializer serializer = ENTRY_SERIALIZERS.get();
+        final VisibleByteArrayOutputStream buffer = serializer.buffer;
+        buffer.reset();
+        serializer.out.writeByte(ENTRY_START);
+        serializer.out.writeLong(0);
+        entry.serialize(serializer.out);
+        serializer.out.writeByte(ENTRY_END);
+        final byte[] serialized = buffer.toByteArray();
+        if (buffer.getBuffer().length > MAX_RETAINED_ENTRY_BUFFER_SIZE) {
+            ENTRY_SERIALIZERS.remove();
+        }
+        return serialized;
+    }
+
     private class LogEntryHolderFuture {
 
         final CompletableFuture<LogSequenceNumber> ack = new CompletableFuture<>();
@@ -516,6 +733,10 @@ public class FileCommitLog extends CommitLog {
         LogSequenceNumber sequenceNumber;
         Throwable error;
         final boolean sync;
+        /**
+         * Entry data in group commit mode, with header and footer
+         */
+        byte[] serialized;
 
         public LogEntryHolderFuture(LogEntry entry, boolean synch) {
             if (entry == null) {
@@ -585,6 +806,48 @@ public class FileCommitLog extends CommitLog {
         }
     }
 
+    private long writeEntries(List<LogEntryHolderFuture> entries) throws LogNotAvailableException {
+        long written = 0;
+        int start = 0;
+        while (start < entries.size()) {
+            final CommitFileWriter writer = this.writer;
+            /* Don't exceed max file size more than a single entry does */
+            int end = start;
+            long batchBytes = 0;
+            while (end < entries.size() && (end == start || writtenBytes + batchBytes <= maxLogFileSize)) {
+                LogEntryHolderFuture entry = entries.get(end++);
+                Bytes.putLong(entry.serialized, 1, ++writer.sequenceNumber);
+                batchBytes += entry.serialized.length;
+            }
+            final List<LogEntryHolderFuture> batch = entries.subList(start, end);
+            try {
+                written += writer.writeEntries(batch);
+                final long now = System.currentTimeMillis();
+                long sequenceNumber = writer.sequenceNumber - batch.size();
+                for (LogEntryHolderFuture entry : batch) {
+                    entry.done(new LogSequenceNumber(writer.ledgerId, ++sequenceNumber));
+                    statsEntryLatency.registerSuccessfulEvent(now - entry.timestamp, TimeUnit.MILLISECONDS);
+                }
+            } catch (IOException err) {
+                final long now = System.currentTimeMillis();
+                for (LogEntryHolderFuture entry : batch) {
+                    entry.error(err);
+                    if (entry.sync) {
+                        // no fsync will follow
+                        entry.syncDone();
+                    }
+                    statsEntryLatency.registerFailedEvent(now - entry.timestamp, TimeUnit.MILLISECONDS);
+                }
+                throw new LogNotAvailableException(err);
+            }
+            if (writtenBytes > maxLogFileSize) {
+                openNewLedger();
+            }
+            start = end;
+        }
+        return written;
+    }
+
     private void flush() throws IOException {
         CommitFileWriter _writer = writer;
         if (_writer == null) {
@@ -618,6 +881,13 @@ public class FileCommitLog extends CommitLog {
             LOGGER.log(Level.FINEST, "log {0}", edit);
         }
         LogEntryHolderFuture future = new LogEntryHolderFuture(edit, sync);
+        if (groupCommit) {
+            try {
+                future.serialized = serializeEntry(edit);
+            } catch (IOException err) {
+                throw new LogNotAvailableException(err);
+            }
+        }
         try {
             queueSize.incrementAndGet();
             pendingEntries.incrementAndGet();
@@ -37,12 +37,15 @@ import herddb.storage.DataStorageManager;
 import herddb.storage.DataStorageManagerException;
 import herddb.storage.FullTableScanConsumer;
 import herddb.storage.IndexStatus;
+import herddb.storage.IndexStatusDoesNotExistException;
+import herddb.storage.MappedPageRecords;
 import herddb.storage.TableStatus;
 import herddb.utils.ByteArrayCursor;
 import herddb.utils.Bytes;
 import herddb.utils.ExtendedDataInputStream;
 import herddb.utils.ExtendedDataOutputStream;
 import herddb.utils.FileUtils;
+import herddb.utils.LZ4Utils;
 import herddb.utils.ManagedFile;
 import herddb.utils.ODirectFileInputStream;
 import herddb.utils.ODirectFileOutputStream;
@@ -58,6 +61,9 @@ import java.io.IOError;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -75,6 +81,7 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.logging.Level;
@@ -97,6 +104,11 @@ public class FileDataStorageManager extends DataStorageManager {
     private final boolean requirefsync;
     private final boolean pageodirect;
     private final boolean indexodirect;
+    private final boolean pagemmap;
+    private final int sortMaxRecordsInMemory;
+    private final boolean pagecompression;
+    private final long pageSegmentSize;
+    private final ConcurrentHashMap<Path, PageSegments> pageSegments = new ConcurrentHashMap<>();
     private final StatsLogger logger;
     private final OpStatsLogger dataPageReads;
     private final OpStatsLogger dataPageWrites;
@@ -105,6 +117,11 @@ public class FileDataStorageManager extends DataStorageManager {
 
     public static final String FILEEXTENSION_PAGE = ".page";
 
+    /**
+     * Records of the data page are compressed with LZ4
+     */
+    static final long PAGE_FLAG_COMPRESSED = 1;
+
     /**
      * Standard buffer size for data copies
      */
@@ -130,6 +147,43 @@ public class FileDataStorageManager extends DataStorageManager {
             Path baseDirectory, Path tmpDirectory, int swapThreshold,
             boolean requirefsync, boolean pageodirect, boolean indexodirect, StatsLogger logger
     ) {
+        this(baseDirectory, tmpDirectory, swapThreshold, requirefsync, pageodirect, indexodirect,
+                ServerConfiguration.PROPERTY_PAGE_USE_MMAP_DEFAULT, logger);
+    }
+
+    public FileDataStorageManager(
+            Path baseDirectory, Path tmpDirectory, int swapThreshold,
+            boolean requirefsync, boolean pageodirect, boolean indexodirect, boolean pagemmap, StatsLogger logger
+    ) {
+        this(baseDirectory, tmpDirectory, swapThreshold, requirefsync, pageodirect, indexodirect, pagemmap,
+                ServerConfiguration.PROPERTY_SORT_MAX_RECORDS_IN_MEMORY_DEFAULT, logger);
+    }
+
+    public FileDataStorageManager(
+            Path baseDirectory, Path tmpDirectory, int swapThreshold,
+            boolean requirefsync, boolean pageodirect, boolean indexodirect, boolean pagemmap,
+            int sortMaxRecordsInMemory, StatsLogger logger
+    ) {
+        this(baseDirectory, tmpDirectory, swapThreshold, requirefsync, pageodirect, indexodirect, pagemmap,
+                sortMaxRecordsInMemory,
+                ServerConfiguration.PROPERTY_PAGE_COMPRESSION_DEFAULT,
+                ServerConfiguration.PROPERTY_PAGE_SEGMENTS_SIZE_DEFAULT, logger);
+    }
+
+    /**
+     * @param pagecompression compress records of data pages
+     * @param pageSegmentSize pack data pages in append-only segment files of about this size, 0 writes a file for
+     *                        each data page
+     */
+    public FileDataStorageManager(
+            Path baseDirectory, Path tmpDirectory, int swapThreshold,
+            boolean requirefsync, boolean pageodirect, boolean indexodirect, boolean pagemmap,
+            int sortMaxRecordsInMemory, boolean pagecompression, long pageSegmentSize, StatsLogger logger
+    ) {
+        this.pagemmap = pagemmap;
+        this.sortMaxRecordsInMemory = sortMaxRecordsInMemory;
+        this.pagecompression = pagecompression;
+        this.pageSegmentSize = pageSegmentSize;
         this.baseDirectory = baseDirectory;
         this.tmpDirectory = tmpDirectory;
         this.swapThreshold = swapThreshold;
@@ -159,6 +213,8 @@ public class FileDataStorageManager extends DataStorageManager {
 
     @Override
     public void close() throws DataStorageManagerException {
+        pageSegments.values().forEach(PageSegments::close);
+        pageSegments.clear();
         LOGGER.log(Level.SEVERE, "cleaning tmp directory {0}", tmpDirectory.toAbsolutePath().toString());
         try {
             FileUtils.cleanDirectory(tmpDirectory);
@@ -231,6 +287,23 @@ public class FileDataStorageManager extends DataStorageManager {
         return tableDirectory.resolve(pageId + FILEEXTENSION_PAGE);
     }
 
+    /**
+     * Segments of the data pages of a table, opened at first access
+     */
+    private PageSegments getPageSegments(Path tableDirectory) throws DataStorageManagerException {
+        try {
+            return pageSegments.computeIfAbsent(tableDirectory, dir -> {
+                try {
+                    return PageSegments.open(dir, pageSegmentSize, requirefsync);
+                } catch (IOException err) {
+                    throw new UncheckedIOException(err);
+                }
+            });
+        } catch (UncheckedIOException err) {
+            throw new DataStorageManagerException(err.getCause());
+        }
+    }
+
     private static Path getTableCheckPointsFile(Path tableDirectory, LogSequenceNumber sequenceNumber) {
         return tableDirectory.resolve(sequenceNumber.ledgerId + "." + sequenceNumber.offset + EXTENSION_TABLEORINDExCHECKPOINTINFOFILE);
     }
@@ -270,7 +343,10 @@ public class FileDataStorageManager extends DataStorageManager {
         Path pageFile = getPageFile(tableDir, pageId);
         List<Record> result;
         try {
-            if (pageodirect) {
+            byte[] fromSegment = getPageSegments(tableDir).read(pageId);
+            if (fromSegment != null) {
+                result = rawReadDataPage(fromSegment, tableDir + " page " + pageId);
+            } else if (pageodirect) {
                 try (ODirectFileInputStream odirect = new ODirectFileInputStream(pageFile, O_DIRECT_BLOCK_BATCH)) {
                     result = rawReadDataPage(pageFile, odirect);
                 }
@@ -280,7 +356,8 @@ public class FileDataStorageManager extends DataStorageManager {
                     result = rawReadDataPage(pageFile, buffer);
                 }
             }
-        } catch (NoSuchFileException nsfe) {
+        } catch (NoSuchFileException | ClosedChannelException nsfe) {
+            // segments are closed when the table is dropped
             throw new DataPageDoesNotExistException("No such page: " + tableSpace + "_" + tableName + "." + pageId, nsfe);
         } catch (IOException err) {
             throw new DataStorageManagerException("error reading data page: " + tableSpace + "_" + tableName + "." + pageId, err);
@@ -292,6 +369,35 @@ public class FileDataStorageManager extends DataStorageManager {
         return result;
     }
 
+    @Override
+    public MappedPageRecords readMappedPage(String tableSpace, String tableName, Long pageId) throws DataStorageManagerException {
+        if (!pagemmap) {
+            return null;
+        }
+        long _start = System.currentTimeMillis();
+        Path tableDir = getTableDirectory(tableSpace, tableName);
+        Path pageFile = getPageFile(tableDir, pageId);
+        MappedPageRecords result;
+        try {
+            MappedByteBuffer fromSegment = getPageSegments(tableDir).map(pageId);
+            if (fromSegment != null) {
+                result = MmapPageRecords.map(fromSegment, tableDir + " page " + pageId);
+            } else {
+                result = MmapPageRecords.map(pageFile);
+            }
+        } catch (NoSuchFileException | ClosedChannelException nsfe) {
+            // segments are closed when the table is dropped
+            throw new DataPageDoesNotExistException("No such page: " + tableSpace + "_" + tableName + "." + pageId, nsfe);
+        } catch (IOException err) {
+            throw new DataStorageManagerException("error mapping data page: " + tableSpace + "_" + tableName + "." + pageId, err);
+        }
+        long _stop = System.currentTimeMillis();
+        long delta = _stop - _start;
+        LOGGER.log(Level.FINE, "readMappedPage {0}.{1} {2} ms", new Object[]{tableSpace, tableName, delta + ""});
+        dataPageReads.registerSuccessfulEvent(delta, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
     private static List<Record> rawReadDataPage(Path pageFile, InputStream stream) throws IOException, DataStorageManagerException {
         int size = (int) Files.size(pageFile);
         byte[] dataPage = new byte[size];
@@ -299,58 +405,67 @@ public class FileDataStorageManager extends DataStorageManager {
         if (read != size) {
             throw new IOException("short read, read " + read + " instead of " + size + " bytes from " + pageFile);
         }
+        return rawReadDataPage(dataPage, pageFile.toAbsolutePath().toString());
+    }
+
+    private static List<Record> rawReadDataPage(byte[] dataPage, String description) throws IOException, DataStorageManagerException {
         try (ByteArrayCursor dataIn = ByteArrayCursor.wrap(dataPage)) {
             long version = dataIn.readVLong(); // version
             long flags = dataIn.readVLong(); // flags for future implementations
-            if (version != 1 || flags != 0) {
-                throw new DataStorageManagerException("corrupted data file " + pageFile.toAbsolutePath());
+            if (version != 1 || (flags & ~PAGE_FLAG_COMPRESSED) != 0) {
+                throw new DataStorageManagerException("corrupted data file " + description);
             }
-            int numRecords = dataIn.readInt();
-            List<Record> result = new ArrayList<>(numRecords);
-            for (int i = 0; i < numRecords; i++) {
-                Bytes key = dataIn.readBytesNoCopy();
-                Bytes value = dataIn.readBytesNoCopy();
-                result.add(new Record(key, value));
+            if ((flags & PAGE_FLAG_COMPRESSED) != 0) {
+                int uncompressedLength = dataIn.readVInt();
+                int compressedLength = dataIn.readVInt();
+                int start = dataIn.getPosition();
+                dataIn.skip(compressedLength);
+                int pos = dataIn.getPosition();
+                long hashFromFile = dataIn.readLong();
+                // the hash covers compressed data, verify it before decompressing
+                long hashFromDigest = XXHash64Utils.hash(dataPage, 0, pos);
+                if (hashFromDigest != hashFromFile) {
+                    throw new DataStorageManagerException("Corrupted datafile " + description + ". Bad hash " + hashFromFile + " <> " + hashFromDigest);
+                }
+                byte[] records;
+                try {
+                    records = LZ4Utils.decompress(dataPage, start, compressedLength, uncompressedLength);
+                } catch (IllegalArgumentException err) {
+                    throw new DataStorageManagerException("corrupted data file " + description, err);
+                }
+                try (ByteArrayCursor recordsIn = ByteArrayCursor.wrap(records)) {
+                    return readRecords(recordsIn);
+                }
             }
+            List<Record> result = readRecords(dataIn);
             int pos = dataIn.getPosition();
             long hashFromFile = dataIn.readLong();
             // after the hash we will have zeroes or garbage
             // the hash is not at the end of file, but after data
             long hashFromDigest = XXHash64Utils.hash(dataPage, 0, pos);
             if (hashFromDigest != hashFromFile) {
-                throw new DataStorageManagerException("Corrupted datafile " + pageFile + ". Bad hash " + hashFromFile + " <> " + hashFromDigest);
+                throw new DataStorageManagerException("Corrupted datafile " + description + ". Bad hash " + hashFromFile + " <> " + hashFromDigest);
             }
             return result;
         }
     }
 
+    private static List<Record> readRecords(ByteArrayCursor dataIn) throws IOException {
+        int numRecords = dataIn.readInt();
+        List<Record> result = new ArrayList<>(numRecords);
+        for (int i = 0; i < numRecords; i++) {
+            Bytes key = dataIn.readBytesNoCopy();
+            Bytes value = dataIn.readBytesNoCopy();
+            result.add(new Record(key, value));
+        }
+        return result;
+    }
+
     public static List<Record> rawReadDataPage(Path pageFile) throws DataStorageManagerException,
             IOException {
-        List<Record> result;
-        long hashFromFile;
-        long hashFromDigest;
-        try (ODirectFileInputStream odirect = new ODirectFileInputStream(pageFile, O_DIRECT_BLOCK_BATCH);
-             XXHash64Utils.HashingStream hash = new XXHash64Utils.HashingStream(odirect);
-             ExtendedDataInputStream dataIn = new ExtendedDataInputStream(hash)) {
-            long version = dataIn.readVLong(); // version
-            long flags = dataIn.readVLong(); // flags for future implementations
-            if (version != 1 || flags != 0) {
-                throw new DataStorageManagerException("corrupted data file " + pageFile.toAbsolutePath());
-            }
-            int numRecords = dataIn.readInt();
-            result = new ArrayList<>(numRecords);
-            for (int i = 0; i < numRecords; i++) {
-                Bytes key = dataIn.readBytes();
-                Bytes value = dataIn.readBytes();
-                result.add(new Record(key, value));
-            }
-            hashFromDigest = hash.hash();
-            hashFromFile = dataIn.readLong();
+        try (ODirectFileInputStream odirect = new ODirectFileInputStream(pageFile, O_DIRECT_BLOCK_BATCH)) {
+            return rawReadDataPage(pageFile, odirect);
         }
-        if (hashFromDigest != hashFromFile) {
-            throw new DataStorageManagerException("Corrupted datafile " + pageFile + ". Bad hash " + hashFromFile + " <> " + hashFromDigest);
-        }
-        return result;
     }
 
     private static <X> X readIndexPage(DataReader<X> reader, Path pageFile, InputStream stream) throws IOException, DataStorageManagerException {
@@ -462,7 +577,7 @@ public class FileDataStorageManager extends DataStorageManager {
         Path checkpointFile = getTableCheckPointsFile(dir, sequenceNumber);
 
         if (!Files.exists(checkpointFile)) {
-            throw new DataStorageManagerException("no such index checkpoint: " + checkpointFile);
+            throw new IndexStatusDoesNotExistException("no such index checkpoint: " + checkpointFile);
         }
 
         return readIndexStatusFromFile(checkpointFile);
@@ -583,6 +698,14 @@ public class FileDataStorageManager extends DataStorageManager {
             throw new DataStorageManagerException(err);
         }
 
+        PageSegments segments = getPageSegments(dir);
+        try {
+            // pages of the checkpoint must be on disk
+            segments.sync();
+        } catch (IOException err) {
+            throw new DataStorageManagerException(err);
+        }
+
         Path parent = getParent(checkpointFile);
         Path checkpointFileTemp = parent.resolve(checkpointFile.getFileName() + ".tmp");
         LOGGER.log(Level.FINE, "tableCheckpoint " + tableSpace + ", " + tableName + ": " + tableStatus + " (pin:" + pin + ") to file " + checkpointFile);
@@ -629,6 +752,15 @@ public class FileDataStorageManager extends DataStorageManager {
                 result.add(new DeleteFileAction(tableName, "delete page " + pageId + " file " + p.toAbsolutePath(), p));
             }
         }
+        for (long pageId : segments.getPageIds()) {
+            if (pageId > 0
+                    && !pins.containsKey(pageId)
+                    && !tableStatus.activePages.containsKey(pageId)
+                    && pageId < maxPageId) {
+                result.add(new ReleaseSegmentPageAction(tableName, "release page " + pageId + " from segments of " + dir.toAbsolutePath(),
+                        segments, pageId));
+            }
+        }
 
         try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
             for (Path p : stream) {
@@ -825,34 +957,32 @@ public class FileDataStorageManager extends DataStorageManager {
                 }
             }
         }
+        PageSegments segments = getPageSegments(getTableDirectory(tableSpace, tableName));
+        for (long pageId : segments.getPageIds()) {
+            if (!activePagesAtBoot.contains(pageId)) {
+                LOGGER.log(Level.SEVERE, "cleanupAfterBoot table " + tableName + " pageId " + pageId + ". will be released from segments");
+                segments.release(pageId);
+            }
+        }
     }
 
     /**
      * Write a record page
      *
-     * @param newPage data to write
-     * @param file    managed file used for sync operations
-     * @param stream  output stream related to given managed file for write
-     *                operations
+     * @param newPage  data to write
+     * @param compress compress records if it saves space
+     * @param file     managed file used for sync operations
+     * @param stream   output stream related to given managed file for write
+     *                 operations
      * @return
      * @throws IOException
      */
-    private static long writePage(Collection<Record> newPage, ManagedFile file, OutputStream stream) throws IOException {
+    private static long writePage(Collection<Record> newPage, boolean compress, ManagedFile file, OutputStream stream) throws IOException {
 
         try (RecyclableByteArrayOutputStream oo = getWriteBuffer();
              ExtendedDataOutputStream dataOutput = new ExtendedDataOutputStream(oo)) {
 
-            dataOutput.writeVLong(1); // version
-            dataOutput.writeVLong(0); // flags for future implementations
-            dataOutput.writeInt(newPage.size());
-            for (Record record : newPage) {
-                dataOutput.writeArray(record.key);
-                dataOutput.writeArray(record.value);
-            }
-            dataOutput.flush();
-            long hash = XXHash64Utils.hash(oo.getBuffer(), 0, oo.size());
-            dataOutput.writeLong(hash);
-            dataOutput.flush();
+            writeDataPage(newPage, compress, oo, dataOutput);
             stream.write(oo.getBuffer(), 0, oo.size());
             if (file != null) { // O_DIRECT does not need fsync
                 file.sync();
@@ -862,6 +992,46 @@ public class FileDataStorageManager extends DataStorageManager {
 
     }
 
+    private static void writeDataPage(
+            Collection<Record> newPage, boolean compress,
+            RecyclableByteArrayOutputStream oo, ExtendedDataOutputStream dataOutput
+    ) throws IOException {
+        dataOutput.writeVLong(1); // version
+        if (compress) {
+            try (RecyclableByteArrayOutputStream records = getWriteBuffer();
+                 ExtendedDataOutputStream recordsOutput = new ExtendedDataOutputStream(records)) {
+                writeRecords(newPage, recordsOutput);
+                recordsOutput.flush();
+                byte[] compressed = new byte[LZ4Utils.maxCompressedLength(records.size())];
+                int compressedLength = LZ4Utils.compress(records.getBuffer(), 0, records.size(), compressed, 0);
+                if (compressedLength < records.size()) {
+                    dataOutput.writeVLong(PAGE_FLAG_COMPRESSED); // flags
+                    dataOutput.writeVInt(records.size());
+                    dataOutput.writeVInt(compressedLength);
+                    dataOutput.write(compressed, 0, compressedLength);
+                } else {
+                    dataOutput.writeVLong(0); // flags
+                    dataOutput.write(records.getBuffer(), 0, records.size());
+                }
+            }
+        } else {
+            dataOutput.writeVLong(0); // flags
+            writeRecords(newPage, dataOutput);
+        }
+        dataOutput.flush();
+        long hash = XXHash64Utils.hash(oo.getBuffer(), 0, oo.size());
+        dataOutput.writeLong(hash);
+        dataOutput.flush();
+    }
+
+    private static void writeRecords(Collection<Record> newPage, ExtendedDataOutputStream dataOutput) throws IOException {
+        dataOutput.writeInt(newPage.size());
+        for (Record record : newPage) {
+            dataOutput.writeArray(record.key);
+            dataOutput.writeArray(record.value);
+        }
+    }
+
     @Override
     public void writePage(String tableSpace, String tableName, long pageId, Collection<Record> newPage) throws DataStorageManagerException {
         // synch on table is done by the TableManager
@@ -871,10 +1041,18 @@ public class FileDataStorageManager extends DataStorageManager {
         long size;
 
         try {
-            if (pageodirect) {
+            if (pageSegmentSize > 0) {
+                // segments are synced at checkpoint
+                try (RecyclableByteArrayOutputStream oo = getWriteBuffer();
+                     ExtendedDataOutputStream dataOutput = new ExtendedDataOutputStream(oo)) {
+                    writeDataPage(newPage, pagecompression, oo, dataOutput);
+                    getPageSegments(tableDir).write(pageId, oo.getBuffer(), 0, oo.size());
+                    size = oo.size();
+                }
+            } else if (pageodirect) {
                 try (ODirectFileOutputStream odirect = new ODirectFileOutputStream(pageFile, O_DIRECT_BLOCK_BATCH,
                         StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-                    size = writePage(newPage, null, odirect);
+                    size = writePage(newPage, pagecompression, null, odirect);
                 }
 
             } else {
@@ -882,7 +1060,7 @@ public class FileDataStorageManager extends DataStorageManager {
                         StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
                      SimpleBufferedOutputStream buffer = new SimpleBufferedOutputStream(file.getOutputStream(), COPY_BUFFERS_SIZE)) {
 
-                    size = writePage(newPage, file, buffer);
+                    size = writePage(newPage, pagecompression, file, buffer);
                 }
 
             }
@@ -1273,6 +1451,10 @@ public class FileDataStorageManager extends DataStorageManager {
     public void dropTable(String tablespace, String tableName) throws DataStorageManagerException {
         Path tableDir = getTableDirectory(tablespace, tableName);
         LOGGER.log(Level.INFO, "dropTable {0}.{1} in {2}", new Object[]{tablespace, tableName, tableDir});
+        PageSegments segments = pageSegments.remove(tableDir);
+        if (segments != null) {
+            segments.close();
+        }
         try {
             deleteDirectory(tableDir);
         } catch (IOException ex) {
@@ -1382,7 +1564,7 @@ public class FileDataStorageManager extends DataStorageManager {
 
     @Override
     public RecordSetFactory createRecordSetFactory() {
-        return new FileRecordSetFactory(tmpDirectory, swapThreshold);
+        return new FileRecordSetFactory(tmpDirectory, swapThreshold, sortMaxRecordsInMemory);
     }
 
     private static LogSequenceNumber readLogSequenceNumberFromTransactionsFile(String tableSpace, Path file) throws DataStorageManagerException {
@@ -1529,6 +1711,24 @@ public class FileDataStorageManager extends DataStorageManager {
         }
     }
 
+    private static class ReleaseSegmentPageAction extends PostCheckpointAction {
+
+        private final PageSegments segments;
+        private final long pageId;
+
+        public ReleaseSegmentPageAction(String tableName, String description, PageSegments segments, long pageId) {
+            super(tableName, description);
+            this.segments = segments;
+            this.pageId = pageId;
+        }
+
+        @Override
+        public void run() {
+            LOGGER.log(Level.FINE, description);
+            segments.release(pageId);
+        }
+    }
+
     private static final Recycler<RecyclableByteArrayOutputStream> WRITE_BUFFERS_RECYCLER = new Recycler<RecyclableByteArrayOutputStream>() {
 
         @Override
@@ -32,26 +32,47 @@ import herddb.utils.DataAccessor;
 import herddb.utils.DiskArrayList;
 import herddb.utils.ExtendedDataInputStream;
 import herddb.utils.ExtendedDataOutputStream;
+import herddb.utils.SystemProperties;
 import herddb.utils.VisibleByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 
 /**
  * RecordSet which eventually swaps to disk
+ * <p>
+ * A swapped RecordSet is sorted using an external merge sort: sorted runs of at most
+ * {@link FileRecordSetFactory#getSortMaxRecordsInMemory()} records are written to disk and then merged while
+ * reading, so that the whole RecordSet is never loaded in memory.
+ * </p>
  *
  * @author enrico.olivelli
  */
 class FileRecordSet extends MaterializedRecordSet {
 
+    /**
+     * Maximum number of runs merged at once, more runs are merged in multiple passes
+     */
+    private static final int MERGE_FAN_IN = SystemProperties.getIntSystemProperty("herddb.file.sort.mergeFanIn", 64);
+
     private DiskArrayList<DataAccessor> buffer;
     private final Path tmpDirectory;
+    private final int sortMaxRecordsInMemory;
+
+    /**
+     * Sorted runs to be merged while reading, if not null they replace {@link #buffer}
+     */
+    private List<DiskArrayList<DataAccessor>> sortedRuns;
+    private TupleComparator sortedRunsComparator;
 
     public FileRecordSet(int expectedSize, int swapThreshold, Column[] columns, String[] fieldNames, FileRecordSetFactory factory) {
         super(expectedSize, fieldNames, columns, factory);
         this.tmpDirectory = factory.tmpDirectory;
+        this.sortMaxRecordsInMemory = Math.max(2, factory.getSortMaxRecordsInMemory());
         this.buffer = new DiskArrayList<>(swapThreshold, factory.tmpDirectory, new TupleSerializer(columns, fieldNames));
         this.buffer.enableCompression();
 
@@ -88,6 +109,9 @@ class FileRecordSet extends MaterializedRecordSet {
         if (!writeFinished) {
             throw new IllegalStateException("RecordSet is still in write mode");
         }
+        if (sortedRuns != null) {
+            return new MergeIterator(sortedRuns, sortedRunsComparator);
+        }
         return buffer.iterator();
     }
 
@@ -112,37 +136,170 @@ class FileRecordSet extends MaterializedRecordSet {
             throw new IllegalStateException("RecordSet is still in write mode");
         }
         if (comparator != null) {
+            materializeSortedRuns();
             if (!buffer.isSwapped()) {
                 buffer.sortBuffer(comparator);
             } else {
-                List<DataAccessor> copyInMemory = new ArrayList<>();
-                for (DataAccessor tuple : buffer) {
-                    copyInMemory.add(tuple);
+                externalSort(comparator);
+            }
+        }
+
+    }
+
+    private DiskArrayList<DataAccessor> newSwappedList() {
+        DiskArrayList<DataAccessor> list = new DiskArrayList<>(-1, tmpDirectory, new TupleSerializer(columns, fieldNames));
+        list.enableCompression();
+        return list;
+    }
+
+    private DiskArrayList<DataAccessor> writeRun(List<DataAccessor> sorted) {
+        DiskArrayList<DataAccessor> run = newSwappedList();
+        for (DataAccessor t : sorted) {
+            run.add(t);
+        }
+        run.finish();
+        return run;
+    }
+
+    private void externalSort(TupleComparator comparator) {
+        List<DiskArrayList<DataAccessor>> runs = new ArrayList<>();
+        try {
+            List<DataAccessor> run = new ArrayList<>();
+            for (DataAccessor tuple : buffer) {
+                run.add(tuple);
+                if (run.size() >= sortMaxRecordsInMemory) {
+                    run.sort(comparator);
+                    runs.add(writeRun(run));
+                    run.clear();
                 }
-                copyInMemory.sort(comparator);
-                buffer.close();
-                DiskArrayList<DataAccessor> newBuffer = new DiskArrayList<>(buffer.isSwapped() ? -1 : Integer.MAX_VALUE, tmpDirectory, new TupleSerializer(columns, fieldNames));
-                newBuffer.enableCompression();
-                for (DataAccessor t : copyInMemory) {
-                    newBuffer.add(t);
+            }
+            if (!run.isEmpty()) {
+                run.sort(comparator);
+                runs.add(writeRun(run));
+            }
+            run = null;
+
+            while (runs.size() > MERGE_FAN_IN) {
+                List<DiskArrayList<DataAccessor>> merged = new ArrayList<>();
+                for (int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+                    List<DiskArrayList<DataAccessor>> group = runs.subList(i, Math.min(runs.size(), i + MERGE_FAN_IN));
+                    DiskArrayList<DataAccessor> mergedRun = newSwappedList();
+                    for (Iterator<DataAccessor> it = new MergeIterator(group, comparator); it.hasNext(); ) {
+                        mergedRun.add(it.next());
+                    }
+                    mergedRun.finish();
+                    group.forEach(DiskArrayList::close);
+                    merged.add(mergedRun);
                 }
-                newBuffer.finish();
-                buffer = newBuffer;
+                runs = merged;
             }
+        } catch (RuntimeException err) {
+            runs.forEach(DiskArrayList::close);
+            throw err;
+        }
+        buffer.close();
+        if (runs.size() == 1) {
+            buffer = runs.get(0);
+        } else {
+            buffer = newSwappedList();
+            buffer.finish();
+            sortedRuns = runs;
+            sortedRunsComparator = comparator;
+        }
+    }
+
+    /**
+     * Writes the result of the merge of sorted runs, in order to modify it
+     */
+    private void materializeSortedRuns() {
+        if (sortedRuns == null) {
+            return;
+        }
+        DiskArrayList<DataAccessor> merged = newSwappedList();
+        for (Iterator<DataAccessor> it = new MergeIterator(sortedRuns, sortedRunsComparator); it.hasNext(); ) {
+            merged.add(it.next());
         }
+        merged.finish();
+        closeSortedRuns();
+        buffer.close();
+        buffer = merged;
+    }
 
+    private void closeSortedRuns() {
+        if (sortedRuns != null) {
+            sortedRuns.forEach(DiskArrayList::close);
+            sortedRuns = null;
+            sortedRunsComparator = null;
+        }
+    }
+
+    /**
+     * K-way merge of sorted runs, records from the same position in different runs are returned in the order of
+     * the runs, as the sort is stable
+     */
+    private static final class MergeIterator implements Iterator<DataAccessor> {
+
+        private final PriorityQueue<RunHead> heads;
+
+        MergeIterator(List<DiskArrayList<DataAccessor>> runs, TupleComparator comparator) {
+            this.heads = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> {
+                int diff = comparator.compare(a.current, b.current);
+                return diff != 0 ? diff : Integer.compare(a.run, b.run);
+            });
+            for (int i = 0; i < runs.size(); i++) {
+                Iterator<DataAccessor> it = runs.get(i).iterator();
+                if (it.hasNext()) {
+                    heads.add(new RunHead(i, it));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public DataAccessor next() {
+            RunHead head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            DataAccessor result = head.current;
+            if (head.iterator.hasNext()) {
+                head.current = head.iterator.next();
+                heads.add(head);
+            }
+            return result;
+        }
+    }
+
+    private static final class RunHead {
+
+        private final int run;
+        private final Iterator<DataAccessor> iterator;
+        private DataAccessor current;
+
+        RunHead(int run, Iterator<DataAccessor> iterator) {
+            this.run = run;
+            this.iterator = iterator;
+            this.current = iterator.next();
+        }
     }
 
     @Override
     public void applyProjection(Projection projection, StatementEvaluationContext context) throws StatementExecutionException {
+        boolean swapped = buffer.isSwapped() || sortedRuns != null;
+        Iterator<DataAccessor> records = iterator();
         this.columns = projection.getColumns();
         this.fieldNames = projection.getFieldNames();
-        DiskArrayList<DataAccessor> projected = new DiskArrayList<>(buffer.isSwapped() ? -1 : Integer.MAX_VALUE, tmpDirectory, new TupleSerializer(columns, fieldNames));
+        DiskArrayList<DataAccessor> projected = new DiskArrayList<>(swapped ? -1 : Integer.MAX_VALUE, tmpDirectory, new TupleSerializer(columns, fieldNames));
         projected.enableCompression();
-        for (DataAccessor record : buffer) {
-            projected.add(projection.map(record, context));
+        while (records.hasNext()) {
+            projected.add(projection.map(records.next(), context));
         }
         projected.finish();
+        closeSortedRuns();
         this.buffer.close();
         this.buffer = projected;
     }
@@ -156,6 +313,25 @@ class FileRecordSet extends MaterializedRecordSet {
             return;
         }
         int offset = limits.computeOffset(context);
+        if (sortedRuns != null) {
+            // copy only the requested records while merging
+            int maxRows = limits.computeMaxRows(context);
+            boolean fitsInMemory = maxRows > 0 && maxRows <= sortMaxRecordsInMemory;
+            DiskArrayList<DataAccessor> copy = new DiskArrayList<>(fitsInMemory ? Integer.MAX_VALUE : -1, tmpDirectory, new TupleSerializer(columns, fieldNames));
+            copy.enableCompression();
+            int i = 0;
+            for (Iterator<DataAccessor> it = iterator(); it.hasNext() && (maxRows <= 0 || i < offset + maxRows); i++) {
+                DataAccessor t = it.next();
+                if (i >= offset) {
+                    copy.add(t);
+                }
+            }
+            copy.finish();
+            closeSortedRuns();
+            buffer.close();
+            buffer = copy;
+            return;
+        }
         if (offset > 0) {
             int maxlen = buffer.size();
             if (offset >= maxlen) {
@@ -201,6 +377,7 @@ class FileRecordSet extends MaterializedRecordSet {
 
     @Override
     public void close() {
+        closeSortedRuns();
         buffer.close();
     }
 
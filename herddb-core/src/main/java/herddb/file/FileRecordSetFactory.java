@@ -23,6 +23,7 @@ package herddb.file;
 import herddb.core.MaterializedRecordSet;
 import herddb.core.RecordSetFactory;
 import herddb.model.Column;
+import herddb.server.ServerConfiguration;
 import java.nio.file.Path;
 
 /**
@@ -34,10 +35,23 @@ public class FileRecordSetFactory extends RecordSetFactory {
 
     Path tmpDirectory;
     private final int swapThreshold;
+    private final int sortMaxRecordsInMemory;
 
     public FileRecordSetFactory(Path tmpDirectory, int swapThreshold) {
+        this(tmpDirectory, swapThreshold, ServerConfiguration.PROPERTY_SORT_MAX_RECORDS_IN_MEMORY_DEFAULT);
+    }
+
+    public FileRecordSetFactory(Path tmpDirectory, int swapThreshold, int sortMaxRecordsInMemory) {
         this.tmpDirectory = tmpDirectory;
         this.swapThreshold = swapThreshold;
+        this.sortMaxRecordsInMemory = sortMaxRecordsInMemory;
+    }
+
+    /**
+     * Maximum number of records loaded in memory by each sort of a swapped RecordSet
+     */
+    public int getSortMaxRecordsInMemory() {
+        return sortMaxRecordsInMemory;
     }
 
     @Override
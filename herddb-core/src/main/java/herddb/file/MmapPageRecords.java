@@ -0,0 +1,346 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.file;
+
+import herddb.core.DataPage;
+import herddb.model.Record;
+import herddb.storage.DataStorageManagerException;
+import herddb.storage.MappedPageRecords;
+import herddb.utils.Bytes;
+import herddb.utils.XXHash64Utils;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Records of a data page file mapped in memory.
+ * <p>
+ * Page file is mapped read only and verified, then an open addressing table of record offsets is built on
+ * heap. Keys and values are copied out of the mapped region only when accessed so the OS page cache holds
+ * page data.
+ * </p>
+ */
+final class MmapPageRecords extends MappedPageRecords {
+
+    private final ByteBuffer page;
+    private final int size;
+    private final long estimatedSize;
+    private final int dataStart;
+    private final int dataEnd;
+
+    /**
+     * Key hashes
+     */
+    private final int[] hashes;
+
+    /**
+     * Record offsets plus one (0 marks an empty slot)
+     */
+    private final int[] offsets;
+    private final int mask;
+
+    private Set<Map.Entry<Bytes, Record>> entrySet;
+
+    private MmapPageRecords(ByteBuffer page, int size, long estimatedSize, int dataStart, int dataEnd,
+                            int[] hashes, int[] offsets) {
+        this.page = page;
+        this.size = size;
+        this.estimatedSize = estimatedSize;
+        this.dataStart = dataStart;
+        this.dataEnd = dataEnd;
+        this.hashes = hashes;
+        this.offsets = offsets;
+        this.mask = offsets.length - 1;
+    }
+
+    static MmapPageRecords map(Path pageFile) throws IOException, DataStorageManagerException {
+        final MappedByteBuffer page;
+        try (FileChannel channel = FileChannel.open(pageFile, StandardOpenOption.READ)) {
+            page = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return map(page, pageFile.toAbsolutePath().toString());
+    }
+
+    /**
+     * Map records of a serialized page.
+     *
+     * @param page        page data, starting at position 0
+     * @param description page description for error messages
+     * @return page records or {@code null} if records are compressed and cannot be accessed in place
+     * @throws DataStorageManagerException if page data is corrupted
+     */
+    static MmapPageRecords map(ByteBuffer page, String description) throws DataStorageManagerException {
+        try {
+            final ByteBuffer reader = page.duplicate();
+            long version = readVLong(reader); // version
+            long flags = readVLong(reader); // flags for future implementations
+            if (version == 1 && flags == FileDataStorageManager.PAGE_FLAG_COMPRESSED) {
+                return null;
+            }
+            if (version != 1 || flags != 0) {
+                throw new DataStorageManagerException("corrupted data file " + description);
+            }
+            final int numRecords = reader.getInt();
+            if (numRecords < 0) {
+                throw new DataStorageManagerException("corrupted data file " + description);
+            }
+            final int dataStart = reader.position();
+
+            /* Keep load factor at most 0.5 to have short probe sequences */
+            final int slots = tableSizeFor(Math.max(2, numRecords * 2));
+            final int mask = slots - 1;
+            final int[] hashes = new int[slots];
+            final int[] offsets = new int[slots];
+
+            long estimatedSize = 0;
+            for (int i = 0; i < numRecords; i++) {
+                final int offset = reader.position();
+
+                final int keyLength = readVInt(reader);
+                final int hash = hashCode(page, reader.position(), keyLength);
+                skip(reader, keyLength);
+
+                final int valueLength = readVInt(reader);
+                skip(reader, valueLength);
+
+                estimatedSize += DataPage.estimateEntrySize(keyLength, valueLength);
+
+                int slot = spread(hash) & mask;
+                while (offsets[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = hash;
+                offsets[slot] = offset + 1;
+            }
+            final int dataEnd = reader.position();
+
+            long hashFromFile = reader.getLong();
+            // after the hash we will have zeroes or garbage
+            // the hash is not at the end of file, but after data
+            long hashFromDigest = XXHash64Utils.hash(page, 0, dataEnd);
+            if (hashFromDigest != hashFromFile) {
+                throw new DataStorageManagerException("Corrupted datafile " + description + ". Bad hash " + hashFromFile + " <> " + hashFromDigest);
+            }
+
+            return new MmapPageRecords(page, numRecords, estimatedSize, dataStart, dataEnd, hashes, offsets);
+        } catch (BufferUnderflowException | IllegalArgumentException err) {
+            throw new DataStorageManagerException("corrupted data file " + description, err);
+        }
+    }
+
+    @Override
+    public long getEstimatedSize() {
+        return estimatedSize;
+    }
+
+    @Override
+    public Record get(Object key) {
+        if (!(key instanceof Bytes)) {
+            return null;
+        }
+        final Bytes bytes = (Bytes) key;
+        final int offset = lookup(bytes);
+        if (offset < 0) {
+            return null;
+        }
+        return readRecord(offset, bytes.isShared() ? null : bytes, null);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Bytes && lookup((Bytes) key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Set<Map.Entry<Bytes, Record>> entrySet() {
+        Set<Map.Entry<Bytes, Record>> es = entrySet;
+        if (es == null) {
+            es = new AbstractSet<Map.Entry<Bytes, Record>>() {
+
+                @Override
+                public Iterator<Map.Entry<Bytes, Record>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+            entrySet = es;
+        }
+        return es;
+    }
+
+    private int lookup(Bytes key) {
+        final int hash = key.hashCode();
+        int slot = spread(hash) & mask;
+        while (true) {
+            final int offset = offsets[slot] - 1;
+            if (offset < 0) {
+                return -1;
+            }
+            if (hashes[slot] == hash && keyEquals(offset, key)) {
+                return offset;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean keyEquals(int offset, Bytes key) {
+        final ByteBuffer reader = page.duplicate();
+        reader.position(offset);
+        final int length = readVInt(reader);
+        if (length != key.getLength()) {
+            return false;
+        }
+        final byte[] buffer = key.getBuffer();
+        final int keyOffset = key.getOffset();
+        final int start = reader.position();
+        for (int i = 0; i < length; i++) {
+            if (page.get(start + i) != buffer[keyOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Materialize a record on heap.
+     *
+     * @param offset   record offset
+     * @param knownKey an unshared key equal to the stored one, it will be used instead of copying the stored
+     *                 key (could be {@code null})
+     * @param reader   a reader to use, it will be left after the record (could be {@code null})
+     * @return a new record
+     */
+    private Record readRecord(int offset, Bytes knownKey, ByteBuffer reader) {
+        if (reader == null) {
+            reader = page.duplicate();
+        }
+        reader.position(offset);
+
+        final Bytes key;
+        final int keyLength = readVInt(reader);
+        if (knownKey != null) {
+            key = knownKey;
+            skip(reader, keyLength);
+        } else {
+            byte[] keyData = new byte[keyLength];
+            reader.get(keyData);
+            key = Bytes.from_array(keyData);
+        }
+
+        final int valueLength = readVInt(reader);
+        byte[] valueData = new byte[valueLength];
+        reader.get(valueData);
+
+        return new Record(key, Bytes.from_array(valueData));
+    }
+
+    private static int hashCode(ByteBuffer buffer, int offset, int length) {
+        /* Same as Bytes.hashCode */
+        int result = 1;
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            result = 31 * result + buffer.get(i);
+        }
+        return result;
+    }
+
+    private static void skip(ByteBuffer reader, int length) {
+        reader.position(reader.position() + length);
+    }
+
+    private static int readVInt(ByteBuffer reader) {
+        byte b = reader.get();
+        int i = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = reader.get();
+            i |= (b & 0x7F) << shift;
+        }
+        return i;
+    }
+
+    private static long readVLong(ByteBuffer reader) {
+        byte b = reader.get();
+        long i = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = reader.get();
+            i |= (b & 0x7FL) << shift;
+        }
+        return i;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int n = Integer.highestOneBit(capacity - 1) << 1;
+        return n < 2 ? 2 : n;
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<Bytes, Record>> {
+
+        private final ByteBuffer reader = page.duplicate();
+
+        {
+            reader.position(dataStart);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return reader.position() < dataEnd;
+        }
+
+        @Override
+        public Map.Entry<Bytes, Record> next() {
+            if (reader.position() >= dataEnd) {
+                throw new NoSuchElementException();
+            }
+            final Record record = readRecord(reader.position(), null, reader);
+            return new AbstractMap.SimpleImmutableEntry<>(record.key, record);
+        }
+
+    }
+
+}
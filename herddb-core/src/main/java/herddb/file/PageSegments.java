@@ -0,0 +1,391 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.file;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Data pages of a table packed in append-only segment files.
+ * <p>
+ * A segment file is a sequence of entries: page id (long), data length (int) and page data, with the same format
+ * of a page file (hash included). The directory of pages is kept in memory and it is rebuilt at boot scanning the
+ * segments, the last entry of a page wins. Appends are not synced, {@link #sync()} must be called before
+ * referring to the pages from a checkpoint. A segment file is deleted when it does not contain live pages anymore
+ * and no read of its pages is running, readers pin the segment while they access it.
+ * </p>
+ */
+final class PageSegments implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(PageSegments.class.getName());
+
+    static final String FILEEXTENSION_SEGMENT = ".segment";
+
+    /**
+     * Page id and data length
+     */
+    private static final int ENTRY_HEADER_SIZE = 8 + 4;
+
+    private final Path directory;
+    private final long maxSegmentSize;
+    private final boolean requirefsync;
+
+    private final Map<Long, PageLocation> pages = new HashMap<>();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment current;
+
+    private static final class Segment {
+
+        private final long id;
+        private final Path file;
+        private final FileChannel channel;
+        private long size;
+        private int livePages;
+        private boolean dirty;
+        /**
+         * Reads running on the segment, guarded by the monitor of the segments
+         */
+        private int readers;
+        /**
+         * Set when the segment has no more live pages, it is deleted as soon as there are no readers
+         */
+        private boolean dropped;
+
+        private Segment(long id, Path file, FileChannel channel) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+        }
+    }
+
+    private static final class PageLocation {
+
+        private final Segment segment;
+        private final long position;
+        private final int length;
+
+        private PageLocation(Segment segment, long position, int length) {
+            this.segment = segment;
+            this.position = position;
+            this.length = length;
+        }
+    }
+
+    private PageSegments(Path directory, long maxSegmentSize, boolean requirefsync) {
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+        this.requirefsync = requirefsync;
+    }
+
+    /**
+     * Opens the segments of a directory, if any
+     *
+     * @param directory      the directory of the table
+     * @param maxSegmentSize a new segment is started when the current one reaches this size
+     * @param requirefsync   sync segments on {@link #sync()}
+     */
+    static PageSegments open(Path directory, long maxSegmentSize, boolean requirefsync) throws IOException {
+        PageSegments result = new PageSegments(directory, maxSegmentSize, requirefsync);
+        try {
+            result.load();
+        } catch (IOException | RuntimeException err) {
+            result.close();
+            throw err;
+        }
+        return result;
+    }
+
+    private static long getSegmentId(Path p) {
+        String filename = p.getFileName() + "";
+        if (filename.endsWith(FILEEXTENSION_SEGMENT)) {
+            try {
+                return Long.parseLong(filename.substring(0, filename.length() - FILEEXTENSION_SEGMENT.length()));
+            } catch (NumberFormatException no) {
+                return -1;
+            }
+        } else {
+            return -1;
+        }
+    }
+
+    private synchronized void load() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILEEXTENSION_SEGMENT)) {
+            for (Path p : files) {
+                long id = getSegmentId(p);
+                if (id >= 0) {
+                    ids.add(id);
+                }
+            }
+        }
+        ids.sort(null);
+        ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+        for (long id : ids) {
+            Path file = directory.resolve(id + FILEEXTENSION_SEGMENT);
+            Segment segment = new Segment(id, file, FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            segments.put(id, segment);
+            long size = segment.channel.size();
+            long position = 0;
+            while (position + ENTRY_HEADER_SIZE <= size) {
+                header.clear();
+                readFully(segment.channel, header, position);
+                header.flip();
+                long pageId = header.getLong();
+                int length = header.getInt();
+                if (length < 0 || position + ENTRY_HEADER_SIZE + length > size) {
+                    break;
+                }
+                put(pageId, new PageLocation(segment, position + ENTRY_HEADER_SIZE, length));
+                position += ENTRY_HEADER_SIZE + length;
+            }
+            if (position < size) {
+                // entry partially written at JVM crash/reboot
+                LOGGER.log(Level.SEVERE, "truncating segment file {0} at {1}, size was {2}",
+                        new Object[]{file.toAbsolutePath(), position, size});
+                segment.channel.truncate(position);
+            }
+            segment.size = position;
+        }
+        if (!segments.isEmpty()) {
+            current = segments.lastEntry().getValue();
+        }
+        for (Iterator<Segment> it = segments.values().iterator(); it.hasNext(); ) {
+            Segment segment = it.next();
+            if (segment.livePages == 0 && segment != current) {
+                it.remove();
+                dropSegment(segment);
+            }
+        }
+        LOGGER.log(Level.FINE, "loaded {0} pages from {1} segments in {2}",
+                new Object[]{pages.size(), segments.size(), directory});
+    }
+
+    private void put(long pageId, PageLocation location) {
+        PageLocation previous = pages.put(pageId, location);
+        if (previous != null) {
+            previous.segment.livePages--;
+        }
+        location.segment.livePages++;
+    }
+
+    /**
+     * Appends a page to the current segment
+     */
+    synchronized void write(long pageId, byte[] data, int offset, int length) throws IOException {
+        if (current == null || current.size >= maxSegmentSize) {
+            long id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+            Path file = directory.resolve(id + FILEEXTENSION_SEGMENT);
+            Segment segment = new Segment(id, file, FileChannel.open(file,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING));
+            segments.put(id, segment);
+            Segment previous = current;
+            current = segment;
+            if (previous != null && previous.livePages == 0) {
+                segments.remove(previous.id);
+                dropSegment(previous);
+            }
+        }
+        ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+        header.putLong(pageId);
+        header.putInt(length);
+        header.flip();
+        long position = current.size;
+        writeFully(current.channel, header, position);
+        writeFully(current.channel, ByteBuffer.wrap(data, offset, length), position + ENTRY_HEADER_SIZE);
+        current.size = position + ENTRY_HEADER_SIZE + length;
+        current.dirty = true;
+        put(pageId, new PageLocation(current, position + ENTRY_HEADER_SIZE, length));
+    }
+
+    /**
+     * @return the data of the page or null if the page is not in any segment
+     */
+    byte[] read(long pageId) throws IOException {
+        PageLocation location = pin(pageId);
+        if (location == null) {
+            return null;
+        }
+        try {
+            byte[] data = new byte[location.length];
+            readFully(location.segment.channel, ByteBuffer.wrap(data), location.position);
+            return data;
+        } finally {
+            unpin(location.segment);
+        }
+    }
+
+    /**
+     * @return the data of the page mapped in memory or null if the page is not in any segment
+     */
+    MappedByteBuffer map(long pageId) throws IOException {
+        PageLocation location = pin(pageId);
+        if (location == null) {
+            return null;
+        }
+        try {
+            // the mapping stays valid after the channel is closed
+            return location.segment.channel.map(FileChannel.MapMode.READ_ONLY, location.position, location.length);
+        } finally {
+            unpin(location.segment);
+        }
+    }
+
+    /**
+     * Looks up a page and pins its segment, the segment cannot be closed until {@link #unpin(Segment)}
+     */
+    private synchronized PageLocation pin(long pageId) {
+        PageLocation location = pages.get(pageId);
+        if (location != null) {
+            location.segment.readers++;
+        }
+        return location;
+    }
+
+    private synchronized void unpin(Segment segment) {
+        if (--segment.readers == 0 && segment.dropped) {
+            deleteSegment(segment);
+        }
+    }
+
+    synchronized boolean contains(long pageId) {
+        return pages.containsKey(pageId);
+    }
+
+    synchronized Set<Long> getPageIds() {
+        return new HashSet<>(pages.keySet());
+    }
+
+    synchronized int getSegmentsCount() {
+        return segments.size();
+    }
+
+    /**
+     * Forgets a page, segments without any live page are deleted
+     */
+    synchronized void release(long pageId) {
+        PageLocation location = pages.remove(pageId);
+        if (location == null) {
+            return;
+        }
+        Segment segment = location.segment;
+        segment.livePages--;
+        if (segment.livePages == 0 && segment != current) {
+            segments.remove(segment.id);
+            dropSegment(segment);
+        }
+    }
+
+    /**
+     * Syncs to disk the segments written since last call
+     */
+    void sync() throws IOException {
+        List<Segment> dirty = new ArrayList<>();
+        synchronized (this) {
+            for (Segment segment : segments.values()) {
+                if (segment.dirty) {
+                    segment.dirty = false;
+                    dirty.add(segment);
+                }
+            }
+        }
+        if (!requirefsync) {
+            return;
+        }
+        for (Segment segment : dirty) {
+            try {
+                segment.channel.force(true);
+            } catch (ClosedChannelException deleted) {
+                // no live page anymore
+            }
+        }
+    }
+
+    /**
+     * Drops a segment without live pages, it is deleted now or by the last running read
+     */
+    private static void dropSegment(Segment segment) {
+        segment.dropped = true;
+        if (segment.readers == 0) {
+            deleteSegment(segment);
+        }
+    }
+
+    private static void deleteSegment(Segment segment) {
+        LOGGER.log(Level.FINE, "deleting segment file {0}", segment.file.toAbsolutePath());
+        try {
+            segment.channel.close();
+            Files.deleteIfExists(segment.file);
+        } catch (IOException err) {
+            LOGGER.log(Level.SEVERE, "Could not delete file " + segment.file.toAbsolutePath() + ":" + err, err);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("short read from segment at " + position);
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments.values()) {
+            try {
+                segment.channel.close();
+            } catch (IOException err) {
+                LOGGER.log(Level.SEVERE, "Could not close file " + segment.file.toAbsolutePath() + ":" + err, err);
+            }
+        }
+        segments.clear();
+        pages.clear();
+        current = null;
+    }
+}
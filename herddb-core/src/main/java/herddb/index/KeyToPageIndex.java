@@ -101,4 +101,16 @@ public interface KeyToPageIndex extends AutoCloseable {
 
     boolean isSortedAscending(int[] pkTypes);
 
+    /**
+     * Same as {@link #scanner(IndexOperation, StatementEvaluationContext, TableContext, AbstractIndexManager)} for
+     * primary key operations but entries are returned in descending key order. Supported only by indexes sorted
+     * ascending (see {@link #isSortedAscending(int[])}).
+     */
+    default Stream<Map.Entry<Bytes, Long>> descendingScanner(
+            IndexOperation operation, StatementEvaluationContext context,
+            TableContext tableContext
+    ) throws DataStorageManagerException, StatementExecutionException {
+        throw new UnsupportedOperationException("descending scans not supported by " + getClass().getName());
+    }
+
 }
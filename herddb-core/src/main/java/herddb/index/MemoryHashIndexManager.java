@@ -277,13 +277,14 @@ public class MemoryHashIndexManager extends AbstractIndexManager {
     }
 
     private void removeValueFromIndex(Bytes indexKey, Bytes key) {
-        data.merge(indexKey, Collections.singletonList(key), (actual, newList) -> {
-            if (actual.size() == 1) {
-                return null;
-            } else {
-                actual.removeAll(newList);
+        // the entry could be missing on an index being built online
+        data.computeIfPresent(indexKey, (k, actual) -> {
+            if (!actual.contains(key)) {
                 return actual;
             }
+            List<Bytes> result = new ArrayList<>(actual);
+            result.removeAll(Collections.singletonList(key));
+            return result.isEmpty() ? null : result;
         });
     }
 
@@ -0,0 +1,854 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.index;
+
+import herddb.core.AbstractIndexManager;
+import herddb.core.MemoryManager;
+import herddb.core.PostCheckpointAction;
+import herddb.log.LogSequenceNumber;
+import herddb.model.Record;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.StatementExecutionException;
+import herddb.model.TableContext;
+import herddb.sql.SQLRecordKeyFunction;
+import herddb.storage.DataStorageManager;
+import herddb.storage.DataStorageManagerException;
+import herddb.storage.FullTableScanConsumer;
+import herddb.storage.IndexStatus;
+import herddb.storage.IndexStatusDoesNotExistException;
+import herddb.storage.TableStatus;
+import herddb.utils.Bytes;
+import herddb.utils.ExtendedDataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Implementation of KeyToPageIndex which keeps every mapping in direct memory.
+ * <p>
+ * Keys are spread over a fixed number of segments, each one guarded by its own lock. A segment is an open
+ * addressing table of fixed size slots plus an append only arena holding key bytes:
+ * </p>
+ *
+ * <pre>
+ * slots: [int key hash][int key offset + 1 (0 empty, -1 deleted)][long page id] ...
+ * keys:  [int key length][key bytes] ...
+ * </pre>
+ * <p>
+ * No object is kept per mapping and page ids are stored as primitive longs. The arena is compacted when
+ * the table is rehashed and empty segments release their memory. Each index page holds mappings of a single
+ * segment: at checkpoint only segments changed since the previous one are copied on heap and written again,
+ * the others keep their pages.
+ * </p>
+ */
+public class OffHeapKeyToPageIndex implements KeyToPageIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(OffHeapKeyToPageIndex.class.getName());
+
+    private static final int SEGMENTS = 64;
+    private static final int SEGMENT_MASK = SEGMENTS - 1;
+
+    private static final int SLOT_SIZE = 16;
+    private static final int SLOT_KEY_OFFSET = 4;
+    private static final int SLOT_PAGE_OFFSET = 8;
+
+    private static final int EMPTY = 0;
+    private static final int DELETED = -1;
+
+    private static final int INITIAL_CAPACITY = 8;
+    private static final int INITIAL_KEYS_CAPACITY = 256;
+
+    /**
+     * Key length
+     */
+    private static final int KEY_HEADER_SIZE = 4;
+
+    /**
+     * Heap overhead of each allocated segment (buffer wrappers and direct memory bookkeeping)
+     */
+    private static final long SEGMENT_OVERHEAD = 256;
+
+    private static final byte PAGE_END_BLOCK = 0;
+    private static final byte PAGE_ENTRY_BLOCK = 1;
+
+    private final String tableSpace;
+    private final String tableUuid;
+    private final String indexName;
+
+    private final MemoryManager memoryManager;
+    private final DataStorageManager dataStorageManager;
+
+    private final Segment[] segments;
+
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong usedMemory = new AtomicLong();
+    private final AtomicLong newPageId = new AtomicLong(1);
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    public static String deriveIndexName(String tableName) {
+        return tableName + "_primary_offheap";
+    }
+
+    public OffHeapKeyToPageIndex(String tableSpace, String tableUuid, MemoryManager memoryManager, DataStorageManager dataStorageManager) {
+        this.tableSpace = tableSpace;
+        this.tableUuid = tableUuid;
+        this.indexName = deriveIndexName(tableUuid);
+        this.memoryManager = memoryManager;
+        this.dataStorageManager = dataStorageManager;
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            this.segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Bytes hash codes of short keys have poor high bits, mix them before picking segments and slots
+     */
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        return hash ^ (hash >>> 16);
+    }
+
+    private Segment segmentFor(int hash) {
+        /* Upper bits for segments, lower bits for slots */
+        return segments[(hash >>> 26) & SEGMENT_MASK];
+    }
+
+    @Override
+    public long size() {
+        return size.get();
+    }
+
+    @Override
+    public void put(Bytes key, Long currentPage) {
+        final int hash = spread(key.hashCode());
+        final Segment segment = segmentFor(hash);
+        final long stamp = segment.lock.writeLock();
+        try {
+            checkOpen();
+            final int slot = segment.find(key, hash);
+            if (slot >= 0) {
+                segment.setPage(slot, currentPage);
+            } else {
+                segment.insert(key, hash, currentPage);
+            }
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean put(Bytes key, Long newPage, Long expectedPage) {
+        final int hash = spread(key.hashCode());
+        final Segment segment = segmentFor(hash);
+        final long stamp = segment.lock.writeLock();
+        try {
+            checkOpen();
+            final int slot = segment.find(key, hash);
+            if (expectedPage == null) {
+                if (slot >= 0) {
+                    return false;
+                }
+                segment.insert(key, hash, newPage);
+                return true;
+            } else {
+                if (slot < 0 || segment.getPage(slot) != expectedPage) {
+                    return false;
+                }
+                segment.setPage(slot, newPage);
+                return true;
+            }
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean containsKey(Bytes key) {
+        final int hash = spread(key.hashCode());
+        final Segment segment = segmentFor(hash);
+        final long stamp = segment.lock.readLock();
+        try {
+            checkOpen();
+            return segment.find(key, hash) >= 0;
+        } finally {
+            segment.lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public Long get(Bytes key) {
+        final int hash = spread(key.hashCode());
+        final Segment segment = segmentFor(hash);
+        final long stamp = segment.lock.readLock();
+        try {
+            checkOpen();
+            final int slot = segment.find(key, hash);
+            return slot < 0 ? null : segment.getPage(slot);
+        } finally {
+            segment.lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public Long remove(Bytes key) {
+        final int hash = spread(key.hashCode());
+        final Segment segment = segmentFor(hash);
+        final long stamp = segment.lock.writeLock();
+        try {
+            checkOpen();
+            final int slot = segment.find(key, hash);
+            if (slot < 0) {
+                return null;
+            }
+            return segment.delete(slot);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean isSortedAscending(int[] pkTypes) {
+        return false;
+    }
+
+    private void checkOpen() {
+        if (closed.get()) {
+            throw new DataStorageManagerException("Index " + indexName + " already closed");
+        }
+    }
+
+    /**
+     * Stream every mapping. Segments are copied on heap one at a time under their read lock.
+     */
+    private Stream<Map.Entry<Bytes, Long>> scanAll() {
+        return Arrays.stream(segments).flatMap(segment -> {
+            final long stamp = segment.lock.readLock();
+            try {
+                checkOpen();
+                return segment.entries().stream();
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        });
+    }
+
+    @Override
+    public Stream<Map.Entry<Bytes, Long>> scanner(
+            IndexOperation operation, StatementEvaluationContext context,
+            TableContext tableContext, AbstractIndexManager index
+    ) throws DataStorageManagerException, StatementExecutionException {
+
+        if (operation instanceof PrimaryIndexSeek) {
+            PrimaryIndexSeek seek = (PrimaryIndexSeek) operation;
+            byte[] seekValue = seek.value.computeNewValue(null, context, tableContext);
+            if (seekValue == null) {
+                return Stream.empty();
+            }
+            Bytes key = Bytes.from_array(seekValue);
+            Long pageId = get(key);
+            if (pageId == null) {
+                return Stream.empty();
+            }
+            return Stream.of(new AbstractMap.SimpleImmutableEntry<>(key, pageId));
+        }
+
+        // Remember that the IndexOperation can return more records
+        // every predicate (WHEREs...) will always be evaluated anyway on every record, in order to guarantee correctness
+        if (index != null) {
+            return index.recordSetScanner(operation, context, tableContext, this);
+        }
+        if (operation == null) {
+            return scanAll();
+        } else if (operation instanceof PrimaryIndexPrefixScan) {
+            PrimaryIndexPrefixScan scan = (PrimaryIndexPrefixScan) operation;
+            byte[] prefix = scan.value.computeNewValue(null, context, tableContext);
+            return scanAll().filter(entry -> entry.getKey().startsWith(prefix.length, prefix));
+        } else if (operation instanceof PrimaryIndexRangeScan) {
+
+            Bytes refminvalue;
+            PrimaryIndexRangeScan sis = (PrimaryIndexRangeScan) operation;
+            SQLRecordKeyFunction minKey = sis.minValue;
+            if (minKey != null) {
+                refminvalue = Bytes.from_nullable_array(minKey.computeNewValue(null, context, tableContext));
+            } else {
+                refminvalue = null;
+            }
+
+            Bytes refmaxvalue;
+            SQLRecordKeyFunction maxKey = sis.maxValue;
+            if (maxKey != null) {
+                refmaxvalue = Bytes.from_nullable_array(maxKey.computeNewValue(null, context, tableContext));
+            } else {
+                refmaxvalue = null;
+            }
+            Predicate<Map.Entry<Bytes, Long>> predicate = (Map.Entry<Bytes, Long> entry) -> {
+                Bytes datum = entry.getKey();
+                return (refminvalue == null || datum.compareTo(refminvalue) >= 0)
+                        && (refmaxvalue == null || datum.compareTo(refmaxvalue) <= 0);
+            };
+            return scanAll().filter(predicate);
+        } else {
+            throw new DataStorageManagerException("operation " + operation + " not implemented on " + this.getClass());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            clearSegments();
+        }
+    }
+
+    @Override
+    public void truncate() {
+        clearSegments();
+    }
+
+    private void clearSegments() {
+        for (Segment segment : segments) {
+            final long stamp = segment.lock.writeLock();
+            try {
+                segment.clear();
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    @Override
+    public void dropData() {
+        truncate();
+        dataStorageManager.dropIndex(tableSpace, indexName);
+    }
+
+    /**
+     * Returns the direct memory retained by segments plus a fixed heap overhead.
+     */
+    @Override
+    public long getUsedMemory() {
+        return usedMemory.get();
+    }
+
+    @Override
+    public boolean requireLoadAtStartup() {
+        return false;
+    }
+
+    @Override
+    public void init() throws DataStorageManagerException {
+        dataStorageManager.initIndex(tableSpace, indexName);
+    }
+
+    @Override
+    public void start(LogSequenceNumber sequenceNumber) throws DataStorageManagerException {
+        LOGGER.log(Level.INFO, " start index {0}", new Object[]{indexName});
+
+        if (LogSequenceNumber.START_OF_TIME.equals(sequenceNumber)) {
+            /* Empty index (booting from the start) */
+            LOGGER.log(Level.INFO, "loaded empty index {0}", new Object[]{indexName});
+            return;
+        }
+
+        IndexStatus status;
+        try {
+            status = dataStorageManager.getIndexStatus(tableSpace, indexName, sequenceNumber);
+        } catch (IndexStatusDoesNotExistException err) {
+            /* Table previously handled by another primary key index implementation */
+            LOGGER.log(Level.INFO, "no checkpoint for index {0} at {1}, it will be rebuilt", new Object[]{indexName, sequenceNumber});
+            rebuild(sequenceNumber);
+            return;
+        }
+
+        for (long pageId : status.activePages) {
+            final Segment[] pageSegment = new Segment[1];
+            dataStorageManager.readIndexPage(tableSpace, indexName, pageId, in -> {
+                long version = in.readVLong(); // version
+                long flags = in.readVLong(); // flags for future implementations
+                if (version != 1 || flags != 0) {
+                    throw new DataStorageManagerException("corrupted index page");
+                }
+                int count = 0;
+                while (in.readByte() == PAGE_ENTRY_BLOCK) {
+                    Bytes key = in.readBytesNoCopy();
+                    long page = in.readLong();
+                    if (pageSegment[0] == null) {
+                        pageSegment[0] = segmentFor(spread(key.hashCode()));
+                    }
+                    put(key, page);
+                    ++count;
+                }
+                return count;
+            });
+            if (pageSegment[0] != null) {
+                pageSegment[0].checkpointedPages.add(pageId);
+            }
+        }
+        /* Loaded segments match their pages */
+        for (Segment segment : segments) {
+            segment.checkpointedVersion = segment.version;
+        }
+
+        newPageId.set(status.newPageId);
+        LOGGER.log(Level.INFO, "loaded index {0}: {1} keys", new Object[]{indexName, size.get()});
+    }
+
+    private void rebuild(LogSequenceNumber sequenceNumber) throws DataStorageManagerException {
+        dataStorageManager.fullTableScan(tableSpace, tableUuid, sequenceNumber, new FullTableScanConsumer() {
+
+            long currentPage;
+
+            @Override
+            public void acceptTableStatus(TableStatus tableStatus) {
+            }
+
+            @Override
+            public void startPage(long pageId) {
+                currentPage = pageId;
+            }
+
+            @Override
+            public void acceptRecord(Record record) {
+                put(record.key, currentPage);
+            }
+
+            @Override
+            public void endPage() {
+            }
+
+            @Override
+            public void endTable() {
+            }
+        });
+        LOGGER.log(Level.INFO, "rebuilt index {0}: {1} keys", new Object[]{indexName, size.get()});
+    }
+
+    @Override
+    public List<PostCheckpointAction> checkpoint(LogSequenceNumber sequenceNumber, boolean pin) throws DataStorageManagerException {
+
+        final long pageSize = memoryManager.getMaxLogicalPageSize();
+        final Set<Long> activePages = new HashSet<>();
+
+        int writtenSegments = 0;
+        for (Segment segment : segments) {
+            final SegmentSnapshot snapshot;
+            long stamp = segment.lock.readLock();
+            try {
+                checkOpen();
+                if (segment.version == segment.checkpointedVersion) {
+                    /* Unchanged since last checkpoint, keep its pages */
+                    activePages.addAll(segment.checkpointedPages);
+                    continue;
+                }
+                snapshot = segment.snapshot();
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+
+            /* Write the heap copy without blocking segment writers */
+            final List<Long> pages = new ArrayList<>();
+            int nextSlot = 0;
+            while (nextSlot < snapshot.capacity) {
+                final int from = nextSlot;
+                final int[] to = new int[1];
+                final long pageId = newPageId.getAndIncrement();
+                dataStorageManager.writeIndexPage(tableSpace, indexName, pageId, out -> {
+                    out.writeVLong(1); // version
+                    out.writeVLong(0); // flags for future implementations
+                    to[0] = snapshot.write(out, from, pageSize);
+                    out.writeByte(PAGE_END_BLOCK);
+                });
+                pages.add(pageId);
+                nextSlot = to[0];
+            }
+            activePages.addAll(pages);
+            ++writtenSegments;
+
+            stamp = segment.lock.writeLock();
+            try {
+                /* Changes done meanwhile have a newer version, the segment will be written again */
+                segment.checkpointedVersion = snapshot.version;
+                segment.checkpointedPages = pages;
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+
+        IndexStatus indexStatus = new IndexStatus(indexName, sequenceNumber, newPageId.get(), activePages, null);
+        List<PostCheckpointAction> result = new ArrayList<>();
+        result.addAll(dataStorageManager.indexCheckpoint(tableSpace, indexName, indexStatus, pin));
+
+        LOGGER.log(Level.INFO, "checkpoint index {0} finished: logpos {1}, {2} keys, {3} pages, {4} segments written",
+                new Object[]{indexName, sequenceNumber, Long.toString(size.get()), Integer.toString(activePages.size()),
+                        Integer.toString(writtenSegments)});
+
+        return result;
+    }
+
+    @Override
+    public void unpinCheckpoint(LogSequenceNumber sequenceNumber) throws DataStorageManagerException {
+        dataStorageManager.unPinIndexCheckpoint(tableSpace, indexName, sequenceNumber);
+    }
+
+    /**
+     * A portion of the index, every access must be guarded by {@link #lock}.
+     */
+    private final class Segment {
+
+        private final StampedLock lock = new StampedLock();
+
+        /**
+         * Lazily allocated on first insert
+         */
+        private ByteBuffer slots;
+        private int capacity;
+        private int mask;
+        private int used;
+        private int deleted;
+
+        private ByteBuffer keys;
+        private int keysPosition;
+        private int keysGarbage;
+
+        /**
+         * Incremented on every change, never reset
+         */
+        private long version;
+
+        /**
+         * Version written at last checkpoint and its index pages
+         */
+        private long checkpointedVersion = -1;
+        private List<Long> checkpointedPages = new ArrayList<>();
+
+        private long allocated() {
+            return slots == null ? 0 : SEGMENT_OVERHEAD + slots.capacity() + keys.capacity();
+        }
+
+        /**
+         * @return slot of given key or -1
+         */
+        private int find(Bytes key, int hash) {
+            if (slots == null) {
+                return -1;
+            }
+            int slot = hash & mask;
+            while (true) {
+                final int base = slot * SLOT_SIZE;
+                final int ref = slots.getInt(base + SLOT_KEY_OFFSET);
+                if (ref == EMPTY) {
+                    return -1;
+                }
+                if (ref != DELETED && slots.getInt(base) == hash && keyEquals(ref - 1, key)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private boolean keyEquals(int keyOffset, Bytes key) {
+            final int length = key.getLength();
+            if (keys.getInt(keyOffset) != length) {
+                return false;
+            }
+            final byte[] buffer = key.getBuffer();
+            final int offset = key.getOffset();
+            final int start = keyOffset + KEY_HEADER_SIZE;
+
+            int i = 0;
+            for (; i + 8 <= length; i += 8) {
+                if (keys.getLong(start + i) != Bytes.toLong(buffer, offset + i)) {
+                    return false;
+                }
+            }
+            for (; i < length; i++) {
+                if (keys.get(start + i) != buffer[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private long getPage(int slot) {
+            return slots.getLong(slot * SLOT_SIZE + SLOT_PAGE_OFFSET);
+        }
+
+        private void setPage(int slot, long page) {
+            ++version;
+            slots.putLong(slot * SLOT_SIZE + SLOT_PAGE_OFFSET, page);
+        }
+
+        /**
+         * Insert a key known to be missing
+         */
+        private void insert(Bytes key, int hash, long page) {
+            ++version;
+            if (slots == null) {
+                resize(INITIAL_CAPACITY, INITIAL_KEYS_CAPACITY);
+            } else if ((used + deleted + 1) * 4L > capacity * 3L) {
+                /* Grow only if live entries need it, otherwise just purge deleted slots */
+                final int newCapacity = (used + 1) * 2L > capacity ? capacity * 2 : capacity;
+                resize(newCapacity, compactedKeysCapacity(0));
+            }
+
+            final int length = key.getLength();
+            final long required = (long) keysPosition + KEY_HEADER_SIZE + length;
+            if (required > keys.capacity()) {
+                if (keysGarbage > keysPosition / 2) {
+                    resize(capacity, compactedKeysCapacity(KEY_HEADER_SIZE + length));
+                } else {
+                    growKeys(required);
+                }
+            }
+
+            final int keyOffset = keysPosition;
+            keys.putInt(keyOffset, length);
+            final ByteBuffer writer = keys.duplicate();
+            writer.position(keyOffset + KEY_HEADER_SIZE);
+            writer.put(key.getBuffer(), key.getOffset(), length);
+            keysPosition += KEY_HEADER_SIZE + length;
+
+            int slot = hash & mask;
+            while (true) {
+                final int ref = slots.getInt(slot * SLOT_SIZE + SLOT_KEY_OFFSET);
+                if (ref == EMPTY || ref == DELETED) {
+                    if (ref == DELETED) {
+                        --deleted;
+                    }
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            final int base = slot * SLOT_SIZE;
+            slots.putInt(base, hash);
+            slots.putInt(base + SLOT_KEY_OFFSET, keyOffset + 1);
+            slots.putLong(base + SLOT_PAGE_OFFSET, page);
+            ++used;
+            size.incrementAndGet();
+        }
+
+        private long delete(int slot) {
+            ++version;
+            final int base = slot * SLOT_SIZE;
+            final int keyOffset = slots.getInt(base + SLOT_KEY_OFFSET) - 1;
+            final long page = slots.getLong(base + SLOT_PAGE_OFFSET);
+            keysGarbage += KEY_HEADER_SIZE + keys.getInt(keyOffset);
+            slots.putInt(base + SLOT_KEY_OFFSET, DELETED);
+            --used;
+            ++deleted;
+            size.decrementAndGet();
+            if (used == 0) {
+                /* Release direct memory of empty segments */
+                clear();
+            }
+            return page;
+        }
+
+        private int compactedKeysCapacity(int additional) {
+            final long live = (long) keysPosition - keysGarbage + additional;
+            return checkedCapacity(Math.max(INITIAL_KEYS_CAPACITY, live + live / 2));
+        }
+
+        private void growKeys(long required) {
+            final int newCapacity = checkedCapacity(Math.max(required, (long) keys.capacity() * 2));
+            final long before = allocated();
+            final ByteBuffer newKeys = ByteBuffer.allocateDirect(newCapacity);
+            final ByteBuffer reader = keys.duplicate();
+            reader.position(0).limit(keysPosition);
+            newKeys.put(reader);
+            keys = newKeys;
+            usedMemory.addAndGet(allocated() - before);
+        }
+
+        private int checkedCapacity(long capacity) {
+            if (capacity > Integer.MAX_VALUE - 8) {
+                throw new DataStorageManagerException("Index " + indexName + " segment too large: " + capacity + " bytes");
+            }
+            return (int) capacity;
+        }
+
+        /**
+         * Rebuild the slot table dropping deleted slots and compacting the key arena.
+         */
+        private void resize(int newCapacity, int newKeysCapacity) {
+            final long before = allocated();
+            if (newCapacity > (Integer.MAX_VALUE - 8) / SLOT_SIZE) {
+                throw new DataStorageManagerException("Index " + indexName + " segment too large: " + newCapacity + " slots");
+            }
+            final ByteBuffer newSlots = ByteBuffer.allocateDirect(newCapacity * SLOT_SIZE);
+            final ByteBuffer newKeys = ByteBuffer.allocateDirect(newKeysCapacity);
+            final int newMask = newCapacity - 1;
+
+            int position = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                final int base = slot * SLOT_SIZE;
+                final int ref = slots.getInt(base + SLOT_KEY_OFFSET);
+                if (ref == EMPTY || ref == DELETED) {
+                    continue;
+                }
+                final int hash = slots.getInt(base);
+                final int keyOffset = ref - 1;
+                final int entrySize = KEY_HEADER_SIZE + keys.getInt(keyOffset);
+
+                final ByteBuffer reader = keys.duplicate();
+                reader.position(keyOffset).limit(keyOffset + entrySize);
+                newKeys.position(position);
+                newKeys.put(reader);
+
+                int newSlot = hash & newMask;
+                while (newSlots.getInt(newSlot * SLOT_SIZE + SLOT_KEY_OFFSET) != EMPTY) {
+                    newSlot = (newSlot + 1) & newMask;
+                }
+                final int newBase = newSlot * SLOT_SIZE;
+                newSlots.putInt(newBase, hash);
+                newSlots.putInt(newBase + SLOT_KEY_OFFSET, position + 1);
+                newSlots.putLong(newBase + SLOT_PAGE_OFFSET, slots.getLong(base + SLOT_PAGE_OFFSET));
+
+                position += entrySize;
+            }
+
+            slots = newSlots;
+            capacity = newCapacity;
+            mask = newMask;
+            deleted = 0;
+            keys = newKeys;
+            keysPosition = position;
+            keysGarbage = 0;
+            usedMemory.addAndGet(allocated() - before);
+        }
+
+        private void clear() {
+            ++version;
+            final long before = allocated();
+            size.addAndGet(-used);
+            slots = null;
+            capacity = 0;
+            mask = 0;
+            used = 0;
+            deleted = 0;
+            keys = null;
+            keysPosition = 0;
+            keysGarbage = 0;
+            usedMemory.addAndGet(-before);
+        }
+
+        private Bytes readKey(int keyOffset) {
+            final byte[] key = new byte[keys.getInt(keyOffset)];
+            final ByteBuffer reader = keys.duplicate();
+            reader.position(keyOffset + KEY_HEADER_SIZE);
+            reader.get(key);
+            return Bytes.from_array(key);
+        }
+
+        private List<Map.Entry<Bytes, Long>> entries() {
+            final List<Map.Entry<Bytes, Long>> entries = new ArrayList<>(used);
+            for (int slot = 0; slot < capacity; slot++) {
+                final int base = slot * SLOT_SIZE;
+                final int ref = slots.getInt(base + SLOT_KEY_OFFSET);
+                if (ref != EMPTY && ref != DELETED) {
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(readKey(ref - 1), slots.getLong(base + SLOT_PAGE_OFFSET)));
+                }
+            }
+            return entries;
+        }
+
+        /**
+         * Copy slots and keys on heap
+         */
+        private SegmentSnapshot snapshot() {
+            if (slots == null) {
+                return new SegmentSnapshot(version, 0, null, null);
+            }
+            final ByteBuffer slotsCopy = ByteBuffer.allocate(capacity * SLOT_SIZE);
+            slotsCopy.put(slots.duplicate());
+            final ByteBuffer keysCopy = ByteBuffer.allocate(keysPosition);
+            final ByteBuffer reader = keys.duplicate();
+            reader.position(0).limit(keysPosition);
+            keysCopy.put(reader);
+            return new SegmentSnapshot(version, capacity, slotsCopy, keysCopy);
+        }
+    }
+
+    /**
+     * Heap copy of a {@link Segment}, with the same layout
+     */
+    private static final class SegmentSnapshot {
+
+        private final long version;
+        private final int capacity;
+        private final ByteBuffer slots;
+        private final ByteBuffer keys;
+
+        private SegmentSnapshot(long version, int capacity, ByteBuffer slots, ByteBuffer keys) {
+            this.version = version;
+            this.capacity = capacity;
+            this.slots = slots;
+            this.keys = keys;
+        }
+
+        /**
+         * Write mappings starting from given slot until page size is reached.
+         *
+         * @return next slot to write
+         */
+        private int write(ExtendedDataOutputStream out, int fromSlot, long pageSize) throws IOException {
+            final byte[] buffer = new byte[256];
+            long written = 0;
+            int slot = fromSlot;
+            for (; slot < capacity && written < pageSize; slot++) {
+                final int base = slot * SLOT_SIZE;
+                final int ref = slots.getInt(base + SLOT_KEY_OFFSET);
+                if (ref == EMPTY || ref == DELETED) {
+                    continue;
+                }
+                final int keyOffset = ref - 1;
+                final int length = keys.getInt(keyOffset);
+                final byte[] key = length <= buffer.length ? buffer : new byte[length];
+                final ByteBuffer reader = keys.duplicate();
+                reader.position(keyOffset + KEY_HEADER_SIZE);
+                reader.get(key, 0, length);
+
+                out.writeByte(PAGE_ENTRY_BLOCK);
+                out.writeArray(key, 0, length);
+                out.writeLong(slots.getLong(base + SLOT_PAGE_OFFSET));
+                written += length + 16;
+            }
+            return slot;
+        }
+    }
+
+}
@@ -0,0 +1,489 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.index.blink;
+
+import herddb.codec.RecordSerializer;
+import herddb.core.AbstractIndexManager;
+import herddb.core.AbstractTableManager;
+import herddb.core.MemoryManager;
+import herddb.core.PostCheckpointAction;
+import herddb.core.TableSpaceManager;
+import herddb.index.IndexOperation;
+import herddb.index.KeyToPageIndex;
+import herddb.index.SecondaryIndexPrefixScan;
+import herddb.index.SecondaryIndexRangeScan;
+import herddb.index.SecondaryIndexSeek;
+import herddb.log.CommitLog;
+import herddb.model.Column;
+import herddb.model.ColumnTypes;
+import herddb.log.LogSequenceNumber;
+import herddb.model.Index;
+import herddb.model.Record;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.StatementExecutionException;
+import herddb.model.Table;
+import herddb.model.TableContext;
+import herddb.sql.SQLRecordKeyFunction;
+import herddb.storage.DataStorageManager;
+import herddb.storage.DataStorageManagerException;
+import herddb.utils.ByteArrayCursor;
+import herddb.utils.Bytes;
+import herddb.utils.DataAccessor;
+import herddb.utils.ExtendedDataOutputStream;
+import herddb.utils.VisibleByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Ordered secondary index backed by a {@link BLink} tree paged through the {@link MemoryManager}.
+ * <p>
+ * Every entry key is the index key followed by the primary key, so duplicated index values are stored as
+ * distinct entries kept in index order. Index keys are stored with an encoding which preserves the order of column
+ * values: numbers have the sign bit flipped, strings and byte arrays are escaped (every 0x00 is written as 0x00 0xFF)
+ * and terminated by 0x00 0x00. Encoded keys are never a prefix of each other, so the byte ordering of entries
+ * follows the ordering of index values and scans map to ranges of the tree. Entry value is the offset of the
+ * primary key inside the entry.
+ * </p>
+ * <p>
+ * Values of included columns, if any, are appended to the entry after the primary key, each one serialized with
+ * its type. Entry value then holds the offset of included values in the upper 32 bits too. Indexed columns,
+ * included columns and primary key columns can be read from index entries without accessing table data.
+ * </p>
+ */
+public class BLinkIndexManager extends AbstractIndexManager {
+
+    private static final Logger LOGGER = Logger.getLogger(BLinkIndexManager.class.getName());
+
+    private static final int ESCAPE = 0xFF;
+    private static final int TERMINATOR = 0x00;
+
+    private final BLinkKeyToPageIndex data;
+
+    public BLinkIndexManager(Index index, MemoryManager memoryManager, AbstractTableManager tableManager, CommitLog log, DataStorageManager dataStorageManager, TableSpaceManager tableSpaceManager, String tableSpaceUUID, long transaction) {
+        super(index, tableManager, dataStorageManager, tableSpaceManager.getTableSpaceUUID(), log, transaction);
+        this.data = new BLinkKeyToPageIndex(this.tableSpaceUUID, memoryManager, dataStorageManager, index.uuid);
+    }
+
+    @Override
+    protected boolean doStart(LogSequenceNumber sequenceNumber) throws DataStorageManagerException {
+        LOGGER.log(Level.INFO, " start BTREE index {0} uuid {1}", new Object[]{index.name, index.uuid});
+
+        data.init();
+        try {
+            data.start(sequenceNumber);
+        } catch (DataStorageManagerException e) {
+            LOGGER.log(Level.SEVERE, "cannot load index {0} due to {1}, it will be rebuilt", new Object[]{index.name, e});
+            data.start(LogSequenceNumber.START_OF_TIME);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void rebuild() throws DataStorageManagerException {
+        long _start = System.currentTimeMillis();
+        LOGGER.log(Level.INFO, "rebuilding index {0}", index.name);
+        data.init();
+        data.truncate();
+        Table table = tableManager.getTable();
+        tableManager.scanForIndexRebuild(r -> {
+            DataAccessor values = r.getDataAccessor(table);
+            Bytes key = RecordSerializer.serializePrimaryKey(values, table, table.primaryKey);
+            recordInserted(key, serializeIndexKey(values));
+        });
+        long _stop = System.currentTimeMillis();
+        LOGGER.log(Level.INFO, "rebuilding index {0} took {1}", new Object[]{index.name, (_stop - _start) + " ms"});
+    }
+
+    @Override
+    public List<PostCheckpointAction> checkpoint(LogSequenceNumber sequenceNumber, boolean pin) throws DataStorageManagerException {
+        return data.checkpoint(sequenceNumber, pin);
+    }
+
+    @Override
+    public void unpinCheckpoint(LogSequenceNumber sequenceNumber) throws DataStorageManagerException {
+        data.unpinCheckpoint(sequenceNumber);
+    }
+
+    @Override
+    protected Stream<Bytes> scanner(IndexOperation operation, StatementEvaluationContext context, TableContext tableContext) throws StatementExecutionException {
+        return scan(operation, false, context, tableContext);
+    }
+
+    @Override
+    public boolean isSortedBy(IndexOperation operation, String[] columns) {
+        /* Leading columns matched by equality hold the same value on every entry */
+        final int fixed;
+        if (operation == null || operation instanceof SecondaryIndexRangeScan) {
+            fixed = 0;
+        } else if (operation instanceof SecondaryIndexPrefixScan) {
+            fixed = ((SecondaryIndexPrefixScan) operation).value.getNumberOfColumns();
+        } else if (operation instanceof SecondaryIndexSeek) {
+            fixed = index.columnNames.length;
+        } else {
+            return false;
+        }
+        List<String> fixedColumns = Arrays.asList(index.columnNames).subList(0, fixed);
+        int next = fixed;
+        for (String column : columns) {
+            if (fixedColumns.contains(column)) {
+                continue;
+            }
+            if (next >= index.columnNames.length || !index.columnNames[next].equals(column)) {
+                return false;
+            }
+            next++;
+        }
+        return true;
+    }
+
+    @Override
+    public Stream<Map.Entry<Bytes, Long>> sortedRecordSetScanner(IndexOperation operation, boolean descending, StatementEvaluationContext context, TableContext tableContext, KeyToPageIndex keyToPageIndex) throws DataStorageManagerException, StatementExecutionException {
+        return mapToPages(scan(operation, descending, context, tableContext), keyToPageIndex);
+    }
+
+    @Override
+    public boolean isCovering(String[] columns) {
+        Table table = tableManager.getTable();
+        for (String column : columns) {
+            if (index.getColumn(column) == null && !table.isPrimaryKeyColumn(column)
+                    && !Arrays.stream(index.includedColumns).anyMatch(c -> c.name.equals(column))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Stream<Record> coveringRecordSetScanner(IndexOperation operation, boolean descending, StatementEvaluationContext context, TableContext tableContext) throws StatementExecutionException {
+        Table table = tableManager.getTable();
+        return scanEntries(operation, descending, context, tableContext).map(entry -> toRecord(entry, table));
+    }
+
+    private Stream<Bytes> scan(IndexOperation operation, boolean descending, StatementEvaluationContext context, TableContext tableContext) throws StatementExecutionException {
+        return scanEntries(operation, descending, context, tableContext).map(BLinkIndexManager::primaryKey);
+    }
+
+    private Stream<Map.Entry<Bytes, Long>> scanEntries(IndexOperation operation, boolean descending, StatementEvaluationContext context, TableContext tableContext) throws StatementExecutionException {
+        final Bytes from;
+        final Bytes to;
+        if (operation == null) {
+            from = null;
+            to = null;
+        } else if (operation instanceof SecondaryIndexSeek) {
+            SecondaryIndexSeek sis = (SecondaryIndexSeek) operation;
+            from = encode(sis.value.computeNewValue(null, context, tableContext));
+            to = nextOrInfinity(from);
+        } else if (operation instanceof SecondaryIndexPrefixScan) {
+            SecondaryIndexPrefixScan sis = (SecondaryIndexPrefixScan) operation;
+            from = encode(sis.value.computeNewValue(null, context, tableContext));
+            to = nextOrInfinity(from);
+        } else if (operation instanceof SecondaryIndexRangeScan) {
+            /* Bounds are always inclusive, the predicate will be checked again on each record */
+            SecondaryIndexRangeScan sis = (SecondaryIndexRangeScan) operation;
+            SQLRecordKeyFunction minKey = sis.minValue;
+            if (minKey != null) {
+                from = encode(minKey.computeNewValue(null, context, tableContext));
+            } else {
+                from = null;
+            }
+            SQLRecordKeyFunction maxKey = sis.maxValue;
+            if (maxKey != null) {
+                to = nextOrInfinity(encode(maxKey.computeNewValue(null, context, tableContext)));
+            } else {
+                to = null;
+            }
+            LOGGER.log(Level.FINE, "range scan on {0}.{1}, from {2} to {3}", new Object[]{index.table, index.name, from, to});
+        } else {
+            throw new UnsupportedOperationException("unsuppported index access type " + operation);
+        }
+        if (from != null && to != null && from.compareTo(to) >= 0) {
+            return Stream.empty();
+        }
+        return descending ? data.scanDescending(from, to) : data.scan(from, to);
+    }
+
+    @Override
+    public void recordDeleted(Bytes key, Bytes indexKey) {
+        if (indexKey == null) {
+            return;
+        }
+        data.remove(entry(indexKey, key));
+    }
+
+    @Override
+    public void recordInserted(Bytes key, Bytes indexKey) {
+        if (indexKey == null) {
+            return;
+        }
+        Bytes entry = entry(indexKey, key);
+        int includedValuesOffset = entry.getLength() - includedValuesLength(indexKey);
+        long primaryKeyOffset = includedValuesOffset - key.getLength();
+        if (index.includedColumns.length == 0) {
+            data.put(entry, primaryKeyOffset);
+        } else {
+            data.put(entry, primaryKeyOffset | ((long) includedValuesOffset << 32));
+        }
+    }
+
+    @Override
+    public void recordUpdated(Bytes key, Bytes indexKeyRemoved, Bytes indexKeyAdded) {
+        if (Objects.equals(indexKeyRemoved, indexKeyAdded)) {
+            return;
+        }
+        // BEWARE that this operation is not atomic
+        recordInserted(key, indexKeyAdded);
+        recordDeleted(key, indexKeyRemoved);
+    }
+
+    @Override
+    public void truncate() throws DataStorageManagerException {
+        data.truncate();
+        dropIndexData();
+    }
+
+    @Override
+    public void close() {
+        try {
+            data.close();
+        } catch (DataStorageManagerException err) {
+            LOGGER.log(Level.SEVERE, "error while closing index " + index.name, err);
+        }
+    }
+
+    public long getSize() {
+        return data.size();
+    }
+
+    @Override
+    public Bytes serializeIndexKey(DataAccessor values) {
+        Bytes indexKey = super.serializeIndexKey(values);
+        if (index.includedColumns.length == 0) {
+            return indexKey;
+        }
+        /* Length prefixed index key followed by included values, which could be null */
+        VisibleByteArrayOutputStream out = new VisibleByteArrayOutputStream(indexKey.getLength() + 32);
+        try (ExtendedDataOutputStream doo = new ExtendedDataOutputStream(out)) {
+            doo.writeArray(indexKey.getBuffer(), indexKey.getOffset(), indexKey.getLength());
+            for (Column column : index.includedColumns) {
+                Object value = values.get(column.name);
+                if (value == null) {
+                    doo.writeVInt(ColumnTypes.NULL);
+                } else {
+                    RecordSerializer.serializeTypeAndValue(value, column.type, doo);
+                }
+            }
+        } catch (IOException err) {
+            throw new IllegalArgumentException("cannot serialize key for index " + index.name, err);
+        }
+        return Bytes.from_array(out.toByteArray());
+    }
+
+    private static Bytes primaryKey(Map.Entry<Bytes, Long> entry) {
+        Bytes key = entry.getKey();
+        long value = entry.getValue();
+        int offset = (int) value;
+        int end = includedValuesOffset(key, value);
+        return Bytes.from_array(key.getBuffer(), key.getOffset() + offset, end - offset);
+    }
+
+    private static int includedValuesOffset(Bytes entry, long value) {
+        int offset = (int) (value >>> 32);
+        return offset == 0 ? entry.getLength() : offset;
+    }
+
+    private Record toRecord(Map.Entry<Bytes, Long> entry, Table table) {
+        Bytes key = entry.getKey();
+        long value = entry.getValue();
+        Bytes primaryKey = primaryKey(entry);
+        Map<String, Object> values = new HashMap<>(RecordSerializer.deserializePrimaryKeyAsMap(primaryKey, table));
+        byte[] buffer = key.getBuffer();
+        int position = key.getOffset();
+        VisibleByteArrayOutputStream column = new VisibleByteArrayOutputStream(16);
+        for (Column c : index.columns) {
+            column.reset();
+            position = decodeColumn(c, buffer, position, column);
+            values.put(c.name, RecordSerializer.deserialize(column.toByteArray(), c.type));
+        }
+        if (index.includedColumns.length > 0) {
+            int offset = includedValuesOffset(key, value);
+            try (ByteArrayCursor cursor = ByteArrayCursor.wrap(buffer, key.getOffset() + offset, key.getLength() - offset)) {
+                for (Column c : index.includedColumns) {
+                    values.put(c.name, RecordSerializer.deserializeTypeAndValue(cursor));
+                }
+            } catch (IOException err) {
+                throw new IllegalStateException("bad entry in index " + index.name, err);
+            }
+        }
+        return new Record(primaryKey, Bytes.from_array(RecordSerializer.buildRecord(0, table, values::get)));
+    }
+
+    private Bytes entry(Bytes indexKey, Bytes key) {
+        VisibleByteArrayOutputStream out = new VisibleByteArrayOutputStream(indexKey.getLength() + key.getLength() + 8);
+        if (index.includedColumns.length == 0) {
+            encode(indexKey.getBuffer(), indexKey.getOffset(), indexKey.getLength(), out);
+            out.write(key.getBuffer(), key.getOffset(), key.getLength());
+            return Bytes.from_array(out.toByteArray());
+        }
+        try (ByteArrayCursor cursor = ByteArrayCursor.wrap(indexKey.getBuffer(), indexKey.getOffset(), indexKey.getLength())) {
+            Bytes columns = cursor.readBytesNoCopy();
+            encode(columns.getBuffer(), columns.getOffset(), columns.getLength(), out);
+            out.write(key.getBuffer(), key.getOffset(), key.getLength());
+            int included = cursor.getPosition();
+            out.write(indexKey.getBuffer(), included, indexKey.getOffset() + indexKey.getLength() - included);
+        } catch (IOException err) {
+            throw new IllegalArgumentException("bad key for index " + index.name, err);
+        }
+        return Bytes.from_array(out.toByteArray());
+    }
+
+    /**
+     * Length of values of included columns at the end of an index key
+     */
+    private int includedValuesLength(Bytes indexKey) {
+        if (index.includedColumns.length == 0) {
+            return 0;
+        }
+        try (ByteArrayCursor cursor = ByteArrayCursor.wrap(indexKey.getBuffer(), indexKey.getOffset(), indexKey.getLength())) {
+            cursor.skipArray();
+            return indexKey.getOffset() + indexKey.getLength() - cursor.getPosition();
+        } catch (IOException err) {
+            throw new IllegalArgumentException("bad key for index " + index.name, err);
+        }
+    }
+
+    /**
+     * Encodes an index key, or the leading columns of an index key, as serialized by
+     * {@link RecordSerializer#serializePrimaryKey(DataAccessor, herddb.model.ColumnsList, String[])}
+     */
+    private Bytes encode(byte[] indexKey) {
+        VisibleByteArrayOutputStream out = new VisibleByteArrayOutputStream(indexKey.length + 8);
+        encode(indexKey, 0, indexKey.length, out);
+        return Bytes.from_array(out.toByteArray());
+    }
+
+    private void encode(byte[] buffer, int offset, int length, VisibleByteArrayOutputStream out) {
+        if (index.columns.length == 1) {
+            /* Single column keys are not length prefixed */
+            encodeColumn(index.columns[0], buffer, offset, length, out);
+            return;
+        }
+        try (ByteArrayCursor cursor = ByteArrayCursor.wrap(buffer, offset, length)) {
+            for (int i = 0; !cursor.isEof(); i++) {
+                Bytes value = cursor.readBytesNoCopy();
+                encodeColumn(index.columns[i], value.getBuffer(), value.getOffset(), value.getLength(), out);
+            }
+        } catch (IOException err) {
+            throw new IllegalArgumentException("bad key for index " + index.name, err);
+        }
+    }
+
+    private static void encodeColumn(Column column, byte[] buffer, int offset, int length, VisibleByteArrayOutputStream out) {
+        switch (column.type) {
+            case ColumnTypes.INTEGER:
+            case ColumnTypes.NOTNULL_INTEGER:
+            case ColumnTypes.LONG:
+            case ColumnTypes.NOTNULL_LONG:
+            case ColumnTypes.TIMESTAMP:
+                /* Big endian two's complement, negative values must come first */
+                out.write(buffer[offset] ^ 0x80);
+                out.write(buffer, offset + 1, length - 1);
+                break;
+            case ColumnTypes.DOUBLE:
+                /* IEEE 754, negative values must come first and in reverse order */
+                boolean negative = buffer[offset] < 0;
+                for (int i = offset; i < offset + length; i++) {
+                    out.write(negative ? ~buffer[i] : (i == offset ? buffer[i] ^ 0x80 : buffer[i]));
+                }
+                break;
+            case ColumnTypes.BOOLEAN:
+                out.write(buffer, offset, length);
+                break;
+            default:
+                for (int i = offset; i < offset + length; i++) {
+                    out.write(buffer[i]);
+                    if (buffer[i] == TERMINATOR) {
+                        out.write(ESCAPE);
+                    }
+                }
+                out.write(TERMINATOR);
+                out.write(TERMINATOR);
+                break;
+        }
+    }
+
+    /**
+     * Decodes a column value encoded by {@link #encodeColumn(Column, byte[], int, int, VisibleByteArrayOutputStream)}
+     *
+     * @return the position following the encoded value
+     */
+    private static int decodeColumn(Column column, byte[] buffer, int position, VisibleByteArrayOutputStream out) {
+        switch (column.type) {
+            case ColumnTypes.INTEGER:
+            case ColumnTypes.NOTNULL_INTEGER:
+                out.write(buffer[position] ^ 0x80);
+                out.write(buffer, position + 1, 3);
+                return position + 4;
+            case ColumnTypes.LONG:
+            case ColumnTypes.NOTNULL_LONG:
+            case ColumnTypes.TIMESTAMP:
+                out.write(buffer[position] ^ 0x80);
+                out.write(buffer, position + 1, 7);
+                return position + 8;
+            case ColumnTypes.DOUBLE:
+                boolean negative = buffer[position] >= 0;
+                for (int i = position; i < position + 8; i++) {
+                    out.write(negative ? ~buffer[i] : (i == position ? buffer[i] ^ 0x80 : buffer[i]));
+                }
+                return position + 8;
+            case ColumnTypes.BOOLEAN:
+                out.write(buffer[position]);
+                return position + 1;
+            default:
+                while (true) {
+                    byte b = buffer[position++];
+                    if (b == TERMINATOR) {
+                        if (buffer[position++] == TERMINATOR) {
+                            return position;
+                        }
+                        /* Escaped zero */
+                    }
+                    out.write(b);
+                }
+        }
+    }
+
+    private static Bytes nextOrInfinity(Bytes prefix) {
+        try {
+            return prefix.next();
+        } catch (IllegalStateException noNextValue) {
+            return null;
+        }
+    }
+
+}
@@ -63,6 +63,10 @@ import java.util.stream.Stream;
 
 /**
  * Implementation of {@link KeyToPageIndex} with a backing {@link BLink} paged and stored to {@link DataStorageManager}.
+ * <p>
+ * Primary key indexes look up single keys in the {@link KeyToPageLookasideCache} of the {@link MemoryManager}, if
+ * enabled, before descending the tree.
+ * </p>
  *
  * @author diego.salvi
  */
@@ -93,6 +97,12 @@ public class BLinkKeyToPageIndex implements KeyToPageIndex {
 
     private volatile BLink<Bytes, Long> tree;
 
+    /**
+     * Cache of hot key mappings (could be {@code null})
+     */
+    private final KeyToPageLookasideCache cache;
+    private final int cacheOwner;
+
     private final AtomicBoolean closed;
 
     public static String deriveIndexName(String tableName) {
@@ -100,9 +110,21 @@ public class BLinkKeyToPageIndex implements KeyToPageIndex {
     }
 
     public BLinkKeyToPageIndex(String tableSpace, String tableName, MemoryManager memoryManager, DataStorageManager dataStorageManager) {
+        this(tableSpace, memoryManager, dataStorageManager, deriveIndexName(tableName), memoryManager.getPKLookasideCache());
+    }
+
+    /**
+     * Creates a tree stored as the given index, used by {@link BLinkIndexManager} for secondary indexes
+     */
+    BLinkKeyToPageIndex(String tableSpace, MemoryManager memoryManager, DataStorageManager dataStorageManager, String indexName) {
+        this(tableSpace, memoryManager, dataStorageManager, indexName, null);
+    }
+
+    private BLinkKeyToPageIndex(String tableSpace, MemoryManager memoryManager, DataStorageManager dataStorageManager,
+                                String indexName, KeyToPageLookasideCache cache) {
         super();
         this.tableSpace = tableSpace;
-        this.indexName = deriveIndexName(tableName);
+        this.indexName = indexName;
 
         this.memoryManager = memoryManager;
         this.dataStorageManager = dataStorageManager;
@@ -110,6 +132,9 @@ public class BLinkKeyToPageIndex implements KeyToPageIndex {
         this.newPageId = new AtomicLong(1);
         this.indexDataStorage = new BLinkIndexDataStorageImpl();
 
+        this.cache = cache;
+        this.cacheOwner = cache == null ? 0 : cache.register();
+
         this.closed = new AtomicBoolean(false);
     }
 
@@ -121,26 +146,41 @@ public class BLinkKeyToPageIndex implements KeyToPageIndex {
     @Override
     public void put(Bytes key, Long currentPage) {
         getTree().insert(key, currentPage);
+        if (cache != null) {
+            cache.update(cacheOwner, key, currentPage);
+        }
     }
 
     @Override
     public boolean put(Bytes key, Long newPage, Long expectedPage) {
-        return getTree().insert(key, newPage, expectedPage);
+        final boolean updated = getTree().insert(key, newPage, expectedPage);
+        if (updated && cache != null) {
+            cache.update(cacheOwner, key, newPage);
+        }
+        return updated;
     }
 
     @Override
     public boolean containsKey(Bytes key) {
-        return getTree().search(key) != null;
+        return get(key) != null;
     }
 
     @Override
     public Long get(Bytes key) {
-        return getTree().search(key);
+        final BLink<Bytes, Long> tree = getTree();
+        if (cache == null) {
+            return tree.search(key);
+        }
+        return cache.get(cacheOwner, key, tree::search);
     }
 
     @Override
     public Long remove(Bytes key) {
-        return getTree().delete(key);
+        final Long page = getTree().delete(key);
+        if (page != null && cache != null) {
+            cache.invalidate(cacheOwner, key);
+        }
+        return page;
     }
 
     @Override
@@ -171,7 +211,7 @@ public class BLinkKeyToPageIndex implements KeyToPageIndex {
                 return Stream.empty();
             }
             Bytes key = Bytes.from_array(seekValue);
-            Long pageId = getTree().search(key);
+            Long pageId = get(key);
             if (pageId == null) {
                 return Stream.empty();
             }
@@ -222,6 +262,66 @@ public class BLinkKeyToPageIndex implements KeyToPageIndex {
 
     }
 
+    @Override
+    public Stream<Entry<Bytes, Long>> descendingScanner(
+            IndexOperation operation, StatementEvaluationContext context,
+            TableContext tableContext
+    ) throws DataStorageManagerException, StatementExecutionException {
+        if (operation instanceof PrimaryIndexSeek) {
+            return scanner(operation, context, tableContext, null);
+        }
+
+        if (operation instanceof PrimaryIndexPrefixScan) {
+            PrimaryIndexPrefixScan scan = (PrimaryIndexPrefixScan) operation;
+            byte[] refvalue = scan.value.computeNewValue(null, context, tableContext);
+            Bytes firstKey = Bytes.from_array(refvalue);
+            Bytes lastKey = firstKey.next();
+
+            return getTree().scanDescending(firstKey, lastKey);
+        }
+
+        if (operation == null) {
+            return getTree().scanDescending(null, null);
+        } else if (operation instanceof PrimaryIndexRangeScan) {
+            PrimaryIndexRangeScan sis = (PrimaryIndexRangeScan) operation;
+            SQLRecordKeyFunction minKey = sis.minValue;
+            Bytes refminvalue = minKey == null ? null : Bytes.from_array(minKey.computeNewValue(null, context, tableContext));
+            SQLRecordKeyFunction maxKey = sis.maxValue;
+            Bytes refmaxvalue = null;
+            if (maxKey != null) {
+                // upper bound is inclusive, the predicate will be checked again on each record
+                try {
+                    refmaxvalue = Bytes.from_array(maxKey.computeNewValue(null, context, tableContext)).next();
+                } catch (IllegalStateException noNextValue) {
+                    refmaxvalue = null;
+                }
+            }
+            return getTree().scanDescending(refminvalue, refmaxvalue);
+        }
+
+        throw new DataStorageManagerException("operation " + operation + " not implemented on " + this.getClass());
+    }
+
+    /**
+     * Ordered scan of the tree
+     *
+     * @param from inclusive (if not null)
+     * @param to   exclusive (if not null)
+     */
+    Stream<Entry<Bytes, Long>> scan(Bytes from, Bytes to) {
+        return getTree().scan(from, to);
+    }
+
+    /**
+     * Ordered scan of the tree, in descending key order
+     *
+     * @param from inclusive (if not null)
+     * @param to   exclusive (if not null)
+     */
+    Stream<Entry<Bytes, Long>> scanDescending(Bytes from, Bytes to) {
+        return getTree().scanDescending(from, to);
+    }
+
     @Override
     public void close() throws DataStorageManagerException {
 
@@ -231,6 +331,9 @@ public class BLinkKeyToPageIndex implements KeyToPageIndex {
             if (tree != null) {
                 tree.close();
             }
+            if (cache != null) {
+                cache.invalidateAll(cacheOwner);
+            }
         } else {
             throw new DataStorageManagerException("Index " + indexName + " already closed");
         }
@@ -239,6 +342,9 @@ public class BLinkKeyToPageIndex implements KeyToPageIndex {
     @Override
     public void truncate() {
         getTree().truncate();
+        if (cache != null) {
+            cache.invalidateAll(cacheOwner);
+        }
     }
 
     @Override
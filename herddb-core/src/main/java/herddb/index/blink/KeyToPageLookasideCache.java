@@ -0,0 +1,376 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.index.blink;
+
+import herddb.utils.Bytes;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of key to page id mappings consulted before descending a {@link BLinkKeyToPageIndex} tree.
+ * <p>
+ * A single cache is shared by every primary key index of the server, each index registers itself and gets an
+ * owner id stored along with keys. Mappings are spread over a fixed number of segments, each one guarded by its
+ * own lock. A segment is an open addressing table with linear probing and a CLOCK hand: looked up mappings get
+ * their reference bit set, the hand clears set bits and evicts the first mapping not referenced since its last
+ * pass.
+ * </p>
+ * <p>
+ * The cache is only populated on lookups missing it, indexes update or invalidate cached mappings after every
+ * change to the tree. Each segment keeps a version incremented by changes: a mapping loaded from the tree is
+ * cached only if no change happened in its segment during the load, so a concurrent change cannot be
+ * overwritten by a stale value.
+ * </p>
+ */
+public final class KeyToPageLookasideCache {
+
+    private static final int SEGMENTS = 16;
+    private static final int SEGMENT_MASK = SEGMENTS - 1;
+
+    /**
+     * Heap size of a slot: key hash, owner id, key reference, page id and reference bit
+     */
+    static final long SLOT_SIZE = 4 + 4 + 8 + 8 + 1;
+
+    /**
+     * Expected heap size of a mapping, used to dimension slot tables: two slots (to keep load factor at most
+     * 0.5) plus a small key
+     */
+    private static final long EXPECTED_ENTRY_SIZE = 2 * SLOT_SIZE + Bytes.estimateSize(16);
+
+    private static final int MAX_SEGMENT_CAPACITY = 1 << 30;
+
+    private final long maxMemory;
+    private final Segment[] segments;
+
+    private final AtomicInteger owners = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public KeyToPageLookasideCache(long maxMemory) {
+        final long segmentMemory = maxMemory / SEGMENTS;
+        /*
+         * Slot tables are sized from the memory budget: the biggest power of two capacity such that slots plus
+         * expected keys of capacity / 2 mappings fit the segment. Slot tables never take more than the segment
+         * budget, the remaining memory is left to keys.
+         */
+        final long slots = Math.min(MAX_SEGMENT_CAPACITY, 2 * segmentMemory / EXPECTED_ENTRY_SIZE);
+        if (slots < 2) {
+            throw new IllegalArgumentException("Max memory for primary key lookaside cache (" + maxMemory
+                    + ") must be at least " + (SEGMENTS * EXPECTED_ENTRY_SIZE));
+        }
+        final int capacity = Integer.highestOneBit((int) slots);
+        this.maxMemory = maxMemory;
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(capacity, segmentMemory);
+        }
+    }
+
+    /**
+     * Registers a new index using the cache
+     *
+     * @return owner id to use on every cache access of the index
+     */
+    public int register() {
+        return owners.incrementAndGet();
+    }
+
+    /**
+     * Lookups a key, loading its mapping from the backing index if not cached.
+     *
+     * @param owner  index owner id
+     * @param key    key to lookup
+     * @param loader loads key mapping from the backing index, it could return {@code null}
+     * @return page id of the key or {@code null} if the key doesn't exist
+     */
+    public Long get(int owner, Bytes key, Function<Bytes, Long> loader) {
+        final int hash = hash(owner, key);
+        final Segment segment = segments[hash & SEGMENT_MASK];
+
+        final long version;
+        long stamp = segment.lock.readLock();
+        try {
+            final int slot = segment.find(owner, key, hash);
+            if (slot >= 0) {
+                /* Benign race: concurrent readers can only set the bit */
+                segment.referenced[slot] = true;
+                hits.increment();
+                return segment.pages[slot];
+            }
+            version = segment.version;
+        } finally {
+            segment.lock.unlockRead(stamp);
+        }
+
+        misses.increment();
+        final Long page = loader.apply(key);
+        if (page != null) {
+            stamp = segment.lock.writeLock();
+            try {
+                if (segment.version == version) {
+                    segment.insert(owner, key, hash, page);
+                }
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Updates a cached mapping after a change in the backing index. Not cached keys are not added.
+     */
+    public void update(int owner, Bytes key, long page) {
+        final int hash = hash(owner, key);
+        final Segment segment = segments[hash & SEGMENT_MASK];
+        final long stamp = segment.lock.writeLock();
+        try {
+            segment.version++;
+            final int slot = segment.find(owner, key, hash);
+            if (slot >= 0) {
+                segment.pages[slot] = page;
+            }
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Drops a cached mapping after its removal from the backing index
+     */
+    public void invalidate(int owner, Bytes key) {
+        final int hash = hash(owner, key);
+        final Segment segment = segments[hash & SEGMENT_MASK];
+        final long stamp = segment.lock.writeLock();
+        try {
+            segment.version++;
+            final int slot = segment.find(owner, key, hash);
+            if (slot >= 0) {
+                segment.remove(slot);
+            }
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Drops every cached mapping of an index
+     */
+    public void invalidateAll(int owner) {
+        for (Segment segment : segments) {
+            final long stamp = segment.lock.writeLock();
+            try {
+                segment.version++;
+                segment.removeAll(owner);
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * Returns the estimated heap memory used by slot tables and cached keys
+     */
+    public long getUsedMemory() {
+        long used = 0;
+        for (Segment segment : segments) {
+            final long stamp = segment.lock.readLock();
+            try {
+                used += segment.keys.length * SLOT_SIZE + segment.keysMemory;
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return used;
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            final long stamp = segment.lock.readLock();
+            try {
+                size += segment.size;
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private static int hash(int owner, Bytes key) {
+        int hash = key.hashCode() * 31 + owner;
+        /* Bytes hash codes of short keys have poor high bits, mix them before picking segments and slots */
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    private static final class Segment {
+
+        private final StampedLock lock = new StampedLock();
+
+        private final int[] hashes;
+        private final int[] owners;
+        private final Bytes[] keys;
+        private final long[] pages;
+        private final boolean[] referenced;
+        private final int mask;
+
+        private final int maxEntries;
+        private final long maxKeysMemory;
+
+        private int size;
+        private long keysMemory;
+        private int hand;
+
+        /**
+         * Incremented on every change of the backing indexes of mappings in this segment
+         */
+        private long version;
+
+        private Segment(int capacity, long maxMemory) {
+            this.hashes = new int[capacity];
+            this.owners = new int[capacity];
+            this.keys = new Bytes[capacity];
+            this.pages = new long[capacity];
+            this.referenced = new boolean[capacity];
+            this.mask = capacity - 1;
+            /* Keep load factor at most 0.5 to have short probe sequences */
+            this.maxEntries = capacity / 2;
+            this.maxKeysMemory = maxMemory - capacity * SLOT_SIZE;
+        }
+
+        private int find(int owner, Bytes key, int hash) {
+            int slot = (hash >>> 4) & mask;
+            Bytes current;
+            while ((current = keys[slot]) != null) {
+                if (hashes[slot] == hash && owners[slot] == owner && current.equals(key)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void insert(int owner, Bytes key, int hash, long page) {
+            final int existing = find(owner, key, hash);
+            if (existing >= 0) {
+                pages[existing] = page;
+                return;
+            }
+
+            /* Do not retain shared buffers, they could be whole records or pages */
+            key = key.nonShared();
+            final long keySize = key.getEstimatedSize();
+            if (keySize > maxKeysMemory) {
+                return;
+            }
+            while (size >= maxEntries || keysMemory + keySize > maxKeysMemory) {
+                evict();
+            }
+
+            int slot = (hash >>> 4) & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            owners[slot] = owner;
+            keys[slot] = key;
+            pages[slot] = page;
+            /* New mappings must be looked up again to survive the next pass of the hand */
+            referenced[slot] = false;
+            size++;
+            keysMemory += keySize;
+        }
+
+        private void evict() {
+            while (true) {
+                final int slot = hand;
+                if (keys[slot] != null) {
+                    if (!referenced[slot]) {
+                        /* Another mapping could be shifted in the slot, it will be checked on next eviction */
+                        remove(slot);
+                        return;
+                    }
+                    referenced[slot] = false;
+                }
+                hand = (slot + 1) & mask;
+            }
+        }
+
+        /**
+         * Removes a mapping shifting back following mappings of its probe sequence, no tombstone is left
+         */
+        private void remove(int slot) {
+            keysMemory -= keys[slot].getEstimatedSize();
+            size--;
+
+            int hole = slot;
+            int next = (slot + 1) & mask;
+            while (keys[next] != null) {
+                final int ideal = (hashes[next] >>> 4) & mask;
+                /* Move the mapping only if its ideal slot doesn't lie cyclically between hole and its slot */
+                if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+                    hashes[hole] = hashes[next];
+                    owners[hole] = owners[next];
+                    keys[hole] = keys[next];
+                    pages[hole] = pages[next];
+                    referenced[hole] = referenced[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            keys[hole] = null;
+            referenced[hole] = false;
+        }
+
+        private void removeAll(int owner) {
+            int slot = 0;
+            while (slot <= mask) {
+                if (keys[slot] != null && owners[slot] == owner) {
+                    /* A following mapping could be shifted in the slot, check it again */
+                    remove(slot);
+                } else {
+                    slot++;
+                }
+            }
+        }
+    }
+}
@@ -36,4 +36,6 @@ public interface DBManagerStatsMXBean {
 
     long getCachePlansMisses();
 
+    long getOffHeapDataUsedMemory();
+
 }
@@ -47,4 +47,14 @@ public interface TableSpaceManagerStatsMXBean {
 
     long getKeysUsedMemory();
 
+    /**
+     * Time spent holding the tablespace exclusive lock during last checkpoint,
+     * during this time no statement could run on the tablespace. With fuzzy
+     * checkpoints it is the time commits and writes to the table being
+     * flushed were blocked.
+     *
+     * @return stall time in milliseconds
+     */
+    long getLastCheckpointStallTime();
+
 }
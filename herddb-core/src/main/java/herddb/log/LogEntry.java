@@ -21,6 +21,7 @@
 package herddb.log;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import herddb.model.Record;
 import herddb.utils.Bytes;
 import herddb.utils.ExtendedDataInputStream;
 import herddb.utils.ExtendedDataOutputStream;
@@ -120,6 +121,11 @@ public class LogEntry {
                 doo.writeArray(key);
                 doo.writeArray(value);
                 break;
+            case LogEntryType.INSERT_BATCH:
+                // value contains the records
+                doo.writeUTF(tableName);
+                doo.writeArray(value);
+                break;
             case LogEntryType.DELETE:
                 doo.writeUTF(tableName);
                 doo.writeArray(key);
@@ -181,6 +187,10 @@ public class LogEntry {
                     key = dis.readBytes();
                     value = dis.readBytes();
                     break;
+                case LogEntryType.INSERT_BATCH:
+                    tableName = dis.readUTF();
+                    value = dis.readBytes();
+                    break;
                 case LogEntryType.DELETE:
                     tableName = dis.readUTF();
                     key = dis.readBytes();
@@ -221,6 +231,29 @@ public class LogEntry {
         }
     }
 
+    /**
+     * Decodes the records of an {@link LogEntryType#INSERT_BATCH} entry
+     *
+     * @return the records, in the same order of the batch
+     */
+    public Record[] getBatchRecords() {
+        if (type != LogEntryType.INSERT_BATCH) {
+            throw new IllegalStateException("entry " + this + " is not a batch");
+        }
+        try (ExtendedDataInputStream dis = new ExtendedDataInputStream(
+                new SimpleByteArrayInputStream(value.getBuffer(), value.getOffset(), value.getLength()))) {
+            Record[] records = new Record[dis.readVInt()];
+            for (int i = 0; i < records.length; i++) {
+                Bytes recordKey = dis.readBytes();
+                Bytes recordValue = dis.readBytes();
+                records[i] = new Record(recordKey, recordValue);
+            }
+            return records;
+        } catch (IOException err) {
+            throw new RuntimeException(err);
+        }
+    }
+
     @Override
     public String toString() {
         return "LogEntry{" + "type=" + type + ", transactionId=" + transactionId + ", tableName=" + tableName + ", key=" + key + ", value=" + value + ", timestamp=" + timestamp + '}';
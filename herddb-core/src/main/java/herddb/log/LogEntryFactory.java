@@ -21,9 +21,14 @@
 package herddb.log;
 
 import herddb.model.Index;
+import herddb.model.Record;
 import herddb.model.Table;
 import herddb.model.Transaction;
 import herddb.utils.Bytes;
+import herddb.utils.ExtendedDataOutputStream;
+import herddb.utils.VisibleByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
 
 /**
  * Factory for entries
@@ -66,6 +71,21 @@ public class LogEntryFactory {
         return new LogEntry(System.currentTimeMillis(), LogEntryType.INSERT, transaction != null ? transaction.transactionId : 0, table.name, key, value);
     }
 
+    public static LogEntry insertBatch(Table table, List<Record> records, Transaction transaction) {
+        VisibleByteArrayOutputStream payload = new VisibleByteArrayOutputStream();
+        try (ExtendedDataOutputStream doo = new ExtendedDataOutputStream(payload)) {
+            doo.writeVInt(records.size());
+            for (Record record : records) {
+                doo.writeArray(record.key);
+                doo.writeArray(record.value);
+            }
+        } catch (IOException err) {
+            throw new RuntimeException(err);
+        }
+        return new LogEntry(System.currentTimeMillis(), LogEntryType.INSERT_BATCH, transaction != null ? transaction.transactionId : 0, table.name, null,
+                Bytes.from_array(payload.getBuffer(), 0, payload.size()));
+    }
+
     public static LogEntry update(Table table, Bytes key, Bytes value, Transaction transaction) {
         return new LogEntry(System.currentTimeMillis(), LogEntryType.UPDATE, transaction != null ? transaction.transactionId : 0, table.name, key, value);
     }
@@ -40,5 +40,9 @@ public class LogEntryType {
     public static final short DROP_INDEX = 11;
     public static final short TRUNCATE_TABLE = 12;
     public static final short NOOP = 13;
+    /**
+     * Insert of many records of the same table, written for batches of inserts
+     */
+    public static final short INSERT_BATCH = 14;
 
 }
@@ -35,6 +35,7 @@ import herddb.storage.DataStorageManager;
 import herddb.storage.DataStorageManagerException;
 import herddb.storage.FullTableScanConsumer;
 import herddb.storage.IndexStatus;
+import herddb.storage.IndexStatusDoesNotExistException;
 import herddb.storage.TableStatus;
 import herddb.utils.ByteArrayCursor;
 import herddb.utils.Bytes;
@@ -233,7 +234,7 @@ public class MemoryDataStorageManager extends DataStorageManager {
         byte[] data = indexStatuses.get(checkPoint);
 
         if (data == null) {
-            throw new DataStorageManagerException("no such index checkpoint: " + checkPoint);
+            throw new IndexStatusDoesNotExistException("no such index checkpoint: " + checkPoint);
         }
 
         try {
@@ -561,9 +562,11 @@ public class MemoryDataStorageManager extends DataStorageManager {
 
     @Override
     public void releaseKeyToPageMap(String tablespace, String name, KeyToPageIndex keyToPage) {
-        if (keyToPage != null) {
+        if (keyToPage instanceof ConcurrentMapKeyToPageIndex) {
             ConcurrentMapKeyToPageIndex impl = (ConcurrentMapKeyToPageIndex) keyToPage;
             impl.getMap().clear();
+        } else if (keyToPage != null) {
+            keyToPage.close();
         }
     }
 
@@ -44,6 +44,12 @@ public class Index implements ColumnsList {
 
     public static final String TYPE_HASH = "hash";
     public static final String TYPE_BRIN = "brin";
+    public static final String TYPE_BTREE = "btree";
+
+    /**
+     * Serialized index contains columns stored in index entries but not indexed
+     */
+    private static final long FLAG_INCLUDED_COLUMNS = 1;
 
     public final String name;
     public final String uuid;
@@ -53,6 +59,10 @@ public class Index implements ColumnsList {
     public final Column[] columns;
     public final String[] columnNames;
     public final Map<String, Column> columnByName = new HashMap<>();
+    /**
+     * Columns stored in index entries but not indexed, supported only by {@link #TYPE_BTREE} indexes
+     */
+    public final Column[] includedColumns;
 
     @Override
     public String[] getPrimaryKey() {
@@ -61,13 +71,14 @@ public class Index implements ColumnsList {
 
     private Index(
             String uuid,
-            String name, String table, String tablespace, String type, Column[] columns
+            String name, String table, String tablespace, String type, Column[] columns, Column[] includedColumns
     ) {
         this.name = name;
         this.uuid = uuid;
         this.table = table;
         this.tablespace = tablespace;
         this.columns = columns;
+        this.includedColumns = includedColumns;
         this.type = type;
         this.columnNames = new String[columns.length];
         int i = 0;
@@ -98,7 +109,7 @@ public class Index implements ColumnsList {
             ExtendedDataInputStream dii = new ExtendedDataInputStream(ii);
             long iversion = dii.readVLong(); // version
             long iflags = dii.readVLong(); // flags for future implementations
-            if (iversion != 1 || iflags != 0) {
+            if (iversion != 1 || (iflags & ~FLAG_INCLUDED_COLUMNS) != 0) {
                 throw new IOException("corrupted index file");
             }
             String tablespace = dii.readUTF();
@@ -107,45 +118,46 @@ public class Index implements ColumnsList {
             String table = dii.readUTF();
             dii.readVInt(); // for future implementations
             String type = dii.readUTF();
-            int ncols = dii.readVInt();
-            Column[] columns = new Column[ncols];
-            for (int i = 0; i < ncols; i++) {
-                long cversion = dii.readVLong(); // version
-                long cflags = dii.readVLong(); // flags for future implementations
-                if (cversion != 1 || cflags != 0) {
-                    throw new IOException("corrupted index file");
-                }
-                String cname = dii.readUTF();
-                int ctype = dii.readVInt();
-                int serialPosition = dii.readVInt();
-                dii.readVInt(); // for future implementations
-                columns[i] = Column.column(cname, ctype, serialPosition);
-            }
-            return new Index(uuid, name, table, tablespace, type, columns);
+            Column[] columns = deserializeColumns(dii);
+            Column[] includedColumns = (iflags & FLAG_INCLUDED_COLUMNS) != 0 ? deserializeColumns(dii) : new Column[0];
+            return new Index(uuid, name, table, tablespace, type, columns, includedColumns);
         } catch (IOException err) {
             throw new IllegalArgumentException(err);
         }
     }
 
+    private static Column[] deserializeColumns(ExtendedDataInputStream dii) throws IOException {
+        int ncols = dii.readVInt();
+        Column[] columns = new Column[ncols];
+        for (int i = 0; i < ncols; i++) {
+            long cversion = dii.readVLong(); // version
+            long cflags = dii.readVLong(); // flags for future implementations
+            if (cversion != 1 || cflags != 0) {
+                throw new IOException("corrupted index file");
+            }
+            String cname = dii.readUTF();
+            int ctype = dii.readVInt();
+            int serialPosition = dii.readVInt();
+            dii.readVInt(); // for future implementations
+            columns[i] = Column.column(cname, ctype, serialPosition);
+        }
+        return columns;
+    }
+
     public byte[] serialize() {
         ByteArrayOutputStream oo = new ByteArrayOutputStream();
         try (ExtendedDataOutputStream doo = new ExtendedDataOutputStream(oo)) {
             doo.writeVLong(1); // version
-            doo.writeVLong(0); // flags for future implementations
+            doo.writeVLong(includedColumns.length > 0 ? FLAG_INCLUDED_COLUMNS : 0);
             doo.writeUTF(tablespace);
             doo.writeUTF(name);
             doo.writeUTF(uuid);
             doo.writeUTF(table);
             doo.writeVInt(0); // for future implementation
             doo.writeUTF(type);
-            doo.writeVInt(columns.length);
-            for (Column c : columns) {
-                doo.writeVLong(1); // version
-                doo.writeVLong(0); // flags for future implementations
-                doo.writeUTF(c.name);
-                doo.writeVInt(c.type);
-                doo.writeVInt(c.serialPosition);
-                doo.writeVInt(0); // flags for future implementations
+            serializeColumns(columns, doo);
+            if (includedColumns.length > 0) {
+                serializeColumns(includedColumns, doo);
             }
         } catch (IOException ee) {
             throw new RuntimeException(ee);
@@ -153,9 +165,22 @@ public class Index implements ColumnsList {
         return oo.toByteArray();
     }
 
+    private static void serializeColumns(Column[] columns, ExtendedDataOutputStream doo) throws IOException {
+        doo.writeVInt(columns.length);
+        for (Column c : columns) {
+            doo.writeVLong(1); // version
+            doo.writeVLong(0); // flags for future implementations
+            doo.writeUTF(c.name);
+            doo.writeVInt(c.type);
+            doo.writeVInt(c.serialPosition);
+            doo.writeVInt(0); // flags for future implementations
+        }
+    }
+
     public static class Builder {
 
         private final List<Column> columns = new ArrayList<>();
+        private final List<Column> includedColumns = new ArrayList<>();
         private String name;
         private String uuid;
         private String table;
@@ -207,16 +232,38 @@ public class Index implements ColumnsList {
             return this;
         }
 
+        /**
+         * Adds a column stored in index entries but not indexed
+         */
+        public Builder includedColumn(String name, int type) {
+            if (name == null || name.isEmpty()) {
+                throw new IllegalArgumentException();
+            }
+            if (this.includedColumns.stream().filter(c -> (c.name.equals(name))).findAny().isPresent()) {
+                throw new IllegalArgumentException("column " + name + " already included");
+            }
+            this.includedColumns.add(Column.column(name, type, 0));
+            return this;
+        }
+
         public Index build() {
             if (table == null || table.isEmpty()) {
                 throw new IllegalArgumentException("table is not defined");
             }
-            if (!TYPE_HASH.equals(type) && !TYPE_BRIN.equals(type)) {
-                throw new IllegalArgumentException("only index type " + TYPE_HASH + "," + TYPE_BRIN + " are supported");
+            if (!TYPE_HASH.equals(type) && !TYPE_BRIN.equals(type) && !TYPE_BTREE.equals(type)) {
+                throw new IllegalArgumentException("only index type " + TYPE_HASH + "," + TYPE_BRIN + "," + TYPE_BTREE + " are supported");
             }
             if (columns.isEmpty()) {
                 throw new IllegalArgumentException("specify at least one column to index");
             }
+            if (!includedColumns.isEmpty() && !TYPE_BTREE.equals(type)) {
+                throw new IllegalArgumentException("only index type " + TYPE_BTREE + " supports included columns");
+            }
+            for (Column included : includedColumns) {
+                if (columns.stream().filter(c -> (c.name.equals(included.name))).findAny().isPresent()) {
+                    throw new IllegalArgumentException("column " + included.name + " is already indexed");
+                }
+            }
             if (name == null || name.isEmpty()) {
                 name = table + "_" + columns.stream().map(s -> s.name.toLowerCase()).collect(Collectors.joining("_"));
             }
@@ -224,7 +271,8 @@ public class Index implements ColumnsList {
                 uuid = UUID.randomUUID().toString();
             }
 
-            return new Index(uuid, name, table, tablespace, type, columns.toArray(new Column[columns.size()]));
+            return new Index(uuid, name, table, tablespace, type, columns.toArray(new Column[columns.size()]),
+                    includedColumns.toArray(new Column[includedColumns.size()]));
         }
 
     }
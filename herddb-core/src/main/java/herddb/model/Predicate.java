@@ -21,6 +21,7 @@
 package herddb.model;
 
 import herddb.index.IndexOperation;
+import herddb.storage.ColumnZoneMap;
 import herddb.utils.Bytes;
 import herddb.utils.Wrapper;
 
@@ -56,6 +57,18 @@ public abstract class Predicate implements Wrapper {
         return PrimaryKeyMatchOutcome.NEED_FULL_RECORD_EVALUATION;
     }
 
+    /**
+     * Checks the summaries of the values of a data page against the predicate
+     *
+     * @param zoneMaps summaries of some columns of the page
+     * @param context the context of execution
+     * @return false only if no record of the page can match the predicate
+     * @throws StatementExecutionException
+     */
+    public boolean mayMatchPage(ColumnZoneMap[] zoneMaps, StatementEvaluationContext context) throws StatementExecutionException {
+        return true;
+    }
+
     public enum PrimaryKeyMatchOutcome {
         FAILED,
         NEED_FULL_RECORD_EVALUATION,
@@ -69,6 +69,10 @@ public final class Record implements SizeAwareObject {
         return key.getEstimatedSize() + Bytes.estimateSize(value) + CONSTANT_BYTE_SIZE;
     }
 
+    public static long estimateSize(int keyLength, int valueLength) {
+        return Bytes.estimateSize(keyLength) + Bytes.estimateSize(valueLength) + CONSTANT_BYTE_SIZE;
+    }
+
     public final Bytes key;
     public final Bytes value;
     private WeakReference<Map<String, Object>> cache;
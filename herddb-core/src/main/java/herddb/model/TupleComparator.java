@@ -35,4 +35,18 @@ public interface TupleComparator extends Comparator<DataAccessor>, Serializable
         return false;
     }
 
+    /**
+     * Columns of the table compared by this comparator, every column is compared in the same direction (see
+     * {@link #isDescending()})
+     *
+     * @return column names or {@code null} if the comparator cannot be expressed as an order on table columns
+     */
+    default String[] getSortedColumns() {
+        return null;
+    }
+
+    default boolean isDescending() {
+        return false;
+    }
+
 }
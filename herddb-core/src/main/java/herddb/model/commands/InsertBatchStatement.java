@@ -0,0 +1,65 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.model.commands;
+
+import herddb.model.DMLStatement;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.StatementExecutionException;
+import java.util.List;
+
+/**
+ * Insert many records with the same {@link InsertStatement}, each record is evaluated with its own context.
+ * <p>
+ * Records are checked and locked together and are written to the log with a single entry, or with a few
+ * entries when the batch is too big for one. Outside of a transaction a split batch is not atomic on crash:
+ * recovery could replay only its first entries, as it happens to a sequence of single inserts.
+ * </p>
+ */
+public class InsertBatchStatement extends DMLStatement {
+
+    private final InsertStatement insert;
+    private final List<StatementEvaluationContext> contexts;
+
+    public InsertBatchStatement(InsertStatement insert, List<StatementEvaluationContext> contexts) {
+        super(insert.getTable(), insert.getTableSpace());
+        this.insert = insert;
+        this.contexts = contexts;
+    }
+
+    public InsertStatement getInsert() {
+        return insert;
+    }
+
+    /**
+     * Evaluation contexts, one for each record to insert
+     */
+    public List<StatementEvaluationContext> getContexts() {
+        return contexts;
+    }
+
+    @Override
+    public void validateContext(StatementEvaluationContext context) throws StatementExecutionException {
+        for (StatementEvaluationContext recordContext : contexts) {
+            insert.validateContext(recordContext);
+        }
+    }
+
+}
@@ -20,6 +20,7 @@
 
 package herddb.model.commands;
 
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import herddb.model.Predicate;
 import herddb.model.Projection;
 import herddb.model.ScanLimits;
@@ -34,6 +35,7 @@ import herddb.model.TupleComparator;
  *
  * @author enrico.olivelli
  */
+@SuppressFBWarnings(value = {"EI_EXPOSE_REP", "EI_EXPOSE_REP2"})
 public class ScanStatement extends TableAwareStatement {
 
     private Predicate predicate;
@@ -41,6 +43,7 @@ public class ScanStatement extends TableAwareStatement {
     private TupleComparator comparator;
     private ScanLimits limits;
     private Table tableDef;
+    private String[] columnsCoveredByIndex;
 
     public ScanStatement(String tableSpace, Table table, Predicate predicate) {
         this(tableSpace, table.name, Projection.IDENTITY(table.columnNames, table.columns), predicate, null, null);
@@ -106,4 +109,18 @@ public class ScanStatement extends TableAwareStatement {
     public void setTableDef(Table table) {
         this.tableDef = table;
     }
+
+    /**
+     * Columns read by this scan, only if every one of them is stored in the secondary index used to access the table.
+     * In this case records can be read from index entries without accessing table data.
+     *
+     * @return the columns read by the scan or {@code null}
+     */
+    public String[] getColumnsCoveredByIndex() {
+        return columnsCoveredByIndex;
+    }
+
+    public void setColumnsCoveredByIndex(String[] columnsCoveredByIndex) {
+        this.columnsCoveredByIndex = columnsCoveredByIndex;
+    }
 }
@@ -21,6 +21,7 @@
 package herddb.model.planner;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import herddb.core.DBManager;
 import herddb.core.MaterializedRecordSet;
 import herddb.core.RecordSetFactory;
 import herddb.core.SimpleDataScanner;
@@ -39,11 +40,17 @@ import herddb.sql.expressions.AccessCurrentRowExpression;
 import herddb.sql.expressions.CompiledSQLExpression;
 import herddb.sql.functions.BuiltinFunctions;
 import herddb.utils.DataAccessor;
+import herddb.utils.SystemProperties;
 import herddb.utils.Wrapper;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Generic aggregation
@@ -53,6 +60,12 @@ import java.util.Map;
 @SuppressFBWarnings(value = "EI_EXPOSE_REP2")
 public class AggregateOp implements PlannerOp {
 
+    private static final int PARALLEL_AGGREGATION_BATCH_SIZE = SystemProperties.
+            getIntSystemProperty("herddb.planner.aggregate.parallelBatchSize", 4096);
+
+    private static final int SPILL_PARTITIONS = SystemProperties.
+            getIntSystemProperty("herddb.planner.aggregate.spillPartitions", 16);
+
     private final PlannerOp input;
     private final String[] fieldnames;
     private final Column[] columns;
@@ -92,8 +105,12 @@ public class AggregateOp implements PlannerOp {
         StatementExecutionResult input = this.input.execute(tableSpaceManager, transactionContext, context, lockRequired, forWrite);
         ScanResult downstreamScanResult = (ScanResult) input;
         final DataScanner inputScanner = downstreamScanResult.dataScanner;
+        DBManager dbManager = tableSpaceManager.getDbmanager();
         AggregatedDataScanner filtered = new AggregatedDataScanner(inputScanner, context,
-                tableSpaceManager.getDbmanager().getRecordSetFactory());
+                dbManager.getRecordSetFactory(),
+                dbManager.getParallelScanPool(),
+                dbManager.getMaxScanParallelismPerStatement(),
+                dbManager.getMaxAggregateGroupsInMemory());
         return new ScanResult(downstreamScanResult.transactionId, filtered);
 
     }
@@ -114,16 +131,25 @@ public class AggregateOp implements PlannerOp {
         private DataScanner aggregatedScanner;
         private final StatementEvaluationContext context;
         private final RecordSetFactory recordSetFactory;
+        private final ForkJoinPool pool;
+        private final int parallelism;
+        private final int maxGroupsInMemory;
 
         public AggregatedDataScanner(
                 DataScanner wrapped,
                 StatementEvaluationContext context,
-                RecordSetFactory recordSetFactory
+                RecordSetFactory recordSetFactory,
+                ForkJoinPool pool,
+                int parallelism,
+                int maxGroupsInMemory
         ) throws StatementExecutionException {
             super(wrapped.getTransaction(), fieldnames, columns);
             this.wrapped = wrapped;
             this.context = context;
             this.recordSetFactory = recordSetFactory;
+            this.pool = pool;
+            this.parallelism = parallelism;
+            this.maxGroupsInMemory = maxGroupsInMemory;
         }
 
         private class Key {
@@ -158,7 +184,7 @@ public class AggregateOp implements PlannerOp {
 
         }
 
-        private Key key(DataAccessor tuple) throws DataScannerException {
+        private Key key(DataAccessor tuple) {
             Object[] values = new Object[groupedFiledsIndexes.size()];
             int i = 0;
             for (int posInUpstreamRow : groupedFiledsIndexes) {
@@ -168,57 +194,227 @@ public class AggregateOp implements PlannerOp {
             return new Key(values);
         }
 
-        private void compute() throws DataScannerException {
+        /**
+         * Aggregates a subset of the input rows, it is accessed by only one thread at a time
+         */
+        private class PartialAggregation {
+
+            private final int maxGroups;
+            private final Spill spill;
+            private Map<Key, Group> groups = new HashMap<>();
+            private Group singleGroup;
+
+            PartialAggregation(int maxGroups, Spill spill) {
+                this.maxGroups = maxGroups;
+                this.spill = spill;
+            }
+
+            void consume(DataAccessor tuple) throws StatementExecutionException {
+                Group group;
+                if (groupedFiledsIndexes.isEmpty()) {
+                    group = singleGroup;
+                    if (group == null) {
+                        group = createGroup();
+                        singleGroup = group;
+                    }
+                } else {
+                    Key key = key(tuple);
+                    group = groups.get(key);
+                    if (group == null) {
+                        if (spill != null && groups.size() >= maxGroups) {
+                            spill.spill(groups);
+                            groups = new HashMap<>();
+                        }
+                        group = createGroup();
+                        groups.put(key, group);
+                    }
+                }
+                for (AggregatedColumnCalculator cc : group.columns) {
+                    cc.consume(tuple);
+                }
+            }
+
+            void consume(List<DataAccessor> tuples) throws StatementExecutionException {
+                for (DataAccessor tuple : tuples) {
+                    consume(tuple);
+                }
+            }
+
+        }
+
+        /**
+         * Partial aggregates moved out of memory, partitioned by the hash of the group key. Each partition can then
+         * be merged on its own, groups of different partitions never overlap.
+         */
+        private class Spill implements AutoCloseable {
+
+            /* partitions spilled again while merging use other bits of the hash of the key */
+            private final int level;
+            private MaterializedRecordSet[] partitions;
+
+            Spill(int level) {
+                this.level = level;
+            }
+
+            synchronized void spill(Map<Key, Group> groups) {
+                for (Map.Entry<Key, Group> cell : groups.entrySet()) {
+                    Key key = cell.getKey();
+                    add(key, toTuple(key, cell.getValue()));
+                }
+            }
+
+            void add(Key key, DataAccessor partialTuple) {
+                if (partitions == null) {
+                    partitions = new MaterializedRecordSet[SPILL_PARTITIONS];
+                    for (int i = 0; i < SPILL_PARTITIONS; i++) {
+                        partitions[i] = recordSetFactory.createRecordSet(getFieldNames(), getSchema());
+                    }
+                }
+                int hash = key.hashCode();
+                for (int i = 0; i < level; i++) {
+                    hash = Integer.reverse(hash * 0x9E3779B9);
+                }
+                partitions[Math.floorMod(hash, SPILL_PARTITIONS)].add(partialTuple);
+            }
+
+            boolean isEmpty() {
+                return partitions == null;
+            }
+
+            @Override
+            public void close() {
+                if (partitions != null) {
+                    for (MaterializedRecordSet partition : partitions) {
+                        partition.close();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Merges the partial aggregates of every spilled partition. At most maxGroupsInMemory groups of a partition
+         * are merged in memory, the partial aggregates of the other groups are spilled again and merged later, so
+         * each pass over a partition completes some groups.
+         */
+        private void mergeSpilledPartitions(Spill spill, MaterializedRecordSet results) throws StatementExecutionException {
+            final int numKeys = groupedFiledsIndexes.size();
+            Deque<Spill> pending = new ArrayDeque<>();
+            pending.add(spill);
             try {
-                if (!groupedFiledsIndexes.isEmpty()) {
-                    Map<Key, Group> groups = new HashMap<>();
-                    while (wrapped.hasNext()) {
-                        DataAccessor tuple = wrapped.next();
-                        Key key = key(tuple);
-                        Group group = groups.get(key);
-                        if (group == null) {
-                            group = createGroup();
-                            groups.put(key, group);
+                while (!pending.isEmpty()) {
+                    Spill current = pending.peekFirst();
+                    for (MaterializedRecordSet partition : current.partitions) {
+                        partition.writeFinished();
+                        Map<Key, Group> groups = new HashMap<>();
+                        Spill overflow = null;
+                        for (DataAccessor partialTuple : partition) {
+                            Object[] values = new Object[numKeys];
+                            for (int i = 0; i < numKeys; i++) {
+                                values[i] = partialTuple.get(i);
+                            }
+                            Key key = new Key(values);
+                            Group group = groups.get(key);
+                            if (group == null) {
+                                if (groups.size() >= Math.max(1, maxGroupsInMemory)) {
+                                    if (overflow == null) {
+                                        overflow = new Spill(current.level + 1);
+                                        pending.addLast(overflow);
+                                    }
+                                    overflow.add(key, partialTuple);
+                                    continue;
+                                }
+                                group = createGroup();
+                                groups.put(key, group);
+                            }
+                            for (int i = 0; i < group.columns.length; i++) {
+                                group.columns[i].mergePartialValue(partialTuple.get(numKeys + i));
+                            }
                         }
-                        for (AggregatedColumnCalculator cc : group.columns) {
-                            cc.consume(tuple);
+                        partition.close();
+                        for (Map.Entry<Key, Group> cell : groups.entrySet()) {
+                            results.add(toTuple(cell.getKey(), cell.getValue()));
                         }
                     }
-                    MaterializedRecordSet results = recordSetFactory
-                            .createFixedSizeRecordSet(groups.values().size(),
-                                    getFieldNames(), getSchema());
-                    for (Map.Entry<Key, Group> cell : groups.entrySet()) {
-                        Key key = cell.getKey();
-                        Group group = cell.getValue();
-                        AggregatedColumnCalculator[] columns = group.columns;
-                        Object[] values = new Object[fieldnames.length];
-                        int k = 0;
-                        for (Object field : key.values) {
-                            values[k++] = field;
-                        }
-                        for (AggregatedColumnCalculator cc : columns) {
-                            values[k++] = cc.getValue();
+                    // the first spill is closed by the caller
+                    Spill done = pending.pollFirst();
+                    if (done != spill) {
+                        done.close();
+                    }
+                }
+            } finally {
+                for (Spill remaining : pending) {
+                    if (remaining != spill) {
+                        remaining.close();
+                    }
+                }
+            }
+        }
+
+        private Tuple toTuple(Key key, Group group) {
+            Object[] values = new Object[fieldnames.length];
+            int k = 0;
+            for (Object field : key.values) {
+                values[k++] = field;
+            }
+            for (AggregatedColumnCalculator cc : group.columns) {
+                values[k++] = cc.getValue();
+            }
+            return new Tuple(fieldnames, values);
+        }
+
+        private void compute() throws DataScannerException {
+            try {
+                boolean mergeable = isMergeable();
+                if (!groupedFiledsIndexes.isEmpty()) {
+                    try (Spill spill = mergeable ? new Spill(0) : null) {
+                        PartialAggregation[] partials = consumeInput(mergeable, spill);
+                        MaterializedRecordSet results;
+                        if (spill == null || spill.isEmpty()) {
+                            Map<Key, Group> groups = partials[0].groups;
+                            for (int i = 1; i < partials.length; i++) {
+                                for (Map.Entry<Key, Group> cell : partials[i].groups.entrySet()) {
+                                    Group group = groups.get(cell.getKey());
+                                    if (group == null) {
+                                        groups.put(cell.getKey(), cell.getValue());
+                                    } else {
+                                        merge(group, cell.getValue());
+                                    }
+                                }
+                            }
+                            results = recordSetFactory
+                                    .createFixedSizeRecordSet(groups.values().size(),
+                                            getFieldNames(), getSchema());
+                            for (Map.Entry<Key, Group> cell : groups.entrySet()) {
+                                results.add(toTuple(cell.getKey(), cell.getValue()));
+                            }
+                        } else {
+                            for (PartialAggregation partial : partials) {
+                                spill.spill(partial.groups);
+                                partial.groups = null;
+                            }
+                            results = recordSetFactory.createRecordSet(getFieldNames(), getSchema());
+                            mergeSpilledPartitions(spill, results);
                         }
-                        Tuple tuple = new Tuple(fieldnames, values);
-                        results.add(tuple);
+                        results.writeFinished();
+                        aggregatedScanner = new SimpleDataScanner(wrapped.getTransaction(), results);
                     }
-                    results.writeFinished();
-                    aggregatedScanner = new SimpleDataScanner(wrapped.getTransaction(), results);
                 } else {
-                    Group group = createGroup();
-                    AggregatedColumnCalculator[] columns = group.columns;
-                    while (wrapped.hasNext()) {
-                        DataAccessor tuple = wrapped.next();
-                        for (AggregatedColumnCalculator cc : columns) {
-                            cc.consume(tuple);
+                    PartialAggregation[] partials = consumeInput(mergeable, null);
+                    Group group = null;
+                    for (PartialAggregation partial : partials) {
+                        if (partial.singleGroup == null) {
+                            continue;
+                        }
+                        if (group == null) {
+                            group = partial.singleGroup;
+                        } else {
+                            merge(group, partial.singleGroup);
                         }
                     }
-                    Object[] values = new Object[fieldnames.length];
-                    int k = 0;
-                    for (AggregatedColumnCalculator cc : columns) {
-                        values[k++] = cc.getValue();
+                    if (group == null) {
+                        group = createGroup();
                     }
-                    Tuple tuple = new Tuple(fieldnames, values);
+                    Tuple tuple = toTuple(new Key(new Object[0]), group);
                     MaterializedRecordSet results = recordSetFactory
                             .createFixedSizeRecordSet(1, getFieldNames(), getSchema());
                     results.add(tuple);
@@ -230,7 +426,82 @@ public class AggregateOp implements PlannerOp {
             }
         }
 
-        private Group createGroup() throws DataScannerException, StatementExecutionException {
+        /**
+         * Consumes the whole input. When every aggregation is mergeable and parallel execution is enabled rows are
+         * dispatched in batches to a set of partial aggregations, each one is processed by at most one thread of
+         * the pool at a time, so no synchronization is needed on groups.
+         */
+        private PartialAggregation[] consumeInput(boolean mergeable, Spill spill) throws DataScannerException, StatementExecutionException {
+            int lanes = mergeable && pool != null ? parallelism : 1;
+            if (lanes < 2) {
+                PartialAggregation partial = new PartialAggregation(maxGroupsInMemory, spill);
+                while (wrapped.hasNext()) {
+                    partial.consume(wrapped.next());
+                }
+                return new PartialAggregation[]{partial};
+            }
+
+            PartialAggregation[] partials = new PartialAggregation[lanes];
+            for (int i = 0; i < lanes; i++) {
+                partials[i] = new PartialAggregation(Math.max(1, maxGroupsInMemory / lanes), spill);
+            }
+            ForkJoinTask<?>[] running = new ForkJoinTask<?>[lanes];
+            try {
+                int lane = 0;
+                List<DataAccessor> batch = new ArrayList<>(PARALLEL_AGGREGATION_BATCH_SIZE);
+                while (wrapped.hasNext()) {
+                    batch.add(wrapped.next());
+                    if (batch.size() == PARALLEL_AGGREGATION_BATCH_SIZE) {
+                        if (running[lane] != null) {
+                            running[lane].join();
+                        }
+                        PartialAggregation partial = partials[lane];
+                        List<DataAccessor> tuples = batch;
+                        running[lane] = pool.submit(() -> {
+                            partial.consume(tuples);
+                        });
+                        lane = (lane + 1) % lanes;
+                        batch = new ArrayList<>(PARALLEL_AGGREGATION_BATCH_SIZE);
+                    }
+                }
+                // the last batch is consumed by current thread
+                if (running[lane] != null) {
+                    running[lane].join();
+                    running[lane] = null;
+                }
+                partials[lane].consume(batch);
+                for (ForkJoinTask<?> task : running) {
+                    if (task != null) {
+                        task.join();
+                    }
+                }
+            } catch (RuntimeException err) {
+                for (ForkJoinTask<?> task : running) {
+                    if (task != null) {
+                        task.cancel(false);
+                    }
+                }
+                throw err;
+            }
+            return partials;
+        }
+
+        private boolean isMergeable() throws StatementExecutionException {
+            for (AggregatedColumnCalculator cc : createGroup().columns) {
+                if (!cc.isMergeable()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void merge(Group group, Group partial) throws StatementExecutionException {
+            for (int i = 0; i < group.columns.length; i++) {
+                group.columns[i].mergePartialValue(partial.columns[i].getValue());
+            }
+        }
+
+        private Group createGroup() throws StatementExecutionException {
             AggregatedColumnCalculator[] columns = new AggregatedColumnCalculator[aggtypes.length];
             for (int i = 0; i < aggtypes.length; i++) {
                 String aggtype = aggtypes[i];
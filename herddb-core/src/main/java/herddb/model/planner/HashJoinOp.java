@@ -0,0 +1,778 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.model.planner;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import herddb.core.AbstractTableManager;
+import herddb.core.DBManager;
+import herddb.core.MaterializedRecordSet;
+import herddb.core.RecordSetFactory;
+import herddb.core.TableSpaceManager;
+import herddb.model.Column;
+import herddb.model.DataScanner;
+import herddb.model.DataScannerException;
+import herddb.model.ScanResult;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.StatementExecutionException;
+import herddb.model.StatementExecutionResult;
+import herddb.model.Transaction;
+import herddb.model.TransactionContext;
+import herddb.model.commands.ScanStatement;
+import herddb.utils.Bytes;
+import herddb.utils.DataAccessor;
+import herddb.utils.RawString;
+import herddb.utils.SQLRecordPredicateFunctions;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Equi-join executed with a hash table built over one of the inputs.
+ * <p>
+ * The input with fewer rows, according to table statistics, is loaded in a hash table keyed by a compact binary
+ * encoding of the join key, then the other input is streamed to probe it. When the build side exceeds the
+ * configured number of rows both inputs are split by key hash in partitions stored in temporary record sets (grace
+ * hash join) and each pair of partitions is joined on its own. Partitions which are still too large are split again
+ * using other bits of the hash, if all their build rows have the same key they are joined a block of build rows at a
+ * time, reading the probe rows of the partition once per block.
+ * </p>
+ * <p>
+ * As in SQL, rows with a NULL value in the join key never match.
+ * </p>
+ */
+@SuppressFBWarnings(value = "EI_EXPOSE_REP2")
+public class HashJoinOp implements PlannerOp {
+
+    private static final int PARTITION_BITS = 4;
+    private static final int SPILL_PARTITIONS = 1 << PARTITION_BITS;
+    /* each level of partitioning uses other bits of the hash of the key */
+    private static final int MAX_PARTITION_LEVELS = 32 / PARTITION_BITS;
+
+    private final int[] leftKeys;
+    private final PlannerOp left;
+    private final int[] rightKeys;
+    private final PlannerOp right;
+    private final String[] fieldNames;
+    private final Column[] columns;
+    private final boolean generateNullsOnLeft;
+    private final boolean generateNullsOnRight;
+
+    public HashJoinOp(
+            String[] fieldNames,
+            Column[] columns, int[] leftKeys, PlannerOp left,
+            int[] rightKeys, PlannerOp right,
+            boolean generateNullsOnLeft,
+            boolean generateNullsOnRight
+    ) {
+        this.fieldNames = fieldNames;
+        this.columns = columns;
+        this.leftKeys = leftKeys;
+        this.left = left.optimize();
+        this.rightKeys = rightKeys;
+        this.right = right.optimize();
+        this.generateNullsOnLeft = generateNullsOnLeft;
+        this.generateNullsOnRight = generateNullsOnRight;
+    }
+
+    @Override
+    public String getTablespace() {
+        return left.getTablespace();
+    }
+
+    @Override
+    public StatementExecutionResult execute(
+            TableSpaceManager tableSpaceManager,
+            TransactionContext transactionContext,
+            StatementEvaluationContext context, boolean lockRequired, boolean forWrite
+    ) throws StatementExecutionException {
+        ScanResult resLeft = (ScanResult) left.execute(tableSpaceManager, transactionContext,
+                context, lockRequired, forWrite);
+        transactionContext = new TransactionContext(resLeft.transactionId);
+        ScanResult resRight = (ScanResult) right.execute(tableSpaceManager, transactionContext,
+                context, lockRequired, forWrite);
+        final long resTransactionId = resRight.transactionId;
+
+        DBManager dbManager = tableSpaceManager.getDbmanager();
+        long leftRows = estimateRows(left, dbManager);
+        long rightRows = estimateRows(right, dbManager);
+        // by default build on the right, like an usual nested loop over the left input
+        boolean buildLeft = leftRows >= 0 && rightRows >= 0 && leftRows < rightRows;
+
+        HashJoinDataScanner joinedScanner = new HashJoinDataScanner(resRight.dataScanner.getTransaction(),
+                resLeft.dataScanner, resRight.dataScanner, buildLeft,
+                dbManager.getRecordSetFactory(), dbManager.getMaxJoinBuildRowsInMemory());
+        return new ScanResult(resTransactionId, joinedScanner);
+    }
+
+    /**
+     * Estimates the number of rows produced by an input using table statistics
+     *
+     * @return the estimated number of rows or -1 if unknown
+     */
+    private static long estimateRows(PlannerOp op, DBManager dbManager) {
+        if (!(op instanceof SimpleScanOp
+                || op instanceof ProjectedTableScanOp
+                || op instanceof FilteredTableScanOp
+                || op instanceof ProjectOp
+                || op instanceof FilterOp)) {
+            return -1;
+        }
+        ScanStatement scan = op.unwrap(ScanStatement.class);
+        if (scan == null || scan.getLimits() != null) {
+            return -1;
+        }
+        TableSpaceManager tableSpaceManager = dbManager.getTableSpaceManager(scan.getTableSpace());
+        if (tableSpaceManager == null) {
+            return -1;
+        }
+        AbstractTableManager tableManager = tableSpaceManager.getTableManager(scan.getTable());
+        if (tableManager == null) {
+            return -1;
+        }
+        return tableManager.getStats().getTablesize();
+    }
+
+    /**
+     * Encodes the values of the join key. Values of the same kind (integral numbers, floating point numbers,
+     * timestamps, strings...) which are equal for {@link SQLRecordPredicateFunctions#compare(Object, Object)} have
+     * the same encoding, values of different kinds never have the same encoding, so the planner uses a hash join
+     * only when both sides of each key have the same kind.
+     *
+     * @return the encoded key or {@code null} if some value is NULL
+     */
+    static Bytes encodeKey(DataAccessor row, int[] fields) {
+        KeyWriter writer = new KeyWriter();
+        for (int field : fields) {
+            Object value = row.get(field);
+            if (value == null) {
+                return null;
+            }
+            if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                writer.writeLong(1, ((Number) value).longValue());
+            } else if (value instanceof Number) {
+                writer.writeLong(2, Double.doubleToLongBits(((Number) value).doubleValue()));
+            } else if (value instanceof java.util.Date) {
+                writer.writeLong(8, ((java.util.Date) value).getTime());
+            } else if (value instanceof RawString) {
+                RawString s = (RawString) value;
+                writer.writeBytes(3, s.getData(), s.getOffset(), s.getLength());
+            } else if (value instanceof String) {
+                byte[] s = ((String) value).getBytes(StandardCharsets.UTF_8);
+                writer.writeBytes(3, s, 0, s.length);
+            } else if (value instanceof Boolean) {
+                writer.writeByte(((Boolean) value) ? 5 : 4);
+            } else if (value instanceof byte[]) {
+                byte[] b = (byte[]) value;
+                writer.writeBytes(6, b, 0, b.length);
+            } else {
+                byte[] s = value.toString().getBytes(StandardCharsets.UTF_8);
+                writer.writeBytes(7, s, 0, s.length);
+            }
+        }
+        return writer.toBytes();
+    }
+
+    /**
+     * Compares the actual values of the join keys of two rows
+     */
+    private static boolean keysEqual(DataAccessor row, int[] fields, DataAccessor other, int[] otherFields) {
+        for (int i = 0; i < fields.length; i++) {
+            if (SQLRecordPredicateFunctions.compare(row.get(fields[i]), other.get(otherFields[i])) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class KeyWriter {
+
+        private byte[] buffer = new byte[16];
+        private int size;
+
+        private void ensure(int len) {
+            if (size + len > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + len));
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buffer[size++] = (byte) b;
+        }
+
+        void writeLong(int type, long v) {
+            writeByte(type);
+            ensure(8);
+            for (int i = 56; i >= 0; i -= 8) {
+                buffer[size++] = (byte) (v >>> i);
+            }
+        }
+
+        void writeBytes(int type, byte[] data, int offset, int length) {
+            writeByte(type);
+            ensure(4 + length);
+            buffer[size++] = (byte) (length >>> 24);
+            buffer[size++] = (byte) (length >>> 16);
+            buffer[size++] = (byte) (length >>> 8);
+            buffer[size++] = (byte) length;
+            System.arraycopy(data, offset, buffer, size, length);
+            size += length;
+        }
+
+        Bytes toBytes() {
+            return Bytes.from_array(size == buffer.length ? buffer : Arrays.copyOf(buffer, size));
+        }
+    }
+
+    /**
+     * Assigns a key to a spill partition, each level of partitioning uses different bits of the hash of the key
+     */
+    static int partition(Bytes key, int level) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h >>> (PARTITION_BITS * level)) & (SPILL_PARTITIONS - 1);
+    }
+
+    /**
+     * A row of the build side, rows with the same key are chained
+     */
+    private static final class BuildEntry {
+
+        final DataAccessor row;
+        BuildEntry next;
+        boolean matched;
+
+        BuildEntry(DataAccessor row) {
+            this.row = row;
+        }
+    }
+
+    private static final class HashTable {
+
+        private final Map<Bytes, BuildEntry> entries = new HashMap<>();
+        private int size;
+
+        void add(Bytes key, DataAccessor row) {
+            BuildEntry entry = new BuildEntry(row);
+            BuildEntry previous = entries.put(key, entry);
+            entry.next = previous;
+            size++;
+        }
+
+        BuildEntry find(Bytes key) {
+            return entries.get(key);
+        }
+
+        int size() {
+            return size;
+        }
+
+        Iterator<BuildEntry> iterator() {
+            Iterator<BuildEntry> heads = entries.values().iterator();
+            return new Iterator<BuildEntry>() {
+
+                private BuildEntry current;
+
+                @Override
+                public boolean hasNext() {
+                    return current != null || heads.hasNext();
+                }
+
+                @Override
+                public BuildEntry next() {
+                    if (current == null) {
+                        current = heads.next();
+                    }
+                    BuildEntry result = current;
+                    current = current.next;
+                    return result;
+                }
+            };
+        }
+    }
+
+    /**
+     * Rows of both inputs whose keys fall in the same spill partition
+     */
+    private static final class Partition {
+
+        final int level;
+        final MaterializedRecordSet buildRows;
+        final MaterializedRecordSet probeRows;
+        int buildSize;
+        int probeSize;
+        /* the key of all the build rows, null if they have different keys */
+        Bytes commonKey;
+
+        Partition(int level, MaterializedRecordSet buildRows, MaterializedRecordSet probeRows) {
+            this.level = level;
+            this.buildRows = buildRows;
+            this.probeRows = probeRows;
+        }
+
+        void addBuildRow(Bytes key, DataAccessor row) {
+            buildRows.add(row);
+            if (buildSize++ == 0) {
+                commonKey = key;
+            } else if (commonKey != null && !commonKey.equals(key)) {
+                commonKey = null;
+            }
+        }
+
+        void addProbeRow(DataAccessor row) {
+            probeRows.add(row);
+            probeSize++;
+        }
+
+        /**
+         * Partitioning again by key is useless if every row has the same key
+         */
+        boolean canSplit() {
+            return commonKey == null && level + 1 < MAX_PARTITION_LEVELS;
+        }
+
+        void close() {
+            try {
+                buildRows.close();
+            } finally {
+                probeRows.close();
+            }
+        }
+    }
+
+    private final class HashJoinDataScanner extends DataScanner {
+
+        private final DataScanner leftScanner;
+        private final DataScanner rightScanner;
+        private final DataScanner build;
+        private final DataScanner probe;
+        private final int[] buildKeys;
+        private final int[] probeKeys;
+        private final boolean buildLeft;
+        private final boolean preserveBuildRows;
+        private final boolean preserveProbeRows;
+        private final RecordSetFactory recordSetFactory;
+        private final int maxBuildRowsInMemory;
+        private final DataAccessor nullsOnLeft;
+        private final DataAccessor nullsOnRight;
+
+        private boolean started;
+        private HashTable table;
+        /* spilled partitions still to be joined, partitions split again are processed first */
+        private final Deque<Partition> pendingPartitions = new ArrayDeque<>();
+        private Partition[] spillPartitions;
+        private Partition currentPartition;
+        private Iterator<DataAccessor> probePartitionRows;
+        private int probeRowIndex;
+        /*
+         * a partition with too many build rows which cannot be split is joined a block of build rows at a time,
+         * reading probe rows again for each block
+         */
+        private Iterator<DataAccessor> buildBlockRows;
+        private BitSet matchedProbeRows;
+        private Iterator<DataAccessor> unmatchedProbeRows;
+        private int unmatchedProbeRowIndex;
+        /* rows with NULL keys, they never match */
+        private MaterializedRecordSet nullKeyBuildRows;
+        private MaterializedRecordSet nullKeyProbeRows;
+
+        private DataAccessor probeRow;
+        private boolean probeRowMatched;
+        private BuildEntry match;
+        private Iterator<BuildEntry> unmatchedBuildRows;
+        private Iterator<DataAccessor> trailingBuildRows;
+        private Iterator<DataAccessor> trailingProbeRows;
+        private DataAccessor next;
+
+        HashJoinDataScanner(
+                Transaction transaction, DataScanner leftScanner, DataScanner rightScanner, boolean buildLeft,
+                RecordSetFactory recordSetFactory, int maxBuildRowsInMemory
+        ) {
+            super(transaction, fieldNames, columns);
+            this.leftScanner = leftScanner;
+            this.rightScanner = rightScanner;
+            this.buildLeft = buildLeft;
+            this.build = buildLeft ? leftScanner : rightScanner;
+            this.probe = buildLeft ? rightScanner : leftScanner;
+            this.buildKeys = buildLeft ? leftKeys : rightKeys;
+            this.probeKeys = buildLeft ? rightKeys : leftKeys;
+            // generateNullsOnRight means that every row from the left is returned
+            this.preserveBuildRows = buildLeft ? generateNullsOnRight : generateNullsOnLeft;
+            this.preserveProbeRows = buildLeft ? generateNullsOnLeft : generateNullsOnRight;
+            this.recordSetFactory = recordSetFactory;
+            this.maxBuildRowsInMemory = maxBuildRowsInMemory;
+            this.nullsOnLeft = DataAccessor.ALL_NULLS(leftScanner.getFieldNames());
+            this.nullsOnRight = DataAccessor.ALL_NULLS(rightScanner.getFieldNames());
+        }
+
+        private DataAccessor join(DataAccessor buildRow, DataAccessor probeRow) {
+            DataAccessor leftRow = buildLeft ? buildRow : probeRow;
+            DataAccessor rightRow = buildLeft ? probeRow : buildRow;
+            return new ConcatenatedDataAccessor(fieldNames,
+                    leftRow != null ? leftRow : nullsOnLeft,
+                    rightRow != null ? rightRow : nullsOnRight);
+        }
+
+        private MaterializedRecordSet createRecordSet(DataScanner scanner) {
+            return recordSetFactory.createRecordSet(scanner.getFieldNames(), scanner.getSchema());
+        }
+
+        /**
+         * Creates the partitions of a level of partitioning, they are queued before the other pending partitions
+         */
+        private Partition[] createPartitions(int level) {
+            Partition[] partitions = new Partition[SPILL_PARTITIONS];
+            for (int i = SPILL_PARTITIONS - 1; i >= 0; i--) {
+                MaterializedRecordSet buildRows = createRecordSet(build);
+                MaterializedRecordSet probeRows;
+                try {
+                    probeRows = createRecordSet(probe);
+                } catch (RuntimeException err) {
+                    buildRows.close();
+                    throw err;
+                }
+                partitions[i] = new Partition(level, buildRows, probeRows);
+                pendingPartitions.addFirst(partitions[i]);
+            }
+            return partitions;
+        }
+
+        /**
+         * Completes the writes to new partitions and drops the ones which cannot produce rows
+         */
+        private void finishPartitions(Partition[] partitions) {
+            for (Partition partition : partitions) {
+                partition.buildRows.writeFinished();
+                partition.probeRows.writeFinished();
+                if ((partition.buildSize == 0 && !preserveProbeRows)
+                        || (partition.probeSize == 0 && !preserveBuildRows)) {
+                    pendingPartitions.remove(partition);
+                    partition.close();
+                }
+            }
+        }
+
+        private void start() throws DataScannerException {
+            started = true;
+            table = new HashTable();
+            while (build.hasNext()) {
+                DataAccessor row = build.next();
+                Bytes key = encodeKey(row, buildKeys);
+                if (key == null) {
+                    if (preserveBuildRows) {
+                        if (nullKeyBuildRows == null) {
+                            nullKeyBuildRows = createRecordSet(build);
+                        }
+                        nullKeyBuildRows.add(row);
+                    }
+                } else if (spillPartitions != null) {
+                    spillPartitions[partition(key, 0)].addBuildRow(key, row);
+                } else {
+                    table.add(key, row);
+                    if (table.size() > maxBuildRowsInMemory) {
+                        spillBuildRows();
+                    }
+                }
+            }
+            if (nullKeyBuildRows != null) {
+                nullKeyBuildRows.writeFinished();
+            }
+            if (spillPartitions != null) {
+                while (probe.hasNext()) {
+                    DataAccessor row = probe.next();
+                    Bytes key = encodeKey(row, probeKeys);
+                    if (key == null) {
+                        if (preserveProbeRows) {
+                            if (nullKeyProbeRows == null) {
+                                nullKeyProbeRows = createRecordSet(probe);
+                            }
+                            nullKeyProbeRows.add(row);
+                        }
+                    } else {
+                        spillPartitions[partition(key, 0)].addProbeRow(row);
+                    }
+                }
+                if (nullKeyProbeRows != null) {
+                    nullKeyProbeRows.writeFinished();
+                }
+                finishPartitions(spillPartitions);
+                spillPartitions = null;
+            }
+        }
+
+        private void spillBuildRows() {
+            spillPartitions = createPartitions(0);
+            for (Map.Entry<Bytes, BuildEntry> entry : table.entries.entrySet()) {
+                Partition partition = spillPartitions[partition(entry.getKey(), 0)];
+                for (BuildEntry e = entry.getValue(); e != null; e = e.next) {
+                    partition.addBuildRow(entry.getKey(), e.row);
+                }
+            }
+            table = null;
+        }
+
+        /**
+         * Distributes the rows of a partition with too many build rows in partitions of the next level
+         */
+        private void splitPartition(Partition partition) {
+            final int level = partition.level + 1;
+            Partition[] partitions = createPartitions(level);
+            for (DataAccessor row : partition.buildRows) {
+                Bytes key = encodeKey(row, buildKeys);
+                partitions[partition(key, level)].addBuildRow(key, row);
+            }
+            for (DataAccessor row : partition.probeRows) {
+                partitions[partition(encodeKey(row, probeKeys), level)].addProbeRow(row);
+            }
+            finishPartitions(partitions);
+        }
+
+        /**
+         * Starts joining the next spilled partition, loading its build rows in memory
+         *
+         * @return false if no more partitions are available
+         */
+        private boolean nextPartition() {
+            closeCurrentPartition();
+            while (!pendingPartitions.isEmpty()) {
+                currentPartition = pendingPartitions.poll();
+                if (currentPartition.buildSize <= maxBuildRowsInMemory) {
+                    table = new HashTable();
+                    for (DataAccessor row : currentPartition.buildRows) {
+                        table.add(encodeKey(row, buildKeys), row);
+                    }
+                    probePartitionRows = currentPartition.probeRows.iterator();
+                    probeRowIndex = 0;
+                    return true;
+                }
+                if (!currentPartition.canSplit()) {
+                    buildBlockRows = currentPartition.buildRows.iterator();
+                    matchedProbeRows = preserveProbeRows ? new BitSet(currentPartition.probeSize) : null;
+                    return nextBuildBlock();
+                }
+                splitPartition(currentPartition);
+                closeCurrentPartition();
+            }
+            return false;
+        }
+
+        /**
+         * Loads the next block of build rows of a partition which cannot be split
+         *
+         * @return false if all the build rows of the partition have been joined
+         */
+        private boolean nextBuildBlock() {
+            if (!buildBlockRows.hasNext()) {
+                buildBlockRows = null;
+                table = null;
+                return false;
+            }
+            table = new HashTable();
+            while (buildBlockRows.hasNext() && table.size() < maxBuildRowsInMemory) {
+                DataAccessor row = buildBlockRows.next();
+                table.add(encodeKey(row, buildKeys), row);
+            }
+            probePartitionRows = currentPartition.probeRows.iterator();
+            probeRowIndex = 0;
+            unmatchedBuildRows = null;
+            return true;
+        }
+
+        private void closeCurrentPartition() {
+            if (currentPartition != null) {
+                currentPartition.close();
+                currentPartition = null;
+            }
+            table = null;
+            probePartitionRows = null;
+            buildBlockRows = null;
+            matchedProbeRows = null;
+            unmatchedProbeRows = null;
+            unmatchedBuildRows = null;
+        }
+
+        private DataAccessor nextProbeRow() throws DataScannerException {
+            if (currentPartition == null) {
+                return probe.hasNext() ? probe.next() : null;
+            }
+            if (probePartitionRows.hasNext()) {
+                probeRowIndex++;
+                return probePartitionRows.next();
+            }
+            return null;
+        }
+
+        private DataAccessor computeNext() throws DataScannerException {
+            while (true) {
+                if (probeRow != null) {
+                    while (match != null) {
+                        BuildEntry current = match;
+                        match = current.next;
+                        // same encoding, check the actual values
+                        if (keysEqual(current.row, buildKeys, probeRow, probeKeys)) {
+                            current.matched = true;
+                            if (!probeRowMatched && matchedProbeRows != null) {
+                                matchedProbeRows.set(probeRowIndex - 1);
+                            }
+                            probeRowMatched = true;
+                            return join(current.row, probeRow);
+                        }
+                    }
+                    DataAccessor row = probeRow;
+                    probeRow = null;
+                    if (!probeRowMatched && preserveProbeRows && buildBlockRows == null) {
+                        return join(null, row);
+                    }
+                    continue;
+                }
+                if (unmatchedProbeRows != null) {
+                    while (unmatchedProbeRows.hasNext()) {
+                        DataAccessor row = unmatchedProbeRows.next();
+                        if (!matchedProbeRows.get(unmatchedProbeRowIndex++)) {
+                            return join(null, row);
+                        }
+                    }
+                    if (!nextPartition()) {
+                        closeCurrentPartition();
+                    }
+                    continue;
+                }
+                if (table != null) {
+                    DataAccessor row = nextProbeRow();
+                    if (row != null) {
+                        Bytes key = encodeKey(row, probeKeys);
+                        BuildEntry first = key != null ? table.find(key) : null;
+                        if (first != null) {
+                            probeRow = row;
+                            probeRowMatched = false;
+                            match = first;
+                        } else if (preserveProbeRows && buildBlockRows == null) {
+                            return join(null, row);
+                        }
+                        continue;
+                    }
+                    if (preserveBuildRows) {
+                        if (unmatchedBuildRows == null) {
+                            unmatchedBuildRows = table.iterator();
+                        }
+                        while (unmatchedBuildRows.hasNext()) {
+                            BuildEntry entry = unmatchedBuildRows.next();
+                            if (!entry.matched) {
+                                return join(entry.row, null);
+                            }
+                        }
+                    }
+                    if (buildBlockRows != null) {
+                        if (nextBuildBlock()) {
+                            continue;
+                        }
+                        if (matchedProbeRows != null) {
+                            // every block has been joined, now the probe rows which never matched can be returned
+                            unmatchedProbeRows = currentPartition.probeRows.iterator();
+                            unmatchedProbeRowIndex = 0;
+                            continue;
+                        }
+                    }
+                    if (!nextPartition()) {
+                        closeCurrentPartition();
+                    }
+                    continue;
+                }
+                if (!pendingPartitions.isEmpty()) {
+                    nextPartition();
+                    continue;
+                }
+                if (nullKeyBuildRows != null) {
+                    if (trailingBuildRows == null) {
+                        trailingBuildRows = nullKeyBuildRows.iterator();
+                    }
+                    if (trailingBuildRows.hasNext()) {
+                        return join(trailingBuildRows.next(), null);
+                    }
+                }
+                if (nullKeyProbeRows != null) {
+                    if (trailingProbeRows == null) {
+                        trailingProbeRows = nullKeyProbeRows.iterator();
+                    }
+                    if (trailingProbeRows.hasNext()) {
+                        return join(null, trailingProbeRows.next());
+                    }
+                }
+                return null;
+            }
+        }
+
+        @Override
+        public boolean hasNext() throws DataScannerException {
+            if (!started) {
+                start();
+                next = computeNext();
+            }
+            return next != null;
+        }
+
+        @Override
+        public DataAccessor next() throws DataScannerException {
+            if (!started) {
+                start();
+                next = computeNext();
+            }
+            DataAccessor current = next;
+            next = computeNext();
+            return current;
+        }
+
+        @Override
+        public void close() throws DataScannerException {
+            try {
+                leftScanner.close();
+            } finally {
+                rightScanner.close();
+                closeCurrentPartition();
+                for (Partition partition : pendingPartitions) {
+                    partition.close();
+                }
+                pendingPartitions.clear();
+                if (nullKeyBuildRows != null) {
+                    nullKeyBuildRows.close();
+                }
+                if (nullKeyProbeRows != null) {
+                    nullKeyProbeRows.close();
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HashJoinOp{" + "leftKeys=" + Arrays.toString(leftKeys) + ", left=" + left + ", rightKeys=" + Arrays.toString(rightKeys) + ", right=" + right + ", fieldNames=" + Arrays.toString(fieldNames) + ", columns=" + Arrays.toString(columns) + ", generateNullsOnLeft=" + generateNullsOnLeft + ", generateNullsOnRight=" + generateNullsOnRight + '}';
+    }
+
+}
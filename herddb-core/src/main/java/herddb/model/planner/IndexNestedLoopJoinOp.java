@@ -0,0 +1,243 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.model.planner;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import herddb.core.AbstractIndexManager;
+import herddb.core.AbstractTableManager;
+import herddb.core.TableManager;
+import herddb.core.TableSpaceManager;
+import herddb.index.IndexOperation;
+import herddb.index.PrimaryIndexSeek;
+import herddb.model.Column;
+import herddb.model.DataScanner;
+import herddb.model.DataScannerException;
+import herddb.model.Projection;
+import herddb.model.Record;
+import herddb.model.ScanResult;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.StatementExecutionException;
+import herddb.model.StatementExecutionResult;
+import herddb.model.Table;
+import herddb.model.TransactionContext;
+import herddb.model.commands.ScanStatement;
+import herddb.sql.SQLStatementEvaluationContext;
+import herddb.utils.DataAccessor;
+import herddb.utils.SystemProperties;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Join which looks up matching rows of a table using its primary key or a secondary index.
+ * <p>
+ * Rows from the other input (the outer one) are read in batches, for each row the seek is evaluated using the
+ * values of the join key as parameters; the records found by a batch are fetched sorted by page. Inside
+ * transactions, or when locks are needed, the join is executed as an hash join.
+ * </p>
+ */
+@SuppressFBWarnings(value = "EI_EXPOSE_REP2")
+public class IndexNestedLoopJoinOp implements PlannerOp {
+
+    private static final int BATCH_SIZE = SystemProperties.
+            getIntSystemProperty("herddb.planner.indexjoin.batchSize", 1000);
+
+    private final String[] fieldNames;
+    private final Column[] columns;
+    private final PlannerOp outer;
+    private final ScanStatement lookupScan;
+    private final boolean lookupOnLeft;
+    private final IndexOperation seek;
+    private final int[] seekParameters;
+    private final boolean preserveOuterRows;
+    private final PlannerOp fallback;
+
+    /**
+     * @param lookupOnLeft   true if rows are looked up on the left input, which must be a {@link SimpleScanOp}
+     * @param seek           a seek on the looked up table, whose values are the JDBC parameters of a context
+     * @param seekParameters positions in the outer row of the JDBC parameters of the seek
+     */
+    public IndexNestedLoopJoinOp(
+            String[] fieldNames, Column[] columns,
+            int[] leftKeys, PlannerOp left,
+            int[] rightKeys, PlannerOp right,
+            boolean lookupOnLeft, IndexOperation seek, int[] seekParameters,
+            boolean generateNullsOnLeft, boolean generateNullsOnRight
+    ) {
+        this.fieldNames = fieldNames;
+        this.columns = columns;
+        this.lookupOnLeft = lookupOnLeft;
+        this.outer = (lookupOnLeft ? right : left).optimize();
+        this.lookupScan = ((SimpleScanOp) (lookupOnLeft ? left : right)).getStatement();
+        this.seek = seek;
+        this.seekParameters = seekParameters;
+        this.preserveOuterRows = lookupOnLeft ? generateNullsOnLeft : generateNullsOnRight;
+        this.fallback = new HashJoinOp(fieldNames, columns, leftKeys, left, rightKeys, right,
+                generateNullsOnLeft, generateNullsOnRight);
+    }
+
+    @Override
+    public String getTablespace() {
+        return fallback.getTablespace();
+    }
+
+    @Override
+    public StatementExecutionResult execute(
+            TableSpaceManager tableSpaceManager,
+            TransactionContext transactionContext,
+            StatementEvaluationContext context, boolean lockRequired, boolean forWrite
+    ) throws StatementExecutionException {
+        if (transactionContext.transactionId != TransactionContext.NOTRANSACTION_ID || lockRequired || forWrite) {
+            // records must be locked and transaction data must be looked up
+            return fallback.execute(tableSpaceManager, transactionContext, context, lockRequired, forWrite);
+        }
+        TableSpaceManager lookupTableSpaceManager = tableSpaceManager.getDbmanager()
+                .getTableSpaceManager(lookupScan.getTableSpace());
+        AbstractTableManager tableManager = lookupTableSpaceManager != null
+                ? lookupTableSpaceManager.getTableManager(lookupScan.getTable()) : null;
+        if (!(tableManager instanceof TableManager)
+                || tableManager.getCreatedInTransaction() > 0
+                || !isIndexAvailable(lookupTableSpaceManager)) {
+            return fallback.execute(tableSpaceManager, transactionContext, context, lockRequired, forWrite);
+        }
+        lookupScan.validateContext(context);
+        ScanResult resOuter = (ScanResult) outer.execute(tableSpaceManager, transactionContext,
+                context, lockRequired, forWrite);
+        IndexNestedLoopDataScanner joinedScanner = new IndexNestedLoopDataScanner(resOuter.dataScanner,
+                (TableManager) tableManager, context);
+        return new ScanResult(resOuter.transactionId, joinedScanner);
+    }
+
+    private boolean isIndexAvailable(TableSpaceManager tableSpaceManager) {
+        if (seek instanceof PrimaryIndexSeek) {
+            return true;
+        }
+        Map<String, AbstractIndexManager> indexes = tableSpaceManager.getIndexesOnTable(lookupScan.getTable());
+        AbstractIndexManager index = indexes != null ? indexes.get(seek.getIndexName()) : null;
+        return index != null && index.isAvailable();
+    }
+
+    private final class IndexNestedLoopDataScanner extends DataScanner {
+
+        private final DataScanner outerScanner;
+        private final TableManager tableManager;
+        private final Table table;
+        private final StatementEvaluationContext context;
+        private final DataAccessor nulls;
+        private Iterator<DataAccessor> batch = Collections.emptyIterator();
+
+        IndexNestedLoopDataScanner(DataScanner outerScanner, TableManager tableManager, StatementEvaluationContext context) {
+            super(outerScanner.getTransaction(), fieldNames, columns);
+            this.outerScanner = outerScanner;
+            this.tableManager = tableManager;
+            this.table = tableManager.getTable();
+            this.context = context;
+            Projection projection = lookupScan.getProjection();
+            this.nulls = DataAccessor.ALL_NULLS(projection != null
+                    ? projection.getFieldNames() : table.columnNames);
+        }
+
+        private DataAccessor join(DataAccessor outerRow, DataAccessor lookupRow) {
+            return lookupOnLeft
+                    ? new ConcatenatedDataAccessor(fieldNames, lookupRow, outerRow)
+                    : new ConcatenatedDataAccessor(fieldNames, outerRow, lookupRow);
+        }
+
+        @Override
+        public boolean hasNext() throws DataScannerException {
+            while (!batch.hasNext()) {
+                if (!outerScanner.hasNext()) {
+                    return false;
+                }
+                batch = nextBatch();
+            }
+            return true;
+        }
+
+        @Override
+        public DataAccessor next() throws DataScannerException {
+            if (!hasNext()) {
+                throw new DataScannerException("no more rows");
+            }
+            return batch.next();
+        }
+
+        private Iterator<DataAccessor> nextBatch() throws DataScannerException {
+            List<DataAccessor> outerRows = new ArrayList<>();
+            List<SQLStatementEvaluationContext> seekContexts = new ArrayList<>();
+            // position of the seek for each outer row, -1 if the key contains NULL values
+            int[] seekPositions = new int[BATCH_SIZE];
+            while (outerRows.size() < BATCH_SIZE && outerScanner.hasNext()) {
+                DataAccessor outerRow = outerScanner.next();
+                List<Object> values = new ArrayList<>(seekParameters.length);
+                for (int position : seekParameters) {
+                    Object value = outerRow.get(position);
+                    if (value == null) {
+                        values = null;
+                        break;
+                    }
+                    values.add(value);
+                }
+                if (values != null) {
+                    seekPositions[outerRows.size()] = seekContexts.size();
+                    seekContexts.add(new SQLStatementEvaluationContext("", values));
+                } else {
+                    seekPositions[outerRows.size()] = -1;
+                }
+                outerRows.add(outerRow);
+            }
+
+            List<List<Record>> matches = tableManager.seekRecords(seek, seekContexts, lookupScan.getPredicate(), context);
+            Projection projection = lookupScan.getProjection();
+            List<DataAccessor> result = new ArrayList<>(outerRows.size());
+            for (int i = 0; i < outerRows.size(); i++) {
+                DataAccessor outerRow = outerRows.get(i);
+                List<Record> records = seekPositions[i] >= 0
+                        ? matches.get(seekPositions[i]) : Collections.emptyList();
+                for (Record record : records) {
+                    DataAccessor lookupRow = record.getDataAccessor(table);
+                    if (projection != null) {
+                        lookupRow = projection.map(lookupRow, context);
+                    }
+                    result.add(join(outerRow, lookupRow));
+                }
+                if (records.isEmpty() && preserveOuterRows) {
+                    result.add(join(outerRow, nulls));
+                }
+            }
+            return result.iterator();
+        }
+
+        @Override
+        public void close() throws DataScannerException {
+            outerScanner.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "IndexNestedLoopJoinOp{" + "outer=" + outer + ", lookupScan=" + lookupScan + ", lookupOnLeft=" + lookupOnLeft + ", seek=" + seek + ", seekParameters=" + Arrays.toString(seekParameters) + ", fieldNames=" + Arrays.toString(fieldNames) + ", columns=" + Arrays.toString(columns) + ", preserveOuterRows=" + preserveOuterRows + '}';
+    }
+
+}
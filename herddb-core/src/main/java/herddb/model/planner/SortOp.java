@@ -24,7 +24,6 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import herddb.core.MaterializedRecordSet;
 import herddb.core.SimpleDataScanner;
 import herddb.core.TableSpaceManager;
-import herddb.model.Column;
 import herddb.model.DataScanner;
 import herddb.model.DataScannerException;
 import herddb.model.ScanResult;
@@ -47,13 +46,15 @@ import java.util.Arrays;
  *
  * @author eolivelli
  */
-@SuppressFBWarnings(value = "EI_EXPOSE_REP2")
+@SuppressFBWarnings(value = {"EI_EXPOSE_REP", "EI_EXPOSE_REP2"})
 public class SortOp implements PlannerOp, TupleComparator {
 
     private final PlannerOp input;
     private final boolean[] directions;
-    private final int[] fields;
+    private int[] fields;
     private boolean onlyPrimaryKeyAndAscending;
+    private String[] sortedColumns;
+    private boolean descending;
 
     public SortOp(PlannerOp input, boolean[] directions, int[] fields) {
         this.input = input.optimize();
@@ -101,24 +102,8 @@ public class SortOp implements PlannerOp, TupleComparator {
             ScanStatement statement = op.getStatement();
             statement.setComparator(this);
 
-            if (fields.length == 1 && directions[0]) {
-                Table tableDef = statement.getTableDef();
-                if (tableDef.getPrimaryKey().length == 1) {
-                    if (statement.getProjection() != null && statement.getProjection() instanceof ZeroCopyProjection) {
-                        ZeroCopyProjection zeroCopyProjection = (ZeroCopyProjection) statement.getProjection();
-                        int index = zeroCopyProjection.mapPosition(fields[0]);
-                        Column col = tableDef.resolveColumName(index);
-                        if (col.name.equals(tableDef.getPrimaryKey()[0])) {
-                            this.onlyPrimaryKeyAndAscending = true;
-                        }
-                    } else if (statement.getProjection() != null && statement.getProjection() instanceof IdentityProjection) {
-                        Column col = tableDef.resolveColumName(fields[0]);
-                        if (col.name.equals(tableDef.getPrimaryKey()[0])) {
-                            this.onlyPrimaryKeyAndAscending = true;
-                        }
-                    }
-                }
-            }
+            mapFieldsToTableColumns(statement);
+            resolveSortedColumns(statement);
             return new SortedBindableTableScanOp(statement);
         } else if (input instanceof TableScanOp) {
             TableScanOp op = (TableScanOp) input;
@@ -126,34 +111,70 @@ public class SortOp implements PlannerOp, TupleComparator {
             ScanStatement statement = op.getStatement();
             statement.setComparator(this);
 
-            if (fields.length == 1 && directions[0]) {
-                Table tableDef = statement.getTableDef();
-                if (tableDef.getPrimaryKey().length == 1) {
-                    if (statement.getProjection() != null && statement.getProjection() instanceof ZeroCopyProjection) {
-                        ZeroCopyProjection zeroCopyProjection = (ZeroCopyProjection) statement.getProjection();
-                        int index = zeroCopyProjection.mapPosition(fields[0]);
-                        Column col = tableDef.resolveColumName(index);
-                        if (col.name.equals(tableDef.getPrimaryKey()[0])) {
-                            this.onlyPrimaryKeyAndAscending = true;
-                        }
-                    } else if (statement.getProjection() != null && statement.getProjection() instanceof IdentityProjection) {
-                        Column col = tableDef.resolveColumName(fields[0]);
-                        if (col.name.equals(tableDef.getPrimaryKey()[0])) {
-                            this.onlyPrimaryKeyAndAscending = true;
-                        }
-                    }
-                }
-            }
+            mapFieldsToTableColumns(statement);
+            resolveSortedColumns(statement);
             return new SortedTableScanOp(statement);
         }
         return this;
     }
 
+    /**
+     * The scan sorts whole records and applies the projection only later, so sort fields must refer to the
+     * columns of the table and not to the projected ones
+     */
+    private void mapFieldsToTableColumns(ScanStatement statement) {
+        if (statement.getProjection() instanceof ZeroCopyProjection) {
+            ZeroCopyProjection zeroCopyProjection = (ZeroCopyProjection) statement.getProjection();
+            int[] mapped = new int[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                mapped[i] = zeroCopyProjection.mapPosition(fields[i]);
+            }
+            this.fields = mapped;
+        }
+    }
+
+    /**
+     * Maps sort fields to columns of the scanned table, this is possible only if every field is sorted in the same
+     * direction and the projection does not compute values
+     */
+    private void resolveSortedColumns(ScanStatement statement) {
+        for (boolean direction : directions) {
+            if (direction != directions[0]) {
+                return;
+            }
+        }
+        if (!(statement.getProjection() instanceof ZeroCopyProjection)
+                && !(statement.getProjection() instanceof IdentityProjection)) {
+            return;
+        }
+        Table tableDef = statement.getTableDef();
+        String[] columns = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            columns[i] = tableDef.resolveColumName(fields[i]).name;
+        }
+        this.sortedColumns = columns;
+        this.descending = !directions[0];
+        if (columns.length == 1 && !descending && tableDef.getPrimaryKey().length == 1
+                && columns[0].equals(tableDef.getPrimaryKey()[0])) {
+            this.onlyPrimaryKeyAndAscending = true;
+        }
+    }
+
     @Override
     public boolean isOnlyPrimaryKeyAndAscending() {
         return onlyPrimaryKeyAndAscending;
     }
 
+    @Override
+    public String[] getSortedColumns() {
+        return sortedColumns;
+    }
+
+    @Override
+    public boolean isDescending() {
+        return descending;
+    }
+
     @Override
     @SuppressFBWarnings("RV_NEGATING_RESULT_OF_COMPARETO")
     public int compare(DataAccessor o1, DataAccessor o2) {
@@ -311,7 +311,12 @@ public class Server implements AutoCloseable, ServerSideConnectionAcceptor<Serve
                 boolean requirefsync = configuration.getBoolean(ServerConfiguration.PROPERTY_REQUIRE_FSYNC, ServerConfiguration.PROPERTY_REQUIRE_FSYNC_DEFAULT);
                 boolean pageodirect = configuration.getBoolean(ServerConfiguration.PROPERTY_PAGE_USE_ODIRECT, ServerConfiguration.PROPERTY_PAGE_USE_ODIRECT_DEFAULT);
                 boolean indexodirect = configuration.getBoolean(ServerConfiguration.PROPERTY_INDEX_USE_ODIRECT, ServerConfiguration.PROPERTY_INDEX_USE_ODIRECT_DEFAULT);
-                return new FileDataStorageManager(dataDirectory, tmpDirectory, diskswapThreshold, requirefsync, pageodirect, indexodirect, statsLogger);
+                boolean pagemmap = configuration.getBoolean(ServerConfiguration.PROPERTY_PAGE_USE_MMAP, ServerConfiguration.PROPERTY_PAGE_USE_MMAP_DEFAULT);
+                int sortMaxRecordsInMemory = configuration.getInt(ServerConfiguration.PROPERTY_SORT_MAX_RECORDS_IN_MEMORY, ServerConfiguration.PROPERTY_SORT_MAX_RECORDS_IN_MEMORY_DEFAULT);
+                boolean pagecompression = configuration.getBoolean(ServerConfiguration.PROPERTY_PAGE_COMPRESSION, ServerConfiguration.PROPERTY_PAGE_COMPRESSION_DEFAULT);
+                long pageSegmentSize = configuration.getLong(ServerConfiguration.PROPERTY_PAGE_SEGMENTS_SIZE, ServerConfiguration.PROPERTY_PAGE_SEGMENTS_SIZE_DEFAULT);
+                return new FileDataStorageManager(dataDirectory, tmpDirectory, diskswapThreshold, requirefsync, pageodirect, indexodirect, pagemmap,
+                        sortMaxRecordsInMemory, pagecompression, pageSegmentSize, statsLogger);
             default:
                 throw new RuntimeException();
         }
@@ -332,6 +337,7 @@ public class Server implements AutoCloseable, ServerSideConnectionAcceptor<Serve
                         configuration.getBoolean(ServerConfiguration.PROPERTY_REQUIRE_FSYNC, ServerConfiguration.PROPERTY_REQUIRE_FSYNC_DEFAULT),
                         configuration.getBoolean(ServerConfiguration.PROPERTY_TXLOG_USE_ODIRECT, ServerConfiguration.PROPERTY_TXLOG_USE_ODIRECT_DEFAULT),
                         configuration.getInt(ServerConfiguration.PROPERTY_DEFERRED_SYNC_PERIOD, ServerConfiguration.PROPERTY_DEFERRED_SYNC_PERIOD_DEFAULT),
+                        configuration.getBoolean(ServerConfiguration.PROPERTY_TXLOG_GROUP_COMMIT, ServerConfiguration.PROPERTY_TXLOG_GROUP_COMMIT_DEFAULT),
                         statsLogger.scope("txlog")
                 );
             case ServerConfiguration.PROPERTY_MODE_CLUSTER:
@@ -76,6 +76,15 @@ public final class ServerConfiguration {
     public static final String PROPERTY_TXLOG_USE_ODIRECT = "txlog.use_o_direct";
     public static final boolean PROPERTY_TXLOG_USE_ODIRECT_DEFAULT = USE_O_DIRECT_DEFAULT;
 
+    /**
+     * Group commit mode for local txlog: entries are serialized by the calling
+     * threads and the log writer drains and writes them in batches, fsyncs are
+     * coalesced following measured disk latency instead of
+     * {@link #PROPERTY_MAX_SYNC_TIME}. By default, the value is false.
+     */
+    public static final String PROPERTY_TXLOG_GROUP_COMMIT = "txlog.groupcommit";
+    public static final boolean PROPERTY_TXLOG_GROUP_COMMIT_DEFAULT = false;
+
     public static final String PROPERTY_MAX_LOG_FILE_SIZE = "txlog.maxfilesize";
     public static final long PROPERTY_MAX_LOG_FILE_SIZE_DEFAULT = 64L * 1024L * 1024L;
 
@@ -89,6 +98,32 @@ public final class ServerConfiguration {
     public static final String PROPERTY_INDEX_USE_ODIRECT = "index.use_o_direct";
     public static final boolean PROPERTY_INDEX_USE_ODIRECT_DEFAULT = USE_O_DIRECT_DEFAULT;
 
+    /**
+     * Memory map checkpointed data page files when loading them, records are
+     * copied out of the mapping only when accessed and the OS page cache keeps
+     * page data. By default, the value is false.
+     */
+    public static final String PROPERTY_PAGE_USE_MMAP = "page.use_mmap";
+    public static final boolean PROPERTY_PAGE_USE_MMAP_DEFAULT = false;
+
+    /**
+     * Compress records of data pages with LZ4 when they are written, a page is
+     * stored uncompressed if compression does not save space. By default, the
+     * value is false.
+     */
+    public static final String PROPERTY_PAGE_COMPRESSION = "page.compression";
+    public static final boolean PROPERTY_PAGE_COMPRESSION_DEFAULT = false;
+
+    /**
+     * Append data pages to shared segment files of at most this size (in bytes)
+     * instead of writing a file for each page. Segments are synced once for
+     * each table checkpoint and dropped when they do not hold live pages
+     * anymore. O_DIRECT is not used for segments. By default, the value is 0
+     * (one file per page).
+     */
+    public static final String PROPERTY_PAGE_SEGMENTS_SIZE = "page.segments.size";
+    public static final long PROPERTY_PAGE_SEGMENTS_SIZE_DEFAULT = 0;
+
     public static final String PROPERTY_TMPDIR = "server.tmp.dir";
     public static final String PROPERTY_TMPDIR_DEFAULT = "tmp";
     public static final String PROPERTY_METADATADIR = "server.metadata.dir";
@@ -194,6 +229,16 @@ public final class ServerConfiguration {
     public static final String PROPERTY_COMPACTION_DURATION = "server.checkpoint.compaction";
     public static final long PROPERTY_COMPACTION_DURATION_DEFAULT = 1000L;
 
+    /**
+     * Run tablespace checkpoints in fuzzy mode: the tablespace lock is held
+     * exclusively only to capture the log position, transactions and tables
+     * metadata, tables data is then flushed while DML statements keep running.
+     * DDL statements are still blocked until the checkpoint completes. By
+     * default, the value is false.
+     */
+    public static final String PROPERTY_CHECKPOINT_FUZZY = "server.checkpoint.fuzzy";
+    public static final boolean PROPERTY_CHECKPOINT_FUZZY_DEFAULT = false;
+
     public static final String PROPERTY_ZOOKEEPER_ADDRESS_DEFAULT = "localhost:1281";
     public static final String PROPERTY_ZOOKEEPER_PATH_DEFAULT = "/herd";
     public static final int PROPERTY_PORT_DEFAULT = 7000;
@@ -212,6 +257,13 @@ public final class ServerConfiguration {
     public static final String PROPERTY_DISK_SWAP_MAX_RECORDS = "server.disk.swap.max.records";
     public static final int PROPERTY_DISK_SWAP_MAX_RECORDS_DEFAULT = 10000;
 
+    /**
+     * Maximum number of records loaded in memory by a query in order to sort a result set which has been swapped
+     * to disk, bigger results are sorted using sorted runs on disk which are merged while reading
+     */
+    public static final String PROPERTY_SORT_MAX_RECORDS_IN_MEMORY = "server.sort.max.records.in.memory";
+    public static final int PROPERTY_SORT_MAX_RECORDS_IN_MEMORY_DEFAULT = 100_000;
+
     public static final String PROPERTY_MAX_LOGICAL_PAGE_SIZE = "server.memory.page.size";
     public static final long PROPERTY_MAX_LOGICAL_PAGE_SIZE_DEFAULT = 1 * 1024 * 1024;
 
@@ -245,6 +297,126 @@ public final class ServerConfiguration {
     public static final String PROPERTY_MAX_PK_MEMORY = "server.memory.pk.limit";
     public static final long PROPERTY_MAX_PK_MEMORY_DEFAULT = 0L;
 
+    /**
+     * Amount of primary index memory used for a cache of hot key to page mappings, looked up before primary
+     * index pages. By default, the value is 0 and the cache is disabled.
+     */
+    public static final String PROPERTY_MAX_PK_CACHE_MEMORY = "server.memory.pk.cache.limit";
+    public static final long PROPERTY_MAX_PK_CACHE_MEMORY_DEFAULT = 0L;
+
+    /**
+     * Keep loaded data pages off-heap. Records of immutable pages will be packed into direct memory slabs
+     * instead of living as many small objects on the Java heap. By default, the value is false.
+     */
+    public static final String PROPERTY_MEMORY_DATA_OFFHEAP = "server.memory.data.offheap";
+    public static final boolean PROPERTY_MEMORY_DATA_OFFHEAP_DEFAULT = false;
+
+    /**
+     * Implementation of the row lock manager of each table: "default" uses a lock object per locked key,
+     * "legacy" is the previous per key implementation and "striped" maps keys to a fixed array of lock stripes
+     * and allocates a small state object per locked key only while it is locked (plus a handle per read with an
+     * owner), no lock object is pooled or kept for unlocked keys.
+     */
+    public static final String PROPERTY_TABLE_LOCK_MANAGER = "server.table.lockmanager";
+    public static final String TABLE_LOCK_MANAGER_DEFAULT = "default";
+    public static final String TABLE_LOCK_MANAGER_LEGACY = "legacy";
+    public static final String TABLE_LOCK_MANAGER_STRIPED = "striped";
+    public static final String PROPERTY_TABLE_LOCK_MANAGER_DEFAULT = TABLE_LOCK_MANAGER_DEFAULT;
+
+    /**
+     * Number of lock stripes of each table when using the "striped" lock manager (rounded up to a power of
+     * two)
+     */
+    public static final String PROPERTY_TABLE_LOCK_MANAGER_STRIPES = "server.table.lockmanager.stripes";
+    public static final int PROPERTY_TABLE_LOCK_MANAGER_STRIPES_DEFAULT = 4096;
+
+    /**
+     * Implementation of the primary key index of tables: "default" uses the implementation of the data storage,
+     * "offheap" keeps keys and page ids in a direct memory hash table. It can be overridden for a single table
+     * using the property name followed by the tablespace and the table name, for instance
+     * "server.table.pkindex.tblspace1.mytable".
+     */
+    public static final String PROPERTY_TABLE_PK_INDEX = "server.table.pkindex";
+    public static final String TABLE_PK_INDEX_DEFAULT = "default";
+    public static final String TABLE_PK_INDEX_OFFHEAP = "offheap";
+    public static final String PROPERTY_TABLE_PK_INDEX_DEFAULT = TABLE_PK_INDEX_DEFAULT;
+
+    /**
+     * Number of threads of the fork-join pool used for parallel table scans and aggregations, 0 disables parallel
+     * execution.
+     */
+    public static final String PROPERTY_SCAN_PARALLELISM = "server.scan.parallelism";
+    public static final int PROPERTY_SCAN_PARALLELISM_DEFAULT = 0;
+
+    /**
+     * Maximum number of concurrent partitions of a single scan (degree of parallelism), including the thread
+     * which executes the statement.
+     */
+    public static final String PROPERTY_SCAN_PARALLELISM_MAX_PER_STATEMENT = "server.scan.parallelism.max.per.statement";
+    public static final int PROPERTY_SCAN_PARALLELISM_MAX_PER_STATEMENT_DEFAULT = 4;
+
+    /**
+     * Minimum number of active data pages of a table to scan it in parallel.
+     */
+    public static final String PROPERTY_SCAN_PARALLELISM_MIN_PAGES = "server.scan.parallelism.min.pages";
+    public static final int PROPERTY_SCAN_PARALLELISM_MIN_PAGES_DEFAULT = 8;
+
+    /**
+     * Maximum number of groups kept in memory by a GROUP BY, partial aggregates are spilled to temporary record
+     * sets when this budget is exceeded.
+     */
+    public static final String PROPERTY_AGGREGATE_MAX_GROUPS_IN_MEMORY = "server.aggregate.max.groups.in.memory";
+    public static final int PROPERTY_AGGREGATE_MAX_GROUPS_IN_MEMORY_DEFAULT = 1_000_000;
+
+    /**
+     * Maximum number of rows of the build side of a hash join kept in memory, over this budget both inputs are
+     * partitioned to temporary record sets (grace hash join).
+     */
+    public static final String PROPERTY_JOIN_MAX_BUILD_ROWS_IN_MEMORY = "server.join.max.build.rows.in.memory";
+    public static final int PROPERTY_JOIN_MAX_BUILD_ROWS_IN_MEMORY_DEFAULT = 1_000_000;
+
+    /**
+     * Generate and compile a specialized Java class for the predicates of table scans, instead of evaluating the
+     * tree of compiled expressions. Generated classes are part of the plan, so they are cached with it.
+     */
+    public static final String PROPERTY_PLANNER_EXPRESSIONS_CODEGEN = "server.planner.expressions.codegen";
+    public static final boolean PROPERTY_PLANNER_EXPRESSIONS_CODEGEN_DEFAULT = false;
+
+    /**
+     * Max number of rows of a batch of inserts (JDBC executeBatch) which are planned once, locked together and
+     * written to the log with a single entry. Bigger batches are executed in chunks, 0 disables batched inserts.
+     */
+    public static final String PROPERTY_BATCH_INSERT_MAX_ROWS = "server.batch.insert.maxrows";
+    public static final int PROPERTY_BATCH_INSERT_MAX_ROWS_DEFAULT = 1000;
+
+    /**
+     * Produce the next chunk of a scan in background while the current one is sent to the client. Scans in a
+     * transaction are never prefetched.
+     */
+    public static final String PROPERTY_SCANNER_PREFETCH = "server.scanner.prefetch";
+    public static final boolean PROPERTY_SCANNER_PREFETCH_DEFAULT = true;
+
+    /**
+     * Number of threads producing chunks of scans in background, they are not shared with statement execution.
+     */
+    public static final String PROPERTY_SCANNER_PREFETCH_THREADS = "server.scanner.prefetch.threads";
+    public static final int PROPERTY_SCANNER_PREFETCH_THREADS_DEFAULT = 16;
+
+    /**
+     * Max number of chunks of a scan a client can request ahead of the last chunk produced, farther requests are
+     * rejected. It must not be lower than the prefetch depth of clients.
+     */
+    public static final String PROPERTY_SCANNER_MAX_CHUNKS_AHEAD = "server.scanner.max.chunks.ahead";
+    public static final int PROPERTY_SCANNER_MAX_CHUNKS_AHEAD_DEFAULT = 16;
+
+    /**
+     * Columns summarized with min/max values and NULL count (zone maps) in every stored data page, full scans skip
+     * pages which cannot match the WHERE clause. Comma separated list of 'column' or 'table.column' names, '*' for
+     * every column. Only integer, long and timestamp columns not in the primary key are summarized.
+     */
+    public static final String PROPERTY_TABLE_ZONE_MAPS_COLUMNS = "server.table.zonemaps.columns";
+    public static final String PROPERTY_TABLE_ZONE_MAPS_COLUMNS_DEFAULT = "";
+
     public static final String PROPERTY_JMX_ENABLE = "server.jmx.enable";
     public static final boolean PROPERTY_JMX_ENABLE_DEFAULT = true;
 
@@ -37,6 +37,7 @@ import herddb.model.DMLStatementExecutionResult;
 import herddb.model.DataScanner;
 import herddb.model.DataScannerException;
 import herddb.model.DuplicatePrimaryKeyException;
+import herddb.model.ExecutionPlan;
 import herddb.model.GetResult;
 import herddb.model.Index;
 import herddb.model.NotLeaderException;
@@ -53,6 +54,8 @@ import herddb.model.TransactionContext;
 import herddb.model.TransactionResult;
 import herddb.model.commands.BeginTransactionStatement;
 import herddb.model.commands.CommitTransactionStatement;
+import herddb.model.commands.InsertBatchStatement;
+import herddb.model.commands.InsertStatement;
 import herddb.model.commands.RollbackTransactionStatement;
 import herddb.model.commands.SQLPlannedOperationStatement;
 import herddb.model.commands.ScanStatement;
@@ -62,6 +65,7 @@ import herddb.network.ServerSideConnection;
 import herddb.proto.Pdu;
 import herddb.proto.PduCodec;
 import herddb.security.sasl.SaslNettyServer;
+import herddb.sql.SQLStatementEvaluationContext;
 import herddb.sql.TranslatedQuery;
 import herddb.utils.Bytes;
 import herddb.utils.DataAccessor;
@@ -104,6 +108,10 @@ public class ServerSideConnectionPeer implements ServerSideConnection, ChannelEv
     private final ConcurrentMap<Long, ServerSideScannerPeer> scanners = new ConcurrentHashMap<>();
     private volatile boolean authenticated;
     private volatile SaslNettyServer saslNettyServer;
+    /**
+     * Format of result set chunks, negotiated with the client during the handshake
+     */
+    private volatile byte resultSetFormat = PduCodec.ResultSetChunk.FORMAT_ROWS;
     private final String address;
     private volatile String username = "";
     private final long connectionTs = System.currentTimeMillis();
@@ -440,10 +448,8 @@ public class ServerSideConnectionPeer implements ServerSideConnection, ChannelEv
         RunningStatementInfo statementInfo = new RunningStatementInfo(query,
                 System.currentTimeMillis(), tableSpace, "", 1);
         try {
-            TranslatedQuery translatedQuery = server
-                    .getManager()
-                    .getPlanner().translate(tableSpace,
-                            query, parameters, true, true, false, maxRows);
+            TranslatedQuery translatedQuery = translate(tableSpace, statementId, query, parameters,
+                    true, false, maxRows);
 
             if (LOGGER.isLoggable(Level.FINEST)) {
                 LOGGER.log(Level.FINEST, "{0} -> {1}", new Object[]{query, translatedQuery.plan.mainStatement});
@@ -456,19 +462,31 @@ public class ServerSideConnectionPeer implements ServerSideConnection, ChannelEv
                 ScanResult scanResult = (ScanResult) server.getManager().executePlan(translatedQuery.plan, translatedQuery.context, transactionContext);
                 DataScanner dataScanner = scanResult.dataScanner;
 
-                ServerSideScannerPeer scanner = new ServerSideScannerPeer(dataScanner);
+                // a transactional scan reads and locks data of the transaction, it must not run
+                // concurrently with other statements of the same transaction
+                ServerSideScannerPeer scanner;
+                if (server.getManager().isScannerPrefetch() && dataScanner.getTransactionId() == 0) {
+                    scanner = new ServerSideScannerPeer(dataScanner,
+                            server.getManager().getScannerPrefetchExecutor(), true,
+                            server.getManager().getScannerMaxChunksAhead());
+                } else {
+                    scanner = new ServerSideScannerPeer(dataScanner, Runnable::run, false,
+                            server.getManager().getScannerMaxChunksAhead());
+                }
 
                 String[] columns = dataScanner.getFieldNames();
-                List<DataAccessor> records = dataScanner.consume(fetchSize);
+                ServerSideScannerPeer.Chunk chunk = scanner.firstChunk(fetchSize);
+                List<DataAccessor> records = chunk.records;
                 TuplesList tuplesList = new TuplesList(columns, records);
-                boolean last = dataScanner.isFinished();
+                boolean last = chunk.last;
                 if (LOGGER.isLoggable(Level.FINEST)) {
                     LOGGER.log(Level.FINEST, "sending first {0} records to scanner {1} query {2}", new Object[]{records.size(), scannerId, query});
                 }
                 if (!last) {
                     scanners.put(scannerId, scanner);
                 }
-                ByteBuf result = PduCodec.ResultSetChunk.write(message.messageId, tuplesList, last, dataScanner.getTransactionId());
+                ByteBuf result = PduCodec.ResultSetChunk.write(message.messageId, tuplesList, last, dataScanner.getTransactionId(),
+                        resultSetFormat, true);
                 channel.sendReplyMessage(message.messageId, result);
                 if (last) {
                     // no need to hold the scanner anymore
@@ -491,36 +509,44 @@ public class ServerSideConnectionPeer implements ServerSideConnection, ChannelEv
     private void handleFetchScannerData(Pdu message, Channel channel) {
         long scannerId = PduCodec.FetchScannerData.readScannerId(message);
         int fetchSize = PduCodec.FetchScannerData.readFetchSize(message);
+        long sequence = PduCodec.FetchScannerData.readSequence(message);
+        long messageId = message.messageId;
         if (fetchSize <= 0) {
             fetchSize = 10;
         }
         ServerSideScannerPeer scanner = scanners.get(scannerId);
         if (scanner != null) {
-            try {
+            // the chunk could be produced in background, reply is sent as soon as it is ready
+            scanner.fetch(sequence, fetchSize).whenComplete((chunk, error) -> {
+                if (error != null) {
+                    if (error instanceof CompletionException && error.getCause() != null) {
+                        error = error.getCause();
+                    }
+                    ByteBuf errorMessage = composeErrorResponse(messageId, error);
+                    channel.sendReplyMessage(messageId, errorMessage);
+                    return;
+                }
                 DataScanner dataScanner = scanner.getScanner();
-                List<DataAccessor> records = dataScanner.consume(fetchSize);
                 String[] columns = dataScanner.getFieldNames();
-                TuplesList tuplesList = new TuplesList(columns, records);
+                TuplesList tuplesList = new TuplesList(columns, chunk.records);
 
-                boolean last = false;
-                if (dataScanner.isFinished()) {
+                boolean last = chunk.last;
+                boolean drained = scanner.isDrained();
+                if (drained) {
                     LOGGER.log(Level.FINEST, "unregistering scanner {0}, resultset is finished", scannerId);
                     scanners.remove(scannerId);
-                    last = true;
                 }
 //                        LOGGER.log(Level.SEVERE, "sending " + converted.size() + " records to scanner " + scannerId);
-                ByteBuf result = PduCodec.ResultSetChunk.write(message.messageId, tuplesList, last, dataScanner.getTransactionId());
-                channel.sendReplyMessage(message.messageId, result);
-                if (last) {
-                    dataScanner.close();
+                ByteBuf result = PduCodec.ResultSetChunk.write(messageId, tuplesList, last, dataScanner.getTransactionId(),
+                        resultSetFormat, false);
+                channel.sendReplyMessage(messageId, result);
+                if (drained) {
+                    scanner.close();
                 }
-            } catch (DataScannerException err) {
-                ByteBuf error = composeErrorResponse(message.messageId, err);
-                channel.sendReplyMessage(message.messageId, error);
-            }
+            });
         } else {
-            ByteBuf error = PduCodec.ErrorResponse.write(message.messageId, "no such scanner " + scannerId);
-            channel.sendReplyMessage(message.messageId, error);
+            ByteBuf error = PduCodec.ErrorResponse.write(messageId, "no such scanner " + scannerId);
+            channel.sendReplyMessage(messageId, error);
         }
     }
 
@@ -582,13 +608,31 @@ public class ServerSideConnectionPeer implements ServerSideConnection, ChannelEv
         try {
 
             List<TranslatedQuery> queries = new ArrayList<>();
-            for (int i = 0; i < numStatements; i++) {
+            List<Integer> queriesRows = new ArrayList<>();
+            int batchInsertMaxRows = server.getManager().getBatchInsertMaxRows();
+            for (int i = 0; i < numStatements; ) {
                 List<Object> parameters = batch.get(i);
-                TranslatedQuery translatedQuery = server
-                        .getManager()
-                        .getPlanner().translate(tableSpace, query,
-                                parameters, false, true, returnValues, -1);
+                TranslatedQuery translatedQuery = translate(tableSpace, statementId, query, parameters,
+                        false, returnValues, -1);
+                int rows = 1;
+                if (!returnValues && batchInsertMaxRows > 1
+                        && translatedQuery.plan.mainStatement instanceof InsertStatement) {
+                    // same plan for the following rows, they will be written together
+                    List<StatementEvaluationContext> contexts = new ArrayList<>();
+                    contexts.add(translatedQuery.context);
+                    while (i + rows < numStatements && rows < batchInsertMaxRows) {
+                        contexts.add(new SQLStatementEvaluationContext(translatedQuery.context.query, batch.get(i + rows)));
+                        rows++;
+                    }
+                    if (rows > 1) {
+                        InsertBatchStatement insertBatch =
+                                new InsertBatchStatement((InsertStatement) translatedQuery.plan.mainStatement, contexts);
+                        translatedQuery = new TranslatedQuery(ExecutionPlan.simple(insertBatch), translatedQuery.context);
+                    }
+                }
                 queries.add(translatedQuery);
+                queriesRows.add(rows);
+                i += rows;
             }
 
             List<Long> updateCounts = new CopyOnWriteArrayList<>();
@@ -627,8 +671,17 @@ public class ServerSideConnectionPeer implements ServerSideConnection, ChannelEv
                                 otherData.putAll(newvalue);
                             }
                         }
-                        updateCounts.add((long) dml.getUpdateCount());
-                        otherDatas.add(otherData);
+                        int rows = queriesRows.get(current - 1);
+                        if (rows > 1) {
+                            // batch of inserts, each row has been inserted
+                            for (int i = 0; i < rows; i++) {
+                                updateCounts.add(1L);
+                                otherDatas.add(otherData);
+                            }
+                        } else {
+                            updateCounts.add((long) dml.getUpdateCount());
+                            otherDatas.add(otherData);
+                        }
                     } else if (result instanceof DDLStatementExecutionResult) {
                         Map<String, Object> otherData = Collections.emptyMap();
                         updateCounts.add(1L);
@@ -675,6 +728,21 @@ public class ServerSideConnectionPeer implements ServerSideConnection, ChannelEv
         }
     }
 
+    private TranslatedQuery translate(
+            String tableSpace, long statementId, String query, List<Object> parameters,
+            boolean scan, boolean returnValues, int maxRows
+    ) throws StatementExecutionException {
+        if (statementId > 0) {
+            TranslatedQuery translatedQuery = preparedStatements.translate(server.getManager().getPlanner(),
+                    tableSpace, statementId, parameters, scan, returnValues, maxRows);
+            if (translatedQuery != null) {
+                return translatedQuery;
+            }
+            // statement evicted meanwhile, fallback to the query text
+        }
+        return server.getManager().getPlanner().translate(tableSpace, query, parameters, scan, true, returnValues, maxRows);
+    }
+
     private void handleExecuteStatement(Pdu message, Channel channel) {
         long txId = PduCodec.ExecuteStatement.readTx(message);
         String tablespace = PduCodec.ExecuteStatement.readTablespace(message);
@@ -703,8 +771,8 @@ public class ServerSideConnectionPeer implements ServerSideConnection, ChannelEv
         TransactionContext transactionContext = new TransactionContext(txId);
         TranslatedQuery translatedQuery;
         try {
-            translatedQuery = server.getManager().getPlanner().translate(tablespace,
-                    query, parameters, false, true, returnValues, -1);
+            translatedQuery = translate(tablespace, statementId, query, parameters,
+                    false, returnValues, -1);
         } catch (StatementExecutionException ex) {
             ByteBuf error = composeErrorResponse(message.messageId, ex);
             channel.sendReplyMessage(message.messageId, error);
@@ -918,6 +986,8 @@ public class ServerSideConnectionPeer implements ServerSideConnection, ChannelEv
             }
             if (saslNettyServer == null) {
                 saslNettyServer = new SaslNettyServer(server, mech);
+                resultSetFormat = PduCodec.SaslTokenMessageRequest.readResultSetFormat(message) == PduCodec.ResultSetChunk.FORMAT_COLUMNS
+                        ? PduCodec.ResultSetChunk.FORMAT_COLUMNS : PduCodec.ResultSetChunk.FORMAT_ROWS;
             }
             byte[] responseToken = saslNettyServer.response(token);
             ByteBuf tokenChallenge = PduCodec.SaslTokenServerResponse.write(message.messageId, responseToken);
@@ -25,6 +25,12 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.RemovalNotification;
 import herddb.core.HerdDBInternalException;
+import herddb.model.ExecutionPlan;
+import herddb.model.StatementExecutionException;
+import herddb.sql.AbstractSQLPlanner;
+import herddb.sql.SQLStatementEvaluationContext;
+import herddb.sql.TranslatedQuery;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
@@ -42,11 +48,17 @@ public final class ServerSidePreparedStatementCache {
     private final Cache<String, Long> preparedStatements;
     private final ConcurrentHashMap<Long, PreparedStatementInfo> statementsInfo = new ConcurrentHashMap<>();
 
+    /**
+     * Incremented whenever cached plans are dropped, plans bound before are no more valid
+     */
+    private final AtomicLong plansGeneration = new AtomicLong();
+
     private static class PreparedStatementInfo {
 
         private final String query;
         private final String tablespace;
         private final int memory;
+        private volatile BoundPlan plan;
 
         public PreparedStatementInfo(String query, String tablespace) {
             this.query = query;
@@ -57,6 +69,35 @@ public final class ServerSidePreparedStatementCache {
 
     }
 
+    /**
+     * Execution plan bound to a prepared statement, it is valid only for the same kind of execution
+     */
+    private static final class BoundPlan {
+
+        private final long generation;
+        private final boolean scan;
+        private final boolean returnValues;
+        private final int maxRows;
+        private final ExecutionPlan plan;
+        private final String query;
+
+        BoundPlan(long generation, boolean scan, boolean returnValues, int maxRows, ExecutionPlan plan, String query) {
+            this.generation = generation;
+            this.scan = scan;
+            this.returnValues = returnValues;
+            this.maxRows = maxRows;
+            this.plan = plan;
+            this.query = query;
+        }
+
+        boolean matches(long generation, boolean scan, boolean returnValues, int maxRows) {
+            return this.generation == generation
+                    && this.scan == scan
+                    && this.returnValues == returnValues
+                    && this.maxRows == maxRows;
+        }
+    }
+
     public ServerSidePreparedStatementCache(long maxMemory) {
         this.preparedStatements = CacheBuilder
                 .newBuilder()
@@ -108,6 +149,42 @@ public final class ServerSidePreparedStatementCache {
         return info.query;
     }
 
+    /**
+     * Translates a prepared statement, reusing the plan bound to the statement if possible. Repeated executions
+     * skip query text processing and the lookup on the cache of the planner.
+     *
+     * @return the translated query or null if the statement is unknown
+     */
+    TranslatedQuery translate(
+            AbstractSQLPlanner planner, String tableSpace, long statementId, List<Object> parameters,
+            boolean scan, boolean returnValues, int maxRows
+    ) throws StatementExecutionException {
+        PreparedStatementInfo info = statementsInfo.get(statementId);
+        if (info == null || !tableSpace.equals(info.tablespace)) {
+            return null;
+        }
+        final long generation = plansGeneration.get();
+        BoundPlan bound = info.plan;
+        if (bound != null && bound.matches(generation, scan, returnValues, maxRows)) {
+            return new TranslatedQuery(bound.plan, new SQLStatementEvaluationContext(bound.query, parameters), true);
+        }
+        TranslatedQuery translated = planner.translate(tableSpace, info.query, parameters, scan, true, returnValues, maxRows);
+        if (translated.cacheable) {
+            info.plan = new BoundPlan(generation, scan, returnValues, maxRows, translated.plan, translated.context.query);
+        }
+        return translated;
+    }
+
+    /**
+     * Drops all the plans bound to prepared statements, to be called when the cache of plans is cleared (DDL)
+     */
+    public void clearPlans() {
+        plansGeneration.incrementAndGet();
+        for (PreparedStatementInfo info : statementsInfo.values()) {
+            info.plan = null;
+        }
+    }
+
     @VisibleForTesting
     public void clear() {
         preparedStatements.invalidateAll();
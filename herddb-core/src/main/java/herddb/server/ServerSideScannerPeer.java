@@ -22,38 +22,228 @@ package herddb.server;
 
 import herddb.model.DataScanner;
 import herddb.model.DataScannerException;
+import herddb.utils.DataAccessor;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Scanner on the server-side
+ * Scanner on the server-side.
+ * <p>
+ * Chunks are produced one after the other and they are served in the order
+ * of the sequence numbers of fetch requests, so that a client can send a new
+ * request before receiving the reply to the previous one. When prefetch is
+ * enabled chunks are produced in background and the next chunk is produced as
+ * soon as the current one has been requested, otherwise chunks are produced in
+ * the thread serving the request.
+ * </p>
  *
  * @author enrico.olivelli
  */
 public class ServerSideScannerPeer implements AutoCloseable {
 
+    /**
+     * A chunk of records
+     */
+    public static final class Chunk {
+
+        private static final Chunk END = new Chunk(Collections.emptyList(), true);
+
+        public final List<DataAccessor> records;
+        public final boolean last;
+
+        private Chunk(List<DataAccessor> records, boolean last) {
+            this.records = records;
+            this.last = last;
+        }
+    }
+
     private final DataScanner scanner;
+    private final Executor executor;
+    private final boolean prefetch;
+    /**
+     * Max distance of a requested chunk from the last produced one, skipped chunks are produced and kept in
+     * memory until requested
+     */
+    private final int maxChunksAhead;
+
+    /**
+     * Chunks produced (or being produced) and not requested yet
+     */
+    private final Map<Long, CompletableFuture<Chunk>> chunks = new HashMap<>();
+    /**
+     * The chunk produced last, any other chunk is produced after it
+     */
+    private CompletableFuture<Chunk> lastChunk;
+    private long lastChunkSequence = -1;
+    /**
+     * Sequence number of the chunk which contains the end of data, -1 if not
+     * known yet
+     */
+    private long endSequence = -1;
+    private long nextUnsequencedFetch;
+    private int fetchSize;
+    private boolean closed;
 
     public ServerSideScannerPeer(DataScanner scanner) {
+        this(scanner, Runnable::run, false, ServerConfiguration.PROPERTY_SCANNER_MAX_CHUNKS_AHEAD_DEFAULT);
+    }
+
+    public ServerSideScannerPeer(DataScanner scanner, Executor executor, boolean prefetch, int maxChunksAhead) {
         this.scanner = scanner;
+        this.executor = executor;
+        this.prefetch = prefetch;
+        this.maxChunksAhead = maxChunksAhead;
     }
 
     public DataScanner getScanner() {
         return scanner;
     }
 
-    public void clientClose() {
-        try {
-            scanner.close();
-        } catch (DataScannerException ex) {
-            LOG.log(Level.SEVERE, "error con closing scanner " + ex, ex);
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * Produces the first chunk (sequence number 0) in the current thread.
+     *
+     * @param fetchSize
+     * @return the chunk
+     * @throws DataScannerException
+     */
+    public synchronized Chunk firstChunk(int fetchSize) throws DataScannerException {
+        if (lastChunk != null) {
+            throw new IllegalStateException("first chunk already produced");
+        }
+        this.fetchSize = fetchSize;
+        Chunk first = consume(fetchSize, 0);
+        lastChunk = CompletableFuture.completedFuture(first);
+        lastChunkSequence = 0;
+        nextUnsequencedFetch = 1;
+        if (prefetch && !first.last) {
+            produceNextChunk();
+        }
+        return first;
+    }
+
+    /**
+     * Requests a chunk
+     *
+     * @param sequence  sequence number of the chunk, a negative value means
+     *                  the chunk after the last requested one (clients which
+     *                  do not send sequence numbers have only one request in flight)
+     * @param fetchSize
+     * @return the chunk, chunks after the last one are empty. Chunks more than
+     * {@link ServerConfiguration#PROPERTY_SCANNER_MAX_CHUNKS_AHEAD} after the last produced one are rejected.
+     */
+    public synchronized CompletableFuture<Chunk> fetch(long sequence, int fetchSize) {
+        if (lastChunk == null || closed) {
+            CompletableFuture<Chunk> error = new CompletableFuture<>();
+            error.completeExceptionally(new DataScannerException("scanner is not active"));
+            return error;
         }
+        if (sequence < 0) {
+            sequence = nextUnsequencedFetch;
+        } else if (sequence - lastChunkSequence > maxChunksAhead) {
+            CompletableFuture<Chunk> error = new CompletableFuture<>();
+            error.completeExceptionally(new DataScannerException("chunk " + sequence + " is too far ahead of chunk "
+                    + lastChunkSequence + ", at most " + maxChunksAhead + " chunks can be requested ahead"));
+            return error;
+        }
+        nextUnsequencedFetch = Math.max(nextUnsequencedFetch, sequence + 1);
+        this.fetchSize = fetchSize;
+        while (lastChunkSequence < sequence) {
+            produceNextChunk();
+        }
+        CompletableFuture<Chunk> result = chunks.remove(sequence);
+        if (result == null) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(new DataScannerException("chunk " + sequence + " has already been requested"));
+            return result;
+        }
+        if (prefetch && lastChunkSequence == sequence) {
+            produceNextChunk();
+        }
+        return result;
+    }
+
+    private void produceNextChunk() {
+        final int size = fetchSize;
+        final long sequence = ++lastChunkSequence;
+        lastChunk = lastChunk.thenApplyAsync(previous -> {
+            if (previous.last) {
+                return Chunk.END;
+            }
+            try {
+                return consume(size, sequence);
+            } catch (DataScannerException err) {
+                throw new CompletionException(err);
+            }
+        }, executor);
+        chunks.put(sequence, lastChunk);
+    }
+
+    private Chunk consume(int size, long sequence) throws DataScannerException {
+        List<DataAccessor> records = scanner.consume(size);
+        boolean last = scanner.isFinished();
+        if (last) {
+            synchronized (this) {
+                endSequence = sequence;
+            }
+        }
+        return new Chunk(records, last);
+    }
+
+    /**
+     * Requests could be received out of order, the scanner is no more needed
+     * only when every chunk up to the end of data has been requested
+     *
+     * @return true if every chunk has been requested
+     */
+    public synchronized boolean isDrained() {
+        if (endSequence < 0) {
+            return false;
+        }
+        for (long sequence : chunks.keySet()) {
+            if (sequence <= endSequence) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void clientClose() {
+        close();
     }
 
     private static final Logger LOG = Logger.getLogger(ServerSideScannerPeer.class.getName());
 
     @Override
     public void close() {
+        CompletableFuture<Chunk> pending;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            chunks.clear();
+            pending = lastChunk;
+        }
+        if (pending == null) {
+            closeScanner();
+        } else {
+            // do not close the scanner while a chunk is being produced
+            pending.whenComplete((chunk, error) -> closeScanner());
+        }
+    }
+
+    private void closeScanner() {
         try {
             scanner.close();
         } catch (DataScannerException ex) {
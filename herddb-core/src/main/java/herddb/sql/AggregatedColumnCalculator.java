@@ -35,4 +35,24 @@ public interface AggregatedColumnCalculator {
 
     void consume(herddb.utils.DataAccessor tuple) throws StatementExecutionException;
 
+    /**
+     * Tells whether values computed over distinct subsets of the rows can be merged with
+     * {@link #mergePartialValue(java.lang.Object)}
+     *
+     * @return true if the calculator supports partial aggregation
+     */
+    default boolean isMergeable() {
+        return false;
+    }
+
+    /**
+     * Merges the value computed by another calculator of the same kind over a different subset of the rows
+     *
+     * @param partialValue the result of {@link #getValue()} of the other calculator
+     * @throws StatementExecutionException if the calculator does not support partial aggregation
+     */
+    default void mergePartialValue(Object partialValue) throws StatementExecutionException {
+        throw new StatementExecutionException("partial aggregation is not supported by " + getClass().getSimpleName());
+    }
+
 }
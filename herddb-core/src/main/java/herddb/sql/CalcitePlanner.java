@@ -58,6 +58,8 @@ import herddb.model.planner.BindableTableScanOp;
 import herddb.model.planner.DeleteOp;
 import herddb.model.planner.FilterOp;
 import herddb.model.planner.FilteredTableScanOp;
+import herddb.model.planner.HashJoinOp;
+import herddb.model.planner.IndexNestedLoopJoinOp;
 import herddb.model.planner.InsertOp;
 import herddb.model.planner.JoinOp;
 import herddb.model.planner.LimitOp;
@@ -66,6 +68,7 @@ import herddb.model.planner.ProjectOp;
 import herddb.model.planner.SemiJoinOp;
 import herddb.model.planner.SimpleDeleteOp;
 import herddb.model.planner.SimpleInsertOp;
+import herddb.model.planner.SimpleScanOp;
 import herddb.model.planner.SimpleUpdateOp;
 import herddb.model.planner.SortOp;
 import herddb.model.planner.TableScanOp;
@@ -89,6 +92,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
@@ -210,6 +214,7 @@ public class CalcitePlanner implements AbstractSQLPlanner {
         rootSchema = null;
         cache.clear();
         fallback.clearCache();
+        manager.getPreparedStatementsCache().clearPlans();
     }
 
     static final boolean isDDL(String query) {
@@ -235,7 +240,7 @@ public class CalcitePlanner implements AbstractSQLPlanner {
         if (allowCache) {
             ExecutionPlan cached = cache.get(cacheKey);
             if (cached != null) {
-                return new TranslatedQuery(cached, new SQLStatementEvaluationContext(query, parameters));
+                return new TranslatedQuery(cached, new SQLStatementEvaluationContext(query, parameters), true);
             }
         }
         if (isDDL(query)) {
@@ -312,7 +317,7 @@ public class CalcitePlanner implements AbstractSQLPlanner {
                     if (allowCache) {
                         cache.put(cacheKey, executionPlan);
                     }
-                    return new TranslatedQuery(executionPlan, new SQLStatementEvaluationContext(query, parameters));
+                    return new TranslatedQuery(executionPlan, new SQLStatementEvaluationContext(query, parameters), allowCache);
                 }
             }
             if (maxRows > 0) {
@@ -331,7 +336,7 @@ public class CalcitePlanner implements AbstractSQLPlanner {
             if (allowCache) {
                 cache.put(cacheKey, executionPlan);
             }
-            return new TranslatedQuery(executionPlan, new SQLStatementEvaluationContext(query, parameters));
+            return new TranslatedQuery(executionPlan, new SQLStatementEvaluationContext(query, parameters), allowCache);
         } catch (CalciteContextException ex) {
             LOG.log(Level.INFO, "Error while parsing '" + ex.getOriginalStatement() + "'", ex);
             //TODO can this be done better ?
@@ -810,16 +815,19 @@ public class CalcitePlanner implements AbstractSQLPlanner {
                 }
                 where = new CompiledMultiAndExpression(operands);
             }
-            predicate = new SQLRecordPredicate(table, null, where);
             TableSpaceManager tableSpaceManager = manager.getTableSpaceManager(tableSpace);
 
             IndexOperation op = scanForIndexAccess(where, table, tableSpaceManager);
-            predicate.setIndexOperation(op);
             CompiledSQLExpression filterPk = findFiltersOnPrimaryKey(table, where);
 
             if (filterPk != null) {
                 filterPk = remapPositionalAccessToToPrimaryKeyAccessor(filterPk, table, scan);
             }
+            if (manager.isExpressionsCodeGeneration()) {
+                where = SQLExpressionCompiler.generatePredicateCode(where, table);
+            }
+            predicate = new SQLRecordPredicate(table, null, where);
+            predicate.setIndexOperation(op);
             predicate.setPrimaryKeyFilter(filterPk);
         }
         List<RexNode> projections = new ArrayList<>(scan.projects.size());
@@ -834,9 +842,41 @@ public class CalcitePlanner implements AbstractSQLPlanner {
         Projection projection = buildProjection(projections, rowType, true, table.columns);
         ScanStatement scanStatement = new ScanStatement(tableSpace, table.name, projection, predicate, null, null);
         scanStatement.setTableDef(table);
+        if (predicate != null && predicate.getIndexOperation() != null) {
+            scanStatement.setColumnsCoveredByIndex(findColumnsCoveredByIndex(scan, table, predicate.getIndexOperation(),
+                    ImmutableBitSet.range(scan.projects.size())));
+        }
         return new BindableTableScanOp(scanStatement);
     }
 
+    /**
+     * Checks if every column read by the scan, in the projection or in filters, is stored in the secondary index
+     * chosen to access the table. In this case the scan can be answered reading only index entries.
+     *
+     * @param usedFields fields of the scan output actually read by upper operators
+     * @return the columns read by the scan or {@code null} if they are not covered by the index
+     */
+    private String[] findColumnsCoveredByIndex(BindableTableScan scan, Table table, IndexOperation indexOperation,
+                                               ImmutableBitSet usedFields) {
+        final String tableSpace = scan.getTable().getQualifiedName().get(0);
+        Map<String, AbstractIndexManager> indexes = manager.getTableSpaceManager(tableSpace).getIndexesOnTable(table.name);
+        AbstractIndexManager index = indexes != null ? indexes.get(indexOperation.getIndexName()) : null;
+        if (index == null) {
+            return null;
+        }
+        ImmutableBitSet.Builder used = ImmutableBitSet.builder();
+        for (int field : usedFields) {
+            used.set(scan.projects.get(field));
+        }
+        for (RexNode filter : scan.filters) {
+            used.addAll(RelOptUtil.InputFinder.bits(filter));
+        }
+        String[] columns = used.build().asList().stream()
+                .map(i -> table.columns[i].name)
+                .toArray(String[]::new);
+        return index.isCovering(columns) ? columns : null;
+    }
+
     private CompiledSQLExpression findFiltersOnPrimaryKey(Table table, CompiledSQLExpression where) throws StatementExecutionException {
         List<CompiledSQLExpression> expressions = new ArrayList<>();
 
@@ -864,9 +904,40 @@ public class CalcitePlanner implements AbstractSQLPlanner {
         final List<RexNode> projects = op.getProjects();
         final RelDataType _rowType = rowType == null ? op.getRowType() : rowType;
         Projection projection = buildProjection(projects, _rowType, false, null);
+        checkColumnsCoveredByIndexUnderProject(op, input);
         return new ProjectOp(projection, input);
     }
 
+    /**
+     * A scan below a projection usually reads every column, this happens for instance when the projection
+     * cannot be pushed down across a sort. Checks if the columns actually read by the projection, by sorts and
+     * by filters are covered by the secondary index used by the scan.
+     */
+    private void checkColumnsCoveredByIndexUnderProject(EnumerableProject op, PlannerOp input) {
+        ImmutableBitSet.Builder usedFields = ImmutableBitSet.builder();
+        for (RexNode project : op.getProjects()) {
+            usedFields.addAll(RelOptUtil.InputFinder.bits(project));
+        }
+        RelNode node = op.getInput();
+        while (!(node instanceof BindableTableScan)) {
+            if (node instanceof EnumerableSort) {
+                for (RelFieldCollation col : ((EnumerableSort) node).getCollation().getFieldCollations()) {
+                    usedFields.set(col.getFieldIndex());
+                }
+            } else if (!(node instanceof EnumerableLimit) && !(node instanceof EnumerableInterpreter)) {
+                return;
+            }
+            node = node.getInput(0);
+        }
+        ScanStatement scanStatement = input.unwrap(ScanStatement.class);
+        if (scanStatement == null || scanStatement.getColumnsCoveredByIndex() != null
+                || scanStatement.getPredicate() == null || scanStatement.getPredicate().getIndexOperation() == null) {
+            return;
+        }
+        scanStatement.setColumnsCoveredByIndex(findColumnsCoveredByIndex((BindableTableScan) node,
+                scanStatement.getTableDef(), scanStatement.getPredicate().getIndexOperation(), usedFields.build()));
+    }
+
     private PlannerOp planEnumerableSemiJoin(EnumerableSemiJoin op, RelDataType rowType) {
         // please note that EnumerableSemiJoin has a condition field which actually is not useful
         PlannerOp left = convertRelNode(op.getLeft(), null, false);
@@ -907,8 +978,184 @@ public class CalcitePlanner implements AbstractSQLPlanner {
             fieldNames[i] = col.name;
             columns[i++] = col;
         }
-        return new JoinOp(fieldNames, columns,
-                leftKeys, left, rightKeys, right, generateNullsOnLeft, generateNullsOnRight, false);
+        // rows can be looked up only on an input whose rows are not preserved by an outer join
+        PlannerOp indexJoin = null;
+        if (!generateNullsOnLeft) {
+            indexJoin = planIndexNestedLoopJoin(op, fieldNames, columns, leftKeys, left, rightKeys, right,
+                    false, generateNullsOnLeft, generateNullsOnRight);
+        }
+        if (indexJoin == null && !generateNullsOnRight) {
+            indexJoin = planIndexNestedLoopJoin(op, fieldNames, columns, leftKeys, left, rightKeys, right,
+                    true, generateNullsOnLeft, generateNullsOnRight);
+        }
+        if (indexJoin != null) {
+            return indexJoin;
+        }
+        if (!canHashJoinKeys(op, leftKeys, rightKeys)) {
+            return new JoinOp(fieldNames, columns,
+                    leftKeys, left, rightKeys, right, generateNullsOnLeft, generateNullsOnRight, false);
+        }
+        return new HashJoinOp(fieldNames, columns,
+                leftKeys, left, rightKeys, right, generateNullsOnLeft, generateNullsOnRight);
+    }
+
+    /**
+     * Checks that {@link HashJoinOp} can match the rows, that is each pair of keys holds the same kind of values:
+     * the encoding of the keys used by the hash join differs for values of different kinds which are compared as
+     * equal, like an INTEGER and a DOUBLE or a BIGINT and a TIMESTAMP.
+     */
+    private static boolean canHashJoinKeys(EnumerableJoin op, int[] leftKeys, int[] rightKeys) {
+        List<RelDataTypeField> leftTypes = op.getLeft().getRowType().getFieldList();
+        List<RelDataTypeField> rightTypes = op.getRight().getRowType().getFieldList();
+        for (int i = 0; i < leftKeys.length; i++) {
+            int kind = hashJoinKeyKind(leftTypes.get(leftKeys[i]).getType().getSqlTypeName());
+            if (kind < 0 || kind != hashJoinKeyKind(rightTypes.get(rightKeys[i]).getType().getSqlTypeName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hashJoinKeyKind(SqlTypeName type) {
+        switch (type) {
+            case CHAR:
+            case VARCHAR:
+                return 0;
+            case TINYINT:
+            case SMALLINT:
+            case INTEGER:
+            case BIGINT:
+                return 1;
+            case DECIMAL:
+            case FLOAT:
+            case REAL:
+            case DOUBLE:
+                return 2;
+            case BOOLEAN:
+                return 3;
+            case TIMESTAMP:
+                return 4;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Plans a join which looks up rows of a table using its primary key or a secondary index, this is possible
+     * only if the join key is exactly the primary key or the columns of the index.
+     *
+     * @param lookupOnLeft true to look up rows of the left input, false for the right one
+     * @return the join operation or null if an index cannot be used
+     */
+    private PlannerOp planIndexNestedLoopJoin(
+            EnumerableJoin op, String[] fieldNames, Column[] columns,
+            int[] leftKeys, PlannerOp left, int[] rightKeys, PlannerOp right,
+            boolean lookupOnLeft, boolean generateNullsOnLeft, boolean generateNullsOnRight
+    ) {
+        PlannerOp lookup = lookupOnLeft ? left : right;
+        PlannerOp outer = lookupOnLeft ? right : left;
+        if (!(lookup instanceof TableScanOp || lookup instanceof BindableTableScanOp)) {
+            return null;
+        }
+        ScanStatement lookupScan = ((SimpleScanOp) lookup).getStatement();
+        if (lookupScan.getComparator() != null || lookupScan.getLimits() != null) {
+            return null;
+        }
+        TableSpaceManager tableSpaceManager = manager.getTableSpaceManager(lookupScan.getTableSpace());
+        AbstractTableManager tableManager = tableSpaceManager != null
+                ? tableSpaceManager.getTableManager(lookupScan.getTable()) : null;
+        if (tableManager == null || tableManager.isSystemTable()) {
+            return null;
+        }
+        Table table = tableManager.getTable();
+        String[] lookupFields = lookupScan.getProjection() != null
+                ? lookupScan.getProjection().getFieldNames() : table.columnNames;
+        int[] lookupKeys = lookupOnLeft ? leftKeys : rightKeys;
+        int[] outerKeys = lookupOnLeft ? rightKeys : leftKeys;
+        List<RelDataTypeField> lookupTypes = (lookupOnLeft ? op.getLeft() : op.getRight()).getRowType().getFieldList();
+        List<RelDataTypeField> outerTypes = (lookupOnLeft ? op.getRight() : op.getLeft()).getRowType().getFieldList();
+        // column of the looked up table -> position of the value in the outer row
+        Map<String, Integer> keyColumns = new HashMap<>();
+        for (int i = 0; i < lookupKeys.length; i++) {
+            Column column = table.getColumn(lookupFields[lookupKeys[i]]);
+            if (column == null
+                    || convertToHerdType(outerTypes.get(outerKeys[i]).getType())
+                    != convertToHerdType(lookupTypes.get(lookupKeys[i]).getType())
+                    || keyColumns.put(column.name, outerKeys[i]) != null) {
+                return null;
+            }
+        }
+        if (!preferIndexLookups(outer, tableManager)) {
+            return null;
+        }
+
+        String[] seekColumns = null;
+        IndexOperation seek = null;
+        if (matchesJoinKey(table.primaryKey, keyColumns)) {
+            seekColumns = table.primaryKey;
+            seek = new PrimaryIndexSeek(buildJoinKeyFunction(seekColumns, table));
+        } else {
+            Map<String, AbstractIndexManager> indexes = tableSpaceManager.getIndexesOnTable(table.name);
+            if (indexes != null) {
+                for (AbstractIndexManager index : indexes.values()) {
+                    if (index.isAvailable() && matchesJoinKey(index.getColumnNames(), keyColumns)) {
+                        seekColumns = index.getColumnNames();
+                        seek = new SecondaryIndexSeek(index.getIndexName(), seekColumns,
+                                buildJoinKeyFunction(seekColumns, index.getIndex()));
+                        break;
+                    }
+                }
+            }
+        }
+        if (seek == null) {
+            return null;
+        }
+        int[] seekParameters = new int[seekColumns.length];
+        for (int i = 0; i < seekColumns.length; i++) {
+            seekParameters[i] = keyColumns.get(seekColumns[i]);
+        }
+        return new IndexNestedLoopJoinOp(fieldNames, columns, leftKeys, left, rightKeys, right,
+                lookupOnLeft, seek, seekParameters, generateNullsOnLeft, generateNullsOnRight);
+    }
+
+    private static boolean matchesJoinKey(String[] indexColumns, Map<String, Integer> keyColumns) {
+        if (indexColumns.length != keyColumns.size()) {
+            return false;
+        }
+        for (String column : indexColumns) {
+            if (!keyColumns.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static SQLRecordKeyFunction buildJoinKeyFunction(String[] keyColumns, ColumnsList columnsList) {
+        List<CompiledSQLExpression> expressions = new ArrayList<>(keyColumns.length);
+        for (int i = 0; i < keyColumns.length; i++) {
+            expressions.add(new JdbcParameterExpression(i));
+        }
+        return new SQLRecordKeyFunction(Arrays.asList(keyColumns), expressions, columnsList);
+    }
+
+    /**
+     * Index lookups are worth only when the outer input is expected to be small: it is filtered or it comes from
+     * a table which is not bigger than the looked up one.
+     */
+    private boolean preferIndexLookups(PlannerOp outer, AbstractTableManager lookupTable) {
+        ScanStatement outerScan = outer.unwrap(ScanStatement.class);
+        if (outerScan == null) {
+            return false;
+        }
+        PlannerOp input = outer instanceof ProjectOp ? ((ProjectOp) outer).getInput() : outer;
+        if (input instanceof FilterOp || outerScan.getPredicate() != null || outerScan.getLimits() != null) {
+            return true;
+        }
+        TableSpaceManager tableSpaceManager = manager.getTableSpaceManager(outerScan.getTableSpace());
+        AbstractTableManager outerTable = tableSpaceManager != null
+                ? tableSpaceManager.getTableManager(outerScan.getTable()) : null;
+        return outerTable != null
+                && outerTable.getStats().getTablesize() <= lookupTable.getStats().getTablesize();
     }
 
     private PlannerOp planEnumerableThetaJoin(EnumerableThetaJoin op, RelDataType rowType) {
@@ -1066,6 +1313,10 @@ public class CalcitePlanner implements AbstractSQLPlanner {
     private PlannerOp planFilter(EnumerableFilter op, RelDataType rowType, boolean returnValues) {
         PlannerOp input = convertRelNode(op.getInput(), rowType, returnValues);
         CompiledSQLExpression condition = SQLExpressionCompiler.compileExpression(op.getCondition());
+        if (input instanceof TableScanOp && manager.isExpressionsCodeGeneration()) {
+            Table table = ((TableScanOp) input).getStatement().getTableDef();
+            condition = SQLExpressionCompiler.generatePredicateCode(condition, table);
+        }
         return new FilterOp(input, condition);
 
     }
@@ -57,6 +57,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import net.sf.jsqlparser.JSQLParserException;
 import net.sf.jsqlparser.expression.Expression;
@@ -214,18 +216,18 @@ public class DDLSQLPlanner implements AbstractSQLPlanner {
         if (allowCache) {
             ExecutionPlan cached = cache.get(cacheKey);
             if (cached != null) {
-                return new TranslatedQuery(cached, new SQLStatementEvaluationContext(query, parameters));
+                return new TranslatedQuery(cached, new SQLStatementEvaluationContext(query, parameters), true);
             }
         }
         net.sf.jsqlparser.statement.Statement stmt = parseStatement(query);
         if (!isCachable(stmt)) {
             allowCache = false;
         }
-        ExecutionPlan executionPlan = plan(defaultTableSpace, stmt, scan, returnValues, maxRows);
+        ExecutionPlan executionPlan = plan(defaultTableSpace, stmt, query, scan, returnValues, maxRows);
         if (allowCache) {
             cache.put(cacheKey, executionPlan);
         }
-        return new TranslatedQuery(executionPlan, new SQLStatementEvaluationContext(query, parameters));
+        return new TranslatedQuery(executionPlan, new SQLStatementEvaluationContext(query, parameters), allowCache);
 
     }
 
@@ -240,7 +242,7 @@ public class DDLSQLPlanner implements AbstractSQLPlanner {
     }
 
     private ExecutionPlan plan(
-            String defaultTableSpace, net.sf.jsqlparser.statement.Statement stmt,
+            String defaultTableSpace, net.sf.jsqlparser.statement.Statement stmt, String query,
             boolean scan, boolean returnValues, int maxRows
     ) {
         verifyJdbcParametersIndexes(stmt);
@@ -248,7 +250,7 @@ public class DDLSQLPlanner implements AbstractSQLPlanner {
         if (stmt instanceof CreateTable) {
             result = ExecutionPlan.simple(buildCreateTableStatement(defaultTableSpace, (CreateTable) stmt));
         } else if (stmt instanceof CreateIndex) {
-            result = ExecutionPlan.simple(buildCreateIndexStatement(defaultTableSpace, (CreateIndex) stmt));
+            result = ExecutionPlan.simple(buildCreateIndexStatement(defaultTableSpace, (CreateIndex) stmt, query));
         } else if (stmt instanceof Execute) {
             result = ExecutionPlan.simple(buildExecuteStatement(defaultTableSpace, (Execute) stmt));
         } else if (stmt instanceof Alter) {
@@ -401,7 +403,14 @@ public class DDLSQLPlanner implements AbstractSQLPlanner {
         return columnSpecsDecoded;
     }
 
-    private Statement buildCreateIndexStatement(String defaultTableSpace, CreateIndex s) throws StatementExecutionException {
+    /**
+     * Columns stored in index entries but not indexed: CREATE BTREE INDEX name ON table(columns) INCLUDE (columns).
+     * The SQL parser accepts and then discards trailing parameters of CREATE INDEX, so they are read from the query.
+     */
+    private static final Pattern INCLUDED_INDEX_COLUMNS = Pattern.compile("\\)\\s*include\\s*\\(([^)]*)\\)\\s*;?\\s*$",
+            Pattern.CASE_INSENSITIVE);
+
+    private Statement buildCreateIndexStatement(String defaultTableSpace, CreateIndex s, String query) throws StatementExecutionException {
         try {
             String tableSpace = s.getTable().getSchemaName();
             if (tableSpace == null) {
@@ -432,6 +441,17 @@ public class DDLSQLPlanner implements AbstractSQLPlanner {
                 }
                 builder.column(column.name, column.type);
             }
+            Matcher included = INCLUDED_INDEX_COLUMNS.matcher(query);
+            if (included.find()) {
+                for (String columnName : included.group(1).split(",")) {
+                    columnName = columnName.trim().toLowerCase();
+                    Column column = tableDefinition.getTable().getColumn(columnName);
+                    if (column == null) {
+                        throw new StatementExecutionException("no such column " + columnName + " on table " + tableName + " in tablespace " + tableSpace);
+                    }
+                    builder.includedColumn(column.name, column.type);
+                }
+            }
 
             CreateIndexStatement statement = new CreateIndexStatement(builder.build());
             return statement;
@@ -449,6 +469,7 @@ public class DDLSQLPlanner implements AbstractSQLPlanner {
         switch (indexType) {
             case herddb.model.Index.TYPE_HASH:
             case herddb.model.Index.TYPE_BRIN:
+            case herddb.model.Index.TYPE_BTREE:
                 break;
             default:
                 throw new StatementExecutionException("Invalid index type " + indexType);
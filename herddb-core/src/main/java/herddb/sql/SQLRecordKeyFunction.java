@@ -116,6 +116,13 @@ public class SQLRecordKeyFunction extends RecordFunction {
         return fullPrimaryKey;
     }
 
+    /**
+     * Number of leading key columns computed by this function
+     */
+    public int getNumberOfColumns() {
+        return columns.length;
+    }
+
     @Override
     @SuppressFBWarnings("BC_UNCONFIRMED_CAST")
     public byte[] computeNewValue(Record previous, StatementEvaluationContext context, TableContext tableContext) throws StatementExecutionException {
@@ -31,10 +31,13 @@ import herddb.model.Tuple;
 import herddb.model.TuplePredicate;
 import herddb.sql.expressions.CompiledSQLExpression;
 import herddb.sql.expressions.ConstantExpression;
+import herddb.sql.expressions.RawRecordConditions;
+import herddb.storage.ColumnZoneMap;
 import herddb.sql.expressions.SQLExpressionCompiler;
 import herddb.utils.Bytes;
 import herddb.utils.DataAccessor;
 import herddb.utils.SQLRecordPredicateFunctions;
+import herddb.utils.SystemProperties;
 import java.util.logging.Logger;
 import net.sf.jsqlparser.expression.Expression;
 import net.sf.jsqlparser.expression.JdbcParameter;
@@ -52,6 +55,11 @@ public class SQLRecordPredicate extends Predicate implements TuplePredicate {
 
     private static final Logger LOGGER = Logger.getLogger(SQLRecordPredicate.class.getName());
 
+    /**
+     * Evaluate simple conditions on columns directly on the serialized records
+     */
+    private static final boolean RAW_CONDITIONS = SystemProperties.getBooleanSystemProperty("herddb.sql.predicate.rawconditions", true);
+
     static boolean isConstant(Expression exp) {
         return exp instanceof StringValue
                 || exp instanceof LongValue
@@ -67,18 +75,21 @@ public class SQLRecordPredicate extends Predicate implements TuplePredicate {
     private final Table table;
     private final String validatedTableAlias;
     private final CompiledSQLExpression where;
+    private final RawRecordConditions rawConditions;
     private CompiledSQLExpression primaryKeyFilter;
 
     public SQLRecordPredicate(Table table, String tableAlias, Expression where) {
         this.table = table;
         this.validatedTableAlias = tableAlias;
         this.where = SQLExpressionCompiler.compileExpression(validatedTableAlias, where);
+        this.rawConditions = RAW_CONDITIONS ? RawRecordConditions.build(table, this.where) : null;
     }
 
     public SQLRecordPredicate(Table table, String tableAlias, CompiledSQLExpression where) {
         this.table = table;
         this.validatedTableAlias = tableAlias;
         this.where = where;
+        this.rawConditions = RAW_CONDITIONS ? RawRecordConditions.build(table, where) : null;
     }
 
     @Override
@@ -106,10 +117,18 @@ public class SQLRecordPredicate extends Predicate implements TuplePredicate {
 
     @Override
     public boolean evaluate(Record record, StatementEvaluationContext context) throws StatementExecutionException {
+        if (rawConditions != null) {
+            return rawConditions.matches(record, context);
+        }
         DataAccessor bean = record.getDataAccessor(table);
         return SQLRecordPredicateFunctions.toBoolean(where.evaluate(bean, context));
     }
 
+    @Override
+    public boolean mayMatchPage(ColumnZoneMap[] zoneMaps, StatementEvaluationContext context) throws StatementExecutionException {
+        return rawConditions == null || rawConditions.mayMatch(zoneMaps, context);
+    }
+
     @Override
     public void validateContext(StatementEvaluationContext context) throws StatementExecutionException {
         where.validate(context);
@@ -144,6 +163,10 @@ public class SQLRecordPredicate extends Predicate implements TuplePredicate {
         return where;
     }
 
+    public RawRecordConditions getRawConditions() {
+        return rawConditions;
+    }
+
     public static Object cast(Object value, int type) {
         if (value == null) {
             return null;
@@ -22,9 +22,9 @@ package herddb.sql;
 
 import herddb.model.StatementEvaluationContext;
 import herddb.utils.RawString;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Instance of StatementEvaluationContext for SQL/JDBC
@@ -35,7 +35,7 @@ public class SQLStatementEvaluationContext extends StatementEvaluationContext {
 
     public final String query;
     public final List<Object> jdbcParameters;
-    public final Map<Object, Object> constants = new HashMap<>();
+    public final Map<Object, Object> constants = new ConcurrentHashMap<>();
 
     @Override
     public List<Object> getJdbcParameters() {
@@ -31,10 +31,20 @@ public class TranslatedQuery {
 
     public final ExecutionPlan plan;
     public final SQLStatementEvaluationContext context;
+    /**
+     * The plan does not depend on the actual parameters and it can be reused for other executions of the same
+     * query
+     */
+    public final boolean cacheable;
 
     public TranslatedQuery(ExecutionPlan plan, SQLStatementEvaluationContext context) {
+        this(plan, context, false);
+    }
+
+    public TranslatedQuery(ExecutionPlan plan, SQLStatementEvaluationContext context, boolean cacheable) {
         this.plan = plan;
         this.context = context;
+        this.cacheable = cacheable;
     }
 
 }
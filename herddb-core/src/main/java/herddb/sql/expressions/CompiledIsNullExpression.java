@@ -33,6 +33,14 @@ public class CompiledIsNullExpression implements CompiledSQLExpression {
         this.not = not;
     }
 
+    boolean isNot() {
+        return not;
+    }
+
+    CompiledSQLExpression getLeft() {
+        return left;
+    }
+
     @Override
     public Object evaluate(herddb.utils.DataAccessor bean, StatementEvaluationContext context) throws StatementExecutionException {
         Object leftValue = left.evaluate(bean, context);
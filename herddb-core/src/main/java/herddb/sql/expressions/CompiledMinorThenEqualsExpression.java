@@ -32,6 +32,10 @@ public class CompiledMinorThenEqualsExpression extends CompiledBinarySQLExpressi
         this.not = not;
     }
 
+    boolean isNot() {
+        return not;
+    }
+
     @Override
     public Object evaluate(herddb.utils.DataAccessor bean, StatementEvaluationContext context) throws StatementExecutionException {
 //        Object leftValue = left.evaluate(bean, context);
@@ -37,6 +37,10 @@ public class CompiledMultiAndExpression implements CompiledSQLExpression {
         this.operands = operands;
     }
 
+    CompiledSQLExpression[] getOperands() {
+        return operands;
+    }
+
     @Override
     public Object evaluate(herddb.utils.DataAccessor bean, StatementEvaluationContext context) throws StatementExecutionException {
         for (int i = 0; i < operands.length; i++) {
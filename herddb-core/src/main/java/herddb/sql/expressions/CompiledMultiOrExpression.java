@@ -35,6 +35,10 @@ public class CompiledMultiOrExpression implements CompiledSQLExpression {
         this.operands = operands;
     }
 
+    CompiledSQLExpression[] getOperands() {
+        return operands;
+    }
+
     @Override
     public Object evaluate(herddb.utils.DataAccessor bean, StatementEvaluationContext context) throws StatementExecutionException {
         for (int i = 0; i < operands.length; i++) {
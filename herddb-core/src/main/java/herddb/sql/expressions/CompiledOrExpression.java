@@ -33,6 +33,10 @@ public class CompiledOrExpression extends CompiledBinarySQLExpression {
         this.not = not;
     }
 
+    boolean isNot() {
+        return not;
+    }
+
     @Override
     public Object evaluate(herddb.utils.DataAccessor bean, StatementEvaluationContext context) throws StatementExecutionException {
         boolean ok = SQLRecordPredicateFunctions.toBoolean(left.evaluate(bean, context));
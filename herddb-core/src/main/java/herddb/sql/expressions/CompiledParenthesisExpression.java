@@ -34,6 +34,14 @@ public class CompiledParenthesisExpression implements CompiledSQLExpression {
         this.not = not;
     }
 
+    boolean isNot() {
+        return not;
+    }
+
+    CompiledSQLExpression getInner() {
+        return inner;
+    }
+
     @Override
     public Object evaluate(herddb.utils.DataAccessor bean, StatementEvaluationContext context) throws StatementExecutionException {
         Object innerValue = inner.evaluate(bean, context);
@@ -32,6 +32,10 @@ public class ConstantExpression implements CompiledSQLExpression {
         this.value = value;
     }
 
+    Object getValue() {
+        return value;
+    }
+
     @Override
     public Object evaluate(herddb.utils.DataAccessor bean, StatementEvaluationContext context) throws StatementExecutionException {
         return value;
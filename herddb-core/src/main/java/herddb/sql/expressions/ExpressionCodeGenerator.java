@@ -0,0 +1,290 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.sql.expressions;
+
+import herddb.model.Column;
+import herddb.model.ColumnTypes;
+import herddb.model.Table;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.janino.SimpleCompiler;
+
+/**
+ * Generates the Java source of a predicate on the records of a table and compiles it in memory.
+ * <p>
+ * Boolean operators are translated to Java short circuit operators and comparisons between a column and a
+ * numeric constant are specialized on the type of the column, so the tree is evaluated by a single method
+ * without virtual calls and without boxing intermediate results. Nodes which are not supported are kept as
+ * fields of the generated class and evaluated by the interpreter.
+ * </p>
+ * <p>
+ * Every generated class is defined by its own class loader, it is referenced only by the plan which uses it and
+ * it is unloaded when the plan is evicted from {@link herddb.sql.PlansCache}.
+ * </p>
+ */
+final class ExpressionCodeGenerator {
+
+    private static final Logger LOGGER = Logger.getLogger(ExpressionCodeGenerator.class.getName());
+    private static final AtomicLong CLASS_ID = new AtomicLong();
+
+    private static final String FUNCTIONS = "herddb.utils.SQLRecordPredicateFunctions";
+
+    private final Table table;
+    private final List<CompiledSQLExpression> nodes = new ArrayList<>();
+    private int generatedNodes;
+
+    private ExpressionCodeGenerator(Table table) {
+        this.table = table;
+    }
+
+    /**
+     * Generates a predicate equivalent to the given expression
+     *
+     * @param expression a boolean expression on the columns of the table
+     * @param table      the table, it is used to specialize the code on the types of the columns (could be {@code null})
+     * @return the generated predicate, or the given expression if there is nothing to generate or the
+     * generated code cannot be compiled
+     */
+    static CompiledSQLExpression generate(CompiledSQLExpression expression, Table table) {
+        if (expression instanceof GeneratedSQLExpression) {
+            return expression;
+        }
+        ExpressionCodeGenerator generator = new ExpressionCodeGenerator(table);
+        String code = generator.booleanCode(expression);
+        if (generator.generatedNodes == 0) {
+            return expression;
+        }
+        String className = "GeneratedSQLExpression" + CLASS_ID.incrementAndGet();
+        String source = generator.classSource(className, code);
+        try {
+            SimpleCompiler compiler = new SimpleCompiler();
+            compiler.setParentClassLoader(GeneratedSQLExpression.class.getClassLoader());
+            compiler.cook(source);
+            Class<?> generatedClass = compiler.getClassLoader().loadClass(className);
+            Constructor<?> constructor = generatedClass.getConstructor(CompiledSQLExpression.class, CompiledSQLExpression[].class);
+            CompiledSQLExpression[] nodesArray = generator.nodes.toArray(new CompiledSQLExpression[0]);
+            return (CompiledSQLExpression) constructor.newInstance(expression, nodesArray);
+        } catch (CompileException | ReflectiveOperationException | RuntimeException err) {
+            LOGGER.log(Level.SEVERE, "cannot compile generated code for " + expression + ", source:\n" + source, err);
+            return expression;
+        }
+    }
+
+    private String classSource(String className, String code) {
+        StringBuilder source = new StringBuilder();
+        source.append("public final class ").append(className)
+                .append(" extends herddb.sql.expressions.GeneratedSQLExpression {\n");
+        for (int i = 0; i < nodes.size(); i++) {
+            source.append("    private final herddb.sql.expressions.CompiledSQLExpression e").append(i).append(";\n");
+        }
+        source.append("    public ").append(className).append("(herddb.sql.expressions.CompiledSQLExpression source, ")
+                .append("herddb.sql.expressions.CompiledSQLExpression[] nodes) {\n");
+        source.append("        super(source);\n");
+        for (int i = 0; i < nodes.size(); i++) {
+            source.append("        this.e").append(i).append(" = nodes[").append(i).append("];\n");
+        }
+        source.append("    }\n");
+        source.append("    public boolean test(herddb.utils.DataAccessor bean, herddb.model.StatementEvaluationContext context)")
+                .append(" throws herddb.model.StatementExecutionException {\n");
+        source.append("        return ").append(code).append(";\n");
+        source.append("    }\n");
+        source.append("}\n");
+        return source.toString();
+    }
+
+    /**
+     * Java code of a boolean expression, the same as {@code toBoolean(exp.evaluate(bean, context))}
+     */
+    private String booleanCode(CompiledSQLExpression exp) {
+        if (exp instanceof CompiledMultiAndExpression) {
+            generatedNodes++;
+            return join(((CompiledMultiAndExpression) exp).getOperands(), " && ", "true");
+        } else if (exp instanceof CompiledMultiOrExpression) {
+            generatedNodes++;
+            return join(((CompiledMultiOrExpression) exp).getOperands(), " || ", "false");
+        } else if (exp instanceof CompiledAndExpression) {
+            CompiledAndExpression and = (CompiledAndExpression) exp;
+            generatedNodes++;
+            return not(and.isNot(), "(" + booleanCode(and.left) + " && " + booleanCode(and.right) + ")");
+        } else if (exp instanceof CompiledOrExpression) {
+            CompiledOrExpression or = (CompiledOrExpression) exp;
+            generatedNodes++;
+            return not(or.isNot(), "(" + booleanCode(or.left) + " || " + booleanCode(or.right) + ")");
+        } else if (exp instanceof CompiledParenthesisExpression) {
+            CompiledParenthesisExpression parenthesis = (CompiledParenthesisExpression) exp;
+            generatedNodes++;
+            return not(parenthesis.isNot(), booleanCode(parenthesis.getInner()));
+        } else if (exp instanceof CompiledEqualsExpression) {
+            CompiledEqualsExpression equals = (CompiledEqualsExpression) exp;
+            generatedNodes++;
+            return not(equals.isNot(), equalsCode(equals.left, equals.right));
+        } else if (exp instanceof CompiledNotEqualsExpression) {
+            CompiledNotEqualsExpression notEquals = (CompiledNotEqualsExpression) exp;
+            generatedNodes++;
+            return not(!notEquals.isNot(), equalsCode(notEquals.left, notEquals.right));
+        } else if (exp instanceof CompiledGreaterThenExpression) {
+            CompiledGreaterThenExpression greater = (CompiledGreaterThenExpression) exp;
+            generatedNodes++;
+            return not(greater.isNot(), "(" + compareCode(greater.left, greater.right) + " > 0)");
+        } else if (exp instanceof CompiledGreaterThenEqualsExpression) {
+            CompiledGreaterThenEqualsExpression greater = (CompiledGreaterThenEqualsExpression) exp;
+            generatedNodes++;
+            return not(greater.isNot(), "(" + compareCode(greater.left, greater.right) + " >= 0)");
+        } else if (exp instanceof CompiledMinorThenExpression) {
+            CompiledMinorThenExpression minor = (CompiledMinorThenExpression) exp;
+            generatedNodes++;
+            return not(minor.isNot(), "(" + compareCode(minor.left, minor.right) + " < 0)");
+        } else if (exp instanceof CompiledMinorThenEqualsExpression) {
+            CompiledMinorThenEqualsExpression minor = (CompiledMinorThenEqualsExpression) exp;
+            generatedNodes++;
+            return not(minor.isNot(), "(" + compareCode(minor.left, minor.right) + " <= 0)");
+        } else if (exp instanceof CompiledIsNullExpression) {
+            CompiledIsNullExpression isNull = (CompiledIsNullExpression) exp;
+            generatedNodes++;
+            return not(isNull.isNot(), "(" + valueCode(isNull.getLeft()) + " == null)");
+        } else {
+            return FUNCTIONS + ".toBoolean(" + valueCode(exp) + ")";
+        }
+    }
+
+    /**
+     * Java code of an int which compares the two values, the same as {@code left.opCompareTo(bean, context, right)}
+     */
+    private String compareCode(CompiledSQLExpression left, CompiledSQLExpression right) {
+        if (left instanceof AccessCurrentRowExpression) {
+            int index = ((AccessCurrentRowExpression) left).getIndex();
+            int type = columnType(index);
+            Object constant = right instanceof ConstantExpression ? ((ConstantExpression) right).getValue() : null;
+            if (isIntegralColumn(type) && isIntegral(constant)) {
+                return "compareToLong(bean.get(" + index + "), " + longLiteral(constant) + ")";
+            } else if (isNumericColumn(type) && isFiniteNumber(constant)) {
+                return "compareToDouble(bean.get(" + index + "), " + doubleLiteral(constant) + ")";
+            }
+            return "bean.fieldCompareTo(" + index + ", " + valueCode(right) + ")";
+        }
+        return node(left) + ".opCompareTo(bean, context, " + node(right) + ")";
+    }
+
+    /**
+     * Java code of a boolean which tells whether the two values are equal, the same as
+     * {@code left.opEqualsTo(bean, context, right)}
+     */
+    private String equalsCode(CompiledSQLExpression left, CompiledSQLExpression right) {
+        if (left instanceof AccessCurrentRowExpression) {
+            int index = ((AccessCurrentRowExpression) left).getIndex();
+            int type = columnType(index);
+            Object constant = right instanceof ConstantExpression ? ((ConstantExpression) right).getValue() : null;
+            if (isIntegralColumn(type) && isIntegral(constant)) {
+                return "equalsToLong(bean.get(" + index + "), " + longLiteral(constant) + ")";
+            } else if (isNumericColumn(type) && isFiniteNumber(constant)) {
+                return "equalsToDouble(bean.get(" + index + "), " + doubleLiteral(constant) + ")";
+            }
+            return "bean.fieldEqualsTo(" + index + ", " + valueCode(right) + ")";
+        }
+        return node(left) + ".opEqualsTo(bean, context, " + node(right) + ")";
+    }
+
+    /**
+     * Java code of the value of the expression, the same as {@code exp.evaluate(bean, context)}
+     */
+    private String valueCode(CompiledSQLExpression exp) {
+        if (exp instanceof AccessCurrentRowExpression) {
+            return "bean.get(" + ((AccessCurrentRowExpression) exp).getIndex() + ")";
+        } else if (exp instanceof JdbcParameterExpression) {
+            return "context.getJdbcParameter(" + ((JdbcParameterExpression) exp).getIndex() + ")";
+        } else {
+            return node(exp) + ".evaluate(bean, context)";
+        }
+    }
+
+    private String join(CompiledSQLExpression[] operands, String operator, String empty) {
+        if (operands.length == 0) {
+            return empty;
+        }
+        StringBuilder code = new StringBuilder("(");
+        for (int i = 0; i < operands.length; i++) {
+            if (i > 0) {
+                code.append(operator);
+            }
+            code.append(booleanCode(operands[i]));
+        }
+        return code.append(')').toString();
+    }
+
+    private String node(CompiledSQLExpression exp) {
+        nodes.add(exp);
+        return "e" + (nodes.size() - 1);
+    }
+
+    private int columnType(int index) {
+        if (table == null) {
+            return ColumnTypes.ANYTYPE;
+        }
+        Column[] columns = table.getColumns();
+        if (index < 0 || index >= columns.length) {
+            return ColumnTypes.ANYTYPE;
+        }
+        return columns[index].type;
+    }
+
+    private static String not(boolean not, String code) {
+        return not ? "!" + code : code;
+    }
+
+    private static boolean isIntegralColumn(int type) {
+        switch (type) {
+            case ColumnTypes.INTEGER:
+            case ColumnTypes.NOTNULL_INTEGER:
+            case ColumnTypes.LONG:
+            case ColumnTypes.NOTNULL_LONG:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isNumericColumn(int type) {
+        return isIntegralColumn(type) || type == ColumnTypes.DOUBLE;
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Integer || value instanceof Long;
+    }
+
+    private static boolean isFiniteNumber(Object value) {
+        return (value instanceof Integer || value instanceof Long || value instanceof Double)
+                && Double.isFinite(((Number) value).doubleValue());
+    }
+
+    private static String longLiteral(Object value) {
+        return "(" + ((Number) value).longValue() + "L)";
+    }
+
+    private static String doubleLiteral(Object value) {
+        return "(" + ((Number) value).doubleValue() + "D)";
+    }
+
+}
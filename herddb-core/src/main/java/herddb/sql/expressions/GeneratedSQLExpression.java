@@ -0,0 +1,120 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.sql.expressions;
+
+import herddb.model.StatementEvaluationContext;
+import herddb.model.StatementExecutionException;
+import herddb.utils.DataAccessor;
+import herddb.utils.SQLRecordPredicateFunctions;
+import java.util.List;
+
+/**
+ * Base class of the predicates generated by {@link ExpressionCodeGenerator}.
+ * <p>
+ * Only evaluation is generated, every other operation is delegated to the interpreted expression the code has
+ * been generated from. Helper methods are static in order to let the JIT inline them into the generated code.
+ * </p>
+ */
+public abstract class GeneratedSQLExpression implements CompiledSQLExpression {
+
+    private final CompiledSQLExpression source;
+
+    protected GeneratedSQLExpression(CompiledSQLExpression source) {
+        this.source = source;
+    }
+
+    /**
+     * Evaluates the predicate
+     *
+     * @param bean
+     * @param context
+     * @return the boolean value of the expression
+     * @throws StatementExecutionException
+     */
+    public abstract boolean test(DataAccessor bean, StatementEvaluationContext context) throws StatementExecutionException;
+
+    @Override
+    public final Object evaluate(DataAccessor bean, StatementEvaluationContext context) throws StatementExecutionException {
+        return test(bean, context) ? Boolean.TRUE : Boolean.FALSE;
+    }
+
+    public CompiledSQLExpression getSource() {
+        return source;
+    }
+
+    @Override
+    public void validate(StatementEvaluationContext context) throws StatementExecutionException {
+        source.validate(context);
+    }
+
+    @Override
+    public List<CompiledSQLExpression> scanForConstraintedValueOnColumnWithOperator(
+            String column, String operator, BindableTableScanColumnNameResolver columnNameResolver
+    ) {
+        return source.scanForConstraintedValueOnColumnWithOperator(column, operator, columnNameResolver);
+    }
+
+    @Override
+    public List<CompiledSQLExpression> scanForConstraintsOnColumn(
+            String column, BindableTableScanColumnNameResolver columnNameResolver
+    ) {
+        return source.scanForConstraintsOnColumn(column, columnNameResolver);
+    }
+
+    @Override
+    public CompiledSQLExpression remapPositionalAccessToToPrimaryKeyAccessor(int[] projection) {
+        return source.remapPositionalAccessToToPrimaryKeyAccessor(projection);
+    }
+
+    @Override
+    public String toString() {
+        return "Generated{" + source + '}';
+    }
+
+    protected static boolean equalsToLong(Object value, long constant) {
+        if (value instanceof Integer || value instanceof Long) {
+            return ((Number) value).longValue() == constant;
+        }
+        return value != null && SQLRecordPredicateFunctions.objectEquals(value, constant);
+    }
+
+    protected static int compareToLong(Object value, long constant) {
+        if (value instanceof Integer || value instanceof Long) {
+            return Long.compare(((Number) value).longValue(), constant);
+        }
+        return SQLRecordPredicateFunctions.compare(value, constant);
+    }
+
+    protected static boolean equalsToDouble(Object value, double constant) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue() == constant;
+        }
+        return value != null && SQLRecordPredicateFunctions.objectEquals(value, constant);
+    }
+
+    protected static int compareToDouble(Object value, double constant) {
+        if (value instanceof Number) {
+            return Double.compare(((Number) value).doubleValue(), constant);
+        }
+        return SQLRecordPredicateFunctions.compare(value, constant);
+    }
+
+}
@@ -31,6 +31,10 @@ public class JdbcParameterExpression implements CompiledSQLExpression {
         this.index = index;
     }
 
+    int getIndex() {
+        return index;
+    }
+
     @Override
     public Object evaluate(herddb.utils.DataAccessor bean, StatementEvaluationContext context) throws StatementExecutionException {
         return context.getJdbcParameter(index);
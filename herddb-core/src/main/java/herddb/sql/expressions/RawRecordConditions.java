@@ -0,0 +1,501 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.sql.expressions;
+
+import herddb.codec.RecordSerializer;
+import herddb.model.Column;
+import herddb.model.ColumnTypes;
+import herddb.model.Record;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.StatementExecutionException;
+import herddb.model.Table;
+import herddb.storage.ColumnZoneMap;
+import herddb.utils.ByteArrayCursor;
+import herddb.utils.Bytes;
+import herddb.utils.DataAccessor;
+import herddb.utils.RawString;
+import herddb.utils.SQLRecordPredicateFunctions;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A conjunction of simple conditions between a column and a constant or a parameter, evaluated directly on the
+ * serialized record.
+ * <p>
+ * Conditions on the primary key are checked on the key, then the value is scanned only once: fields are compared
+ * in place when their serial position has conditions and skipped otherwise, so records which do not match are
+ * rejected without deserializing any field. Columns not present in the value are NULL. Values in the fixed
+ * offset format are not scanned, every field with conditions is accessed directly.
+ * </p>
+ */
+public final class RawRecordConditions {
+
+    private static final int EQUALS = 0;
+    private static final int NOT_EQUALS = 1;
+    private static final int GREATER_THAN = 2;
+    private static final int GREATER_THAN_EQUALS = 3;
+    private static final int MINOR_THAN = 4;
+    private static final int MINOR_THAN_EQUALS = 5;
+
+    /**
+     * Conditions on the value are tracked in a bitmask
+     */
+    private static final int MAX_VALUE_CONDITIONS = 64;
+
+    private final Table table;
+    private final Condition[] keyConditions;
+    private final Condition[] valueConditions;
+
+    /**
+     * Indexes of value conditions by serial position of the column
+     */
+    private final int[][] conditionsBySerialPosition;
+
+    private RawRecordConditions(Table table, Condition[] keyConditions, Condition[] valueConditions) {
+        this.table = table;
+        this.keyConditions = keyConditions;
+        this.valueConditions = valueConditions;
+        int maxSerialPosition = -1;
+        for (Condition condition : valueConditions) {
+            maxSerialPosition = Math.max(maxSerialPosition, condition.serialPosition);
+        }
+        this.conditionsBySerialPosition = new int[maxSerialPosition + 1][];
+        for (int i = 0; i < valueConditions.length; i++) {
+            int serialPosition = valueConditions[i].serialPosition;
+            int[] current = conditionsBySerialPosition[serialPosition];
+            int[] conditions;
+            if (current == null) {
+                conditions = new int[]{i};
+            } else {
+                conditions = new int[current.length + 1];
+                System.arraycopy(current, 0, conditions, 0, current.length);
+                conditions[current.length] = i;
+            }
+            conditionsBySerialPosition[serialPosition] = conditions;
+        }
+    }
+
+    /**
+     * Analyzes a predicate on the records of a table
+     *
+     * @param table the table
+     * @param where the predicate
+     * @return the conditions, or null if the predicate is not a conjunction of simple conditions on columns
+     */
+    public static RawRecordConditions build(Table table, CompiledSQLExpression where) {
+        if (table == null || where == null) {
+            return null;
+        }
+        if (where instanceof GeneratedSQLExpression) {
+            where = ((GeneratedSQLExpression) where).getSource();
+        }
+        List<Condition> conditions = new ArrayList<>();
+        if (!collectConditions(table, where, conditions)) {
+            return null;
+        }
+        List<Condition> keyConditions = new ArrayList<>();
+        List<Condition> valueConditions = new ArrayList<>();
+        for (Condition condition : conditions) {
+            if (table.isPrimaryKeyColumn(condition.column)) {
+                keyConditions.add(condition);
+            } else {
+                valueConditions.add(condition);
+            }
+        }
+        if (valueConditions.size() > MAX_VALUE_CONDITIONS) {
+            return null;
+        }
+        return new RawRecordConditions(table,
+                keyConditions.toArray(new Condition[0]),
+                valueConditions.toArray(new Condition[0]));
+    }
+
+    private static boolean collectConditions(Table table, CompiledSQLExpression exp, List<Condition> conditions) {
+        if (exp instanceof CompiledMultiAndExpression) {
+            for (CompiledSQLExpression operand : ((CompiledMultiAndExpression) exp).getOperands()) {
+                if (!collectConditions(table, operand, conditions)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (exp instanceof CompiledAndExpression && !((CompiledAndExpression) exp).isNot()) {
+            CompiledAndExpression and = (CompiledAndExpression) exp;
+            return collectConditions(table, and.left, conditions) && collectConditions(table, and.right, conditions);
+        } else if (exp instanceof CompiledParenthesisExpression && !((CompiledParenthesisExpression) exp).isNot()) {
+            return collectConditions(table, ((CompiledParenthesisExpression) exp).getInner(), conditions);
+        }
+        Condition condition = buildCondition(table, exp);
+        if (condition == null) {
+            return false;
+        }
+        conditions.add(condition);
+        return true;
+    }
+
+    private static Condition buildCondition(Table table, CompiledSQLExpression exp) {
+        if (exp instanceof CompiledEqualsExpression) {
+            CompiledEqualsExpression e = (CompiledEqualsExpression) exp;
+            return buildCondition(table, e.left, e.right, EQUALS, e.isNot());
+        } else if (exp instanceof CompiledNotEqualsExpression) {
+            CompiledNotEqualsExpression e = (CompiledNotEqualsExpression) exp;
+            return buildCondition(table, e.left, e.right, NOT_EQUALS, e.isNot());
+        } else if (exp instanceof CompiledGreaterThenExpression) {
+            CompiledGreaterThenExpression e = (CompiledGreaterThenExpression) exp;
+            return buildCondition(table, e.left, e.right, GREATER_THAN, e.isNot());
+        } else if (exp instanceof CompiledGreaterThenEqualsExpression) {
+            CompiledGreaterThenEqualsExpression e = (CompiledGreaterThenEqualsExpression) exp;
+            return buildCondition(table, e.left, e.right, GREATER_THAN_EQUALS, e.isNot());
+        } else if (exp instanceof CompiledMinorThenExpression) {
+            CompiledMinorThenExpression e = (CompiledMinorThenExpression) exp;
+            return buildCondition(table, e.left, e.right, MINOR_THAN, e.isNot());
+        } else if (exp instanceof CompiledMinorThenEqualsExpression) {
+            CompiledMinorThenEqualsExpression e = (CompiledMinorThenEqualsExpression) exp;
+            return buildCondition(table, e.left, e.right, MINOR_THAN_EQUALS, e.isNot());
+        } else if (exp instanceof CompiledIsNullExpression) {
+            CompiledIsNullExpression e = (CompiledIsNullExpression) exp;
+            /* a field is NULL if and only if it is equal to null */
+            return buildCondition(table, e.getLeft(), new ConstantExpression(null), EQUALS, e.isNot());
+        } else if (exp instanceof CompiledSQLExpressionUsingRightJdbcParameter) {
+            CompiledSQLExpressionUsingRightJdbcParameter e = (CompiledSQLExpressionUsingRightJdbcParameter) exp;
+            Column column = table.getColumn(e.columnName);
+            if (column == null) {
+                return null;
+            }
+            int operator;
+            if (e instanceof ColumnEqualsJdbcParameter) {
+                operator = EQUALS;
+            } else if (e instanceof ColumnNotEqualsJdbcParameter) {
+                operator = NOT_EQUALS;
+            } else if (e instanceof ColumnGreaterThanJdbcParameter) {
+                operator = GREATER_THAN;
+            } else if (e instanceof ColumnGreaterThanEqualsJdbcParameter) {
+                operator = GREATER_THAN_EQUALS;
+            } else if (e instanceof ColumnMinorThanJdbcParameter) {
+                operator = MINOR_THAN;
+            } else if (e instanceof ColumnMinorThanEqualsJdbcParameter) {
+                operator = MINOR_THAN_EQUALS;
+            } else {
+                return null;
+            }
+            return new Condition(table, columnIndex(table, column), new JdbcParameterExpression(e.index), operator, e.not, true);
+        }
+        return null;
+    }
+
+    private static Condition buildCondition(Table table, CompiledSQLExpression left, CompiledSQLExpression right,
+                                            int operator, boolean not) {
+        if (!(left instanceof AccessCurrentRowExpression)) {
+            return null;
+        }
+        if (!(right instanceof ConstantExpression
+                || right instanceof JdbcParameterExpression
+                || right instanceof TypedJdbcParameterExpression)) {
+            return null;
+        }
+        int index = ((AccessCurrentRowExpression) left).getIndex();
+        if (index < 0 || index >= table.columns.length) {
+            return null;
+        }
+        return new Condition(table, index, right, operator, not, false);
+    }
+
+    private static int columnIndex(Table table, Column column) {
+        for (int i = 0; i < table.columns.length; i++) {
+            if (table.columns[i] == column) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("column " + column.name + " not found in " + table.name);
+    }
+
+    /**
+     * Evaluates the conditions on a record of the table
+     *
+     * @param record
+     * @param context
+     * @return true if every condition is verified
+     * @throws StatementExecutionException
+     */
+    public boolean matches(Record record, StatementEvaluationContext context) throws StatementExecutionException {
+        try {
+            for (Condition condition : keyConditions) {
+                Object value = condition.value(context);
+                if (condition.needsDeserialization(table, value)) {
+                    if (!condition.matchesDeserialized(table, record, value)) {
+                        return false;
+                    }
+                } else if (!condition.test(RecordSerializer.compareRawDataFromPrimaryKey(condition.column, record.key, table, value))) {
+                    return false;
+                }
+            }
+            if (valueConditions.length == 0) {
+                return true;
+            }
+            final Bytes value = record.value;
+            if (RecordSerializer.isFixedOffsetValue(value)) {
+                for (Condition condition : valueConditions) {
+                    if (!condition.matchesFixedOffsetValue(table, record, context)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            long verified = 0;
+            final int valueEnd = value.getOffset() + value.getLength();
+            try (ByteArrayCursor din = value.newCursor()) {
+                while (!din.isEof()) {
+                    int serialPosition = din.readVIntNoEOFException();
+                    if (din.isEof()) {
+                        break;
+                    }
+                    int[] conditions = serialPosition < conditionsBySerialPosition.length
+                            ? conditionsBySerialPosition[serialPosition] : null;
+                    if (conditions != null) {
+                        for (int i : conditions) {
+                            Condition condition = valueConditions[i];
+                            Object cvalue = condition.value(context);
+                            boolean ok;
+                            if (condition.needsDeserialization(table, cvalue)) {
+                                ok = condition.matchesDeserialized(table, record, cvalue);
+                            } else {
+                                int position = din.getPosition();
+                                try (ByteArrayCursor field = ByteArrayCursor.wrap(value.getBuffer(), position, valueEnd - position)) {
+                                    ok = condition.test(RecordSerializer.compareDeserializeTypeAndValue(field, cvalue));
+                                }
+                            }
+                            if (!ok) {
+                                return false;
+                            }
+                            verified |= 1L << i;
+                        }
+                    }
+                    // we have to deserialize always the value, even the column is no more present
+                    RecordSerializer.skipTypeAndValue(din);
+                }
+            }
+            for (int i = 0; i < valueConditions.length; i++) {
+                if ((verified & (1L << i)) == 0) {
+                    // the column is not present, so it is NULL
+                    Condition condition = valueConditions[i];
+                    Object cvalue = condition.value(context);
+                    if (condition.needsDeserialization(table, cvalue)) {
+                        if (!condition.matchesDeserialized(table, record, cvalue)) {
+                            return false;
+                        }
+                    } else if (!condition.test(SQLRecordPredicateFunctions.compareNullTo(cvalue))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } catch (IOException err) {
+            throw new IllegalStateException("bad data:" + err, err);
+        }
+    }
+
+    /**
+     * Checks the conditions against the summaries of the values of a data page
+     *
+     * @param zoneMaps summaries of some columns of the page
+     * @param context
+     * @return false only if no record of the page can verify every condition
+     * @throws StatementExecutionException
+     */
+    public boolean mayMatch(ColumnZoneMap[] zoneMaps, StatementEvaluationContext context) throws StatementExecutionException {
+        for (Condition condition : valueConditions) {
+            for (ColumnZoneMap zoneMap : zoneMaps) {
+                if (zoneMap.serialPosition == condition.serialPosition) {
+                    if (!condition.mayMatch(table, zoneMap, context)) {
+                        return false;
+                    }
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "RawRecordConditions{" + "keyConditions=" + keyConditions.length + ", valueConditions=" + valueConditions.length + '}';
+    }
+
+    private static final class Condition {
+
+        private final int column;
+        private final int serialPosition;
+        private final CompiledSQLExpression value;
+        private final int operator;
+        private final boolean not;
+
+        /**
+         * Equality is {@link SQLRecordPredicateFunctions#objectEquals(java.lang.Object, java.lang.Object)}
+         * instead of a comparison, as in {@link ColumnEqualsJdbcParameter}
+         */
+        private final boolean objectEquality;
+
+        Condition(Table table, int column, CompiledSQLExpression value, int operator, boolean not, boolean objectEquality) {
+            this.column = column;
+            this.serialPosition = table.getColumn(column).serialPosition;
+            this.value = value;
+            this.operator = operator;
+            this.not = not;
+            this.objectEquality = objectEquality && (operator == EQUALS || operator == NOT_EQUALS);
+        }
+
+        Object value(StatementEvaluationContext context) {
+            return value.evaluate(DataAccessor.NULL, context);
+        }
+
+        boolean matchesFixedOffsetValue(Table table, Record record, StatementEvaluationContext context) throws IOException {
+            Object cvalue = value(context);
+            if (needsDeserialization(table, cvalue)) {
+                return matchesDeserialized(table, record, cvalue);
+            }
+            int position = RecordSerializer.fixedOffsetFieldPosition(record.value, serialPosition);
+            if (position < 0) {
+                return test(SQLRecordPredicateFunctions.compareNullTo(cvalue));
+            }
+            try (ByteArrayCursor field = RecordSerializer.fixedOffsetFieldCursor(record.value, position)) {
+                return test(RecordSerializer.compareDeserializeTypeAndValue(field, cvalue));
+            }
+        }
+
+        /**
+         * Comparisons are monotonic on integral and timestamp values, so the values in the range of the zone map
+         * can only give the results between the results for the minimum and for the maximum
+         */
+        boolean mayMatch(Table table, ColumnZoneMap zoneMap, StatementEvaluationContext context) {
+            Object cvalue = value(context);
+            if (needsDeserialization(table, cvalue)) {
+                return true;
+            }
+            if (zoneMap.nullCount > 0 && test(SQLRecordPredicateFunctions.compareNullTo(cvalue))) {
+                return true;
+            }
+            if (zoneMap.valueCount == 0) {
+                return false;
+            }
+            if (cvalue == null) {
+                // non NULL values are always lower than NULL
+                return test(-1);
+            }
+            Integer low = compareZoneValue(zoneMap.type, zoneMap.min, cvalue);
+            Integer high = compareZoneValue(zoneMap.type, zoneMap.max, cvalue);
+            if (low == null || high == null) {
+                return true;
+            }
+            for (int compare = low; compare <= high; compare++) {
+                if (test(compare)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Same as {@link SQLRecordPredicateFunctions#compare(java.lang.Object, java.lang.Object)}, without
+         * overflows
+         *
+         * @return the sign of the comparison, or null if the values are not comparable
+         */
+        private static Integer compareZoneValue(int type, long value, Object cvalue) {
+            if (cvalue instanceof Integer || cvalue instanceof Long) {
+                if (type == ColumnTypes.TIMESTAMP && !(cvalue instanceof Long)) {
+                    return null;
+                }
+                return Integer.signum(Long.compare(value, ((Number) cvalue).longValue()));
+            } else if (cvalue instanceof Number) {
+                if (type == ColumnTypes.TIMESTAMP) {
+                    return null;
+                }
+                return Integer.signum(Double.compare(value, ((Number) cvalue).doubleValue()));
+            } else if (cvalue instanceof java.util.Date) {
+                if (type == ColumnTypes.INTEGER) {
+                    return null;
+                }
+                return Integer.signum(Long.compare(value, ((java.util.Date) cvalue).getTime()));
+            }
+            return null;
+        }
+
+        boolean test(int compare) {
+            boolean res;
+            switch (operator) {
+                case EQUALS:
+                    res = compare == 0;
+                    break;
+                case NOT_EQUALS:
+                    res = compare != 0;
+                    break;
+                case GREATER_THAN:
+                    res = compare > 0;
+                    break;
+                case GREATER_THAN_EQUALS:
+                    res = compare >= 0;
+                    break;
+                case MINOR_THAN:
+                    res = compare < 0;
+                    break;
+                case MINOR_THAN_EQUALS:
+                    res = compare <= 0;
+                    break;
+                default:
+                    throw new IllegalStateException("bad operator " + operator);
+            }
+            return not ? !res : res;
+        }
+
+        /**
+         * Object equality gives the same result of a comparison only when the value has the same kind of the
+         * column, otherwise the field has to be deserialized
+         */
+        boolean needsDeserialization(Table table, Object cvalue) {
+            if (!objectEquality || cvalue == null) {
+                return false;
+            }
+            switch (table.getColumn(column).type) {
+                case ColumnTypes.INTEGER:
+                case ColumnTypes.NOTNULL_INTEGER:
+                case ColumnTypes.LONG:
+                case ColumnTypes.NOTNULL_LONG:
+                case ColumnTypes.DOUBLE:
+                    return !(cvalue instanceof Number);
+                case ColumnTypes.STRING:
+                case ColumnTypes.NOTNULL_STRING:
+                    return !(cvalue instanceof String || cvalue instanceof RawString);
+                default:
+                    return true;
+            }
+        }
+
+        boolean matchesDeserialized(Table table, Record record, Object cvalue) {
+            Object fieldValue = RecordSerializer.buildRawDataAccessor(record, table).get(column);
+            boolean res = SQLRecordPredicateFunctions.objectEquals(fieldValue, cvalue);
+            if (operator == NOT_EQUALS) {
+                res = !res;
+            }
+            return not ? !res : res;
+        }
+    }
+
+}
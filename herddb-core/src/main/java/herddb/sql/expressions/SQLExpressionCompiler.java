@@ -22,6 +22,7 @@ package herddb.sql.expressions;
 
 import static herddb.sql.functions.BuiltinFunctions.CURRENT_TIMESTAMP;
 import herddb.model.StatementExecutionException;
+import herddb.model.Table;
 import herddb.sql.CalcitePlanner;
 import herddb.sql.expressions.CompiledSQLExpression.BinaryExpressionBuilder;
 import herddb.sql.functions.BuiltinFunctions;
@@ -350,6 +351,18 @@ public class SQLExpressionCompiler {
         throw new StatementExecutionException("not implemented expression type " + expression.getClass() + ": " + expression);
     }
 
+    /**
+     * Generates a specialized Java class which evaluates a predicate on the records of a table.
+     *
+     * @param predicate a boolean expression on the columns of the table
+     * @param table     the table
+     * @return an equivalent expression, it falls back to the given one when code cannot be generated
+     * @see ExpressionCodeGenerator
+     */
+    public static CompiledSQLExpression generatePredicateCode(CompiledSQLExpression predicate, Table table) {
+        return ExpressionCodeGenerator.generate(predicate, table);
+    }
+
     private static Object safeValue(Object value3, RelDataType relDataType, SqlTypeName sqlTypeName) {
         if (value3 instanceof BigDecimal) {
             if (relDataType instanceof BasicSqlType) {
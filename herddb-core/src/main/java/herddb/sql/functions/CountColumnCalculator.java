@@ -49,4 +49,14 @@ public class CountColumnCalculator implements AggregatedColumnCalculator {
         return count;
     }
 
+    @Override
+    public boolean isMergeable() {
+        return true;
+    }
+
+    @Override
+    public void mergePartialValue(Object partialValue) {
+        count += ((Number) partialValue).longValue();
+    }
+
 }
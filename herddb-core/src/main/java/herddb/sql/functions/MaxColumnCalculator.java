@@ -56,4 +56,19 @@ public class MaxColumnCalculator extends AbstractSingleExpressionArgumentColumnC
     public Object getValue() {
         return result;
     }
+
+    @Override
+    public boolean isMergeable() {
+        return true;
+    }
+
+    @Override
+    public void mergePartialValue(Object partialValue) {
+        Comparable value = (Comparable) partialValue;
+        if (value != null) {
+            if (result == null || result.compareTo(value) < 0) {
+                result = value;
+            }
+        }
+    }
 }
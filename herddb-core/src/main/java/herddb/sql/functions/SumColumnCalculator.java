@@ -54,4 +54,16 @@ public class SumColumnCalculator extends AbstractSingleExpressionArgumentColumnC
     public Object getValue() {
         return result;
     }
+
+    @Override
+    public boolean isMergeable() {
+        return true;
+    }
+
+    @Override
+    public void mergePartialValue(Object partialValue) {
+        if (partialValue != null) {
+            result += ((Number) partialValue).longValue();
+        }
+    }
 }
@@ -0,0 +1,162 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.storage;
+
+import herddb.model.ColumnTypes;
+import herddb.utils.ExtendedDataInputStream;
+import herddb.utils.ExtendedDataOutputStream;
+import java.io.IOException;
+import java.sql.Timestamp;
+
+/**
+ * Summary of the values of a column in a data page (zone map): minimum and maximum value, number of NULL and
+ * number of non NULL values.
+ * <p>
+ * Only integral and timestamp values are summarized, the column is identified by its serial position so a
+ * summary is never applied to another column after DROP/ADD COLUMN.
+ * </p>
+ */
+public final class ColumnZoneMap {
+
+    public static final ColumnZoneMap[] NONE = new ColumnZoneMap[0];
+
+    public final int serialPosition;
+
+    /**
+     * Kind of the summarized values, {@link ColumnTypes#INTEGER}, {@link ColumnTypes#LONG} or
+     * {@link ColumnTypes#TIMESTAMP}
+     */
+    public final int type;
+    public final long min;
+    public final long max;
+    public final long nullCount;
+    public final long valueCount;
+
+    public ColumnZoneMap(int serialPosition, int type, long min, long max, long nullCount, long valueCount) {
+        this.serialPosition = serialPosition;
+        this.type = type;
+        this.min = min;
+        this.max = max;
+        this.nullCount = nullCount;
+        this.valueCount = valueCount;
+    }
+
+    public void serialize(ExtendedDataOutputStream output) throws IOException {
+        output.writeVInt(serialPosition);
+        output.writeVInt(type);
+        output.writeZLong(min);
+        output.writeZLong(max);
+        output.writeVLong(nullCount);
+        output.writeVLong(valueCount);
+    }
+
+    public static ColumnZoneMap deserialize(ExtendedDataInputStream input) throws IOException {
+        int serialPosition = input.readVInt();
+        int type = input.readVInt();
+        long min = input.readZLong();
+        long max = input.readZLong();
+        long nullCount = input.readVLong();
+        long valueCount = input.readVLong();
+        return new ColumnZoneMap(serialPosition, type, min, max, nullCount, valueCount);
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnZoneMap{" + "serialPosition=" + serialPosition + ", type=" + ColumnTypes.typeToString(type)
+                + ", min=" + min + ", max=" + max + ", nullCount=" + nullCount + ", valueCount=" + valueCount + '}';
+    }
+
+    /**
+     * Builds the summary of a column, values are added one at a time
+     */
+    public static final class Builder {
+
+        private final int serialPosition;
+        private int type = ColumnTypes.NULL;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+        private long nullCount;
+        private long valueCount;
+        private boolean unsupported;
+
+        public Builder(int serialPosition) {
+            this.serialPosition = serialPosition;
+        }
+
+        /**
+         * Adds a value to the summary
+         *
+         * @param value a deserialized value of the column
+         */
+        public void add(Object value) {
+            if (unsupported) {
+                return;
+            }
+            if (value == null) {
+                nullCount++;
+                return;
+            }
+            long v;
+            int valueType;
+            if (value instanceof Integer) {
+                v = (Integer) value;
+                valueType = ColumnTypes.INTEGER;
+            } else if (value instanceof Long) {
+                v = (Long) value;
+                valueType = ColumnTypes.LONG;
+            } else if (value instanceof Timestamp) {
+                v = ((Timestamp) value).getTime();
+                valueType = ColumnTypes.TIMESTAMP;
+            } else {
+                unsupported = true;
+                return;
+            }
+            if (type == ColumnTypes.NULL) {
+                type = valueType;
+            } else if (type != valueType) {
+                // values written before an ALTER TABLE which changed the type of an integral column
+                if ((type == ColumnTypes.INTEGER || type == ColumnTypes.LONG)
+                        && (valueType == ColumnTypes.INTEGER || valueType == ColumnTypes.LONG)) {
+                    type = ColumnTypes.LONG;
+                } else {
+                    unsupported = true;
+                    return;
+                }
+            }
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+            valueCount++;
+        }
+
+        /**
+         * @return the summary or null if the values cannot be summarized
+         */
+        public ColumnZoneMap build() {
+            if (unsupported) {
+                return null;
+            }
+            if (valueCount == 0) {
+                return new ColumnZoneMap(serialPosition, ColumnTypes.NULL, 0, 0, nullCount, 0);
+            }
+            return new ColumnZoneMap(serialPosition, type, min, max, nullCount, valueCount);
+        }
+    }
+}
@@ -24,6 +24,7 @@ import herddb.core.MemoryManager;
 import herddb.core.PostCheckpointAction;
 import herddb.core.RecordSetFactory;
 import herddb.index.KeyToPageIndex;
+import herddb.index.OffHeapKeyToPageIndex;
 import herddb.log.LogSequenceNumber;
 import herddb.model.Index;
 import herddb.model.Record;
@@ -63,6 +64,21 @@ public abstract class DataStorageManager implements AutoCloseable {
     public abstract List<Record> readPage(String tableSpace, String uuid, Long pageId)
             throws DataStorageManagerException;
 
+    /**
+     * Access a data page directly from its storage, without loading all of its records in memory.
+     *
+     * @param tableSpace
+     * @param uuid
+     * @param pageId
+     * @return page records or {@code null} if page mapping isn't supported or enabled on this storage
+     * @throws herddb.storage.DataStorageManagerException
+     * @see #readPage(java.lang.String, java.lang.String, java.lang.Long)
+     */
+    public MappedPageRecords readMappedPage(String tableSpace, String uuid, Long pageId)
+            throws DataStorageManagerException {
+        return null;
+    }
+
     public abstract void initIndex(String tableSpace, String uuid) throws DataStorageManagerException;
 
     public abstract void initTable(String tableSpace, String uuid) throws DataStorageManagerException;
@@ -163,7 +179,8 @@ public abstract class DataStorageManager implements AutoCloseable {
     /**
      * Returns the {@link IndexStatus} relative to given sequence number.
      *
-     * @throws DataStorageManagerException if no status exists for given data or it cannot be read
+     * @throws IndexStatusDoesNotExistException if no status exists for given data
+     * @throws DataStorageManagerException      if the status cannot be read
      */
     public abstract IndexStatus getIndexStatus(String tableSpace, String uuid, LogSequenceNumber sequenceNumber)
             throws DataStorageManagerException;
@@ -240,6 +257,15 @@ public abstract class DataStorageManager implements AutoCloseable {
     public abstract KeyToPageIndex createKeyToPageMap(String tablespace, String name, MemoryManager memoryManager)
             throws DataStorageManagerException;
 
+    /**
+     * Create a primary key index which keeps keys and page ids in direct memory, regardless of the default
+     * implementation of this storage. The index is persisted at checkpoint using index pages.
+     */
+    public KeyToPageIndex createOffHeapKeyToPageMap(String tablespace, String name, MemoryManager memoryManager)
+            throws DataStorageManagerException {
+        return new OffHeapKeyToPageIndex(tablespace, name, memoryManager, this);
+    }
+
     public abstract void releaseKeyToPageMap(String tablespace, String name, KeyToPageIndex index);
 
     public abstract RecordSetFactory createRecordSetFactory();
@@ -0,0 +1,41 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.storage;
+
+import herddb.model.Record;
+import herddb.utils.Bytes;
+import java.util.AbstractMap;
+
+/**
+ * Read only records of a data page accessed directly from storage (ie: a memory mapped page file).
+ * Records are materialized on access, the storage region is released when the map becomes unreachable.
+ */
+public abstract class MappedPageRecords extends AbstractMap<Bytes, Record> {
+
+    /**
+     * Returns the memory that page records would use if loaded on heap, to be used for page
+     * replacement decisions.
+     *
+     * @return estimated size in bytes
+     */
+    public abstract long getEstimatedSize();
+
+}
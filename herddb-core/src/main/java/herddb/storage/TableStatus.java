@@ -40,6 +40,11 @@ import java.util.Objects;
 @SuppressFBWarnings("EI_EXPOSE_REP2")
 public class TableStatus {
 
+    /**
+     * Metadata of each active page is followed by the zone maps of the page
+     */
+    private static final long FLAG_ZONE_MAPS = 1;
+
     public final String tableName;
     public final LogSequenceNumber sequenceNumber;
     public final byte[] nextPrimaryKeyValue;
@@ -58,8 +63,9 @@ public class TableStatus {
     }
 
     public void serialize(ExtendedDataOutputStream output) throws IOException {
+        boolean zoneMaps = activePages.values().stream().anyMatch(DataPageMetaData::hasZoneMaps);
         output.writeVLong(1); // version
-        output.writeVLong(0); // flags for future implementations
+        output.writeVLong(zoneMaps ? FLAG_ZONE_MAPS : 0); // flags for future implementations
         output.writeUTF(tableName);
         output.writeLong(sequenceNumber.ledgerId);
         output.writeLong(sequenceNumber.offset);
@@ -72,15 +78,19 @@ public class TableStatus {
             output.writeVLong(active.getKey());
             /* metadata */
             active.getValue().serialize(output);
+            if (zoneMaps) {
+                active.getValue().serializeZoneMaps(output);
+            }
         }
     }
 
     public static TableStatus deserialize(ExtendedDataInputStream in) throws IOException {
         long version = in.readVLong(); // version
         long flags = in.readVLong(); // flags for future implementations
-        if (version != 1 || flags != 0) {
+        if (version != 1 || (flags & ~FLAG_ZONE_MAPS) != 0) {
             throw new DataStorageManagerException("corrupted table status");
         }
+        boolean zoneMaps = (flags & FLAG_ZONE_MAPS) != 0;
         String tableName = in.readUTF();
         long ledgerId = in.readLong();
         long offset = in.readLong();
@@ -90,7 +100,7 @@ public class TableStatus {
         int numActivePages = in.readVInt();
         Map<Long, DataPageMetaData> activePages = new HashMap<>(numActivePages);
         for (int i = 0; i < numActivePages; i++) {
-            activePages.put(in.readVLong(), DataPageMetaData.deserialize(in));
+            activePages.put(in.readVLong(), DataPageMetaData.deserialize(in, zoneMaps));
         }
         return new TableStatus(tableName, new LogSequenceNumber(ledgerId, offset), nextPrimaryKeyValue, nextPageId, activePages);
     }
@@ -76,7 +76,7 @@ public class QueryUtils {
      * Prefix for INDEX CREATE before tablespace.tablename
      */
     private static final String PREFIX_INDEX_CREATE =
-            "create\\W+(?:(" + Index.TYPE_HASH + "|" + Index.TYPE_BRIN + ")\\W+)?index\\W+.+\\W+on\\W+";
+            "create\\W+(?:(" + Index.TYPE_HASH + "|" + Index.TYPE_BRIN + "|" + Index.TYPE_BTREE + ")\\W+)?index\\W+.+\\W+on\\W+";
 
     /**
      * Prefix for INDEX DROP before tablespace.tablename
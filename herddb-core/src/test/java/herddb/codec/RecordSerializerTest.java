@@ -22,15 +22,21 @@ package herddb.codec;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import herddb.model.Column;
 import herddb.model.ColumnTypes;
 import herddb.model.Record;
 import herddb.model.StatementExecutionException;
 import herddb.model.Table;
 import herddb.utils.Bytes;
+import herddb.utils.DataAccessor;
 import herddb.utils.RawString;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.TimeZone;
 import org.junit.Test;
@@ -131,4 +137,98 @@ public class RecordSerializerTest {
         RecordSerializer.serialize("test", ColumnTypes.ANYTYPE);
     }
 
+    @Test
+    public void testFixedOffsetFormatIsDisabledByDefault() throws Exception {
+        Table table = wideTable("t1", 20);
+        Record record = RecordSerializer.makeRecord(table, "pk", "key", "c0", "a", "c1", 1L);
+        assertFalse(RecordSerializer.isFixedOffsetValue(record.value));
+        assertSame(record, RecordSerializer.upgradeRecordFormat(record, table));
+    }
+
+    @Test
+    public void testFixedOffsetFormat() throws Exception {
+        RecordSerializer.setFixedOffsetMinColumns(16);
+        try {
+            checkFixedOffsetFormat();
+        } finally {
+            RecordSerializer.setFixedOffsetMinColumns(0);
+        }
+    }
+
+    private static void checkFixedOffsetFormat() throws Exception {
+        Table table = wideTable("t1", 20);
+        Map<String, Object> bean = new HashMap<>();
+        bean.put("pk", "key");
+        for (int i = 0; i < 20; i++) {
+            /* leave some null columns */
+            if (i % 3 != 0) {
+                bean.put("c" + i, i % 2 == 0 ? (Object) ("v" + i) : (Object) Long.valueOf(i));
+            }
+        }
+        Record record = RecordSerializer.toRecord(bean, table);
+        assertTrue(RecordSerializer.isFixedOffsetValue(record.value));
+        assertEquals(21, RecordSerializer.fixedOffsetSlots(record.value));
+
+        Map<String, Object> read = RecordSerializer.toBean(new Record(record.key, record.value), table);
+        assertEquals(bean.size(), read.size());
+        assertEquals("key", read.get("pk").toString());
+
+        DataAccessor accessor = RecordSerializer.buildRawDataAccessor(record, table);
+        for (int i = 0; i < 20; i++) {
+            Column c = table.getColumn("c" + i);
+            Object expected = bean.get(c.name);
+            Object actual = accessor.get(i + 1);
+            if (expected == null) {
+                assertNull(actual);
+                assertEquals(-1, RecordSerializer.fixedOffsetFieldPosition(record.value, c.serialPosition));
+            } else {
+                assertEquals(expected.toString(), actual.toString());
+                assertEquals(expected.toString(), read.get(c.name).toString());
+            }
+        }
+        /* a record already in the new format is not rewritten */
+        assertSame(record, RecordSerializer.upgradeRecordFormat(record, table));
+    }
+
+    @Test
+    public void testSequentialValuesOfWideTables() throws Exception {
+        RecordSerializer.setFixedOffsetMinColumns(16);
+        try {
+            checkSequentialValuesOfWideTables();
+        } finally {
+            RecordSerializer.setFixedOffsetMinColumns(0);
+        }
+    }
+
+    private static void checkSequentialValuesOfWideTables() throws Exception {
+        /* same serial positions of the first columns of the wide table, but sequential format */
+        Table narrow = wideTable("t1", 3);
+        Table wide = wideTable("t1", 20);
+        Record old = RecordSerializer.makeRecord(narrow, "pk", "key", "c0", "a", "c1", 1L, "c2", "b");
+        assertFalse(RecordSerializer.isFixedOffsetValue(old.value));
+
+        Map<String, Object> read = RecordSerializer.toBean(old, wide);
+        assertEquals(4, read.size());
+        assertEquals("a", read.get("c0").toString());
+        assertEquals(1L, read.get("c1"));
+
+        Record upgraded = RecordSerializer.upgradeRecordFormat(old, wide);
+        assertTrue(RecordSerializer.isFixedOffsetValue(upgraded.value));
+        assertEquals(read, RecordSerializer.toBean(upgraded, wide));
+
+        /* narrow tables keep the sequential format */
+        assertSame(old, RecordSerializer.upgradeRecordFormat(old, narrow));
+    }
+
+    private static Table wideTable(String name, int columns) {
+        Table.Builder builder = Table.builder()
+                .name(name)
+                .column("pk", ColumnTypes.STRING)
+                .primaryKey("pk");
+        for (int i = 0; i < columns; i++) {
+            builder.column("c" + i, i % 2 == 0 ? ColumnTypes.STRING : ColumnTypes.LONG);
+        }
+        return builder.build();
+    }
+
 }
@@ -0,0 +1,155 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.core;
+
+import static herddb.core.TestUtils.execute;
+import static herddb.core.TestUtils.executeUpdate;
+import static herddb.core.TestUtils.scan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import herddb.file.FileCommitLogManager;
+import herddb.file.FileDataStorageManager;
+import herddb.file.FileMetadataStorageManager;
+import herddb.index.SecondaryIndexPrefixScan;
+import herddb.index.SecondaryIndexRangeScan;
+import herddb.index.SecondaryIndexSeek;
+import herddb.index.blink.BLinkIndexManager;
+import herddb.model.DataScanner;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.TableSpace;
+import herddb.model.TransactionContext;
+import herddb.model.commands.CreateTableSpaceStatement;
+import herddb.model.commands.ScanStatement;
+import herddb.sql.TranslatedQuery;
+import herddb.utils.DataAccessor;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests on BTREE indexes, ordering of entries and recovery after restart
+ */
+public class BTreeIndexRecoveryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void orderedAccessAndRecovery() throws Exception {
+        Path dataPath = folder.newFolder("data").toPath();
+        Path logsPath = folder.newFolder("logs").toPath();
+        Path metadataPath = folder.newFolder("metadata").toPath();
+        Path tmoDir = folder.newFolder("tmoDir").toPath();
+
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                new FileDataStorageManager(dataPath),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), TransactionContext.NO_TRANSACTION);
+            assertTrue(manager.waitForTablespace("tblspace1", 10000));
+
+            execute(manager, "CREATE TABLE tblspace1.t1 (k1 int primary key,n1 int,s1 string)", Collections.emptyList());
+            // values with zero bytes in their serialized form and duplicated values
+            for (int i = 0; i < 600; i++) {
+                executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,n1,s1) values(?,?,?)", Arrays.asList(i, i % 300, "s" + (i % 7)));
+            }
+            execute(manager, "CREATE BTREE INDEX ix1 ON tblspace1.t1(n1)", Collections.emptyList());
+            execute(manager, "CREATE BTREE INDEX ix2 ON tblspace1.t1(s1,n1)", Collections.emptyList());
+
+            assertIndexContents(manager, 0);
+
+            manager.checkpoint();
+
+            // changes after the checkpoint will be recovered from the log
+            executeUpdate(manager, "UPDATE tblspace1.t1 set n1=? where k1=?", Arrays.asList(1, 0));
+            executeUpdate(manager, "DELETE FROM tblspace1.t1 where k1=?", Arrays.asList(256));
+            executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,n1,s1) values(?,?,?)", Arrays.asList(2000, 256, "s2"));
+            assertIndexContents(manager, 1);
+        }
+
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                new FileDataStorageManager(dataPath),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null)) {
+            manager.start();
+            assertTrue(manager.waitForBootOfLocalTablespaces(10000));
+
+            assertIndexContents(manager, 1);
+            BLinkIndexManager ix1 = (BLinkIndexManager) manager.getTableSpaceManager("tblspace1").getIndexesOnTable("t1").get("ix1");
+            assertEquals(600, ix1.getSize());
+
+            manager.checkpoint();
+            assertIndexContents(manager, 1);
+        }
+    }
+
+    private static void assertIndexContents(DBManager manager, int changes) throws Exception {
+        List<Integer> seek = keys(manager, "SELECT k1 FROM tblspace1.t1 WHERE n1=?", Arrays.asList(256), SecondaryIndexSeek.class);
+        assertEquals(changes == 0 ? Arrays.asList(256, 556) : Arrays.asList(556, 2000), sorted(seek));
+
+        List<Integer> seekZero = keys(manager, "SELECT k1 FROM tblspace1.t1 WHERE n1=?", Arrays.asList(0), SecondaryIndexSeek.class);
+        assertEquals(changes == 0 ? Arrays.asList(0, 300) : Arrays.asList(300), sorted(seekZero));
+
+        // entries are visited in index order
+        List<Integer> range = values(manager, "SELECT n1 FROM tblspace1.t1 WHERE n1>=? and n1<=?", Arrays.asList(254, 257), SecondaryIndexRangeScan.class, "n1");
+        assertEquals(changes == 0 ? Arrays.asList(254, 254, 255, 255, 256, 256, 257, 257) : Arrays.asList(254, 254, 255, 255, 256, 256, 257, 257), range);
+
+        List<Integer> openRange = values(manager, "SELECT n1 FROM tblspace1.t1 WHERE n1<?", Arrays.asList(3), SecondaryIndexRangeScan.class, "n1");
+        assertEquals(changes == 0 ? Arrays.asList(0, 0, 1, 1, 2, 2) : Arrays.asList(0, 1, 1, 1, 2, 2), openRange);
+
+        List<Integer> prefix = keys(manager, "SELECT k1 FROM tblspace1.t1 WHERE s1=?", Arrays.asList("s2"), SecondaryIndexPrefixScan.class);
+        assertEquals(changes == 0 ? 86 : 87, prefix.size());
+    }
+
+    private static List<Integer> keys(DBManager manager, String query, List<Object> parameters, Class<?> expectedOperation) throws Exception {
+        return values(manager, query, parameters, expectedOperation, "k1");
+    }
+
+    private static List<Integer> values(DBManager manager, String query, List<Object> parameters, Class<?> expectedOperation, String column) throws Exception {
+        TranslatedQuery translated = manager.getPlanner().translate(TableSpace.DEFAULT, query, parameters, true, true, false, -1);
+        ScanStatement scan = translated.plan.mainStatement.unwrap(ScanStatement.class);
+        assertTrue(expectedOperation.isInstance(scan.getPredicate().getIndexOperation()));
+        List<Integer> result = new ArrayList<>();
+        try (DataScanner scan1 = manager.scan(scan, translated.context, TransactionContext.NO_TRANSACTION)) {
+            for (DataAccessor t : scan1.consume()) {
+                result.add((Integer) t.get(column));
+            }
+        }
+        return result;
+    }
+
+    private static List<Integer> sorted(List<Integer> list) {
+        List<Integer> result = new ArrayList<>(list);
+        Collections.sort(result);
+        return result;
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.core;
+
+import static herddb.core.TestUtils.execute;
+import static herddb.core.TestUtils.executeUpdate;
+import static herddb.core.TestUtils.scan;
+import static herddb.model.TransactionContext.NO_TRANSACTION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import herddb.file.FileCommitLogManager;
+import herddb.file.FileDataStorageManager;
+import herddb.file.FileMetadataStorageManager;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.commands.CreateTableSpaceStatement;
+import herddb.server.ServerConfiguration;
+import herddb.utils.DataAccessor;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests on compressed data pages packed in segment files
+ */
+public class CompressedPageSegmentsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void compressedPagesInSegments() throws Exception {
+        test(false);
+    }
+
+    @Test
+    public void compressedPagesInSegmentsWithMmap() throws Exception {
+        test(true);
+    }
+
+    private void test(boolean pagemmap) throws Exception {
+        Path dataPath = folder.newFolder("data").toPath();
+        Path logsPath = folder.newFolder("logs").toPath();
+        Path metadataPath = folder.newFolder("metadata").toPath();
+        Path tmoDir = folder.newFolder("tmoDir").toPath();
+
+        ServerConfiguration config1 = new ServerConfiguration();
+        config1.set(ServerConfiguration.PROPERTY_MAX_LOGICAL_PAGE_SIZE, 10 * 1024);
+
+        int records = 2000;
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                newDataStorageManager(dataPath, tmoDir, pagemmap),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null, config1, null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+
+            execute(manager, "CREATE TABLE tblspace1.tsql (k1 string primary key,n1 int,s1 string)", Collections.emptyList());
+
+            for (int i = 0; i < records; i++) {
+                executeUpdate(manager, "INSERT INTO tblspace1.tsql(k1,n1,s1) values(?,?,?)",
+                        Arrays.asList("mykey" + i, i, "value value value value " + i));
+            }
+            manager.checkpoint();
+
+            /* No data page files, pages are packed in a few segments */
+            assertEquals(0, countFiles(dataPath, ".page"));
+            int segments = countFiles(dataPath, ".segment");
+            assertTrue(segments > 1);
+            TableManager table = (TableManager) manager.getTableSpaceManager("tblspace1").getTableManager("tsql");
+            assertTrue(segments < table.getLoadedPages().size());
+
+            /* Unload everything, pages will be loaded again from segments */
+            manager.getMemoryManager().getDataPageReplacementPolicy().clear();
+            for (DataPage page : new ArrayList<>(table.getLoadedPages())) {
+                if (page.immutable) {
+                    table.unload(page.pageId);
+                }
+            }
+            assertTableContents(manager, records, "value value value value ");
+
+            /* Rewrite every record, old pages die and their segments are dropped */
+            executeUpdate(manager, "UPDATE tblspace1.tsql set s1=k1", Collections.emptyList());
+            manager.checkpoint();
+            manager.checkpoint();
+            assertTrue(countFiles(dataPath, ".segment") <= segments);
+        }
+
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                newDataStorageManager(dataPath, tmoDir, pagemmap),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null, config1, null)) {
+            manager.start();
+            assertTrue(manager.waitForBootOfLocalTablespaces(10000));
+            assertTableContents(manager, records, "mykey");
+
+            execute(manager, "DROP TABLE tblspace1.tsql", Collections.emptyList());
+            assertEquals(0, countFiles(dataPath, ".segment"));
+        }
+    }
+
+    private static FileDataStorageManager newDataStorageManager(Path dataPath, Path tmoDir, boolean pagemmap) {
+        return new FileDataStorageManager(dataPath, tmoDir,
+                ServerConfiguration.PROPERTY_DISK_SWAP_MAX_RECORDS_DEFAULT,
+                ServerConfiguration.PROPERTY_REQUIRE_FSYNC_DEFAULT,
+                false, false, pagemmap,
+                ServerConfiguration.PROPERTY_SORT_MAX_RECORDS_IN_MEMORY_DEFAULT,
+                true, 4 * 1024, new NullStatsLogger());
+    }
+
+    private static void assertTableContents(DBManager manager, int records, String prefix) throws Exception {
+        for (int i = 0; i < records; i++) {
+            List<DataAccessor> rows = scan(manager, "SELECT n1,s1 FROM tblspace1.tsql WHERE k1=?",
+                    Arrays.asList("mykey" + i)).consumeAndClose();
+            assertEquals(1, rows.size());
+            assertEquals(i, rows.get(0).get("n1"));
+            assertEquals(prefix + i, rows.get(0).get("s1").toString());
+        }
+        assertEquals(records, scan(manager, "SELECT * FROM tblspace1.tsql", Collections.emptyList()).consumeAndClose().size());
+    }
+
+    /**
+     * Count files in table directories, index pages are not packed in segments
+     */
+    private static int countFiles(Path dataPath, String extension) throws IOException {
+        try (Stream<Path> files = Files.walk(dataPath)) {
+            return (int) files
+                    .filter(p -> p.getParent().getFileName().toString().endsWith(".table"))
+                    .filter(p -> p.getFileName().toString().endsWith(extension))
+                    .count();
+        }
+    }
+
+}
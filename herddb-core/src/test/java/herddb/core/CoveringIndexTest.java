@@ -0,0 +1,182 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.core;
+
+import static herddb.core.TestUtils.execute;
+import static herddb.core.TestUtils.executeUpdate;
+import static herddb.core.TestUtils.scan;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import herddb.file.FileCommitLogManager;
+import herddb.file.FileDataStorageManager;
+import herddb.file.FileMetadataStorageManager;
+import herddb.model.Record;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.StatementExecutionException;
+import herddb.model.TableSpace;
+import herddb.model.TransactionContext;
+import herddb.model.commands.CreateTableSpaceStatement;
+import herddb.model.commands.ScanStatement;
+import herddb.sql.TranslatedQuery;
+import herddb.storage.DataStorageManagerException;
+import herddb.storage.MappedPageRecords;
+import herddb.utils.DataAccessor;
+import herddb.utils.RawString;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests on BTREE indexes with included columns, covered queries are answered without reading table data
+ */
+public class CoveringIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void indexOnlyScans() throws Exception {
+        Path dataPath = folder.newFolder("data").toPath();
+        Path logsPath = folder.newFolder("logs").toPath();
+        Path metadataPath = folder.newFolder("metadata").toPath();
+        Path tmoDir = folder.newFolder("tmoDir").toPath();
+
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                new FileDataStorageManager(dataPath),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), TransactionContext.NO_TRANSACTION);
+            assertTrue(manager.waitForTablespace("tblspace1", 10000));
+
+            execute(manager, "CREATE TABLE tblspace1.orders (id int primary key,customer_id int,status string,amount long)", Collections.emptyList());
+            for (int i = 0; i < 300; i++) {
+                executeUpdate(manager, "INSERT INTO tblspace1.orders(id,customer_id,status,amount) values(?,?,?,?)",
+                        Arrays.asList(i, i % 30 - 10, i % 4 == 0 ? null : "s" + (i % 3), (long) i));
+            }
+            execute(manager, "CREATE BTREE INDEX ix1 ON tblspace1.orders(customer_id) INCLUDE (status)", Collections.emptyList());
+
+            try {
+                execute(manager, "CREATE INDEX ix2 ON tblspace1.orders(customer_id) INCLUDE (status)", Collections.emptyList());
+                fail();
+            } catch (StatementExecutionException expected) {
+                assertTrue(expected.getMessage().contains("included columns"));
+            }
+
+            manager.checkpoint();
+            executeUpdate(manager, "UPDATE tblspace1.orders set status=? where id=?", Arrays.asList("changed", 5));
+            executeUpdate(manager, "UPDATE tblspace1.orders set status=? where id=?", Arrays.asList(null, 35));
+            executeUpdate(manager, "DELETE FROM tblspace1.orders where id=?", Arrays.asList(65));
+            assertCoveredQueries(manager);
+            manager.checkpoint();
+        }
+
+        AtomicInteger pageReads = new AtomicInteger();
+        FileDataStorageManager dataStorageManager = new FileDataStorageManager(dataPath) {
+            @Override
+            public List<Record> readPage(String tableSpace, String tableName, Long pageId) throws DataStorageManagerException {
+                pageReads.incrementAndGet();
+                return super.readPage(tableSpace, tableName, pageId);
+            }
+
+            @Override
+            public MappedPageRecords readMappedPage(String tableSpace, String tableName, Long pageId) throws DataStorageManagerException {
+                pageReads.incrementAndGet();
+                return super.readMappedPage(tableSpace, tableName, pageId);
+            }
+        };
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                dataStorageManager,
+                new FileCommitLogManager(logsPath),
+                tmoDir, null)) {
+            manager.start();
+            assertTrue(manager.waitForBootOfLocalTablespaces(10000));
+
+            assertArrayEquals(new String[]{"status"}, Arrays.stream(manager.getTableSpaceManager("tblspace1")
+                    .getIndexesOnTable("orders").get("ix1").getIndex().includedColumns).map(c -> c.name).toArray());
+
+            int reads = pageReads.get();
+            assertCoveredQueries(manager);
+            // covered queries did not read table data
+            assertEquals(reads, pageReads.get());
+
+            List<Object> amounts = values(manager, "SELECT amount FROM tblspace1.orders WHERE customer_id=? ORDER BY amount", Arrays.asList(-5), "amount", false);
+            assertEquals(Arrays.asList(5L, 35L, 95L, 125L, 155L, 185L, 215L, 245L, 275L), amounts);
+            assertTrue(pageReads.get() > reads);
+
+            // inside a transaction records are read from table data
+            long tx = TestUtils.beginTransaction(manager, "tblspace1");
+            executeUpdate(manager, "UPDATE tblspace1.orders set status=? where id=?", Arrays.asList("tx", 95), new TransactionContext(tx));
+            List<Object> statuses = new ArrayList<>();
+            for (DataAccessor t : scan(manager, "SELECT status FROM tblspace1.orders WHERE customer_id=? ORDER BY id", Arrays.asList(-5), new TransactionContext(tx)).consumeAndClose()) {
+                statuses.add(t.get("status") != null ? t.get("status").toString() : null);
+            }
+            assertEquals(Arrays.asList("changed", null, "tx", "s2", "s2", "s2", "s2", "s2", "s2"), statuses);
+            TestUtils.commitTransaction(manager, "tblspace1", tx);
+            assertEquals(Arrays.asList("changed", null, "tx", "s2", "s2", "s2", "s2", "s2", "s2"),
+                    values(manager, "SELECT status, id FROM tblspace1.orders WHERE customer_id=? ORDER BY id", Arrays.asList(-5), "status", true));
+        }
+    }
+
+    private static void assertCoveredQueries(DBManager manager) throws Exception {
+        // i % 30 == 5: 5, 35, 65, 95...
+        assertEquals(Arrays.asList("changed", null, "s2", "s2", "s2", "s2", "s2", "s2", "s2"),
+                values(manager, "SELECT status, id FROM tblspace1.orders WHERE customer_id=? ORDER BY id", Arrays.asList(-5), "status", true));
+        assertEquals(Arrays.asList(275, 245, 215),
+                values(manager, "SELECT id FROM tblspace1.orders WHERE customer_id=? AND status=? ORDER BY id DESC LIMIT 3", Arrays.asList(-5, "s2"), "id", true));
+        assertEquals(Arrays.asList(19, 19, 19, 19, 19, 19, 19, 19, 19, 19, 18),
+                values(manager, "SELECT customer_id FROM tblspace1.orders WHERE customer_id>=? ORDER BY customer_id DESC LIMIT 11", Arrays.asList(-20), "customer_id", true));
+        assertEquals(Arrays.asList(-10, -10, -10, -10, -10, -10, -10, -10, -10, -10, -9),
+                values(manager, "SELECT customer_id, status FROM tblspace1.orders WHERE customer_id<=? ORDER BY customer_id LIMIT 11", Arrays.asList(100), "customer_id", true));
+        assertEquals(Arrays.asList(0, 60, 120, 180, 240),
+                values(manager, "SELECT id FROM tblspace1.orders WHERE customer_id=? AND status IS NULL ORDER BY id", Arrays.asList(-10), "id", true));
+    }
+
+    private static List<Object> values(DBManager manager, String query, List<Object> parameters, String column, boolean covered) throws Exception {
+        TranslatedQuery translated = manager.getPlanner().translate(TableSpace.DEFAULT, query, parameters, true, true, false, -1);
+        ScanStatement statement = translated.plan.mainStatement.unwrap(ScanStatement.class);
+        if (covered) {
+            assertTrue(query, statement.getColumnsCoveredByIndex() != null);
+        } else {
+            assertNull(query, statement.getColumnsCoveredByIndex());
+        }
+        List<Object> result = new ArrayList<>();
+        for (DataAccessor t : scan(manager, query, parameters).consumeAndClose()) {
+            Object value = t.get(column);
+            result.add(value instanceof RawString ? value.toString() : value);
+        }
+        return result;
+    }
+
+}
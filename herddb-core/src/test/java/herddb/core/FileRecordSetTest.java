@@ -20,8 +20,18 @@
 
 package herddb.core;
 
+import static org.junit.Assert.assertEquals;
 import herddb.file.FileRecordSetFactory;
+import herddb.model.Column;
+import herddb.model.ColumnTypes;
+import herddb.model.ScanLimitsImpl;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.Tuple;
+import herddb.model.TupleComparator;
+import herddb.utils.DataAccessor;
+import java.util.Random;
 import org.junit.Rule;
+import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 /**
@@ -37,4 +47,89 @@ public class FileRecordSetTest extends RecordSetSuite {
         return new FileRecordSetFactory(folder.getRoot().toPath(), threshold);
     }
 
+    private static final TupleComparator BY_N1_THEN_S1 = (DataAccessor o1, DataAccessor o2) -> {
+        int diff = Integer.compare((Integer) o1.get("n1"), (Integer) o2.get("n1"));
+        return diff != 0 ? diff : o1.get("s1").toString().compareTo(o2.get("s1").toString());
+    };
+
+    private MaterializedRecordSet createRandomRecordSet(int sortMaxRecordsInMemory, int size) {
+        // many runs, which need more than one merge pass
+        RecordSetFactory factory = new FileRecordSetFactory(folder.getRoot().toPath(), 10, sortMaxRecordsInMemory);
+        Column[] columns = new Column[2];
+        columns[0] = Column.column("s1", ColumnTypes.STRING);
+        columns[1] = Column.column("n1", ColumnTypes.INTEGER);
+        String[] fieldNames = Column.buildFieldNamesList(columns);
+        MaterializedRecordSet rs = factory.createRecordSet(fieldNames, columns);
+        Random random = new Random(1234);
+        for (int i = 0; i < size; i++) {
+            rs.add(new Tuple(fieldNames, new Object[]{"test_" + i, random.nextInt(size / 10)}));
+        }
+        rs.writeFinished();
+        return rs;
+    }
+
+    private static int assertSorted(MaterializedRecordSet rs) {
+        DataAccessor previous = null;
+        int count = 0;
+        for (DataAccessor t : rs) {
+            if (previous != null && BY_N1_THEN_S1.compare(previous, t) > 0) {
+                throw new AssertionError(previous.toMap() + " > " + t.toMap());
+            }
+            previous = t;
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testExternalSort() throws Exception {
+        try (MaterializedRecordSet rs = createRandomRecordSet(10, 1000)) {
+            rs.sort(BY_N1_THEN_S1);
+            assertEquals(1000, assertSorted(rs));
+            // read again
+            assertEquals(1000, assertSorted(rs));
+            // sort again on another ordering
+            rs.sort((DataAccessor o1, DataAccessor o2) -> BY_N1_THEN_S1.compare(o2, o1));
+            DataAccessor previous = null;
+            for (DataAccessor t : rs) {
+                if (previous != null) {
+                    assertEquals(1, Integer.signum(BY_N1_THEN_S1.compare(previous, t)));
+                }
+                previous = t;
+            }
+        }
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testExternalSortAndLimits() throws Exception {
+        Tuple[] expected = new Tuple[1000];
+        try (MaterializedRecordSet rs = createRandomRecordSet(Integer.MAX_VALUE, 1000)) {
+            rs.sort(BY_N1_THEN_S1);
+            int i = 0;
+            for (DataAccessor t : rs) {
+                expected[i++] = new Tuple(t.toMap(), t.getFieldNames());
+            }
+        }
+        try (MaterializedRecordSet rs = createRandomRecordSet(7, 1000)) {
+            rs.sort(BY_N1_THEN_S1);
+            rs.applyLimits(new ScanLimitsImpl(15, 100), StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT());
+            int i = 100;
+            for (DataAccessor t : rs) {
+                assertEquals(expected[i++].toMap(), t.toMap());
+            }
+            assertEquals(115, i);
+        }
+        try (MaterializedRecordSet rs = createRandomRecordSet(7, 1000)) {
+            rs.sort(BY_N1_THEN_S1);
+            rs.applyLimits(new ScanLimitsImpl(0, 990), StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT());
+            int i = 990;
+            for (DataAccessor t : rs) {
+                assertEquals(expected[i++].toMap(), t.toMap());
+            }
+            assertEquals(1000, i);
+        }
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
 }
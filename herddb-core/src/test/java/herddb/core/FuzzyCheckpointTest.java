@@ -0,0 +1,329 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.core;
+
+import static herddb.core.TestUtils.beginTransaction;
+import static herddb.core.TestUtils.commitTransaction;
+import static herddb.core.TestUtils.execute;
+import static herddb.core.TestUtils.executeUpdate;
+import static herddb.core.TestUtils.scan;
+import static herddb.model.TransactionContext.NO_TRANSACTION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import herddb.file.FileCommitLogManager;
+import herddb.file.FileDataStorageManager;
+import herddb.file.FileMetadataStorageManager;
+import herddb.model.Record;
+import herddb.model.StatementEvaluationContext;
+import herddb.storage.DataStorageManagerException;
+import herddb.storage.TableStatus;
+import herddb.model.TransactionContext;
+import herddb.model.commands.CreateTableSpaceStatement;
+import herddb.server.ServerConfiguration;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests on fuzzy checkpoints, tables are flushed while DML statements keep running
+ */
+public class FuzzyCheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void dmlDuringCheckpointAndRecovery() throws Exception {
+        Path dataPath = folder.newFolder("data").toPath();
+        Path logsPath = folder.newFolder("logs").toPath();
+        Path metadataPath = folder.newFolder("metadata").toPath();
+        Path tmoDir = folder.newFolder("tmoDir").toPath();
+
+        ServerConfiguration config1 = new ServerConfiguration();
+        config1.set(ServerConfiguration.PROPERTY_CHECKPOINT_FUZZY, true);
+
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                new FileDataStorageManager(dataPath),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null, config1, null)) {
+            manager.start();
+            assertTrue(manager.isFuzzyCheckpoint());
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+
+            execute(manager, "CREATE TABLE tblspace1.t1 (k1 int primary key,s1 string)", Collections.emptyList());
+            execute(manager, "CREATE TABLE tblspace1.t2 (k1 int primary key,s1 string)", Collections.emptyList());
+
+            for (int i = 0; i < 100; i++) {
+                executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,s1) values(?,?)", Arrays.asList(i, "a"));
+                executeUpdate(manager, "INSERT INTO tblspace1.t2(k1,s1) values(?,?)", Arrays.asList(i, "a"));
+            }
+
+            /* A transaction in progress during the whole checkpoint */
+            long tx1 = beginTransaction(manager, "tblspace1");
+            executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,s1) values(?,?)", Arrays.asList(1000, "tx1"), new TransactionContext(tx1));
+            executeUpdate(manager, "INSERT INTO tblspace1.t2(k1,s1) values(?,?)", Arrays.asList(1000, "tx1"), new TransactionContext(tx1));
+
+            TableSpaceManager tableSpaceManager = manager.getTableSpaceManager("tblspace1");
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            AtomicInteger checkpointedTables = new AtomicInteger();
+            try {
+                tableSpaceManager.setAfterTableCheckPointAction(() -> {
+                    if (checkpointedTables.incrementAndGet() != 1) {
+                        return;
+                    }
+                    /* Only the first table has been flushed, tablespace must accept writes and commits */
+                    Future<?> writes = executor.submit(() -> {
+                        executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,s1) values(?,?)", Arrays.asList(2000, "during"));
+                        executeUpdate(manager, "INSERT INTO tblspace1.t2(k1,s1) values(?,?)", Arrays.asList(2000, "during"));
+                        executeUpdate(manager, "UPDATE tblspace1.t1 set s1=? where k1=?", Arrays.asList("updated", 1));
+                        executeUpdate(manager, "UPDATE tblspace1.t2 set s1=? where k1=?", Arrays.asList("updated", 1));
+                        executeUpdate(manager, "DELETE FROM tblspace1.t2 where k1=?", Arrays.asList(2));
+                        commitTransaction(manager, "tblspace1", tx1);
+
+                        long tx2 = beginTransaction(manager, "tblspace1");
+                        executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,s1) values(?,?)", Arrays.asList(3000, "tx2"), new TransactionContext(tx2));
+                        executeUpdate(manager, "INSERT INTO tblspace1.t2(k1,s1) values(?,?)", Arrays.asList(3000, "tx2"), new TransactionContext(tx2));
+                        commitTransaction(manager, "tblspace1", tx2);
+                        return null;
+                    });
+                    try {
+                        writes.get(30, TimeUnit.SECONDS);
+                    } catch (Exception err) {
+                        throw new RuntimeException(err);
+                    }
+                });
+                manager.checkpoint();
+            } finally {
+                tableSpaceManager.setAfterTableCheckPointAction(null);
+                executor.shutdown();
+            }
+            assertEquals(2, checkpointedTables.get());
+            assertTrue(tableSpaceManager.getStats().getLastCheckpointStallTime() >= 0);
+
+            executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,s1) values(?,?)", Arrays.asList(4000, "after"));
+            executeUpdate(manager, "INSERT INTO tblspace1.t2(k1,s1) values(?,?)", Arrays.asList(4000, "after"));
+
+            assertTableContents(manager);
+        }
+
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                new FileDataStorageManager(dataPath),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null, config1, null)) {
+            manager.start();
+            assertTrue(manager.waitForBootOfLocalTablespaces(10000));
+
+            assertTableContents(manager);
+
+            manager.checkpoint();
+            assertTableContents(manager);
+        }
+    }
+
+    @Test
+    public void commitsDuringTableFlush() throws Exception {
+        Path dataPath = folder.newFolder("data").toPath();
+        Path logsPath = folder.newFolder("logs").toPath();
+        Path metadataPath = folder.newFolder("metadata").toPath();
+        Path tmoDir = folder.newFolder("tmoDir").toPath();
+
+        ServerConfiguration config1 = new ServerConfiguration();
+        config1.set(ServerConfiguration.PROPERTY_CHECKPOINT_FUZZY, true);
+
+        CountDownLatch flushing = new CountDownLatch(1);
+        CountDownLatch committed = new CountDownLatch(1);
+        FileDataStorageManager dataStorageManager = new FileDataStorageManager(dataPath) {
+            @Override
+            public List<PostCheckpointAction> tableCheckpoint(String tableSpace, String tableName, TableStatus tableStatus, boolean pin) throws DataStorageManagerException {
+                if (tableStatus.tableName.equals("t1") && flushing.getCount() > 0) {
+                    flushing.countDown();
+                    try {
+                        /* The table is still being flushed: the commit must not wait for it */
+                        assertTrue(committed.await(30, TimeUnit.SECONDS));
+                    } catch (InterruptedException err) {
+                        throw new DataStorageManagerException(err);
+                    }
+                }
+                return super.tableCheckpoint(tableSpace, tableName, tableStatus, pin);
+            }
+        };
+
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                dataStorageManager,
+                new FileCommitLogManager(logsPath),
+                tmoDir, null, config1, null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+
+            execute(manager, "CREATE TABLE tblspace1.t1 (k1 int primary key,s1 string)", Collections.emptyList());
+            execute(manager, "CREATE TABLE tblspace1.t2 (k1 int primary key,s1 string)", Collections.emptyList());
+            executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,s1) values(?,?)", Arrays.asList(1, "a"));
+
+            long tx1 = beginTransaction(manager, "tblspace1");
+            executeUpdate(manager, "INSERT INTO tblspace1.t2(k1,s1) values(?,?)", Arrays.asList(1, "tx1"), new TransactionContext(tx1));
+
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<?> commit = executor.submit(() -> {
+                    assertTrue(flushing.await(30, TimeUnit.SECONDS));
+                    commitTransaction(manager, "tblspace1", tx1);
+                    committed.countDown();
+                    return null;
+                });
+                manager.checkpoint();
+                commit.get(30, TimeUnit.SECONDS);
+            } finally {
+                executor.shutdown();
+            }
+            assertTrue(manager.getTableSpaceManager("tblspace1").getStats().getLastCheckpointStallTime() >= 0);
+            assertEquals(1, scan(manager, "SELECT * FROM tblspace1.t2 WHERE s1='tx1'", Collections.emptyList()).consumeAndClose().size());
+        }
+
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                new FileDataStorageManager(dataPath),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null, config1, null)) {
+            manager.start();
+            assertTrue(manager.waitForBootOfLocalTablespaces(10000));
+            assertEquals(1, scan(manager, "SELECT * FROM tblspace1.t1", Collections.emptyList()).consumeAndClose().size());
+            assertEquals(1, scan(manager, "SELECT * FROM tblspace1.t2 WHERE s1='tx1'", Collections.emptyList()).consumeAndClose().size());
+        }
+    }
+
+    @Test
+    public void writesDuringNewPagesFlush() throws Exception {
+        Path dataPath = folder.newFolder("data").toPath();
+        Path logsPath = folder.newFolder("logs").toPath();
+        Path metadataPath = folder.newFolder("metadata").toPath();
+        Path tmoDir = folder.newFolder("tmoDir").toPath();
+
+        ServerConfiguration config1 = new ServerConfiguration();
+        config1.set(ServerConfiguration.PROPERTY_CHECKPOINT_FUZZY, true);
+        config1.set(ServerConfiguration.PROPERTY_MAX_LOGICAL_PAGE_SIZE, 1024);
+
+        AtomicBoolean checkpointing = new AtomicBoolean();
+        CountDownLatch writingPages = new CountDownLatch(1);
+        CountDownLatch written = new CountDownLatch(1);
+        FileDataStorageManager dataStorageManager = new FileDataStorageManager(dataPath) {
+            @Override
+            public void writePage(String tableSpace, String tableName, long pageId, Collection<Record> newPage) throws DataStorageManagerException {
+                if (checkpointing.get() && writingPages.getCount() > 0) {
+                    writingPages.countDown();
+                    try {
+                        /* New pages are written while the table still accepts writes */
+                        assertTrue(written.await(30, TimeUnit.SECONDS));
+                    } catch (InterruptedException err) {
+                        throw new DataStorageManagerException(err);
+                    }
+                }
+                super.writePage(tableSpace, tableName, pageId, newPage);
+            }
+        };
+
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                dataStorageManager,
+                new FileCommitLogManager(logsPath),
+                tmoDir, null, config1, null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+
+            execute(manager, "CREATE TABLE tblspace1.t1 (k1 int primary key,s1 string)", Collections.emptyList());
+            for (int i = 0; i < 200; i++) {
+                executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,s1) values(?,?)", Arrays.asList(i, "value" + i));
+            }
+
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<?> writes = executor.submit(() -> {
+                    assertTrue(writingPages.await(30, TimeUnit.SECONDS));
+                    executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,s1) values(?,?)", Arrays.asList(200, "during"));
+                    executeUpdate(manager, "UPDATE tblspace1.t1 SET s1=? WHERE k1=?", Arrays.asList("updated", 1));
+                    written.countDown();
+                    return null;
+                });
+                checkpointing.set(true);
+                manager.checkpoint();
+                checkpointing.set(false);
+                writes.get(30, TimeUnit.SECONDS);
+            } finally {
+                executor.shutdown();
+            }
+            assertNewPagesFlushContents(manager);
+            manager.checkpoint();
+        }
+
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                new FileDataStorageManager(dataPath),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null, config1, null)) {
+            manager.start();
+            assertTrue(manager.waitForBootOfLocalTablespaces(10000));
+            assertNewPagesFlushContents(manager);
+        }
+    }
+
+    private static void assertNewPagesFlushContents(DBManager manager) throws Exception {
+        assertEquals(201, scan(manager, "SELECT * FROM tblspace1.t1", Collections.emptyList()).consumeAndClose().size());
+        for (String value : Arrays.asList("during", "updated", "value199")) {
+            assertEquals(value, 1, scan(manager, "SELECT * FROM tblspace1.t1 WHERE s1=?",
+                    Arrays.asList(value)).consumeAndClose().size());
+        }
+    }
+
+    private static void assertTableContents(DBManager manager) throws Exception {
+        assertEquals(104, scan(manager, "SELECT * FROM tblspace1.t1", Collections.emptyList()).consumeAndClose().size());
+        assertEquals(103, scan(manager, "SELECT * FROM tblspace1.t2", Collections.emptyList()).consumeAndClose().size());
+        for (String table : Arrays.asList("t1", "t2")) {
+            for (String value : Arrays.asList("tx1", "during", "updated", "tx2", "after")) {
+                assertEquals(table + " " + value, 1, scan(manager, "SELECT * FROM tblspace1." + table + " WHERE s1=?",
+                        Arrays.asList(value)).consumeAndClose().size());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.core;
+
+import static herddb.core.TestUtils.execute;
+import static herddb.core.TestUtils.executeUpdate;
+import static herddb.core.TestUtils.scan;
+import static herddb.model.TransactionContext.NO_TRANSACTION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import herddb.file.FileCommitLogManager;
+import herddb.file.FileDataStorageManager;
+import herddb.file.FileMetadataStorageManager;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.commands.CreateTableSpaceStatement;
+import herddb.server.ServerConfiguration;
+import herddb.utils.DataAccessor;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntFunction;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests on hash joins, with build side in memory or spilled to disk
+ */
+public class HashJoinTest {
+
+    private static final int LEFT_RECORDS = 300;
+    private static final int RIGHT_RECORDS = 60;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void joinInMemory() throws Exception {
+        runJoins(new ServerConfiguration(), HashJoinTest::n1, HashJoinTest::n2);
+    }
+
+    @Test
+    public void joinWithSpill() throws Exception {
+        ServerConfiguration config = new ServerConfiguration();
+        config.set(ServerConfiguration.PROPERTY_JOIN_MAX_BUILD_ROWS_IN_MEMORY, 5);
+        runJoins(config, HashJoinTest::n1, HashJoinTest::n2);
+    }
+
+    @Test
+    public void joinWithSkewedKeys() throws Exception {
+        // spilled partitions with many rows with the same key cannot be split
+        ServerConfiguration config = new ServerConfiguration();
+        config.set(ServerConfiguration.PROPERTY_JOIN_MAX_BUILD_ROWS_IN_MEMORY, 5);
+        runJoins(config, k1 -> k1 % 7 == 0 ? null : k1 % 2, k2 -> k2 % 11 == 0 ? null : k2 % 3);
+    }
+
+    private static Integer n1(int k1) {
+        return k1 % 7 == 0 ? null : k1 % 40;
+    }
+
+    private static Integer n2(int k2) {
+        return k2 % 11 == 0 ? null : k2 % 50;
+    }
+
+    private DBManager startManager(ServerConfiguration config) throws Exception {
+        Path dataPath = folder.newFolder("data").toPath();
+        Path logsPath = folder.newFolder("logs").toPath();
+        Path metadataPath = folder.newFolder("metadata").toPath();
+        Path tmoDir = folder.newFolder("tmoDir").toPath();
+
+        String nodeId = "localhost";
+        DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                /* swap record sets to disk early */
+                new FileDataStorageManager(dataPath, tmoDir, 10,
+                        ServerConfiguration.PROPERTY_REQUIRE_FSYNC_DEFAULT,
+                        false, false, NullStatsLogger.INSTANCE),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null, config, null);
+        manager.start();
+        CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+        manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), NO_TRANSACTION);
+        manager.waitForTablespace("tblspace1", 10000);
+        return manager;
+    }
+
+    private void runJoins(ServerConfiguration config, IntFunction<Integer> n1, IntFunction<Integer> n2) throws Exception {
+        try (DBManager manager = startManager(config)) {
+            execute(manager, "CREATE TABLE tblspace1.t1 (k1 int primary key,n1 int,s1 string)", Collections.emptyList());
+            execute(manager, "CREATE TABLE tblspace1.t2 (k2 int primary key,n2 int,s2 string)", Collections.emptyList());
+            for (int i = 0; i < LEFT_RECORDS; i++) {
+                executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,n1,s1) values(?,?,?)", Arrays.asList(i, n1.apply(i), "a" + n1.apply(i)));
+            }
+            for (int i = 0; i < RIGHT_RECORDS; i++) {
+                executeUpdate(manager, "INSERT INTO tblspace1.t2(k2,n2,s2) values(?,?,?)", Arrays.asList(i, n2.apply(i), "a" + n2.apply(i)));
+            }
+
+            String plan = manager.getPlanner().translate("tblspace1",
+                    "SELECT * FROM tblspace1.t1 t1 JOIN tblspace1.t2 t2 ON t1.n1 = t2.n2",
+                    Collections.emptyList(), true, true, true, -1).plan.originalRoot.toString();
+            assertTrue(plan, plan.contains("HashJoinOp"));
+
+            // the small table is on the right or on the left, build side changes
+            assertJoin(manager, n1, n2, "SELECT t1.k1, t2.k2 FROM tblspace1.t1 t1 JOIN tblspace1.t2 t2 ON t1.n1 = t2.n2", false, false);
+            assertJoin(manager, n1, n2, "SELECT t1.k1, t2.k2 FROM tblspace1.t2 t2 JOIN tblspace1.t1 t1 ON t1.n1 = t2.n2", false, false);
+            assertJoin(manager, n1, n2, "SELECT t1.k1, t2.k2 FROM tblspace1.t1 t1 LEFT JOIN tblspace1.t2 t2 ON t1.n1 = t2.n2", true, false);
+            assertJoin(manager, n1, n2, "SELECT t1.k1, t2.k2 FROM tblspace1.t2 t2 RIGHT JOIN tblspace1.t1 t1 ON t1.n1 = t2.n2", true, false);
+            assertJoin(manager, n1, n2, "SELECT t1.k1, t2.k2 FROM tblspace1.t1 t1 RIGHT JOIN tblspace1.t2 t2 ON t1.n1 = t2.n2", false, true);
+            assertJoin(manager, n1, n2, "SELECT t1.k1, t2.k2 FROM tblspace1.t2 t2 LEFT JOIN tblspace1.t1 t1 ON t1.n1 = t2.n2", false, true);
+            assertJoin(manager, n1, n2, "SELECT t1.k1, t2.k2 FROM tblspace1.t1 t1 FULL OUTER JOIN tblspace1.t2 t2 ON t1.n1 = t2.n2", true, true);
+
+            // composite key, mixing numbers and strings
+            List<String> expected = new ArrayList<>();
+            for (int k1 = 0; k1 < LEFT_RECORDS; k1++) {
+                for (int k2 = 0; k2 < RIGHT_RECORDS; k2++) {
+                    if (n1.apply(k1) != null && Objects.equals(n1.apply(k1), n2.apply(k2))) {
+                        expected.add(k1 + "," + k2);
+                    }
+                }
+            }
+            assertEquals(sorted(expected), sorted(toPairs(scan(manager,
+                    "SELECT t1.k1, t2.k2 FROM tblspace1.t1 t1 JOIN tblspace1.t2 t2 ON t1.n1 = t2.n2 AND t1.s1 = t2.s2",
+                    Collections.emptyList()).consumeAndClose())));
+        }
+    }
+
+    @Test
+    public void joinKeysOfDifferentTypes() throws Exception {
+        try (DBManager manager = startManager(new ServerConfiguration())) {
+            execute(manager, "CREATE TABLE tblspace1.m1 (k1 int primary key,i1 int,l1 long,d1 double,t1 timestamp)", Collections.emptyList());
+            execute(manager, "CREATE TABLE tblspace1.m2 (k2 int primary key,i2 int,l2 long,d2 double,t2 timestamp)", Collections.emptyList());
+            executeUpdate(manager, "INSERT INTO tblspace1.m1(k1,i1,l1,d1,t1) values(?,?,?,?,?)", Arrays.asList(1, 1, 1L, 1.0, new Timestamp(1)));
+            executeUpdate(manager, "INSERT INTO tblspace1.m1(k1,i1,l1,d1,t1) values(?,?,?,?,?)", Arrays.asList(2, 2, 2L, 1.9, new Timestamp(2)));
+            executeUpdate(manager, "INSERT INTO tblspace1.m2(k2,i2,l2,d2,t2) values(?,?,?,?,?)", Arrays.asList(1, 1, 1L, 1.9, new Timestamp(1)));
+            executeUpdate(manager, "INSERT INTO tblspace1.m2(k2,i2,l2,d2,t2) values(?,?,?,?,?)", Arrays.asList(2, 2, 2L, 2.0, new Timestamp(1000)));
+
+            // numbers of the same kind are hashed
+            assertHashJoin(manager, "m1.i1 = m2.l2", "1,1", "2,2");
+            assertHashJoin(manager, "m1.l1 = m2.i2", "1,1", "2,2");
+            assertHashJoin(manager, "m1.t1 = m2.t2", "1,1");
+            assertHashJoin(manager, "m1.i1 = m2.l2 AND m1.t1 = m2.t2", "1,1");
+            // DOUBLE columns have no precise SQL type, integer and floating point numbers have different encodings
+            assertFalse(joinPlan(manager, "m1.d1 = m2.d2").contains("HashJoinOp"));
+            assertFalse(joinPlan(manager, "m1.d1 = m2.i2").contains("HashJoinOp"));
+            assertFalse(joinPlan(manager, "m1.i1 = m2.d2").contains("HashJoinOp"));
+        }
+    }
+
+    private static String joinPlan(DBManager manager, String condition) throws Exception {
+        return manager.getPlanner().translate("tblspace1",
+                "SELECT m1.k1, m2.k2 FROM tblspace1.m1 m1 JOIN tblspace1.m2 m2 ON " + condition,
+                Collections.emptyList(), true, true, true, -1).plan.originalRoot.toString();
+    }
+
+    private static void assertHashJoin(DBManager manager, String condition, String... expected) throws Exception {
+        String plan = joinPlan(manager, condition);
+        assertTrue(plan, plan.contains("HashJoinOp"));
+        String query = "SELECT m1.k1, m2.k2 FROM tblspace1.m1 m1 JOIN tblspace1.m2 m2 ON " + condition;
+        assertEquals(query, Arrays.asList(expected),
+                sorted(toPairs(scan(manager, query, Collections.emptyList()).consumeAndClose())));
+    }
+
+    private static void assertJoin(
+            DBManager manager, IntFunction<Integer> n1, IntFunction<Integer> n2, String query,
+            boolean preserveLeftTable, boolean preserveRightTable
+    ) throws Exception {
+        List<String> expected = new ArrayList<>();
+        boolean[] rightMatched = new boolean[RIGHT_RECORDS];
+        for (int k1 = 0; k1 < LEFT_RECORDS; k1++) {
+            boolean matched = false;
+            for (int k2 = 0; k2 < RIGHT_RECORDS; k2++) {
+                if (n1.apply(k1) != null && Objects.equals(n1.apply(k1), n2.apply(k2))) {
+                    expected.add(k1 + "," + k2);
+                    matched = true;
+                    rightMatched[k2] = true;
+                }
+            }
+            if (!matched && preserveLeftTable) {
+                expected.add(k1 + ",null");
+            }
+        }
+        if (preserveRightTable) {
+            for (int k2 = 0; k2 < RIGHT_RECORDS; k2++) {
+                if (!rightMatched[k2]) {
+                    expected.add("null," + k2);
+                }
+            }
+        }
+        List<String> actual = toPairs(scan(manager, query, Collections.emptyList()).consumeAndClose());
+        assertEquals(query, sorted(expected), sorted(actual));
+    }
+
+    private static List<String> toPairs(List<DataAccessor> rows) {
+        List<String> result = new ArrayList<>();
+        for (DataAccessor row : rows) {
+            result.add(row.get(0) + "," + row.get(1));
+        }
+        return result;
+    }
+
+    private static List<String> sorted(List<String> list) {
+        Collections.sort(list);
+        return list;
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.core;
+
+import static herddb.core.TestUtils.beginTransaction;
+import static herddb.core.TestUtils.commitTransaction;
+import static herddb.core.TestUtils.execute;
+import static herddb.core.TestUtils.executeUpdate;
+import static herddb.core.TestUtils.scan;
+import static herddb.model.TransactionContext.NO_TRANSACTION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import herddb.mem.MemoryCommitLogManager;
+import herddb.mem.MemoryDataStorageManager;
+import herddb.mem.MemoryMetadataStorageManager;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.TransactionContext;
+import herddb.model.commands.CreateTableSpaceStatement;
+import herddb.utils.DataAccessor;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Tests on joins which look up rows using the primary key or a secondary index
+ */
+public class IndexNestedLoopJoinTest {
+
+    private static String plan(DBManager manager, String query) {
+        return manager.getPlanner().translate("tblspace1", query, Collections.emptyList(),
+                true, true, true, -1).plan.originalRoot.toString();
+    }
+
+    @Test
+    public void joinOnPrimaryKeyAndSecondaryIndex() throws Exception {
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId, new MemoryMetadataStorageManager(), new MemoryDataStorageManager(),
+                new MemoryCommitLogManager(), null, null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+
+            execute(manager, "CREATE TABLE tblspace1.customers (cid int primary key,code string,name string)", Collections.emptyList());
+            execute(manager, "CREATE HASH INDEX customers_code ON tblspace1.customers(code)", Collections.emptyList());
+            execute(manager, "CREATE TABLE tblspace1.orders (oid int primary key,cid int,code string,amount int)", Collections.emptyList());
+            for (int i = 0; i < 100; i++) {
+                executeUpdate(manager, "INSERT INTO tblspace1.customers(cid,code,name) values(?,?,?)", Arrays.asList(i, "c" + i, "name" + i));
+            }
+            for (int i = 0; i < 1000; i++) {
+                // orders with cid >= 100 have no customer
+                executeUpdate(manager, "INSERT INTO tblspace1.orders(oid,cid,code,amount) values(?,?,?,?)",
+                        Arrays.asList(i, i % 110, "c" + (i % 110), i));
+            }
+            executeUpdate(manager, "INSERT INTO tblspace1.orders(oid,cid,code,amount) values(?,?,?,?)",
+                    Arrays.asList(5000, null, null, 5000));
+
+            String query = "SELECT o.oid, c.name FROM tblspace1.orders o "
+                    + "JOIN tblspace1.customers c ON o.cid = c.cid WHERE o.amount >= 900";
+            String plan = plan(manager, query);
+            assertTrue(plan, plan.contains("IndexNestedLoopJoinOp") && plan.contains("PrimaryIndexSeek"));
+            List<DataAccessor> rows = scan(manager, query, Collections.emptyList()).consumeAndClose();
+            assertEquals(90, rows.size());
+            for (DataAccessor row : rows) {
+                int oid = ((Number) row.get(0)).intValue();
+                assertEquals("name" + (oid % 110), row.get(1).toString());
+            }
+
+            query = "SELECT o.oid, c.name FROM tblspace1.orders o "
+                    + "LEFT JOIN tblspace1.customers c ON o.cid = c.cid WHERE o.amount >= 900";
+            plan = plan(manager, query);
+            assertTrue(plan, plan.contains("IndexNestedLoopJoinOp"));
+            rows = scan(manager, query, Collections.emptyList()).consumeAndClose();
+            assertEquals(101, rows.size());
+            for (DataAccessor row : rows) {
+                int oid = ((Number) row.get(0)).intValue();
+                if (oid == 5000 || oid % 110 >= 100) {
+                    assertNull(row.get(1));
+                } else {
+                    assertEquals("name" + (oid % 110), row.get(1).toString());
+                }
+            }
+
+            query = "SELECT o.oid, c.name FROM tblspace1.orders o "
+                    + "JOIN tblspace1.customers c ON o.code = c.code WHERE o.amount >= 900";
+            plan = plan(manager, query);
+            assertTrue(plan, plan.contains("IndexNestedLoopJoinOp") && plan.contains("SecondaryIndexSeek"));
+            rows = scan(manager, query, Collections.emptyList()).consumeAndClose();
+            assertEquals(90, rows.size());
+            for (DataAccessor row : rows) {
+                int oid = ((Number) row.get(0)).intValue();
+                assertEquals("name" + (oid % 110), row.get(1).toString());
+            }
+
+            // filter on the right table
+            rows = scan(manager, "SELECT o.oid, c.name FROM tblspace1.orders o "
+                    + "JOIN tblspace1.customers c ON o.cid = c.cid WHERE o.amount >= 900 AND c.name = ?",
+                    Arrays.asList("name5")).consumeAndClose();
+            assertEquals(1, rows.size());
+            assertEquals(995, ((Number) rows.get(0).get(0)).intValue());
+
+            // inside a transaction new records must be visible
+            long tx = beginTransaction(manager, "tblspace1");
+            executeUpdate(manager, "INSERT INTO tblspace1.customers(cid,code,name) values(?,?,?)",
+                    Arrays.asList(105, "c105", "name105"), new TransactionContext(tx));
+            rows = scan(manager, "SELECT o.oid, c.name FROM tblspace1.orders o "
+                    + "JOIN tblspace1.customers c ON o.cid = c.cid WHERE o.amount >= 900",
+                    Collections.emptyList(), new TransactionContext(tx)).consumeAndClose();
+            assertEquals(91, rows.size());
+            commitTransaction(manager, "tblspace1", tx);
+            rows = scan(manager, "SELECT o.oid, c.name FROM tblspace1.orders o "
+                    + "JOIN tblspace1.customers c ON o.cid = c.cid WHERE o.amount >= 900", Collections.emptyList()).consumeAndClose();
+            assertEquals(91, rows.size());
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.core;
+
+import static herddb.core.TestUtils.execute;
+import static herddb.core.TestUtils.executeUpdate;
+import static herddb.core.TestUtils.scan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import herddb.file.FileCommitLogManager;
+import herddb.file.FileDataStorageManager;
+import herddb.file.FileMetadataStorageManager;
+import herddb.model.Record;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.TransactionContext;
+import herddb.model.commands.CreateTableSpaceStatement;
+import herddb.storage.DataStorageManagerException;
+import herddb.storage.MappedPageRecords;
+import herddb.utils.DataAccessor;
+import herddb.utils.RawString;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests on ORDER BY ... LIMIT queries which read records in the order of an index
+ */
+public class IndexOrderedScanTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void orderByIndexedColumns() throws Exception {
+        Path dataPath = folder.newFolder("data").toPath();
+        Path logsPath = folder.newFolder("logs").toPath();
+        Path metadataPath = folder.newFolder("metadata").toPath();
+        Path tmoDir = folder.newFolder("tmoDir").toPath();
+
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                new FileDataStorageManager(dataPath),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null)) {
+            // many small pages, in order to check how many of them are read
+            manager.setMaxLogicalPageSize(2048);
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), TransactionContext.NO_TRANSACTION);
+            assertTrue(manager.waitForTablespace("tblspace1", 10000));
+
+            execute(manager, "CREATE TABLE tblspace1.t1 (k1 string primary key,u1 string,n1 int,l1 long)", Collections.emptyList());
+            execute(manager, "CREATE BTREE INDEX ix1 ON tblspace1.t1(u1,l1)", Collections.emptyList());
+            execute(manager, "CREATE BTREE INDEX ix2 ON tblspace1.t1(n1)", Collections.emptyList());
+            for (int i = 0; i < 500; i++) {
+                // negative numbers too, in order to cross the sign boundary
+                executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,u1,n1,l1) values(?,?,?,?)",
+                        Arrays.asList("k" + (1000 + i), "u" + (i % 5), 250 - i, (long) (i * 7 % 500) - 100));
+            }
+            manager.checkpoint();
+            executeUpdate(manager, "UPDATE tblspace1.t1 set l1=? where k1=?", Arrays.asList(10000L, "k1003"));
+            executeUpdate(manager, "DELETE FROM tblspace1.t1 where k1=?", Arrays.asList("k1008"));
+            manager.checkpoint();
+        }
+
+        AtomicInteger pageReads = new AtomicInteger();
+        FileDataStorageManager dataStorageManager = new FileDataStorageManager(dataPath) {
+            @Override
+            public List<Record> readPage(String tableSpace, String tableName, Long pageId) throws DataStorageManagerException {
+                pageReads.incrementAndGet();
+                return super.readPage(tableSpace, tableName, pageId);
+            }
+
+            @Override
+            public MappedPageRecords readMappedPage(String tableSpace, String tableName, Long pageId) throws DataStorageManagerException {
+                pageReads.incrementAndGet();
+                return super.readMappedPage(tableSpace, tableName, pageId);
+            }
+        };
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                dataStorageManager,
+                new FileCommitLogManager(logsPath),
+                tmoDir, null)) {
+            manager.setMaxLogicalPageSize(2048);
+            manager.start();
+            assertTrue(manager.waitForBootOfLocalTablespaces(10000));
+
+            // walking an index in order only the pages of the first records are read
+            int reads = pageReads.get();
+            assertEquals(Arrays.asList(10000L, 396L, 391L, 386L),
+                    values(manager, "SELECT l1 FROM tblspace1.t1 WHERE u1=? ORDER BY l1 DESC LIMIT 4", Arrays.asList("u3"), "l1"));
+            assertTrue(pageReads.get() - reads <= 4);
+            reads = pageReads.get();
+            assertEquals(Arrays.asList(-99L, -94L, -89L),
+                    values(manager, "SELECT l1 FROM tblspace1.t1 WHERE u1=? ORDER BY l1 LIMIT 3", Arrays.asList("u3"), "l1"));
+            assertTrue(pageReads.get() - reads <= 3);
+            reads = pageReads.get();
+            assertEquals(Arrays.asList(-99L, -94L, -89L),
+                    values(manager, "SELECT l1 FROM tblspace1.t1 WHERE u1=? ORDER BY u1, l1 LIMIT 3", Arrays.asList("u3"), "l1"));
+            assertTrue(pageReads.get() - reads <= 3);
+
+            reads = pageReads.get();
+            assertEquals(Arrays.asList(-249, -248, -247),
+                    values(manager, "SELECT n1 FROM tblspace1.t1 ORDER BY n1 LIMIT 3", Collections.emptyList(), "n1"));
+            assertTrue(pageReads.get() - reads <= 3);
+            reads = pageReads.get();
+            assertEquals(Arrays.asList(250, 249, 248, 247, 246, 245, 244),
+                    values(manager, "SELECT n1 FROM tblspace1.t1 ORDER BY n1 DESC LIMIT 7", Collections.emptyList(), "n1"));
+            assertTrue(pageReads.get() - reads <= 7);
+            reads = pageReads.get();
+            assertEquals(Arrays.asList(248, 247),
+                    values(manager, "SELECT n1 FROM tblspace1.t1 ORDER BY n1 DESC LIMIT 2 OFFSET 2", Collections.emptyList(), "n1"));
+            assertTrue(pageReads.get() - reads <= 4);
+            reads = pageReads.get();
+            assertEquals(Arrays.asList(-2, -1, 0, 1),
+                    values(manager, "SELECT n1 FROM tblspace1.t1 WHERE n1>=? and n1<=? ORDER BY n1", Arrays.asList(-2, 1), "n1"));
+            assertTrue(pageReads.get() - reads <= 4);
+            reads = pageReads.get();
+            assertEquals(Arrays.asList(1, 0, -1, -2),
+                    values(manager, "SELECT n1 FROM tblspace1.t1 WHERE n1>=? and n1<=? ORDER BY n1 DESC", Arrays.asList(-2, 1), "n1"));
+            assertTrue(pageReads.get() - reads <= 4);
+
+            // primary key index walked backwards
+            reads = pageReads.get();
+            assertEquals(Arrays.asList("k1499", "k1498", "k1497"),
+                    values(manager, "SELECT k1 FROM tblspace1.t1 ORDER BY k1 DESC LIMIT 3", Collections.emptyList(), "k1"));
+            assertTrue(pageReads.get() - reads <= 3);
+            reads = pageReads.get();
+            assertEquals(Arrays.asList("k1009", "k1007", "k1006"),
+                    values(manager, "SELECT k1 FROM tblspace1.t1 WHERE k1<? ORDER BY k1 DESC LIMIT 3", Arrays.asList("k1010"), "k1"));
+            assertTrue(pageReads.get() - reads <= 3);
+
+            // all the records, sorted in memory
+            List<Object> all = values(manager, "SELECT n1 FROM tblspace1.t1 ORDER BY n1 DESC", Collections.emptyList(), "n1");
+            assertEquals(499, all.size());
+            List<Object> expected = new ArrayList<>();
+            for (int i = 250; i > -250; i--) {
+                if (i != 242) {
+                    expected.add(i);
+                }
+            }
+            assertEquals(expected, all);
+            // the whole table spans much more pages than the ones read by the queries above
+            assertTrue("page reads " + pageReads.get(), pageReads.get() > 40);
+        }
+    }
+
+    private static List<Object> values(DBManager manager, String query, List<Object> parameters, String column) throws Exception {
+        List<Object> result = new ArrayList<>();
+        for (DataAccessor t : scan(manager, query, parameters).consumeAndClose()) {
+            Object value = t.get(column);
+            result.add(value instanceof RawString ? value.toString() : value);
+        }
+        return result;
+    }
+
+}
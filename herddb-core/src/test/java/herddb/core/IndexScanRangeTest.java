@@ -41,7 +41,9 @@ import herddb.model.commands.CreateTableSpaceStatement;
 import herddb.model.commands.CreateTableStatement;
 import herddb.model.commands.ScanStatement;
 import herddb.sql.TranslatedQuery;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import org.junit.Test;
 
 /**
@@ -60,6 +62,11 @@ public class IndexScanRangeTest {
         secondaryIndexPrefixScan(Index.TYPE_BRIN);
     }
 
+    @Test
+    public void btreeSecondaryIndexPrefixScan() throws Exception {
+        secondaryIndexPrefixScan(Index.TYPE_BTREE);
+    }
+
     @Test
     public void hashSecondaryIndexSeek() throws Exception {
         secondaryIndexSeek(Index.TYPE_HASH);
@@ -70,6 +77,11 @@ public class IndexScanRangeTest {
         secondaryIndexSeek(Index.TYPE_BRIN);
     }
 
+    @Test
+    public void btreeSecondaryIndexSeek() throws Exception {
+        secondaryIndexSeek(Index.TYPE_BTREE);
+    }
+
     @Test
     public void hashsecondaryIndexRangeScan() throws Exception {
         secondaryIndexRangeScan(Index.TYPE_HASH);
@@ -80,6 +92,47 @@ public class IndexScanRangeTest {
         secondaryIndexRangeScan(Index.TYPE_BRIN);
     }
 
+    @Test
+    public void btreeSecondaryIndexRangeScan() throws Exception {
+        secondaryIndexRangeScan(Index.TYPE_BTREE);
+    }
+
+    @Test
+    public void btreeSecondaryIndexRangeScanAcrossZero() throws Exception {
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager("localhost", new MemoryMetadataStorageManager(), new MemoryDataStorageManager(), new MemoryCommitLogManager(), null, null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), TransactionContext.NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+
+            TestUtils.execute(manager, "CREATE TABLE tblspace1.t1 (id string primary key, n1 int, l1 long, d1 double)", Collections.emptyList());
+            for (int i = -5; i <= 5; i++) {
+                TestUtils.executeUpdate(manager, "INSERT INTO tblspace1.t1(id,n1,l1,d1) values(?,?,?,?)",
+                        Arrays.asList("k" + i, i, i * 1000000000000L, i / 2.0));
+            }
+            TestUtils.execute(manager, "CREATE BTREE INDEX ix_n1 ON tblspace1.t1(n1)", Collections.emptyList());
+            TestUtils.execute(manager, "CREATE BTREE INDEX ix_l1 ON tblspace1.t1(l1)", Collections.emptyList());
+            TestUtils.execute(manager, "CREATE BTREE INDEX ix_d1 ON tblspace1.t1(d1)", Collections.emptyList());
+
+            assertRangeScan(manager, "SELECT * FROM tblspace1.t1 WHERE n1>=-2 and n1<=1", Collections.emptyList(), 4);
+            assertRangeScan(manager, "SELECT * FROM tblspace1.t1 WHERE n1>=-5", Collections.emptyList(), 11);
+            assertRangeScan(manager, "SELECT * FROM tblspace1.t1 WHERE n1<=-1", Collections.emptyList(), 5);
+            assertRangeScan(manager, "SELECT * FROM tblspace1.t1 WHERE l1>=? and l1<=?", Arrays.asList(-3000000000000L, 2000000000000L), 6);
+            assertRangeScan(manager, "SELECT * FROM tblspace1.t1 WHERE d1>=? and d1<=?", Arrays.asList(-1.5, 0.5), 5);
+            assertRangeScan(manager, "SELECT * FROM tblspace1.t1 WHERE d1<=?", Arrays.asList(-0.5), 5);
+        }
+    }
+
+    private static void assertRangeScan(DBManager manager, String query, List<Object> parameters, int expected) throws Exception {
+        TranslatedQuery translated = manager.getPlanner().translate(TableSpace.DEFAULT, query, parameters, true, true, false, -1);
+        ScanStatement scan = translated.plan.mainStatement.unwrap(ScanStatement.class);
+        assertTrue(query, scan.getPredicate().getIndexOperation() instanceof SecondaryIndexRangeScan);
+        try (DataScanner scan1 = manager.scan(scan, translated.context, TransactionContext.NO_TRANSACTION)) {
+            assertEquals(query, expected, scan1.consume().size());
+        }
+    }
+
     @Test
     public void hashNoIndexOperation() throws Exception {
         noIndexOperation(Index.TYPE_HASH);
@@ -90,6 +143,11 @@ public class IndexScanRangeTest {
         noIndexOperation(Index.TYPE_BRIN);
     }
 
+    @Test
+    public void btreeNoIndexOperation() throws Exception {
+        noIndexOperation(Index.TYPE_BTREE);
+    }
+
     private void secondaryIndexPrefixScan(String indexType) throws Exception {
 
         String nodeId = "localhost";
@@ -0,0 +1,255 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.core;
+
+import static herddb.core.TestUtils.beginTransaction;
+import static herddb.core.TestUtils.commitTransaction;
+import static herddb.core.TestUtils.execute;
+import static herddb.core.TestUtils.executeUpdate;
+import static herddb.core.TestUtils.scan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import herddb.file.FileCommitLogManager;
+import herddb.file.FileDataStorageManager;
+import herddb.file.FileMetadataStorageManager;
+import herddb.log.LogEntry;
+import herddb.log.LogEntryFactory;
+import herddb.log.LogEntryType;
+import herddb.mem.MemoryCommitLogManager;
+import herddb.mem.MemoryDataStorageManager;
+import herddb.mem.MemoryMetadataStorageManager;
+import herddb.model.ColumnTypes;
+import herddb.model.DMLStatementExecutionResult;
+import herddb.model.DuplicatePrimaryKeyException;
+import herddb.model.Record;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.StatementExecutionException;
+import herddb.model.Table;
+import herddb.model.TransactionContext;
+import herddb.model.commands.CreateTableSpaceStatement;
+import herddb.model.commands.InsertBatchStatement;
+import herddb.model.commands.InsertStatement;
+import herddb.server.ServerConfiguration;
+import herddb.sql.SQLStatementEvaluationContext;
+import herddb.sql.TranslatedQuery;
+import herddb.utils.Bytes;
+import herddb.utils.StripedLocalLockManager;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests on batches of inserts written with a single log entry
+ */
+public class InsertBatchTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void logEntrySerialization() throws Exception {
+        Table table = Table.builder()
+                .name("t1")
+                .column("k1", ColumnTypes.INTEGER)
+                .primaryKey("k1")
+                .build();
+        List<Record> records = Arrays.asList(
+                new Record(Bytes.from_int(1), Bytes.from_string("a")),
+                new Record(Bytes.from_int(2), Bytes.from_string("bb")));
+        LogEntry entry = LogEntryFactory.insertBatch(table, records, null);
+        LogEntry read = LogEntry.deserialize(entry.serialize());
+        assertEquals(LogEntryType.INSERT_BATCH, read.type);
+        assertEquals("t1", read.tableName);
+        Record[] batchRecords = read.getBatchRecords();
+        assertEquals(2, batchRecords.length);
+        for (int i = 0; i < batchRecords.length; i++) {
+            assertEquals(records.get(i).key, batchRecords[i].key);
+            assertEquals(records.get(i).value, batchRecords[i].value);
+        }
+    }
+
+    @Test
+    public void insertBatchAndRecovery() throws Exception {
+        Path dataPath = folder.newFolder("data").toPath();
+        Path logsPath = folder.newFolder("logs").toPath();
+        Path metadataPath = folder.newFolder("metadata").toPath();
+        Path tmoDir = folder.newFolder("tmoDir").toPath();
+
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                new FileDataStorageManager(dataPath),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), TransactionContext.NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+
+            execute(manager, "CREATE TABLE tblspace1.t1 (k1 int primary key,n1 int,s1 string)", Collections.emptyList());
+            execute(manager, "CREATE INDEX t1_n1 ON tblspace1.t1(n1)", Collections.emptyList());
+            manager.checkpoint();
+
+            /* no transaction */
+            DMLStatementExecutionResult result = executeBatch(manager, rows(0, 100), TransactionContext.NO_TRANSACTION);
+            assertEquals(100, result.getUpdateCount());
+
+            /* explicit transaction, with a DELETE-INSERT pattern */
+            long tx = beginTransaction(manager, "tblspace1");
+            executeUpdate(manager, "DELETE FROM tblspace1.t1 WHERE k1=?", Arrays.asList(5), new TransactionContext(tx));
+            executeBatch(manager, rows(100, 200), new TransactionContext(tx));
+            executeBatch(manager, Arrays.asList(Arrays.asList(5, 500, "replaced")), new TransactionContext(tx));
+            commitTransaction(manager, "tblspace1", tx);
+
+            /* auto transaction, rolled back */
+            result = executeBatch(manager, rows(200, 250), TransactionContext.AUTOTRANSACTION_TRANSACTION);
+            execute(manager, "ROLLBACK TRANSACTION 'tblspace1'," + result.transactionId, Collections.emptyList());
+
+            assertTableContents(manager);
+        }
+
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                new FileDataStorageManager(dataPath),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null)) {
+            manager.start();
+            assertTrue(manager.waitForBootOfLocalTablespaces(10000));
+            assertTableContents(manager);
+        }
+    }
+
+    @Test
+    public void duplicateKeysFailTheWholeBatch() throws Exception {
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId,
+                new MemoryMetadataStorageManager(),
+                new MemoryDataStorageManager(),
+                new MemoryCommitLogManager(),
+                null, null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), TransactionContext.NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+
+            execute(manager, "CREATE TABLE tblspace1.t1 (k1 int primary key,n1 int,s1 string)", Collections.emptyList());
+            executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,n1,s1) values(?,?,?)", Arrays.asList(50, 50, "a"));
+
+            /* duplicate inside the batch */
+            List<List<Object>> rows = rows(0, 10);
+            rows.add(Arrays.asList(3, 3, "again"));
+            try {
+                executeBatch(manager, rows, TransactionContext.NO_TRANSACTION);
+                fail();
+            } catch (DuplicatePrimaryKeyException expected) {
+            }
+            /* duplicate of an existing record */
+            try {
+                executeBatch(manager, rows(45, 55), TransactionContext.NO_TRANSACTION);
+                fail();
+            } catch (DuplicatePrimaryKeyException expected) {
+            }
+            assertEquals(1, scan(manager, "SELECT * FROM tblspace1.t1", Collections.emptyList()).consumeAndClose().size());
+
+            /* locks have been released */
+            executeBatch(manager, rows(0, 10), TransactionContext.NO_TRANSACTION);
+            assertEquals(11, scan(manager, "SELECT * FROM tblspace1.t1", Collections.emptyList()).consumeAndClose().size());
+        }
+    }
+
+    @Test
+    public void batchLocksOnCollidingStripes() throws Exception {
+        ServerConfiguration config = new ServerConfiguration();
+        config.set(ServerConfiguration.PROPERTY_TABLE_LOCK_MANAGER, ServerConfiguration.TABLE_LOCK_MANAGER_STRIPED);
+        /* Every key on the same stripe */
+        config.set(ServerConfiguration.PROPERTY_TABLE_LOCK_MANAGER_STRIPES, 1);
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId,
+                new MemoryMetadataStorageManager(),
+                new MemoryDataStorageManager(),
+                new MemoryCommitLogManager(),
+                null, null, config, null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), TransactionContext.NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+
+            execute(manager, "CREATE TABLE tblspace1.t1 (k1 int primary key,n1 int,s1 string)", Collections.emptyList());
+            TableManager table = (TableManager) manager.getTableSpaceManager("tblspace1").getTableManager("t1");
+            StripedLocalLockManager locksManager = (StripedLocalLockManager) table.getLocksManager();
+            locksManager.setWriteLockTimeout(1);
+
+            assertEquals(100, executeBatch(manager, rows(0, 100), TransactionContext.NO_TRANSACTION).getUpdateCount());
+            assertEquals(0, locksManager.getNumKeys());
+
+            /* A key locked by a transaction: the batch fails and releases the locks it got */
+            long tx = beginTransaction(manager, "tblspace1");
+            executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,n1,s1) values(?,?,?)", Arrays.asList(105, 105, "tx"), new TransactionContext(tx));
+            try {
+                executeBatch(manager, rows(100, 110), TransactionContext.NO_TRANSACTION);
+                fail();
+            } catch (Exception expected) {
+            }
+            assertEquals(1, locksManager.getNumKeys());
+            execute(manager, "ROLLBACK TRANSACTION 'tblspace1'," + tx, Collections.emptyList());
+            assertEquals(0, locksManager.getNumKeys());
+
+            assertEquals(10, executeBatch(manager, rows(100, 110), TransactionContext.NO_TRANSACTION).getUpdateCount());
+            assertEquals(110, scan(manager, "SELECT * FROM tblspace1.t1", Collections.emptyList()).consumeAndClose().size());
+        }
+    }
+
+    private static List<List<Object>> rows(int from, int to) {
+        List<List<Object>> rows = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            rows.add(Arrays.asList(i, i, "v" + i));
+        }
+        return rows;
+    }
+
+    private static DMLStatementExecutionResult executeBatch(DBManager manager, List<List<Object>> rows,
+                                                            TransactionContext transactionContext) throws StatementExecutionException {
+        String query = "INSERT INTO tblspace1.t1(k1,n1,s1) values(?,?,?)";
+        TranslatedQuery translated = manager.getPlanner().translate("tblspace1", query,
+                new ArrayList<>(rows.get(0)), false, true, false, -1);
+        List<StatementEvaluationContext> contexts = new ArrayList<>();
+        contexts.add(translated.context);
+        for (List<Object> row : rows.subList(1, rows.size())) {
+            contexts.add(new SQLStatementEvaluationContext(query, new ArrayList<>(row)));
+        }
+        InsertBatchStatement batch = new InsertBatchStatement(translated.plan.mainStatement.unwrap(InsertStatement.class), contexts);
+        return manager.executeUpdate(batch, translated.context, transactionContext);
+    }
+
+    private static void assertTableContents(DBManager manager) throws Exception {
+        assertEquals(200, scan(manager, "SELECT * FROM tblspace1.t1", Collections.emptyList()).consumeAndClose().size());
+        assertEquals(1, scan(manager, "SELECT * FROM tblspace1.t1 WHERE n1=?", Arrays.asList(150)).consumeAndClose().size());
+        assertEquals(1, scan(manager, "SELECT * FROM tblspace1.t1 WHERE n1=? and s1='replaced'", Arrays.asList(500)).consumeAndClose().size());
+        assertEquals(0, scan(manager, "SELECT * FROM tblspace1.t1 WHERE k1>=?", Arrays.asList(200)).consumeAndClose().size());
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.core;
+
+import static herddb.core.TestUtils.execute;
+import static herddb.core.TestUtils.executeUpdate;
+import static herddb.core.TestUtils.scan;
+import static herddb.model.TransactionContext.NO_TRANSACTION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import herddb.mem.MemoryCommitLogManager;
+import herddb.mem.MemoryDataStorageManager;
+import herddb.mem.MemoryMetadataStorageManager;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.commands.CreateTableSpaceStatement;
+import herddb.server.ServerConfiguration;
+import herddb.utils.DataAccessor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Tests on off-heap immutable data pages
+ */
+public class OffHeapDataPagesTest {
+
+    @Test
+    public void offHeapPagesLifecycle() throws Exception {
+        String nodeId = "localhost";
+
+        ServerConfiguration config1 = new ServerConfiguration();
+        config1.set(ServerConfiguration.PROPERTY_MEMORY_DATA_OFFHEAP, true);
+        config1.set(ServerConfiguration.PROPERTY_MAX_LOGICAL_PAGE_SIZE, 10 * 1024);
+
+        try (DBManager manager = new DBManager("localhost",
+                new MemoryMetadataStorageManager(),
+                new MemoryDataStorageManager(),
+                new MemoryCommitLogManager(),
+                null, null, config1,
+                null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+
+            execute(manager, "CREATE TABLE tblspace1.tsql (k1 string primary key,n1 int,s1 string)", Collections.emptyList());
+
+            int records = 1000;
+            for (int i = 0; i < records; i++) {
+                executeUpdate(manager, "INSERT INTO tblspace1.tsql(k1,n1,s1) values(?,?,?)",
+                        Arrays.asList("mykey" + i, i, "value" + i));
+            }
+
+            MemoryManager memoryManager = manager.getMemoryManager();
+            assertTrue(memoryManager.isOffHeapDataPages());
+
+            manager.checkpoint();
+
+            TableManager table = (TableManager) manager.getTableSpaceManager("tblspace1").getTableManager("tsql");
+
+            /* Flushed pages kept in memory are now immutable and off-heap */
+            long offHeap = 0;
+            for (DataPage page : table.getLoadedPages()) {
+                if (page.immutable) {
+                    assertTrue(page.getOffHeapUsedMemory() > 0);
+                    /* Pages are charged with real slab bytes */
+                    assertEquals(page.getOffHeapUsedMemory(), page.getUsedMemory());
+                }
+                offHeap += page.getOffHeapUsedMemory();
+            }
+            assertTrue(offHeap > 0);
+            assertEquals(offHeap, memoryManager.getOffHeapDataUsedMemory());
+
+            /* Unload everything, pages will be loaded again from storage as off-heap pages */
+            memoryManager.getDataPageReplacementPolicy().clear();
+            List<DataPage> loaded = new ArrayList<>(table.getLoadedPages());
+            for (DataPage page : loaded) {
+                if (page.immutable) {
+                    table.unload(page.pageId);
+                }
+            }
+            assertEquals(0, memoryManager.getOffHeapDataUsedMemory());
+
+            for (int i = 0; i < records; i++) {
+                List<DataAccessor> rows = scan(manager, "SELECT n1,s1 FROM tblspace1.tsql WHERE k1=?",
+                        Arrays.asList("mykey" + i)).consume();
+                assertEquals(1, rows.size());
+                assertEquals(i, rows.get(0).get("n1"));
+                assertEquals("value" + i, rows.get(0).get("s1").toString());
+            }
+            assertTrue(memoryManager.getOffHeapDataUsedMemory() > 0);
+            for (DataPage page : table.getLoadedPages()) {
+                if (page.immutable) {
+                    assertEquals(page.getOffHeapUsedMemory(), page.getUsedMemory());
+                }
+            }
+
+            assertEquals(records, scan(manager, "SELECT * FROM tblspace1.tsql", Collections.emptyList()).consume().size());
+
+            /* Mutations over off-heap pages */
+            assertEquals(1, executeUpdate(manager, "UPDATE tblspace1.tsql set n1=? where k1=?",
+                    Arrays.asList(-1, "mykey1")).getUpdateCount());
+            assertEquals(1, executeUpdate(manager, "DELETE FROM tblspace1.tsql where k1=?",
+                    Arrays.asList("mykey2")).getUpdateCount());
+
+            manager.checkpoint();
+
+            assertEquals(records - 1, scan(manager, "SELECT * FROM tblspace1.tsql", Collections.emptyList()).consume().size());
+            assertEquals(1, scan(manager, "SELECT * FROM tblspace1.tsql WHERE n1=-1", Collections.emptyList()).consume().size());
+
+            execute(manager, "TRUNCATE TABLE tblspace1.tsql", Collections.emptyList());
+            assertEquals(0, memoryManager.getOffHeapDataUsedMemory());
+        }
+    }
+
+}
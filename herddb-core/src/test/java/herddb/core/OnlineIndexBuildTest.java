@@ -0,0 +1,354 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.core;
+
+import static herddb.core.TestUtils.execute;
+import static herddb.core.TestUtils.executeUpdate;
+import static herddb.core.TestUtils.scan;
+import static herddb.model.TransactionContext.NO_TRANSACTION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import herddb.file.FileCommitLogManager;
+import herddb.file.FileDataStorageManager;
+import herddb.file.FileMetadataStorageManager;
+import herddb.index.SecondaryIndexSeek;
+import herddb.mem.MemoryCommitLogManager;
+import herddb.mem.MemoryDataStorageManager;
+import herddb.mem.MemoryMetadataStorageManager;
+import herddb.model.Index;
+import herddb.model.IndexDoesNotExistException;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.StatementExecutionException;
+import herddb.model.TableSpace;
+import herddb.model.commands.CreateTableSpaceStatement;
+import herddb.model.commands.ScanStatement;
+import herddb.sql.TranslatedQuery;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests on CREATE INDEX filling the index while DML keeps running on the tablespace
+ */
+public class OnlineIndexBuildTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void hashDmlDuringBuild() throws Exception {
+        dmlDuringBuild(Index.TYPE_HASH);
+    }
+
+    @Test
+    public void brinDmlDuringBuild() throws Exception {
+        dmlDuringBuild(Index.TYPE_BRIN);
+    }
+
+    private void dmlDuringBuild(String indexType) throws Exception {
+        Path dataPath = folder.newFolder("data").toPath();
+        Path logsPath = folder.newFolder("logs").toPath();
+        Path metadataPath = folder.newFolder("metadata").toPath();
+        Path tmoDir = folder.newFolder("tmoDir").toPath();
+
+        int records = 1000;
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                new FileDataStorageManager(dataPath),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+
+            execute(manager, "CREATE TABLE tblspace1.t1 (k1 int primary key,s1 string)", Collections.emptyList());
+            for (int i = 0; i < records; i++) {
+                executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,s1) values(?,?)", Arrays.asList(i, "v" + (i % 10)));
+            }
+
+            TableSpaceManager tableSpaceManager = manager.getTableSpaceManager("tblspace1");
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            AtomicBoolean building = new AtomicBoolean();
+            try {
+                tableSpaceManager.setBeforeOnlineIndexBuildAction(() -> {
+                    AbstractIndexManager index = tableSpaceManager.getIndexesOnTable("t1").get("ix1");
+                    building.set(index.isBuilding() && !index.isAvailable());
+                    /* DML from another thread must not wait for the build */
+                    Future<?> writes = executor.submit(() -> {
+                        executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,s1) values(?,?)", Arrays.asList(records, "new"));
+                        executeUpdate(manager, "UPDATE tblspace1.t1 set s1=? where k1=?", Arrays.asList("new", 1));
+                        executeUpdate(manager, "UPDATE tblspace1.t1 set s1=? where k1=?", Arrays.asList("v9", 2));
+                        executeUpdate(manager, "DELETE FROM tblspace1.t1 where k1=?", Arrays.asList(3));
+                        /* Scans cannot use the index yet */
+                        assertEquals(2, scan(manager, "SELECT * FROM tblspace1.t1 WHERE s1=?", Arrays.asList("new"))
+                                .consumeAndClose().size());
+                        return null;
+                    });
+                    try {
+                        writes.get(30, TimeUnit.SECONDS);
+                    } catch (Exception err) {
+                        throw new RuntimeException(err);
+                    }
+                });
+                execute(manager, "CREATE " + indexType + " INDEX ix1 ON tblspace1.t1(s1)", Collections.emptyList());
+            } finally {
+                tableSpaceManager.setBeforeOnlineIndexBuildAction(null);
+                executor.shutdown();
+            }
+            assertTrue(building.get());
+
+            AbstractIndexManager index = tableSpaceManager.getIndexesOnTable("t1").get("ix1");
+            assertFalse(index.isBuilding());
+            assertTrue(index.isAvailable());
+            assertIndexContents(manager);
+
+            manager.checkpoint();
+        }
+
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                new FileDataStorageManager(dataPath),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null)) {
+            manager.start();
+            assertTrue(manager.waitForBootOfLocalTablespaces(10000));
+            assertIndexContents(manager);
+        }
+    }
+
+    @Test
+    public void concurrentWriters() throws Exception {
+        int records = 2000;
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(folder.newFolder("metadata").toPath()),
+                new FileDataStorageManager(folder.newFolder("data").toPath()),
+                new FileCommitLogManager(folder.newFolder("logs").toPath()),
+                folder.newFolder("tmoDir").toPath(), null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+
+            execute(manager, "CREATE TABLE tblspace1.t1 (k1 int primary key,n1 int)", Collections.emptyList());
+            for (int i = 0; i < records; i++) {
+                executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,n1) values(?,?)", Arrays.asList(i, 0));
+            }
+
+            /* Every writer moves its own records from n1=0 to n1=1 */
+            int writers = 4;
+            ExecutorService executor = Executors.newFixedThreadPool(writers);
+            AtomicInteger updated = new AtomicInteger();
+            Future<?>[] results = new Future<?>[writers];
+            for (int w = 0; w < writers; w++) {
+                int writer = w;
+                results[w] = executor.submit(() -> {
+                    for (int i = writer; i < records; i += writers) {
+                        updated.addAndGet(executeUpdate(manager, "UPDATE tblspace1.t1 set n1=1 where k1=?",
+                                Arrays.asList(i)).getUpdateCount());
+                    }
+                    return null;
+                });
+            }
+            try {
+                execute(manager, "CREATE INDEX ix1 ON tblspace1.t1(n1)", Collections.emptyList());
+                for (Future<?> result : results) {
+                    result.get(60, TimeUnit.SECONDS);
+                }
+            } finally {
+                executor.shutdown();
+            }
+            assertEquals(records, updated.get());
+
+            assertEquals(0, indexedScan(manager, "SELECT * FROM tblspace1.t1 WHERE n1=0"));
+            assertEquals(records, indexedScan(manager, "SELECT * FROM tblspace1.t1 WHERE n1=1"));
+        }
+    }
+
+    @Test
+    public void dropAndCheckpointDuringBuild() throws Exception {
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(folder.newFolder("metadata").toPath()),
+                new FileDataStorageManager(folder.newFolder("data").toPath()),
+                new FileCommitLogManager(folder.newFolder("logs").toPath()),
+                folder.newFolder("tmoDir").toPath(), null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+
+            execute(manager, "CREATE TABLE tblspace1.t1 (k1 int primary key,s1 string)", Collections.emptyList());
+            for (int i = 0; i < 100; i++) {
+                executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,s1) values(?,?)", Arrays.asList(i, "v" + i));
+            }
+
+            TableSpaceManager tableSpaceManager = manager.getTableSpaceManager("tblspace1");
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                tableSpaceManager.setBeforeOnlineIndexBuildAction(() -> {
+                    /* The build does not hold the tablespace lock: checkpoints and DDL are not blocked */
+                    Future<?> ddl = executor.submit(() -> {
+                        manager.checkpoint();
+                        execute(manager, "DROP INDEX tblspace1.ix1", Collections.emptyList());
+                        return null;
+                    });
+                    try {
+                        ddl.get(30, TimeUnit.SECONDS);
+                    } catch (Exception err) {
+                        throw new RuntimeException(err);
+                    }
+                });
+                try {
+                    execute(manager, "CREATE INDEX ix1 ON tblspace1.t1(s1)", Collections.emptyList());
+                    fail();
+                } catch (IndexDoesNotExistException expected) {
+                    assertTrue(expected.getMessage().contains("dropped during online build"));
+                }
+            } finally {
+                tableSpaceManager.setBeforeOnlineIndexBuildAction(null);
+                executor.shutdown();
+            }
+            assertNull(tableSpaceManager.getIndexesOnTable("t1"));
+
+            /* The index can be created again */
+            execute(manager, "CREATE INDEX ix1 ON tblspace1.t1(s1)", Collections.emptyList());
+            assertEquals(1, indexedScan(manager, "SELECT * FROM tblspace1.t1 WHERE s1='v1'"));
+        }
+    }
+
+    @Test
+    public void truncateDoesNotDropIndex() throws Exception {
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId,
+                new MemoryMetadataStorageManager(),
+                new MemoryDataStorageManager(),
+                new MemoryCommitLogManager(),
+                null, null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+
+            execute(manager, "CREATE TABLE tblspace1.t1 (k1 int primary key,s1 string)", Collections.emptyList());
+            for (int i = 0; i < 100; i++) {
+                executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,s1) values(?,?)", Arrays.asList(i, "v" + i));
+            }
+            execute(manager, "CREATE BTREE INDEX ix1 ON tblspace1.t1(s1)", Collections.emptyList());
+
+            /* Truncation drops index data but not the index */
+            TableSpaceManager tableSpaceManager = manager.getTableSpaceManager("tblspace1");
+            execute(manager, "TRUNCATE TABLE tblspace1.t1", Collections.emptyList());
+
+            AbstractIndexManager index = tableSpaceManager.getIndexesOnTable("t1").get("ix1");
+            assertFalse(index.isDropped());
+            assertEquals(0, indexedScan(manager, "SELECT * FROM tblspace1.t1 WHERE s1='v1'"));
+            executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,s1) values(?,?)", Arrays.asList(1, "v1"));
+            assertEquals(1, indexedScan(manager, "SELECT * FROM tblspace1.t1 WHERE s1='v1'"));
+
+            execute(manager, "DROP INDEX tblspace1.ix1", Collections.emptyList());
+            assertTrue(index.isDropped());
+        }
+    }
+
+    @Test
+    public void failedBuildDropsIndex() throws Exception {
+        Path dataPath = folder.newFolder("data").toPath();
+        Path logsPath = folder.newFolder("logs").toPath();
+        Path metadataPath = folder.newFolder("metadata").toPath();
+        Path tmoDir = folder.newFolder("tmoDir").toPath();
+
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                new FileDataStorageManager(dataPath),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+
+            execute(manager, "CREATE TABLE tblspace1.t1 (k1 int primary key,s1 string)", Collections.emptyList());
+            executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,s1) values(?,?)", Arrays.asList(1, "v1"));
+
+            TableSpaceManager tableSpaceManager = manager.getTableSpaceManager("tblspace1");
+            tableSpaceManager.setBeforeOnlineIndexBuildAction(() -> {
+                throw new IllegalStateException("build failure");
+            });
+            try {
+                execute(manager, "CREATE INDEX ix1 ON tblspace1.t1(s1)", Collections.emptyList());
+                fail();
+            } catch (StatementExecutionException expected) {
+                assertTrue(expected.getCause() instanceof IllegalStateException);
+            } finally {
+                tableSpaceManager.setBeforeOnlineIndexBuildAction(null);
+            }
+            assertNull(tableSpaceManager.getIndexesOnTable("t1"));
+        }
+
+        /* DROP INDEX has been logged */
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                new FileDataStorageManager(dataPath),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null)) {
+            manager.start();
+            assertTrue(manager.waitForBootOfLocalTablespaces(10000));
+            assertNull(manager.getTableSpaceManager("tblspace1").getIndexesOnTable("t1"));
+            execute(manager, "CREATE INDEX ix1 ON tblspace1.t1(s1)", Collections.emptyList());
+            assertEquals(1, indexedScan(manager, "SELECT * FROM tblspace1.t1 WHERE s1='v1'"));
+        }
+    }
+
+    private static void assertIndexContents(DBManager manager) throws Exception {
+        assertEquals(2, indexedScan(manager, "SELECT * FROM tblspace1.t1 WHERE s1='new'"));
+        assertEquals(101, indexedScan(manager, "SELECT * FROM tblspace1.t1 WHERE s1='v9'"));
+        assertEquals(99, indexedScan(manager, "SELECT * FROM tblspace1.t1 WHERE s1='v1'"));
+        assertEquals(99, indexedScan(manager, "SELECT * FROM tblspace1.t1 WHERE s1='v2'"));
+        assertEquals(99, indexedScan(manager, "SELECT * FROM tblspace1.t1 WHERE s1='v3'"));
+        assertEquals(100, indexedScan(manager, "SELECT * FROM tblspace1.t1 WHERE s1='v4'"));
+    }
+
+    private static int indexedScan(DBManager manager, String query) throws Exception {
+        TranslatedQuery translated = manager.getPlanner().translate(TableSpace.DEFAULT, query, Collections.emptyList(), true, true, false, -1);
+        ScanStatement scan = translated.plan.mainStatement.unwrap(ScanStatement.class);
+        assertNotNull(scan.getPredicate());
+        assertTrue(scan.getPredicate().getIndexOperation() instanceof SecondaryIndexSeek);
+        return manager.scan(scan, translated.context, NO_TRANSACTION).consumeAndClose().size();
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.core;
+
+import static herddb.core.TestUtils.execute;
+import static herddb.core.TestUtils.executeUpdate;
+import static herddb.core.TestUtils.scan;
+import static herddb.model.TransactionContext.NO_TRANSACTION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import herddb.file.FileCommitLogManager;
+import herddb.file.FileDataStorageManager;
+import herddb.file.FileMetadataStorageManager;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.commands.CreateTableSpaceStatement;
+import herddb.server.ServerConfiguration;
+import herddb.utils.DataAccessor;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests on GROUP BY with partial aggregates computed in parallel and spilled to disk
+ */
+public class ParallelAggregationTest {
+
+    private static final int RECORDS = 5_000;
+    private static final int GROUPS = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parallelAggregation() throws Exception {
+        ServerConfiguration config = new ServerConfiguration();
+        config.set(ServerConfiguration.PROPERTY_SCAN_PARALLELISM, 3);
+        runAggregations(config);
+    }
+
+    @Test
+    public void spillGroups() throws Exception {
+        ServerConfiguration config = new ServerConfiguration();
+        config.set(ServerConfiguration.PROPERTY_AGGREGATE_MAX_GROUPS_IN_MEMORY, 10);
+        runAggregations(config);
+    }
+
+    @Test
+    public void parallelAggregationAndSpillGroups() throws Exception {
+        ServerConfiguration config = new ServerConfiguration();
+        config.set(ServerConfiguration.PROPERTY_SCAN_PARALLELISM, 3);
+        config.set(ServerConfiguration.PROPERTY_AGGREGATE_MAX_GROUPS_IN_MEMORY, 10);
+        runAggregations(config);
+    }
+
+    @Test
+    public void spillPartitionsLargerThanMaxGroups() throws Exception {
+        // every spilled partition holds more groups than the limit and is spilled again while merging
+        ServerConfiguration config = new ServerConfiguration();
+        config.set(ServerConfiguration.PROPERTY_AGGREGATE_MAX_GROUPS_IN_MEMORY, 2);
+        runAggregations(config);
+    }
+
+    @Test
+    public void parallelAggregationAndSpillPartitionsLargerThanMaxGroups() throws Exception {
+        ServerConfiguration config = new ServerConfiguration();
+        config.set(ServerConfiguration.PROPERTY_SCAN_PARALLELISM, 3);
+        config.set(ServerConfiguration.PROPERTY_AGGREGATE_MAX_GROUPS_IN_MEMORY, 2);
+        runAggregations(config);
+    }
+
+    private void runAggregations(ServerConfiguration config) throws Exception {
+        Path dataPath = folder.newFolder("data").toPath();
+        Path logsPath = folder.newFolder("logs").toPath();
+        Path metadataPath = folder.newFolder("metadata").toPath();
+        Path tmoDir = folder.newFolder("tmoDir").toPath();
+
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                /* swap record sets to disk early */
+                new FileDataStorageManager(dataPath, tmoDir, 10,
+                        ServerConfiguration.PROPERTY_REQUIRE_FSYNC_DEFAULT,
+                        false, false, NullStatsLogger.INSTANCE),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null, config, null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+
+            execute(manager, "CREATE TABLE tblspace1.tsql (k1 int primary key,g1 int,s1 string,n1 int)", Collections.emptyList());
+            for (int i = 0; i < RECORDS; i++) {
+                executeUpdate(manager, "INSERT INTO tblspace1.tsql(k1,g1,s1,n1) values(?,?,?,?)",
+                        Arrays.asList(i, i % GROUPS, "group" + (i % GROUPS), i));
+            }
+
+            List<DataAccessor> rows = scan(manager, "SELECT g1, COUNT(*), SUM(n1), MIN(n1), MAX(n1) "
+                    + "FROM tblspace1.tsql GROUP BY g1", Collections.emptyList()).consumeAndClose();
+            assertEquals(GROUPS, rows.size());
+            Set<Integer> groups = new HashSet<>();
+            for (DataAccessor row : rows) {
+                int g1 = ((Number) row.get(0)).intValue();
+                groups.add(g1);
+                int count = RECORDS / GROUPS;
+                assertEquals((long) count, ((Number) row.get(1)).longValue());
+                // sum of g1, g1 + GROUPS, ... g1 + (count - 1) * GROUPS
+                assertEquals((long) count * g1 + (long) GROUPS * count * (count - 1) / 2, ((Number) row.get(2)).longValue());
+                assertEquals(g1, ((Number) row.get(3)).intValue());
+                assertEquals(g1 + (count - 1) * GROUPS, ((Number) row.get(4)).intValue());
+            }
+            assertEquals(GROUPS, groups.size());
+
+            rows = scan(manager, "SELECT s1, COUNT(*) FROM tblspace1.tsql WHERE n1 >= ? GROUP BY s1",
+                    Arrays.asList(RECORDS / 2)).consumeAndClose();
+            assertEquals(GROUPS, rows.size());
+            for (DataAccessor row : rows) {
+                assertEquals((long) RECORDS / GROUPS / 2, ((Number) row.get(1)).longValue());
+            }
+
+            rows = scan(manager, "SELECT COUNT(*), SUM(n1), MAX(n1) FROM tblspace1.tsql", Collections.emptyList()).consumeAndClose();
+            assertEquals(1, rows.size());
+            assertEquals((long) RECORDS, ((Number) rows.get(0).get(0)).longValue());
+            assertEquals((long) RECORDS * (RECORDS - 1) / 2, ((Number) rows.get(0).get(1)).longValue());
+            assertEquals(RECORDS - 1, ((Number) rows.get(0).get(2)).intValue());
+
+            rows = scan(manager, "SELECT COUNT(*), MAX(n1) FROM tblspace1.tsql WHERE n1 < 0", Collections.emptyList()).consumeAndClose();
+            assertEquals(1, rows.size());
+            assertEquals(0L, ((Number) rows.get(0).get(0)).longValue());
+            assertNull(rows.get(0).get(1));
+        }
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.core;
+
+import static herddb.core.TestUtils.beginTransaction;
+import static herddb.core.TestUtils.commitTransaction;
+import static herddb.core.TestUtils.execute;
+import static herddb.core.TestUtils.executeUpdate;
+import static herddb.core.TestUtils.scan;
+import static herddb.model.TransactionContext.NO_TRANSACTION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import herddb.file.FileCommitLogManager;
+import herddb.file.FileDataStorageManager;
+import herddb.file.FileMetadataStorageManager;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.TransactionContext;
+import herddb.model.commands.CreateTableSpaceStatement;
+import herddb.server.ServerConfiguration;
+import herddb.utils.DataAccessor;
+import herddb.utils.RawString;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests on table scans executed in parallel over data pages
+ */
+public class ParallelTableScanTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parallelScans() throws Exception {
+        Path dataPath = folder.newFolder("data").toPath();
+        Path logsPath = folder.newFolder("logs").toPath();
+        Path metadataPath = folder.newFolder("metadata").toPath();
+        Path tmoDir = folder.newFolder("tmoDir").toPath();
+
+        ServerConfiguration config1 = new ServerConfiguration();
+        config1.set(ServerConfiguration.PROPERTY_MAX_LOGICAL_PAGE_SIZE, 10 * 1024);
+        config1.set(ServerConfiguration.PROPERTY_SCAN_PARALLELISM, 3);
+        config1.set(ServerConfiguration.PROPERTY_SCAN_PARALLELISM_MAX_PER_STATEMENT, 4);
+        config1.set(ServerConfiguration.PROPERTY_SCAN_PARALLELISM_MIN_PAGES, 2);
+
+        int records = 3000;
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                new FileDataStorageManager(dataPath),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null, config1, null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+
+            execute(manager, "CREATE TABLE tblspace1.tsql (k1 string primary key,n1 int,s1 string)", Collections.emptyList());
+
+            long sum = 0;
+            for (int i = 0; i < records; i++) {
+                executeUpdate(manager, "INSERT INTO tblspace1.tsql(k1,n1,s1) values(?,?,?)",
+                        Arrays.asList("mykey" + i, i, "value" + i));
+                if (i >= 1000) {
+                    sum += i;
+                }
+            }
+
+            manager.checkpoint();
+
+            TableManager table = (TableManager) manager.getTableSpaceManager("tblspace1").getTableManager("tsql");
+
+            /* Unload everything, pages will be loaded again by scan partitions */
+            manager.getMemoryManager().getDataPageReplacementPolicy().clear();
+            List<DataPage> loaded = new ArrayList<>(table.getLoadedPages());
+            for (DataPage page : loaded) {
+                if (page.immutable) {
+                    table.unload(page.pageId);
+                }
+            }
+            assertEquals(0, table.getParallelScansCount());
+
+            List<DataAccessor> all = scan(manager, "SELECT k1,n1 FROM tblspace1.tsql", Collections.emptyList()).consumeAndClose();
+            assertEquals(records, all.size());
+            Set<Integer> values = new HashSet<>();
+            for (DataAccessor row : all) {
+                int n1 = (Integer) row.get("n1");
+                assertEquals(RawString.of("mykey" + n1), row.get("k1"));
+                values.add(n1);
+            }
+            assertEquals(records, values.size());
+            assertTrue(table.getParallelScansCount() > 0);
+
+            List<DataAccessor> aggregate = scan(manager, "SELECT COUNT(*) as cc, SUM(n1) as ss FROM tblspace1.tsql WHERE n1>=?",
+                    Arrays.asList(1000)).consumeAndClose();
+            assertEquals(1, aggregate.size());
+            assertEquals(Long.valueOf(records - 1000), aggregate.get(0).get("cc"));
+            assertEquals(Long.valueOf(sum), aggregate.get(0).get("ss"));
+
+            List<DataAccessor> top = scan(manager, "SELECT * FROM tblspace1.tsql ORDER BY n1 DESC LIMIT 5",
+                    Collections.emptyList()).consumeAndClose();
+            assertEquals(5, top.size());
+            for (int i = 0; i < 5; i++) {
+                assertEquals(records - 1 - i, top.get(i).get("n1"));
+            }
+
+            assertEquals(10, scan(manager, "SELECT * FROM tblspace1.tsql LIMIT 10", Collections.emptyList()).consumeAndClose().size());
+            assertEquals(1, scan(manager, "SELECT * FROM tblspace1.tsql WHERE s1=?", Arrays.asList("value15")).consumeAndClose().size());
+
+            /* Mutations not yet flushed to disk */
+            assertEquals(1, executeUpdate(manager, "UPDATE tblspace1.tsql set n1=? where k1=?",
+                    Arrays.asList(-1, "mykey1")).getUpdateCount());
+            assertEquals(1, executeUpdate(manager, "DELETE FROM tblspace1.tsql where k1=?",
+                    Arrays.asList("mykey2")).getUpdateCount());
+            assertEquals(records - 1, scan(manager, "SELECT * FROM tblspace1.tsql", Collections.emptyList()).consumeAndClose().size());
+            assertEquals(1, scan(manager, "SELECT * FROM tblspace1.tsql WHERE n1=-1", Collections.emptyList()).consumeAndClose().size());
+
+            /* Scans inside a transaction are never executed in parallel */
+            long parallelScans = table.getParallelScansCount();
+            long tx = beginTransaction(manager, "tblspace1");
+            executeUpdate(manager, "INSERT INTO tblspace1.tsql(k1,n1,s1) values(?,?,?)",
+                    Arrays.asList("newkey", -2, "new"), new TransactionContext(tx));
+            assertEquals(records, scan(manager, "SELECT * FROM tblspace1.tsql", Collections.emptyList(),
+                    new TransactionContext(tx)).consumeAndClose().size());
+            commitTransaction(manager, "tblspace1", tx);
+            assertEquals(parallelScans, table.getParallelScansCount());
+        }
+    }
+
+    @Test
+    public void disabledByDefault() throws Exception {
+        try (DBManager manager = new DBManager("localhost",
+                new herddb.mem.MemoryMetadataStorageManager(),
+                new herddb.mem.MemoryDataStorageManager(),
+                new herddb.mem.MemoryCommitLogManager(), null, null)) {
+            assertNull(manager.getParallelScanPool());
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.core;
+
+import static herddb.core.TestUtils.beginTransaction;
+import static herddb.core.TestUtils.commitTransaction;
+import static herddb.core.TestUtils.execute;
+import static herddb.core.TestUtils.executeUpdate;
+import static herddb.core.TestUtils.scan;
+import static herddb.model.TransactionContext.NO_TRANSACTION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import herddb.mem.MemoryCommitLogManager;
+import herddb.mem.MemoryDataStorageManager;
+import herddb.mem.MemoryMetadataStorageManager;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.TransactionContext;
+import herddb.model.commands.CreateTableSpaceStatement;
+import herddb.server.ServerConfiguration;
+import herddb.utils.StripedLocalLockManager;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+/**
+ * Tests on tables using the striped row lock manager
+ */
+public class StripedLockManagerTest {
+
+    @Test
+    public void transactionsOnCollidingKeys() throws Exception {
+        String nodeId = "localhost";
+
+        ServerConfiguration config1 = new ServerConfiguration();
+        config1.set(ServerConfiguration.PROPERTY_TABLE_LOCK_MANAGER, ServerConfiguration.TABLE_LOCK_MANAGER_STRIPED);
+        /* Every key shares the same stripe */
+        config1.set(ServerConfiguration.PROPERTY_TABLE_LOCK_MANAGER_STRIPES, 1);
+
+        try (DBManager manager = new DBManager("localhost",
+                new MemoryMetadataStorageManager(),
+                new MemoryDataStorageManager(),
+                new MemoryCommitLogManager(),
+                null, null, config1,
+                null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+
+            execute(manager, "CREATE TABLE tblspace1.tsql (k1 string primary key,n1 int)", Collections.emptyList());
+
+            TableManager table = (TableManager) manager.getTableSpaceManager("tblspace1").getTableManager("tsql");
+            assertTrue(table.getLocksManager() instanceof StripedLocalLockManager);
+
+            for (int i = 0; i < 10; i++) {
+                executeUpdate(manager, "INSERT INTO tblspace1.tsql(k1,n1) values(?,?)", Arrays.asList("mykey" + i, i));
+            }
+
+            /* Reads, writes and upgrades of different keys on the same stripe within a transaction */
+            long tx = beginTransaction(manager, "tblspace1");
+            TransactionContext context = new TransactionContext(tx);
+            assertEquals(1, scan(manager, "SELECT * FROM tblspace1.tsql WHERE k1=?", Arrays.asList("mykey1"), context).consumeAndClose().size());
+            assertEquals(1, scan(manager, "SELECT * FROM tblspace1.tsql WHERE k1=?", Arrays.asList("mykey2"), context).consumeAndClose().size());
+            assertEquals(1, executeUpdate(manager, "UPDATE tblspace1.tsql set n1=? where k1=?", Arrays.asList(-1, "mykey3"), context).getUpdateCount());
+            assertEquals(1, executeUpdate(manager, "UPDATE tblspace1.tsql set n1=? where k1=?", Arrays.asList(-1, "mykey1"), context).getUpdateCount());
+            assertEquals(1, executeUpdate(manager, "DELETE FROM tblspace1.tsql where k1=?", Arrays.asList("mykey4"), context).getUpdateCount());
+            assertEquals(1, executeUpdate(manager, "INSERT INTO tblspace1.tsql(k1,n1) values(?,?)", Arrays.asList("mykey100", 100), context).getUpdateCount());
+            assertEquals(10, scan(manager, "SELECT * FROM tblspace1.tsql", Collections.emptyList(), context).consumeAndClose().size());
+            assertTrue(table.getLocksManager().getNumKeys() > 0);
+            commitTransaction(manager, "tblspace1", tx);
+
+            assertEquals(0, table.getLocksManager().getNumKeys());
+            assertEquals(2, scan(manager, "SELECT * FROM tblspace1.tsql WHERE n1=-1", Collections.emptyList()).consumeAndClose().size());
+
+            /* Non transactional statements */
+            assertEquals(1, executeUpdate(manager, "UPDATE tblspace1.tsql set n1=? where k1=?", Arrays.asList(5, "mykey5")).getUpdateCount());
+            assertEquals(10, scan(manager, "SELECT * FROM tblspace1.tsql", Collections.emptyList()).consumeAndClose().size());
+            assertEquals(0, table.getLocksManager().getNumKeys());
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.core;
+
+import static herddb.core.TestUtils.beginTransaction;
+import static herddb.core.TestUtils.commitTransaction;
+import static herddb.core.TestUtils.execute;
+import static herddb.core.TestUtils.executeUpdate;
+import static herddb.core.TestUtils.scan;
+import static herddb.model.TransactionContext.NO_TRANSACTION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import herddb.file.FileCommitLogManager;
+import herddb.file.FileDataStorageManager;
+import herddb.file.FileMetadataStorageManager;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.TransactionContext;
+import herddb.model.commands.CreateTableSpaceStatement;
+import herddb.server.ServerConfiguration;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests on zone maps of data pages, scans skip pages which cannot match the WHERE clause
+ */
+public class ZoneMapsTest {
+
+    private static final long START = 1_500_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rangeScansSkipPages() throws Exception {
+        Path dataPath = folder.newFolder("data").toPath();
+        Path logsPath = folder.newFolder("logs").toPath();
+        Path metadataPath = folder.newFolder("metadata").toPath();
+        Path tmoDir = folder.newFolder("tmoDir").toPath();
+
+        ServerConfiguration config1 = new ServerConfiguration();
+        config1.set(ServerConfiguration.PROPERTY_MAX_LOGICAL_PAGE_SIZE, 10 * 1024);
+        config1.set(ServerConfiguration.PROPERTY_TABLE_ZONE_MAPS_COLUMNS, "ts, tsql.n1");
+
+        int records = 2000;
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                new FileDataStorageManager(dataPath),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null, config1, null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+
+            execute(manager, "CREATE TABLE tblspace1.tsql (k1 string primary key,n1 int,ts timestamp,s1 string)", Collections.emptyList());
+
+            for (int i = 0; i < records; i++) {
+                executeUpdate(manager, "INSERT INTO tblspace1.tsql(k1,n1,ts,s1) values(?,?,?,?)",
+                        Arrays.asList("mykey" + i, i % 10 == 0 ? null : i, new Timestamp(START + i * 1000L), "value" + i));
+            }
+            manager.checkpoint();
+
+            TableManager table = (TableManager) manager.getTableSpaceManager("tblspace1").getTableManager("tsql");
+            assertEquals(0, table.getPrunedPagesCount());
+
+            assertRanges(manager, table, records);
+
+            /* Updated records move to new pages, old pages become dirty */
+            executeUpdate(manager, "UPDATE tblspace1.tsql set ts=?, n1=? where k1=?",
+                    Arrays.asList(new Timestamp(START), 1, "mykey1999"));
+            assertEquals(2, scan(manager, "SELECT * FROM tblspace1.tsql WHERE ts<=?",
+                    Arrays.asList(new Timestamp(START))).consumeAndClose().size());
+            assertEquals(1, scan(manager, "SELECT * FROM tblspace1.tsql WHERE n1>=? and n1<?",
+                    Arrays.asList(1998, 2000)).consumeAndClose().size());
+
+            /* Records changed by a transaction are not in the pages */
+            long tx = beginTransaction(manager, "tblspace1");
+            executeUpdate(manager, "UPDATE tblspace1.tsql set n1=? where k1=?",
+                    Arrays.asList(100_000, "mykey5"), new TransactionContext(tx));
+            assertEquals(1, scan(manager, "SELECT * FROM tblspace1.tsql WHERE n1>? and n1<?",
+                    Arrays.asList(99_999, 200_000), new TransactionContext(tx)).consumeAndClose().size());
+            commitTransaction(manager, "tblspace1", tx);
+            assertEquals(1, scan(manager, "SELECT * FROM tblspace1.tsql WHERE n1>? and n1<?",
+                    Arrays.asList(99_999, 200_000)).consumeAndClose().size());
+
+            executeUpdate(manager, "UPDATE tblspace1.tsql set ts=?, n1=? where k1=?",
+                    Arrays.asList(new Timestamp(START + 1999 * 1000L), 1999, "mykey1999"));
+            executeUpdate(manager, "UPDATE tblspace1.tsql set n1=? where k1=?",
+                    Arrays.asList(5, "mykey5"));
+            manager.checkpoint();
+        }
+
+        /* Zone maps are stored within the status of the table */
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                new FileDataStorageManager(dataPath),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null, config1, null)) {
+            manager.start();
+            assertTrue(manager.waitForBootOfLocalTablespaces(10000));
+            TableManager table = (TableManager) manager.getTableSpaceManager("tblspace1").getTableManager("tsql");
+            assertEquals(0, table.getPrunedPagesCount());
+            assertRanges(manager, table, records);
+        }
+    }
+
+    private static void assertRanges(DBManager manager, TableManager table, int records) throws Exception {
+        long pruned = table.getPrunedPagesCount();
+        List<Object> lastMinute = new ArrayList<>();
+        lastMinute.add(new Timestamp(START + (records - 60) * 1000L));
+        assertEquals(60, scan(manager, "SELECT * FROM tblspace1.tsql WHERE ts>=?", lastMinute).consumeAndClose().size());
+        assertTrue(table.getPrunedPagesCount() > pruned);
+
+        pruned = table.getPrunedPagesCount();
+        assertEquals(10, scan(manager, "SELECT * FROM tblspace1.tsql WHERE n1>=? and n1<?",
+                Arrays.asList(501, 512)).consumeAndClose().size());
+        assertTrue(table.getPrunedPagesCount() > pruned);
+
+        /* NULL values are summarized too */
+        assertEquals(records / 10, scan(manager, "SELECT * FROM tblspace1.tsql WHERE n1 IS NULL",
+                Collections.emptyList()).consumeAndClose().size());
+        assertEquals(records - records / 10, scan(manager, "SELECT * FROM tblspace1.tsql WHERE n1 IS NOT NULL",
+                Collections.emptyList()).consumeAndClose().size());
+
+        /* Columns without zone maps */
+        assertEquals(1, scan(manager, "SELECT * FROM tblspace1.tsql WHERE s1=?",
+                Arrays.asList("value15")).consumeAndClose().size());
+        assertEquals(records, scan(manager, "SELECT * FROM tblspace1.tsql", Collections.emptyList()).consumeAndClose().size());
+    }
+
+}
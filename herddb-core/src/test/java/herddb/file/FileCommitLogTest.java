@@ -32,7 +32,12 @@ import herddb.log.LogEntryFactory;
 import herddb.log.LogSequenceNumber;
 import herddb.server.ServerConfiguration;
 import herddb.utils.TestUtils;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
@@ -546,4 +551,121 @@ public class FileCommitLogTest {
             System.out.println("Read time: " + (_endRead - _endWrite) + " ms");
         }
     }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        TestStatsProvider testStatsProvider = new TestStatsProvider();
+        TestStatsProvider.TestStatsLogger statsLogger = testStatsProvider.getStatsLogger("test");
+        try (FileCommitLogManager manager = new FileCommitLogManager(
+                folder.newFolder().toPath(),
+                ServerConfiguration.PROPERTY_MAX_LOG_FILE_SIZE_DEFAULT,
+                ServerConfiguration.PROPERTY_MAX_UNSYNCHED_BATCH_DEFAULT,
+                ServerConfiguration.PROPERTY_MAX_UNSYNCHED_BATCH_BYTES_DEFAULT,
+                ServerConfiguration.PROPERTY_MAX_SYNC_TIME_DEFAULT,
+                true /* require fsync */,
+                false, /* O_DIRECT */
+                ServerConfiguration.PROPERTY_DEFERRED_SYNC_PERIOD_DEFAULT,
+                true /* group commit */,
+                statsLogger)) {
+            manager.start();
+
+            final int threads = 8;
+            final int entriesPerThread = 500;
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try (FileCommitLog log = manager.createCommitLog("tt", "aa", "nodeid")) {
+                log.startWriting();
+                List<Future<?>> writers = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    final int thread = t;
+                    writers.add(executor.submit(() -> {
+                        LogSequenceNumber last = null;
+                        for (int i = 0; i < entriesPerThread; i++) {
+                            LogSequenceNumber lsn = log.log(LogEntryFactory.beginTransaction(thread * entriesPerThread + i + 1), true)
+                                    .getLogSequenceNumber();
+                            assertTrue(last == null || lsn.after(last));
+                            last = lsn;
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> writer : writers) {
+                    writer.get();
+                }
+                assertEquals(0, log.getQueueSize());
+            } finally {
+                executor.shutdown();
+            }
+
+            long syncedEntries = ((TestStatsProvider.TestOpStatsLogger) statsLogger.scope("aa")
+                    .getOpStatsLogger("entrySyncLatency")).getSuccessCount();
+            long syncBatches = ((TestStatsProvider.TestOpStatsLogger) statsLogger.scope("aa")
+                    .getOpStatsLogger("syncBatchSize")).getSuccessCount();
+            System.out.println("Synced " + syncedEntries + " entries with " + syncBatches + " fsyncs");
+            assertEquals(threads * entriesPerThread, syncedEntries);
+
+            boolean[] seen = new boolean[threads * entriesPerThread + 1];
+            AtomicInteger readCount = new AtomicInteger();
+            try (CommitLog log = manager.createCommitLog("tt", "aa", "nodeid")) {
+                log.recovery(LogSequenceNumber.START_OF_TIME, new BiConsumer<LogSequenceNumber, LogEntry>() {
+                    private LogSequenceNumber last;
+
+                    @Override
+                    public void accept(LogSequenceNumber t, LogEntry u) {
+                        assertTrue(last == null || t.after(last));
+                        last = t;
+                        assertFalse(seen[(int) u.transactionId]);
+                        seen[(int) u.transactionId] = true;
+                        readCount.incrementAndGet();
+                    }
+                }, true);
+            }
+            assertEquals(threads * entriesPerThread, readCount.get());
+        }
+    }
+
+    @Test
+    public void testGroupCommitMultiFiles() throws Exception {
+        TestStatsProvider testStatsProvider = new TestStatsProvider();
+        TestStatsProvider.TestStatsLogger statsLogger = testStatsProvider.getStatsLogger("test");
+
+        try (FileCommitLogManager manager = new FileCommitLogManager(
+                folder.newFolder().toPath(),
+                1024 * 2, // 2K Bbyte files,
+                ServerConfiguration.PROPERTY_MAX_UNSYNCHED_BATCH_DEFAULT,
+                ServerConfiguration.PROPERTY_MAX_UNSYNCHED_BATCH_BYTES_DEFAULT,
+                ServerConfiguration.PROPERTY_MAX_SYNC_TIME_DEFAULT,
+                false,
+                false, /* O_DIRECT */
+                ServerConfiguration.PROPERTY_DEFERRED_SYNC_PERIOD_DEFAULT,
+                true /* group commit */,
+                statsLogger)) {
+            manager.start();
+
+            int writeCount = 0;
+            try (FileCommitLog log = manager.createCommitLog("tt", "aa", "nodeid")) {
+                log.startWriting();
+                for (int i = 0; i < 10_000; i++) {
+                    log.log(LogEntryFactory.beginTransaction(0), false);
+                    writeCount++;
+                }
+                TestUtils.waitForCondition(() -> {
+                    int qsize = log.getQueueSize();
+                    return qsize == 0;
+                }, TestUtils.NOOP, 100);
+            }
+            AtomicInteger readCount = new AtomicInteger();
+            try (CommitLog log = manager.createCommitLog("tt", "aa", "nodeid")) {
+                log.recovery(LogSequenceNumber.START_OF_TIME, new BiConsumer<LogSequenceNumber, LogEntry>() {
+                    @Override
+                    public void accept(LogSequenceNumber t, LogEntry u) {
+                        readCount.incrementAndGet();
+                    }
+                }, true);
+            }
+            assertEquals(writeCount, readCount.get());
+
+            // same files as with the standard writer
+            assertEquals(145L, statsLogger.scope("aa").getCounter("newfiles").get().longValue());
+        }
+    }
 }
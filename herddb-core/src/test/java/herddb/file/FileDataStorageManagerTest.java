@@ -22,10 +22,26 @@ package herddb.file;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import herddb.model.Record;
+import herddb.server.ServerConfiguration;
+import herddb.storage.DataStorageManagerException;
+import herddb.storage.MappedPageRecords;
 import herddb.utils.Bytes;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.bookkeeper.stats.NullStatsLogger;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -63,4 +79,58 @@ public class FileDataStorageManagerTest {
         }
     }
 
+    @Test
+    public void testReadMappedDataPage() throws Exception {
+        Path baseDirectory = folder.newFolder().toPath();
+        try (FileDataStorageManager man = new FileDataStorageManager(baseDirectory, baseDirectory.resolve("tmp"),
+                ServerConfiguration.PROPERTY_DISK_SWAP_MAX_RECORDS_DEFAULT,
+                ServerConfiguration.PROPERTY_REQUIRE_FSYNC_DEFAULT,
+                false, false, true /* mmap */, NullStatsLogger.INSTANCE)) {
+            man.start();
+            List<Record> page = new ArrayList<>();
+            Map<Bytes, Record> expected = new HashMap<>();
+            for (int i = 0; i < 1000; i++) {
+                Record record = new Record(Bytes.from_string("key" + i), Bytes.from_string(i % 10 == 0 ? "" : "value" + i));
+                page.add(record);
+                expected.put(record.key, record);
+            }
+            man.initTable("test1", "table1");
+            man.writePage("test1", "table1", 1L, page);
+
+            MappedPageRecords mapped = man.readMappedPage("test1", "table1", 1L);
+            assertEquals(page.size(), mapped.size());
+            assertTrue(mapped.getEstimatedSize() > 0);
+            for (Record record : page) {
+                assertTrue(mapped.containsKey(record.key));
+                assertEquals(record, mapped.get(Bytes.from_string(record.key.to_string())));
+            }
+            assertNull(mapped.get(Bytes.from_string("missing")));
+            assertFalse(mapped.containsKey(Bytes.from_string("missing")));
+            assertEquals(expected, mapped);
+            assertEquals(expected, new HashMap<>(mapped));
+
+            /* Corrupt page data */
+            Path pageFile;
+            try (Stream<Path> files = Files.walk(baseDirectory)) {
+                pageFile = files.filter(p -> p.toString().endsWith(FileDataStorageManager.FILEEXTENSION_PAGE))
+                        .collect(Collectors.toList()).get(0);
+            }
+            byte[] data = Files.readAllBytes(pageFile);
+            data[data.length / 2]++;
+            Files.write(pageFile, data, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                man.readMappedPage("test1", "table1", 1L);
+                fail();
+            } catch (DataStorageManagerException err) {
+                assertTrue(err.getMessage().contains("Bad hash"));
+            }
+        }
+
+        try (FileDataStorageManager man = new FileDataStorageManager(folder.newFolder().toPath())) {
+            man.initTable("test1", "table1");
+            man.writePage("test1", "table1", 1L, Arrays.asList(new Record(Bytes.from_int(1), Bytes.from_int(2))));
+            assertNull(man.readMappedPage("test1", "table1", 1L));
+        }
+    }
+
 }
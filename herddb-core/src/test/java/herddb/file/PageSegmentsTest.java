@@ -0,0 +1,117 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests on segment files of data pages
+ */
+public class PageSegmentsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] pageData(long pageId) {
+        byte[] data = new byte[1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (pageId + i);
+        }
+        return data;
+    }
+
+    @Test
+    public void concurrentReadsAndReleases() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        int readers = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(readers);
+        /* One page per segment: releasing a page deletes its segment */
+        try (PageSegments segments = PageSegments.open(directory, 1, false)) {
+            segments.write(1, pageData(1), 0, 1024);
+            for (long pageId = 1; pageId <= 500; pageId++) {
+                // the current segment is never deleted, write the next page
+                segments.write(pageId + 1, pageData(pageId + 1), 0, 1024);
+
+                final long page = pageId;
+                AtomicBoolean released = new AtomicBoolean();
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < readers; i++) {
+                    final boolean mapped = i % 2 == 0;
+                    futures.add(executor.submit(() -> {
+                        while (true) {
+                            /* The page is read completely or it is not found, never a closed file */
+                            if (mapped) {
+                                MappedByteBuffer buffer = segments.map(page);
+                                if (buffer == null) {
+                                    assertTrue(released.get());
+                                    return null;
+                                }
+                                byte[] data = new byte[buffer.remaining()];
+                                buffer.get(data);
+                                assertArrayEquals(pageData(page), data);
+                            } else {
+                                byte[] data = segments.read(page);
+                                if (data == null) {
+                                    assertTrue(released.get());
+                                    return null;
+                                }
+                                assertArrayEquals(pageData(page), data);
+                            }
+                        }
+                    }));
+                }
+                released.set(true);
+                segments.release(page);
+                for (Future<?> future : futures) {
+                    future.get(1, TimeUnit.MINUTES);
+                }
+                assertNull(segments.read(page));
+            }
+
+            /* Segments without live pages have been deleted once their reads completed */
+            assertEquals(1, segments.getSegmentsCount());
+            try (Stream<Path> files = Files.list(directory)) {
+                assertEquals(1, files.count());
+            }
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+}
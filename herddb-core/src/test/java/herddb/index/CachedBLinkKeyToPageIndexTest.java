@@ -0,0 +1,217 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import herddb.core.MemoryManager;
+import herddb.index.blink.BLinkKeyToPageIndex;
+import herddb.index.blink.KeyToPageLookasideCache;
+import herddb.log.LogSequenceNumber;
+import herddb.mem.MemoryDataStorageManager;
+import herddb.utils.Bytes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * Test suite for {@link BLinkKeyToPageIndex} with a {@link KeyToPageLookasideCache}
+ */
+public class CachedBLinkKeyToPageIndexTest extends KeyToPageIndexTest {
+
+    private static MemoryManager createMemoryManager() {
+        return new MemoryManager(5 * (1L << 20), 10 * (128L << 10), (128L << 10), false, 256L << 10);
+    }
+
+    @Override
+    KeyToPageIndex createIndex() {
+        return new BLinkKeyToPageIndex("tblspc", "tbl", createMemoryManager(), new MemoryDataStorageManager());
+    }
+
+    @Test
+    public void cachedMappingsFollowIndexChanges() {
+        MemoryManager mem = createMemoryManager();
+        KeyToPageLookasideCache cache = mem.getPKLookasideCache();
+        try (BLinkKeyToPageIndex index = new BLinkKeyToPageIndex("tblspc", "tbl", mem, new MemoryDataStorageManager())) {
+            index.start(LogSequenceNumber.START_OF_TIME);
+
+            int entries = 1000;
+            for (int i = 0; i < entries; i++) {
+                index.put(Bytes.from_int(i), 1L);
+            }
+            /* Writes don't populate the cache */
+            assertEquals(0, cache.size());
+
+            for (int i = 0; i < entries; i++) {
+                assertEquals(Long.valueOf(1L), index.get(Bytes.from_int(i)));
+            }
+            assertEquals(entries, cache.getMisses());
+            for (int i = 0; i < entries; i++) {
+                assertEquals(Long.valueOf(1L), index.get(Bytes.from_int(i)));
+                assertTrue(index.containsKey(Bytes.from_int(i)));
+            }
+            assertEquals(2 * entries, cache.getHits());
+
+            /* Relocation */
+            assertTrue(index.put(Bytes.from_int(1), 2L, 1L));
+            assertEquals(Long.valueOf(2L), index.get(Bytes.from_int(1)));
+
+            index.put(Bytes.from_int(2), 3L);
+            assertEquals(Long.valueOf(3L), index.get(Bytes.from_int(2)));
+
+            assertEquals(Long.valueOf(1L), index.remove(Bytes.from_int(3)));
+            assertNull(index.get(Bytes.from_int(3)));
+            assertEquals(entries - 1, cache.size());
+
+            index.truncate();
+            assertEquals(0, cache.size());
+            assertNull(index.get(Bytes.from_int(4)));
+        }
+    }
+
+    @Test
+    public void concurrentRelocations() throws Exception {
+        MemoryManager mem = createMemoryManager();
+        int keys = 100;
+        int writers = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(writers + 4);
+        try (BLinkKeyToPageIndex index = new BLinkKeyToPageIndex("tblspc", "tbl", mem, new MemoryDataStorageManager())) {
+            index.start(LogSequenceNumber.START_OF_TIME);
+            for (int i = 0; i < keys; i++) {
+                index.put(Bytes.from_int(i), 0L);
+            }
+
+            AtomicBoolean stop = new AtomicBoolean();
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < 4; r++) {
+                readers.add(executor.submit(() -> {
+                    while (!stop.get()) {
+                        for (int i = 0; i < keys; i++) {
+                            index.get(Bytes.from_int(i));
+                        }
+                    }
+                }));
+            }
+
+            /* Each writer moves its own keys forward, page by page */
+            AtomicInteger relocations = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                final int writer = w;
+                futures.add(executor.submit(() -> {
+                    for (long page = 1; page <= 200; page++) {
+                        for (int i = writer; i < keys; i += writers) {
+                            assertTrue(index.put(Bytes.from_int(i), page, page - 1));
+                            relocations.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+            stop.set(true);
+            for (Future<?> future : readers) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+
+            assertEquals(keys * 200, relocations.get());
+            for (int i = 0; i < keys; i++) {
+                assertEquals(Long.valueOf(200L), index.get(Bytes.from_int(i)));
+            }
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    @Test
+    public void hotKeysSurviveEviction() {
+        KeyToPageLookasideCache cache = new KeyToPageLookasideCache(64L << 10);
+        int owner = cache.register();
+        int other = cache.register();
+
+        int hot = 100;
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < hot; i++) {
+                cache.get(owner, Bytes.from_int(i), k -> 1L);
+            }
+            /* Scans of cold keys, each one looked up once */
+            for (int i = 0; i < 100; i++) {
+                int cold = hot + round * 100 + i;
+                cache.get(owner, Bytes.from_int(cold), k -> 2L);
+            }
+            assertTrue(cache.getUsedMemory() <= cache.getMaxMemory());
+        }
+
+        long hits = cache.getHits();
+        for (int i = 0; i < hot; i++) {
+            assertEquals(Long.valueOf(1L), cache.get(owner, Bytes.from_int(i), k -> 1L));
+        }
+        assertTrue(cache.getHits() - hits >= hot * 9 / 10);
+
+        /* Same key of another index */
+        assertEquals(Long.valueOf(5L), cache.get(other, Bytes.from_int(0), k -> 5L));
+        assertNull(cache.get(other, Bytes.from_int(1), k -> null));
+
+        cache.invalidateAll(owner);
+        assertEquals(1, cache.size());
+        assertEquals(Long.valueOf(5L), cache.get(other, Bytes.from_int(0), k -> 6L));
+    }
+
+    @Test
+    public void slotTablesFitMemoryLimit() {
+        List<Long> limits = new ArrayList<>();
+        for (long limit = 1440; limit <= 32L << 20; limit = limit * 3 / 2 + 7) {
+            limits.add(limit);
+        }
+        /* Slot tables of a budget just above a power of two used to take most of the memory */
+        limits.add(11797920L);
+        limits.add((16L << 20) + 1);
+        limits.add((16L << 20) - 1);
+
+        for (long limit : limits) {
+            KeyToPageLookasideCache cache = new KeyToPageLookasideCache(limit);
+            int owner = cache.register();
+            assertTrue("limit " + limit, cache.getUsedMemory() <= cache.getMaxMemory());
+
+            int keys = (int) (limit / 16);
+            for (int i = 0; i < keys; i++) {
+                cache.get(owner, Bytes.from_int(i), k -> 1L);
+            }
+            assertTrue("limit " + limit, cache.size() > 0);
+            assertTrue("limit " + limit + " used " + cache.getUsedMemory(), cache.getUsedMemory() <= cache.getMaxMemory());
+            assertTrue("limit " + limit + " used " + cache.getUsedMemory(), cache.getUsedMemory() > cache.getMaxMemory() / 4);
+
+            long hits = cache.getHits();
+            assertEquals(Long.valueOf(1L), cache.get(owner, Bytes.from_int(keys - 1), k -> 2L));
+            assertEquals(hits + 1, cache.getHits());
+        }
+    }
+
+}
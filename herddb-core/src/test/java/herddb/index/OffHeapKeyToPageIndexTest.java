@@ -0,0 +1,243 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.index;
+
+import static herddb.core.TestUtils.execute;
+import static herddb.core.TestUtils.executeUpdate;
+import static herddb.core.TestUtils.scan;
+import static herddb.model.TransactionContext.NO_TRANSACTION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import herddb.core.DBManager;
+import herddb.core.MemoryManager;
+import herddb.file.FileCommitLogManager;
+import herddb.file.FileDataStorageManager;
+import herddb.file.FileMetadataStorageManager;
+import herddb.log.LogSequenceNumber;
+import herddb.mem.MemoryDataStorageManager;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.commands.CreateTableSpaceStatement;
+import herddb.server.ServerConfiguration;
+import herddb.storage.DataStorageManager.DataWriter;
+import herddb.storage.DataStorageManagerException;
+import herddb.storage.IndexStatus;
+import herddb.utils.Bytes;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Base test suite for {@link OffHeapKeyToPageIndex}
+ */
+public class OffHeapKeyToPageIndexTest extends KeyToPageIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Override
+    KeyToPageIndex createIndex() {
+        MemoryManager mem = new MemoryManager(5 * (1L << 20), 10 * (128L << 10), (128L << 10));
+        return new OffHeapKeyToPageIndex("tblspc", "tbl", mem, new MemoryDataStorageManager());
+    }
+
+    @Test
+    public void checkpointAndRestart() {
+        MemoryManager mem = new MemoryManager(5 * (1L << 20), 10 * (128L << 10), (1L << 10));
+        MemoryDataStorageManager ds = new MemoryDataStorageManager();
+        LogSequenceNumber checkpoint = new LogSequenceNumber(1, 1);
+
+        int entries = 10000;
+        try (OffHeapKeyToPageIndex index = new OffHeapKeyToPageIndex("tblspc", "tbl", mem, ds)) {
+            index.init();
+            index.start(LogSequenceNumber.START_OF_TIME);
+            for (int i = 0; i < entries; i++) {
+                index.put(Bytes.from_string("key" + i), (long) i);
+            }
+            for (int i = 0; i < entries; i += 2) {
+                assertEquals(Long.valueOf(i), index.remove(Bytes.from_string("key" + i)));
+            }
+            assertEquals(entries / 2, index.size());
+            assertEquals(entries / 2, index.scanner(null, null, null, null).count());
+
+            index.checkpoint(checkpoint, false);
+        }
+
+        try (OffHeapKeyToPageIndex index = new OffHeapKeyToPageIndex("tblspc", "tbl", mem, ds)) {
+            index.init();
+            index.start(checkpoint);
+            assertEquals(entries / 2, index.size());
+            assertTrue(index.getUsedMemory() > 0);
+            for (int i = 0; i < entries; i++) {
+                Bytes key = Bytes.from_string("key" + i);
+                if (i % 2 == 0) {
+                    assertNull(index.get(key));
+                    assertFalse(index.containsKey(key));
+                } else {
+                    assertEquals(Long.valueOf(i), index.get(key));
+                }
+            }
+            index.truncate();
+            assertEquals(0, index.size());
+            assertEquals(0, index.getUsedMemory());
+        }
+    }
+
+    @Test
+    public void checkpointWritesOnlyChangedSegments() {
+        MemoryManager mem = new MemoryManager(5 * (1L << 20), 10 * (128L << 10), (1L << 10));
+        AtomicInteger writtenPages = new AtomicInteger();
+        MemoryDataStorageManager ds = new MemoryDataStorageManager() {
+            @Override
+            public void writeIndexPage(String tableSpace, String indexName, long pageId, DataWriter writer) throws DataStorageManagerException {
+                writtenPages.incrementAndGet();
+                super.writeIndexPage(tableSpace, indexName, pageId, writer);
+            }
+        };
+
+        int entries = 10000;
+        try (OffHeapKeyToPageIndex index = new OffHeapKeyToPageIndex("tblspc", "tbl", mem, ds)) {
+            index.init();
+            index.start(LogSequenceNumber.START_OF_TIME);
+            for (int i = 0; i < entries; i++) {
+                index.put(Bytes.from_string("key" + i), (long) i);
+            }
+            index.checkpoint(new LogSequenceNumber(1, 1), false);
+            int fullCheckpointPages = writtenPages.getAndSet(0);
+            assertTrue(fullCheckpointPages > 64);
+
+            index.checkpoint(new LogSequenceNumber(1, 2), false);
+            assertEquals(0, writtenPages.get());
+
+            /* A single changed segment */
+            index.put(Bytes.from_string("key1"), 20000L);
+            index.checkpoint(new LogSequenceNumber(1, 3), false);
+            assertTrue(writtenPages.get() > 0);
+            assertTrue(writtenPages.get() < fullCheckpointPages / 10);
+        }
+
+        writtenPages.set(0);
+        try (OffHeapKeyToPageIndex index = new OffHeapKeyToPageIndex("tblspc", "tbl", mem, ds)) {
+            index.init();
+            index.start(new LogSequenceNumber(1, 3));
+            assertEquals(entries, index.size());
+            assertEquals(Long.valueOf(20000L), index.get(Bytes.from_string("key1")));
+            assertEquals(Long.valueOf(2L), index.get(Bytes.from_string("key2")));
+
+            /* Loaded segments are clean */
+            index.checkpoint(new LogSequenceNumber(1, 4), false);
+            assertEquals(0, writtenPages.get());
+            index.remove(Bytes.from_string("key2"));
+            index.checkpoint(new LogSequenceNumber(1, 5), false);
+            assertTrue(writtenPages.get() > 0);
+        }
+
+        try (OffHeapKeyToPageIndex index = new OffHeapKeyToPageIndex("tblspc", "tbl", mem, ds)) {
+            index.init();
+            index.start(new LogSequenceNumber(1, 5));
+            assertEquals(entries - 1, index.size());
+            assertNull(index.get(Bytes.from_string("key2")));
+            assertEquals(Long.valueOf(3L), index.get(Bytes.from_string("key3")));
+        }
+    }
+
+    @Test
+    public void startFailsOnUnreadableStatus() {
+        MemoryManager mem = new MemoryManager(5 * (1L << 20), 10 * (128L << 10), (1L << 10));
+        MemoryDataStorageManager ds = new MemoryDataStorageManager() {
+            @Override
+            public IndexStatus getIndexStatus(String tableSpace, String indexName, LogSequenceNumber sequenceNumber) throws DataStorageManagerException {
+                throw new DataStorageManagerException("corrupted index status");
+            }
+        };
+        try (OffHeapKeyToPageIndex index = new OffHeapKeyToPageIndex("tblspc", "tbl", mem, ds)) {
+            index.init();
+            try {
+                index.start(new LogSequenceNumber(1, 1));
+                fail();
+            } catch (DataStorageManagerException err) {
+                assertEquals("corrupted index status", err.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void selectedPerTable() throws Exception {
+        Path dataPath = folder.newFolder("data").toPath();
+        Path logsPath = folder.newFolder("logs").toPath();
+        Path metadataPath = folder.newFolder("metadata").toPath();
+        Path tmoDir = folder.newFolder("tmoDir").toPath();
+
+        ServerConfiguration config1 = new ServerConfiguration();
+        config1.set(ServerConfiguration.PROPERTY_TABLE_PK_INDEX + ".tblspace1.t1", ServerConfiguration.TABLE_PK_INDEX_OFFHEAP);
+
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId,
+                new FileMetadataStorageManager(metadataPath),
+                new FileDataStorageManager(dataPath),
+                new FileCommitLogManager(logsPath),
+                tmoDir, null, new ServerConfiguration(), null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+
+            execute(manager, "CREATE TABLE tblspace1.t1 (k1 int primary key,s1 string)", Collections.emptyList());
+            execute(manager, "CREATE TABLE tblspace1.t2 (k1 int primary key,s1 string)", Collections.emptyList());
+
+            for (int i = 0; i < 100; i++) {
+                executeUpdate(manager, "INSERT INTO tblspace1.t1(k1,s1) values(?,?)", Arrays.asList(i, "a"));
+            }
+            manager.checkpoint();
+            executeUpdate(manager, "DELETE FROM tblspace1.t1 WHERE k1=?", Arrays.asList(1));
+            executeUpdate(manager, "UPDATE tblspace1.t1 set s1=? WHERE k1=?", Arrays.asList("b", 2));
+        }
+
+        /* Switch t1 to the off-heap index: at first restart it is rebuilt from table data, then loaded from its checkpoint */
+        for (int i = 0; i < 2; i++) {
+            try (DBManager manager = new DBManager(nodeId,
+                    new FileMetadataStorageManager(metadataPath),
+                    new FileDataStorageManager(dataPath),
+                    new FileCommitLogManager(logsPath),
+                    tmoDir, null, config1, null)) {
+                manager.start();
+                assertTrue(manager.waitForBootOfLocalTablespaces(10000));
+
+                assertTrue(manager.getTableSpaceManager("tblspace1").getTableManager("t1").getKeyToPageIndex() instanceof OffHeapKeyToPageIndex);
+                assertFalse(manager.getTableSpaceManager("tblspace1").getTableManager("t2").getKeyToPageIndex() instanceof OffHeapKeyToPageIndex);
+
+                assertEquals(99, scan(manager, "SELECT * FROM tblspace1.t1", Collections.emptyList()).consumeAndClose().size());
+                assertEquals(1, scan(manager, "SELECT * FROM tblspace1.t1 WHERE k1=?", Arrays.asList(2)).consumeAndClose().size());
+                assertEquals(0, scan(manager, "SELECT * FROM tblspace1.t1 WHERE k1=?", Arrays.asList(1)).consumeAndClose().size());
+                assertEquals(1, scan(manager, "SELECT * FROM tblspace1.t1 WHERE s1=?", Arrays.asList("b")).consumeAndClose().size());
+                executeUpdate(manager, "INSERT INTO tblspace1.t2(k1,s1) values(?,?)", Arrays.asList(i, "a"));
+                manager.checkpoint();
+            }
+        }
+    }
+
+}
@@ -20,9 +20,23 @@
 
 package herddb.server;
 
+import static herddb.core.TestUtils.execute;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import herddb.core.DBManager;
+import herddb.mem.MemoryCommitLogManager;
+import herddb.mem.MemoryDataStorageManager;
+import herddb.mem.MemoryMetadataStorageManager;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.TransactionContext;
+import herddb.model.commands.CreateTableSpaceStatement;
+import herddb.sql.AbstractSQLPlanner;
+import herddb.sql.TranslatedQuery;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import org.junit.Test;
 
@@ -64,4 +78,44 @@ public class ServerSidePreparedStatementCacheTest {
         assertTrue(oneEvicted);
     }
 
+    @Test
+    public void testBoundPlans() throws Exception {
+        String nodeId = "localhost";
+        try (DBManager manager = new DBManager(nodeId,
+                new MemoryMetadataStorageManager(),
+                new MemoryDataStorageManager(),
+                new MemoryCommitLogManager(),
+                null, null)) {
+            manager.start();
+            CreateTableSpaceStatement st1 = new CreateTableSpaceStatement("tblspace1", Collections.singleton(nodeId), nodeId, 1, 0, 0);
+            manager.executeStatement(st1, StatementEvaluationContext.DEFAULT_EVALUATION_CONTEXT(), TransactionContext.NO_TRANSACTION);
+            manager.waitForTablespace("tblspace1", 10000);
+            execute(manager, "CREATE TABLE tblspace1.t1 (k1 int primary key,n1 int)", Collections.emptyList());
+
+            ServerSidePreparedStatementCache instance = manager.getPreparedStatementsCache();
+            AbstractSQLPlanner planner = manager.getPlanner();
+            long id = instance.prepare("tblspace1", "/* comment */ SELECT * FROM tblspace1.t1 WHERE n1=?");
+
+            TranslatedQuery first = instance.translate(planner, "tblspace1", id, new ArrayList<>(Arrays.asList(1)), true, false, -1);
+            long cacheHits = planner.getCacheHits();
+            TranslatedQuery second = instance.translate(planner, "tblspace1", id, new ArrayList<>(Arrays.asList(2)), true, false, -1);
+            assertSame(first.plan, second.plan);
+            assertEquals(2, second.context.getJdbcParameter(0));
+            assertEquals("SELECT * FROM tblspace1.t1 WHERE n1=?", second.context.query);
+            // the cache of the planner has not been used
+            assertEquals(cacheHits, planner.getCacheHits());
+
+            // another kind of execution
+            TranslatedQuery limited = instance.translate(planner, "tblspace1", id, new ArrayList<>(Arrays.asList(1)), true, false, 10);
+            assertNotSame(first.plan, limited.plan);
+
+            // DDL drops bound plans
+            execute(manager, "CREATE INDEX t1_n1 ON tblspace1.t1(n1)", Collections.emptyList());
+            TranslatedQuery afterDDL = instance.translate(planner, "tblspace1", id, new ArrayList<>(Arrays.asList(1)), true, false, 10);
+            assertNotSame(limited.plan, afterDDL.plan);
+
+            assertEquals(null, instance.translate(planner, "wrong_ts", id, new ArrayList<>(), true, false, -1));
+        }
+    }
+
 }
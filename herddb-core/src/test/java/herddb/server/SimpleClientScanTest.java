@@ -19,8 +19,11 @@
  */
 package herddb.server;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import herddb.client.ClientConfiguration;
@@ -29,10 +32,16 @@ import herddb.client.HDBClient;
 import herddb.client.HDBConnection;
 import herddb.client.HDBException;
 import herddb.client.ScanResultSet;
+import herddb.model.DataScannerException;
 import herddb.model.TableSpace;
 import herddb.utils.TestUtils;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
@@ -306,4 +315,268 @@ public class SimpleClientScanTest {
         }
     }
 
+    @Test
+    public void columnarResultSets() throws Exception {
+        try (Server server = new Server(new ServerConfiguration(folder.newFolder().toPath()))) {
+            server.start();
+            server.waitForStandaloneBoot();
+
+            List<Map<String, Object>> expected = null;
+            for (boolean columnar : new boolean[]{false, true}) {
+                ClientConfiguration clientConfiguration = new ClientConfiguration(folder.newFolder().toPath());
+                clientConfiguration.set(ClientConfiguration.PROPERTY_COLUMNAR_RESULTSETS, columnar);
+                try (HDBClient client = new HDBClient(clientConfiguration);
+                        HDBConnection connection = client.openConnection()) {
+                    client.setClientSideMetadataProvider(new StaticClientSideMetadataProvider(server));
+
+                    if (expected == null) {
+                        connection.executeUpdate(TableSpace.DEFAULT,
+                                "CREATE TABLE mytable (id string primary key, n1 long, n2 integer, s1 string, t1 timestamp, d1 double, b1 blob)",
+                                0, false, true, Collections.emptyList());
+                        for (int i = 0; i < 99; i++) {
+                            connection.executeUpdate(TableSpace.DEFAULT,
+                                    "INSERT INTO mytable (id,n1,n2,s1,t1,d1,b1) values(?,?,?,?,?,?,?)", 0, false, true, Arrays.
+                                            asList("test_" + i, 1000L - i * 7, i % 3 == 0 ? null : i,
+                                                    "group_" + (i % 4), new java.sql.Timestamp(1_500_000_000_000L + i * 1000L),
+                                                    i / 2.0, i % 5 == 0 ? null : new byte[]{(byte) i}));
+                        }
+                    }
+
+                    // many chunks, column names are sent only with the first one
+                    List<Map<String, Object>> result;
+                    try (ScanResultSet scan = connection.executeScan(TableSpace.DEFAULT,
+                            "SELECT * FROM mytable ORDER BY id", true, Collections.emptyList(), 0, 0, 7)) {
+                        assertEquals(7, scan.getMetadata().getColumnNames().length);
+                        result = scan.consume();
+                    }
+                    assertEquals(99, result.size());
+                    for (Map<String, Object> record : result) {
+                        int i = Integer.parseInt(record.get("id").toString().substring("test_".length()));
+                        assertEquals(1000L - i * 7, record.get("n1"));
+                        assertEquals(i % 3 == 0 ? null : i, record.get("n2"));
+                        assertEquals("group_" + (i % 4), record.get("s1").toString());
+                        assertEquals(new java.sql.Timestamp(1_500_000_000_000L + i * 1000L), record.get("t1"));
+                        assertEquals(i / 2.0, record.get("d1"));
+                        if (i % 5 == 0) {
+                            assertNull(record.get("b1"));
+                        } else {
+                            assertArrayEquals(new byte[]{(byte) i}, (byte[]) record.get("b1"));
+                        }
+                    }
+                    // no primary key, values are pooled strings recycled once visited
+                    if (expected == null) {
+                        connection.executeUpdate(TableSpace.DEFAULT, "CREATE TABLE myheaptable (s1 string)",
+                                0, false, true, Collections.emptyList());
+                        for (int i = 0; i < 99; i++) {
+                            connection.executeUpdate(TableSpace.DEFAULT, "INSERT INTO myheaptable (s1) values(?)",
+                                    0, false, true, Arrays.asList("test_" + i));
+                        }
+                    }
+                    Set<String> values = new HashSet<>();
+                    try (ScanResultSet scan = connection.executeScan(TableSpace.DEFAULT,
+                            "SELECT * FROM myheaptable", true, Collections.emptyList(), 0, 0, 7)) {
+                        for (Map<String, Object> record : scan.consume()) {
+                            values.add(record.get("s1").toString());
+                        }
+                    }
+                    assertEquals(99, values.size());
+                    for (int i = 0; i < 99; i++) {
+                        assertTrue(values.contains("test_" + i));
+                    }
+
+                    if (expected == null) {
+                        expected = result;
+                    } else {
+                        assertEquals(expected.size(), result.size());
+                        for (int i = 0; i < expected.size(); i++) {
+                            assertEquals(expected.get(i).keySet(), result.get(i).keySet());
+                            assertEquals(expected.get(i).get("id"), result.get(i).get("id"));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void scanWithPrefetch() throws Exception {
+        for (boolean serverPrefetch : new boolean[]{false, true}) {
+            ServerConfiguration serverConfiguration = new ServerConfiguration(folder.newFolder().toPath());
+            serverConfiguration.set(ServerConfiguration.PROPERTY_SCANNER_PREFETCH, serverPrefetch);
+            try (Server server = new Server(serverConfiguration)) {
+                server.start();
+                server.waitForStandaloneBoot();
+
+                for (int depth : new int[]{0, 1, 4}) {
+                    for (boolean columnar : new boolean[]{false, true}) {
+                        ClientConfiguration clientConfiguration = new ClientConfiguration(folder.newFolder().toPath());
+                        clientConfiguration.set(ClientConfiguration.PROPERTY_SCANNER_PREFETCH_DEPTH, depth);
+                        clientConfiguration.set(ClientConfiguration.PROPERTY_COLUMNAR_RESULTSETS, columnar);
+                        try (HDBClient client = new HDBClient(clientConfiguration);
+                                HDBConnection connection = client.openConnection()) {
+                            client.setClientSideMetadataProvider(new StaticClientSideMetadataProvider(server));
+
+                            connection.executeUpdate(TableSpace.DEFAULT,
+                                    "CREATE TABLE IF NOT EXISTS mytable (id int primary key, s1 string)", 0, false, true,
+                                    Collections.emptyList());
+                            if (connection.executeScan(TableSpace.DEFAULT, "SELECT * FROM mytable", true,
+                                    Collections.emptyList(), 0, 0, 10).consume().isEmpty()) {
+                                for (int i = 0; i < 100; i++) {
+                                    connection.executeUpdate(TableSpace.DEFAULT,
+                                            "INSERT INTO mytable (id,s1) values(?,?)", 0, false, true, Arrays.asList(i, "s" + i));
+                                }
+                            }
+
+                            // chunks must be received in order, even with many requests in flight
+                            for (int fetchSize : new int[]{1, 7, 100, 1000}) {
+                                try (ScanResultSet scan = connection.executeScan(TableSpace.DEFAULT,
+                                        "SELECT * FROM mytable ORDER BY id", true, Collections.emptyList(), 0, 0, fetchSize)) {
+                                    int i = 0;
+                                    while (scan.hasNext()) {
+                                        assertEquals(i++, scan.next().get("id"));
+                                    }
+                                    assertEquals(100, i);
+                                }
+                            }
+                            checkNoScannersOnTheServer(server);
+
+                            // close before consuming the whole result set
+                            try (ScanResultSet scan = connection.executeScan(TableSpace.DEFAULT,
+                                    "SELECT * FROM mytable ORDER BY id", true, Collections.emptyList(), 0, 0, 3)) {
+                                for (int i = 0; i < 5; i++) {
+                                    assertTrue(scan.hasNext());
+                                    assertEquals(i, scan.next().get("id"));
+                                }
+                            }
+                            checkNoScannersOnTheServer(server);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void noPrefetchInTransactions() throws Exception {
+        try (Server server = new Server(new ServerConfiguration(folder.newFolder().toPath()))) {
+            server.start();
+            server.waitForStandaloneBoot();
+
+            ClientConfiguration clientConfiguration = new ClientConfiguration(folder.newFolder().toPath());
+            try (HDBClient client = new HDBClient(clientConfiguration);
+                    HDBConnection connection = client.openConnection()) {
+                client.setClientSideMetadataProvider(new StaticClientSideMetadataProvider(server));
+
+                connection.executeUpdate(TableSpace.DEFAULT,
+                        "CREATE TABLE mytable (id int primary key, s1 string)", 0, false, true, Collections.emptyList());
+                for (int i = 0; i < 100; i++) {
+                    connection.executeUpdate(TableSpace.DEFAULT,
+                            "INSERT INTO mytable (id,s1) values(?,?)", 0, false, true, Arrays.asList(i, "s" + i));
+                }
+
+                // defaults: scans outside of transactions are prefetched
+                try (ScanResultSet scan = connection.executeScan(TableSpace.DEFAULT,
+                        "SELECT * FROM mytable ORDER BY id", true, Collections.emptyList(), 0, 0, 1)) {
+                    assertTrue(scan.hasNext());
+                    assertEquals(0, scan.next().get("id"));
+                    assertTrue(getOnlyScannerOnTheServer(server).isPrefetch());
+                    int i = 1;
+                    while (scan.hasNext()) {
+                        assertEquals(i++, scan.next().get("id"));
+                    }
+                    assertEquals(100, i);
+                }
+                checkNoScannersOnTheServer(server);
+
+                // the scan is not prefetched while the transaction executes other statements
+                long tx = connection.beginTransaction(TableSpace.DEFAULT);
+                try (ScanResultSet scan = connection.executeScan(TableSpace.DEFAULT,
+                        "SELECT * FROM mytable ORDER BY id", true, Collections.emptyList(), tx, 0, 1)) {
+                    assertFalse(getOnlyScannerOnTheServer(server).isPrefetch());
+                    int i = 0;
+                    while (scan.hasNext()) {
+                        assertEquals(i, scan.next().get("id"));
+                        assertEquals(1, connection.executeUpdate(TableSpace.DEFAULT,
+                                "UPDATE mytable set s1=? WHERE id=?", tx, false, true, Arrays.asList("u" + i, i)).updateCount);
+                        i++;
+                    }
+                    assertEquals(100, i);
+                }
+                connection.commitTransaction(TableSpace.DEFAULT, tx);
+                checkNoScannersOnTheServer(server);
+
+                try (ScanResultSet scan = connection.executeScan(TableSpace.DEFAULT,
+                        "SELECT * FROM mytable ORDER BY id", true, Collections.emptyList(), 0, 0, 10)) {
+                    int i = 0;
+                    for (Map<String, Object> record : scan.consume()) {
+                        assertEquals("u" + i++, record.get("s1").toString());
+                    }
+                    assertEquals(100, i);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void fetchTooFarAhead() throws Exception {
+        ServerConfiguration serverConfiguration = new ServerConfiguration(folder.newFolder().toPath());
+        serverConfiguration.set(ServerConfiguration.PROPERTY_SCANNER_MAX_CHUNKS_AHEAD, 4);
+        try (Server server = new Server(serverConfiguration)) {
+            server.start();
+            server.waitForStandaloneBoot();
+
+            ClientConfiguration clientConfiguration = new ClientConfiguration(folder.newFolder().toPath());
+            clientConfiguration.set(ClientConfiguration.PROPERTY_SCANNER_PREFETCH_DEPTH, 4);
+            try (HDBClient client = new HDBClient(clientConfiguration);
+                    HDBConnection connection = client.openConnection()) {
+                client.setClientSideMetadataProvider(new StaticClientSideMetadataProvider(server));
+
+                connection.executeUpdate(TableSpace.DEFAULT,
+                        "CREATE TABLE mytable (id int primary key, s1 string)", 0, false, true, Collections.emptyList());
+                for (int i = 0; i < 100; i++) {
+                    connection.executeUpdate(TableSpace.DEFAULT,
+                            "INSERT INTO mytable (id,s1) values(?,?)", 0, false, true, Arrays.asList(i, "s" + i));
+                }
+
+                try (ScanResultSet scan = connection.executeScan(TableSpace.DEFAULT,
+                        "SELECT * FROM mytable ORDER BY id", true, Collections.emptyList(), 0, 0, 1)) {
+                    assertTrue(scan.hasNext());
+                    assertEquals(0, scan.next().get("id"));
+
+                    // chunks are not produced for requests too far ahead
+                    ServerSideScannerPeer scanner = getOnlyScannerOnTheServer(server);
+                    for (long sequence : new long[]{Long.MAX_VALUE, 6}) {
+                        try {
+                            scanner.fetch(sequence, 1).get();
+                            fail();
+                        } catch (ExecutionException expected) {
+                            assertTrue(expected.getCause() instanceof DataScannerException);
+                            assertTrue(expected.getCause().getMessage().contains("too far ahead"));
+                        }
+                    }
+
+                    // a client prefetching as much as allowed is served
+                    int i = 1;
+                    while (scan.hasNext()) {
+                        assertEquals(i++, scan.next().get("id"));
+                    }
+                    assertEquals(100, i);
+                }
+                checkNoScannersOnTheServer(server);
+            }
+        }
+    }
+
+    private static ServerSideScannerPeer getOnlyScannerOnTheServer(Server server) {
+        ServerSideScannerPeer result = null;
+        for (ServerSideConnectionPeer peer : server.getConnections().values()) {
+            for (ServerSideScannerPeer scanner : peer.getScanners().values()) {
+                assertNull(result);
+                result = scanner;
+            }
+        }
+        assertNotNull(result);
+        return result;
+    }
+
 }
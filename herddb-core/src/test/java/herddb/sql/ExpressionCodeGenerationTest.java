@@ -0,0 +1,151 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.sql;
+
+import static herddb.core.TestUtils.execute;
+import static herddb.core.TestUtils.executeUpdate;
+import static herddb.core.TestUtils.scan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import herddb.core.DBManager;
+import herddb.mem.MemoryCommitLogManager;
+import herddb.mem.MemoryDataStorageManager;
+import herddb.mem.MemoryMetadataStorageManager;
+import herddb.model.DataScanner;
+import herddb.model.TableSpace;
+import herddb.model.commands.ScanStatement;
+import herddb.server.ServerConfiguration;
+import herddb.sql.expressions.GeneratedSQLExpression;
+import herddb.utils.DataAccessor;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Predicates evaluated by generated code must give the same results of the interpreted ones
+ */
+public class ExpressionCodeGenerationTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final List<String> CONDITIONS = Arrays.asList(
+            "n1 > 5",
+            "n1 >= 3 AND n1 <= 6",
+            "n1 < 2 OR n1 = 9",
+            "n1 <> 4",
+            "NOT (n1 = 4)",
+            "l1 > 30",
+            "l1 = 42",
+            "d1 <= 2.5",
+            "d1 = 3",
+            "d1 > 5 AND n1 < 8",
+            "n1 = 3 OR s1 = 'a'",
+            "s1 >= 'b'",
+            "s1 IS NULL",
+            "n1 IS NOT NULL AND d1 > 1",
+            "(n1 > 2 AND n1 < 8) OR (l1 = 15)",
+            "s1 IS NOT NULL AND upper(s1) = 'A'",
+            "k = 7",
+            "k >= 40 AND s1 <> 'c'");
+
+    @Test
+    public void compareWithInterpretedPredicates() throws Exception {
+        ServerConfiguration config = new ServerConfiguration();
+        config.set(ServerConfiguration.PROPERTY_PLANNER_EXPRESSIONS_CODEGEN, true);
+        try (DBManager interpreted = newManager(new ServerConfiguration());
+             DBManager generated = newManager(config)) {
+            assertFalse(interpreted.isExpressionsCodeGeneration());
+            assertTrue(generated.isExpressionsCodeGeneration());
+
+            for (String condition : CONDITIONS) {
+                String query = "SELECT * FROM tblspace1.t1 WHERE " + condition;
+                assertEquals(condition, keys(interpreted, query, Collections.emptyList()), keys(generated, query, Collections.emptyList()));
+            }
+
+            String query = "SELECT * FROM tblspace1.t1 WHERE n1 = ? OR l1 > ?";
+            for (int i = 0; i < 10; i++) {
+                List<Object> parameters = Arrays.asList(i, i * 10L);
+                assertEquals(keys(interpreted, query, parameters), keys(generated, query, parameters));
+            }
+
+            TranslatedQuery translated = generated.getPlanner().translate(TableSpace.DEFAULT,
+                    "SELECT * FROM tblspace1.t1 WHERE n1 > 5 AND d1 < 10", Collections.emptyList(), true, true, false, -1);
+            ScanStatement scan = translated.plan.mainStatement.unwrap(ScanStatement.class);
+            SQLRecordPredicate predicate = (SQLRecordPredicate) scan.getPredicate();
+            assertTrue(predicate.getWhere() instanceof GeneratedSQLExpression);
+
+            /* Unsupported expressions are kept interpreted */
+            translated = generated.getPlanner().translate(TableSpace.DEFAULT,
+                    "SELECT * FROM tblspace1.t1 WHERE (n1 > 5) IS NOT TRUE", Collections.emptyList(), true, true, false, -1);
+            scan = translated.plan.mainStatement.unwrap(ScanStatement.class);
+            predicate = (SQLRecordPredicate) scan.getPredicate();
+            assertFalse(predicate.getWhere() instanceof GeneratedSQLExpression);
+        }
+    }
+
+    @Test
+    public void dmlWithGeneratedPredicates() throws Exception {
+        ServerConfiguration config = new ServerConfiguration();
+        config.set(ServerConfiguration.PROPERTY_PLANNER_EXPRESSIONS_CODEGEN, true);
+        try (DBManager manager = newManager(config)) {
+            assertEquals(5, executeUpdate(manager, "UPDATE tblspace1.t1 set s1='z' WHERE n1 = 3 AND l1 < 200", Collections.emptyList()).getUpdateCount());
+            assertEquals(5, scan(manager, "SELECT * FROM tblspace1.t1 WHERE s1 = 'z'", Collections.emptyList()).consumeAndClose().size());
+            assertEquals(5, executeUpdate(manager, "DELETE FROM tblspace1.t1 WHERE s1 = 'z' OR d1 < 0", Collections.emptyList()).getUpdateCount());
+            assertEquals(45, scan(manager, "SELECT * FROM tblspace1.t1", Collections.emptyList()).consumeAndClose().size());
+        }
+    }
+
+    private DBManager newManager(ServerConfiguration config) throws Exception {
+        DBManager manager = new DBManager("localhost",
+                new MemoryMetadataStorageManager(), new MemoryDataStorageManager(), new MemoryCommitLogManager(),
+                folder.newFolder().toPath(), null, config, null);
+        manager.start();
+        assertTrue(manager.waitForTablespace(TableSpace.DEFAULT, 10000));
+        execute(manager, "CREATE TABLESPACE 'tblspace1'", Collections.emptyList());
+        manager.waitForTablespace("tblspace1", 10000);
+        execute(manager, "CREATE TABLE tblspace1.t1 (k int primary key, n1 int, l1 long, d1 double, s1 string)", Collections.emptyList());
+        String[] strings = {"a", "b", "c", null};
+        for (int k = 0; k < 50; k++) {
+            Integer n1 = k % 7 == 0 ? null : k % 10;
+            executeUpdate(manager, "INSERT INTO tblspace1.t1(k,n1,l1,d1,s1) values(?,?,?,?,?)",
+                    Arrays.asList(k, n1, k * 3L, k / 4.0, strings[k % 4]));
+        }
+        return manager;
+    }
+
+    private static Set<Integer> keys(DBManager manager, String query, List<Object> parameters) throws Exception {
+        Set<Integer> result = new TreeSet<>();
+        try (DataScanner scanner = scan(manager, query, parameters)) {
+            for (DataAccessor tuple : scanner.consume()) {
+                result.add((Integer) tuple.get("k"));
+            }
+        }
+        return result;
+    }
+
+}
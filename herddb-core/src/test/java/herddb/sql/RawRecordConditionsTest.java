@@ -0,0 +1,138 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import herddb.codec.RecordSerializer;
+import herddb.model.ColumnTypes;
+import herddb.model.Record;
+import herddb.model.StatementEvaluationContext;
+import herddb.model.Table;
+import herddb.sql.expressions.AccessCurrentRowExpression;
+import herddb.sql.expressions.ColumnEqualsJdbcParameter;
+import herddb.sql.expressions.ColumnGreaterThanJdbcParameter;
+import herddb.sql.expressions.ColumnMinorThanEqualsJdbcParameter;
+import herddb.sql.expressions.ColumnNotEqualsJdbcParameter;
+import herddb.sql.expressions.CompiledEqualsExpression;
+import herddb.sql.expressions.CompiledGreaterThenEqualsExpression;
+import herddb.sql.expressions.CompiledGreaterThenExpression;
+import herddb.sql.expressions.CompiledIsNullExpression;
+import herddb.sql.expressions.CompiledMinorThenExpression;
+import herddb.sql.expressions.CompiledMultiAndExpression;
+import herddb.sql.expressions.CompiledMultiOrExpression;
+import herddb.sql.expressions.CompiledNotEqualsExpression;
+import herddb.sql.expressions.CompiledSQLExpression;
+import herddb.sql.expressions.ConstantExpression;
+import herddb.sql.expressions.JdbcParameterExpression;
+import herddb.utils.RawString;
+import herddb.utils.SQLRecordPredicateFunctions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Conditions evaluated on serialized records must give the same results of the interpreted predicate
+ */
+public class RawRecordConditionsTest {
+
+    private static final Table TABLE = Table
+            .builder()
+            .name("t1")
+            .column("k", ColumnTypes.INTEGER)
+            .column("n1", ColumnTypes.INTEGER)
+            .column("l1", ColumnTypes.LONG)
+            .column("d1", ColumnTypes.DOUBLE)
+            .column("s1", ColumnTypes.STRING)
+            .primaryKey("k")
+            .build();
+
+    private static CompiledSQLExpression column(int index) {
+        return new AccessCurrentRowExpression(index);
+    }
+
+    private static CompiledSQLExpression constant(Object value) {
+        return new ConstantExpression(value);
+    }
+
+    private static CompiledSQLExpression and(CompiledSQLExpression... operands) {
+        return new CompiledMultiAndExpression(operands);
+    }
+
+    @Test
+    public void compareWithInterpretedPredicate() throws Exception {
+        List<Record> records = new ArrayList<>();
+        String[] strings = {"a", "b", "c", null};
+        for (int k = 0; k < 100; k++) {
+            Integer n1 = k % 7 == 0 ? null : k % 10;
+            Long l1 = k % 5 == 0 ? null : k * 3L;
+            records.add(RecordSerializer.makeRecord(TABLE, "k", k, "n1", n1, "l1", l1, "d1", k / 4.0, "s1", strings[k % 4]));
+        }
+
+        List<CompiledSQLExpression> predicates = Arrays.asList(
+                new CompiledEqualsExpression(false, column(1), constant(3L)),
+                new CompiledNotEqualsExpression(false, column(1), constant(3)),
+                and(new CompiledGreaterThenExpression(false, column(1), constant(2L)),
+                        new CompiledMinorThenExpression(false, column(1), constant(8L))),
+                and(new CompiledGreaterThenEqualsExpression(false, column(0), constant(50)),
+                        new CompiledEqualsExpression(false, column(4), constant("b"))),
+                and(new CompiledEqualsExpression(false, column(4), constant(RawString.of("a"))),
+                        new CompiledGreaterThenExpression(false, column(3), constant(10.5d))),
+                new CompiledIsNullExpression(false, column(2)),
+                and(new CompiledIsNullExpression(true, column(1)), new CompiledIsNullExpression(false, column(4))),
+                and(new CompiledGreaterThenExpression(false, column(2), new JdbcParameterExpression(0)),
+                        new CompiledMinorThenExpression(false, column(3), new JdbcParameterExpression(1))),
+                new CompiledEqualsExpression(true, column(2), constant(null)),
+                and(new ColumnEqualsJdbcParameter(false, "n1", 0), new ColumnNotEqualsJdbcParameter(false, "s1", 2)),
+                and(new ColumnGreaterThanJdbcParameter(false, "l1", 0), new ColumnMinorThanEqualsJdbcParameter(false, "k", 1)),
+                new ColumnEqualsJdbcParameter(false, "s1", 3),
+                new ColumnEqualsJdbcParameter(true, "n1", 1));
+
+        List<Object> parameters = Arrays.asList(4, 60, "c", true);
+        StatementEvaluationContext context = new SQLStatementEvaluationContext("the-query", parameters);
+        for (CompiledSQLExpression where : predicates) {
+            SQLRecordPredicate predicate = new SQLRecordPredicate(TABLE, null, where);
+            assertNotNull(where.toString(), predicate.getRawConditions());
+            int matches = 0;
+            for (Record record : records) {
+                boolean expected = SQLRecordPredicateFunctions.toBoolean(
+                        where.evaluate(RecordSerializer.buildRawDataAccessor(record, TABLE), context));
+                assertEquals(where + " " + record.toBean(TABLE), expected, predicate.evaluate(record, context));
+                if (expected) {
+                    matches++;
+                }
+            }
+            System.out.println(where + " -> " + matches + " matches");
+        }
+    }
+
+    @Test
+    public void notSimpleConditions() throws Exception {
+        assertNull(new SQLRecordPredicate(TABLE, null, new CompiledMultiOrExpression(new CompiledSQLExpression[]{
+                new CompiledEqualsExpression(false, column(1), constant(3L)),
+                new CompiledEqualsExpression(false, column(2), constant(3L))})).getRawConditions());
+        assertNull(new SQLRecordPredicate(TABLE, null,
+                new CompiledEqualsExpression(false, column(1), column(2))).getRawConditions());
+    }
+
+}
@@ -687,6 +687,25 @@ public class BLink<K extends Comparable<K>, V> implements AutoCloseable, Page.Ow
                 /* No parallel */ false);
     }
 
+    /**
+     * Scans keys in descending order. Supports both from and to empty.
+     * <p>
+     * Leaves are visited from right to left: every step descends the tree again up to the leaf whose coverset
+     * contains the upper bound on the left separator of the previously visited leaf.
+     * </p>
+     *
+     * @param from inclusive (if not empty)
+     * @param to   exclusive (if not empty)
+     * @return entries in descending key order
+     */
+    public Stream<Entry<K, V>> scanDescending(K from, K to) {
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(
+                        new DescendingScanIterator(from, to),
+                        /* No characteristics */ 0),
+                /* No parallel */ false);
+    }
+
     //    function insert(v: value): boolean;
 //    var
 //        n: nodeptr;
@@ -859,6 +878,14 @@ public class BLink<K extends Comparable<K>, V> implements AutoCloseable, Page.Ow
      * @return
      */
     private Node<K, V> locate_leaf(K v, int lastlock, Deque<ResultCouple<K, V>> descent) throws IOException {
+        return locate_leaf_and_leftsep(v, lastlock, descent).node;
+    }
+
+    /**
+     * Same as {@link #locate_leaf(Comparable, int, Deque)} but returns the upper bound on the leftsep of the leaf
+     * too.
+     */
+    private ResultCouple<K, V> locate_leaf_and_leftsep(K v, int lastlock, Deque<ResultCouple<K, V>> descent) throws IOException {
 
         Node<K, V> n, m;
         int h, enterheight;
@@ -900,11 +927,7 @@ public class BLink<K extends Comparable<K>, V> implements AutoCloseable, Page.Ow
             n = m;
         }
 
-        ResultCouple<K, V> move_right = move_right(v, n, ubleftsep, lastlock); // v € coverset(n)
-        n = move_right.node;
-        ubleftsep = move_right.ubleftsep;
-
-        return n;
+        return move_right(v, n, ubleftsep, lastlock); // v € coverset(n)
 
     }
 
@@ -3397,4 +3420,124 @@ public class BLink<K extends Comparable<K>, V> implements AutoCloseable, Page.Ow
         }
 
     }
+
+    private final class DescendingScanIterator implements Iterator<Entry<K, V>> {
+
+        private static final int MAX_STALLED_DESCENTS = 16;
+
+        private final K start;
+
+        /**
+         * Exclusive upper bound for keys still to be returned ({@code null} if unbounded)
+         */
+        private K end;
+
+        /**
+         * Key used to locate the next leaf to visit
+         */
+        private K cursor;
+
+        private Iterator<Entry<K, V>> current = Collections.emptyIterator();
+
+        private boolean done;
+
+        /**
+         * Consecutive descents which didn't move the cursor
+         */
+        private int stalledDescents;
+
+        public DescendingScanIterator(K start, K end) {
+            this.start = start;
+            this.end = end;
+            this.cursor = end == null ? positiveInfinity : end;
+            this.done = start != null && end != null && end.compareTo(start) <= 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+
+            while (!current.hasNext()) {
+
+                if (done) {
+                    return false;
+                }
+
+                @SuppressWarnings("unchecked")
+                Deque<ResultCouple<K, V>> descent = DummyDeque.INSTANCE;
+
+                final ResultCouple<K, V> located;
+                try {
+                    located = locate_leaf_and_leftsep(cursor, READ_LOCK, descent); // cursor € coverset(n), n read-locked
+                } catch (IOException e) {
+                    throw new UncheckedIOException("failed to scan from " + start + " to " + end, e);
+                }
+
+                final Node<K, V> node = located.node;
+                final List<Entry<K, V>> list;
+                try {
+                    /* Copy values to quicly release read lock */
+                    list = node.copyRange(start, start != null, end, false);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("failed to copy data from node " + node.pageId, e);
+                } finally {
+                    unlock(node, READ_LOCK);
+                }
+
+                if (!list.isEmpty()) {
+                    end = list.get(0).getKey();
+                    Collections.reverse(list);
+                    current = list.iterator();
+                }
+
+                final K ubleftsep = located.ubleftsep;
+                if (ubleftsep == positiveInfinity) {
+
+                    /*
+                     * No separator crossed descending from the anchor fast node, which is the leftmost node of its
+                     * level: the leaf covers every key lower than cursor, there is no more data at left
+                     */
+                    done = true;
+
+                } else if (start != null && ubleftsep.compareTo(start) < 0) {
+
+                    /* Every key at left is lower than ubleftsep */
+                    done = true;
+
+                } else if (ubleftsep.compareTo(cursor) >= 0) {
+
+                    /*
+                     * Should not happen: descents only cross separators lower than the searched key. Descend again
+                     * from the anchor, without holding more than a leaf of data, a bounded number of times.
+                     */
+                    if (++stalledDescents > MAX_STALLED_DESCENTS) {
+                        throw new IllegalStateException("descending scan from " + end + " to " + start
+                                + " does not progress at leaf " + node.pageId);
+                    }
+
+                } else {
+
+                    /* Next leaf at left: ubleftsep € coverset(left sibling) */
+                    cursor = ubleftsep;
+                    stalledDescents = 0;
+                }
+
+                if (end != null && start != null && end.compareTo(start) <= 0) {
+                    done = true;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            return current.next();
+        }
+
+    }
 }
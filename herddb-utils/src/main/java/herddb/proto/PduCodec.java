@@ -30,10 +30,12 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
 
 /**
  * Codec for PDUs
@@ -257,6 +259,21 @@ public abstract class PduCodec {
     public abstract static class SaslTokenMessageRequest {
 
         public static ByteBuf write(long messageId, String saslMech, byte[] firstToken) {
+            return write(messageId, saslMech, firstToken, ResultSetChunk.FORMAT_ROWS);
+        }
+
+        /**
+         * Writes the first message of the handshake
+         *
+         * @param messageId
+         * @param saslMech
+         * @param firstToken
+         * @param resultSetFormat the best result set format supported by the
+         *                        client, old servers simply ignore it
+         * @return the encoded message
+         * @see ResultSetChunk#FORMAT_COLUMNS
+         */
+        public static ByteBuf write(long messageId, String saslMech, byte[] firstToken, byte resultSetFormat) {
             ByteBuf byteBuf = PooledByteBufAllocator.DEFAULT
                     .directBuffer(
                             VERSION_SIZE
@@ -270,6 +287,9 @@ public abstract class PduCodec {
             byteBuf.writeLong(messageId);
             ByteBufUtils.writeString(byteBuf, saslMech);
             ByteBufUtils.writeArray(byteBuf, firstToken);
+            if (resultSetFormat != ResultSetChunk.FORMAT_ROWS) {
+                byteBuf.writeByte(resultSetFormat);
+            }
             return byteBuf;
         }
 
@@ -293,6 +313,29 @@ public abstract class PduCodec {
             ByteBufUtils.skipArray(buffer);
             return ByteBufUtils.readArray(buffer);
         }
+
+        /**
+         * Reads the best result set format supported by the client, old
+         * clients do not send it and they support only
+         * {@link ResultSetChunk#FORMAT_ROWS}
+         *
+         * @param pdu
+         * @return the format
+         */
+        public static byte readResultSetFormat(Pdu pdu) {
+            ByteBuf buffer = pdu.buffer;
+            buffer.readerIndex(0);
+            buffer.skipBytes(VERSION_SIZE
+                    + FLAGS_SIZE
+                    + TYPE_SIZE
+                    + MSGID_SIZE);
+            ByteBufUtils.skipArray(buffer);
+            ByteBufUtils.skipArray(buffer);
+            if (!buffer.isReadable()) {
+                return ResultSetChunk.FORMAT_ROWS;
+            }
+            return buffer.readByte();
+        }
     }
 
     public abstract static class SaslTokenMessageToken {
@@ -728,11 +771,61 @@ public abstract class PduCodec {
 
     public static class ResultSetChunk {
 
+        /**
+         * Each record is written as a sequence of tagged values, this is the
+         * only format understood by old clients
+         */
+        public static final byte FORMAT_ROWS = 0;
+
+        /**
+         * Records are written column by column: the type is written once per
+         * column, nulls are tracked with a bitmap, integral values and
+         * timestamps are delta encoded and strings are written using a
+         * dictionary local to the chunk. Column names are sent only with the
+         * first chunk of a result set
+         */
+        public static final byte FORMAT_COLUMNS = 1;
+
+        private static final int FLAG_LAST = 1;
+        private static final int FLAG_COLUMNS = 2;
+        private static final int FLAG_NO_COLUMN_NAMES = 4;
+
+        /**
+         * Column whose values do not share the same type, each value is
+         * written with its own tag
+         */
+        private static final byte TYPE_MIXED = -1;
+
+        private static final byte STRINGS_PLAIN = 0;
+        private static final byte STRINGS_DICTIONARY = 1;
+
         private static int estimateTupleListSize(TuplesList data) {
             return data.tuples.size() * 1024 + data.columnNames.length * 64;
         }
 
         public static ByteBuf write(long messageId, TuplesList tuplesList, boolean last, long tx) {
+            return write(messageId, tuplesList, last, tx, FORMAT_ROWS, true);
+        }
+
+        /**
+         * Writes a chunk of a result set
+         *
+         * @param messageId
+         * @param tuplesList
+         * @param last
+         * @param tx
+         * @param format            {@link #FORMAT_ROWS} or {@link #FORMAT_COLUMNS}
+         * @param writeColumnNames  when false column names are not written,
+         *                          the client is expected to known them from a
+         *                          previous chunk. Ignored with {@link #FORMAT_ROWS}
+         * @return the encoded message
+         */
+        public static ByteBuf write(long messageId, TuplesList tuplesList, boolean last, long tx,
+                                    byte format, boolean writeColumnNames) {
+            boolean columns = format == FORMAT_COLUMNS;
+            if (!columns) {
+                writeColumnNames = true;
+            }
             int dataSize = estimateTupleListSize(tuplesList);
             ByteBuf byteBuf = PooledByteBufAllocator.DEFAULT
                     .directBuffer(
@@ -749,41 +842,324 @@ public abstract class PduCodec {
             byteBuf.writeByte(Pdu.TYPE_RESULTSET_CHUNK);
             byteBuf.writeLong(messageId);
             byteBuf.writeLong(tx);
-            byteBuf.writeByte(last ? 1 : 0);
+            byteBuf.writeByte((last ? FLAG_LAST : 0)
+                    | (columns ? FLAG_COLUMNS : 0)
+                    | (writeColumnNames ? 0 : FLAG_NO_COLUMN_NAMES));
 
             int numColumns = tuplesList.columnNames.length;
             byteBuf.writeInt(numColumns);
-            for (String columnName : tuplesList.columnNames) {
-                ByteBufUtils.writeString(byteBuf, columnName);
+            if (writeColumnNames) {
+                for (String columnName : tuplesList.columnNames) {
+                    ByteBufUtils.writeString(byteBuf, columnName);
+                }
             }
 
             // num records
-            byteBuf.writeInt(tuplesList.tuples.size());
-            for (DataAccessor da : tuplesList.tuples) {
-                IntHolder currentColumn = new IntHolder();
-                da.forEach((String key, Object value) -> {
-                    String expectedColumnName = tuplesList.columnNames[currentColumn.value];
-                    while (!key.equals(expectedColumnName)) {
-                        // nulls are not returned for some special accessors, like DataAccessorForFullRecord
-                        writeObject(byteBuf, null);
-                        currentColumn.value++;
-                        expectedColumnName = tuplesList.columnNames[currentColumn.value];
-                    }
-                    writeObject(byteBuf, value);
-                    currentColumn.value++;
-                });
-                // fill with nulls
-                while (currentColumn.value < numColumns) {
-                    writeObject(byteBuf, null);
-                    currentColumn.value++;
+            int numRecords = tuplesList.tuples.size();
+            byteBuf.writeInt(numRecords);
+            if (columns) {
+                Object[][] values = new Object[numColumns][numRecords];
+                for (int i = 0; i < numRecords; i++) {
+                    final int record = i;
+                    forEachColumn(tuplesList.tuples.get(i), tuplesList.columnNames,
+                            (value, column) -> values[column][record] = retainValue(value));
                 }
-                if (currentColumn.value > numColumns) {
-                    throw new RuntimeException("unexpected number of columns " + currentColumn.value + " > " + numColumns);
+                for (Object[] column : values) {
+                    // column length, in order to let the reader skip columns
+                    int lengthIndex = byteBuf.writerIndex();
+                    byteBuf.writeInt(0);
+                    writeColumn(byteBuf, column);
+                    byteBuf.setInt(lengthIndex, byteBuf.writerIndex() - lengthIndex - ONE_INT);
+                }
+            } else {
+                for (DataAccessor da : tuplesList.tuples) {
+                    forEachColumn(da, tuplesList.columnNames, (value, column) -> writeObject(byteBuf, value));
                 }
             }
             return byteBuf;
         }
 
+        /**
+         * Values passed to {@link DataAccessor#forEach} could be pooled and recycled as soon as the callback
+         * returns, they must be copied to be kept until the whole chunk is written
+         */
+        private static Object retainValue(Object value) {
+            if (value instanceof RawString) {
+                RawString string = (RawString) value;
+                return RawString.newUnpooledRawString(string.getData(), string.getOffset(), string.getLength());
+            }
+            return value;
+        }
+
+        private static void forEachColumn(DataAccessor da, String[] columnNames, ObjIntConsumer<Object> consumer) {
+            int numColumns = columnNames.length;
+            IntHolder currentColumn = new IntHolder();
+            da.forEach((String key, Object value) -> {
+                String expectedColumnName = columnNames[currentColumn.value];
+                while (!key.equals(expectedColumnName)) {
+                    // nulls are not returned for some special accessors, like DataAccessorForFullRecord
+                    consumer.accept(null, currentColumn.value);
+                    currentColumn.value++;
+                    expectedColumnName = columnNames[currentColumn.value];
+                }
+                consumer.accept(value, currentColumn.value);
+                currentColumn.value++;
+            });
+            // fill with nulls
+            while (currentColumn.value < numColumns) {
+                consumer.accept(null, currentColumn.value);
+                currentColumn.value++;
+            }
+            if (currentColumn.value > numColumns) {
+                throw new RuntimeException("unexpected number of columns " + currentColumn.value + " > " + numColumns);
+            }
+        }
+
+        private static byte columnValueType(Object v) {
+            if (v instanceof RawString || v instanceof String) {
+                return TYPE_STRING;
+            } else if (v instanceof Long) {
+                return TYPE_LONG;
+            } else if (v instanceof Integer) {
+                return TYPE_INTEGER;
+            } else if (v instanceof Boolean) {
+                return TYPE_BOOLEAN;
+            } else if (v instanceof java.util.Date) {
+                return TYPE_TIMESTAMP;
+            } else if (v instanceof Double || v instanceof Float) {
+                return TYPE_DOUBLE;
+            } else if (v instanceof Short) {
+                return TYPE_SHORT;
+            } else if (v instanceof byte[]) {
+                return TYPE_BYTEARRAY;
+            } else if (v instanceof Byte) {
+                return TYPE_BYTE;
+            } else {
+                throw new IllegalArgumentException("bad data type " + v.getClass());
+            }
+        }
+
+        private static void writeColumn(ByteBuf byteBuf, Object[] values) {
+            byte type = TYPE_NULL;
+            int nonNullValues = 0;
+            for (Object v : values) {
+                if (v != null) {
+                    byte valueType = columnValueType(v);
+                    if (type == TYPE_NULL) {
+                        type = valueType;
+                    } else if (type != valueType) {
+                        type = TYPE_MIXED;
+                    }
+                    nonNullValues++;
+                }
+            }
+            byteBuf.writeByte(type);
+            if (type == TYPE_NULL) {
+                return;
+            }
+            if (type == TYPE_MIXED) {
+                for (Object v : values) {
+                    writeObject(byteBuf, v);
+                }
+                return;
+            }
+            if (nonNullValues == values.length) {
+                byteBuf.writeByte(NULLABLE_FIELD_ABSENT);
+            } else {
+                byteBuf.writeByte(NULLABLE_FIELD_PRESENT);
+                int bits = 0;
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] == null) {
+                        bits |= 1 << (i & 7);
+                    }
+                    if ((i & 7) == 7) {
+                        byteBuf.writeByte(bits);
+                        bits = 0;
+                    }
+                }
+                if ((values.length & 7) != 0) {
+                    byteBuf.writeByte(bits);
+                }
+            }
+            switch (type) {
+                case TYPE_LONG:
+                case TYPE_INTEGER:
+                case TYPE_TIMESTAMP: {
+                    long previous = 0;
+                    for (Object v : values) {
+                        if (v != null) {
+                            long current = type == TYPE_TIMESTAMP ? ((java.util.Date) v).getTime() : ((Number) v).longValue();
+                            ByteBufUtils.writeZLong(byteBuf, current - previous);
+                            previous = current;
+                        }
+                    }
+                    break;
+                }
+                case TYPE_DOUBLE:
+                    for (Object v : values) {
+                        if (v != null) {
+                            byteBuf.writeDouble(((Number) v).doubleValue());
+                        }
+                    }
+                    break;
+                case TYPE_SHORT:
+                    for (Object v : values) {
+                        if (v != null) {
+                            byteBuf.writeShort((Short) v);
+                        }
+                    }
+                    break;
+                case TYPE_BYTE:
+                    for (Object v : values) {
+                        if (v != null) {
+                            byteBuf.writeByte((Byte) v);
+                        }
+                    }
+                    break;
+                case TYPE_BOOLEAN:
+                    for (Object v : values) {
+                        if (v != null) {
+                            byteBuf.writeBoolean((Boolean) v);
+                        }
+                    }
+                    break;
+                case TYPE_BYTEARRAY:
+                    for (Object v : values) {
+                        if (v != null) {
+                            ByteBufUtils.writeArray(byteBuf, (byte[]) v);
+                        }
+                    }
+                    break;
+                case TYPE_STRING:
+                    writeStrings(byteBuf, values, nonNullValues);
+                    break;
+                default:
+                    throw new IllegalArgumentException("bad column type " + type);
+            }
+        }
+
+        private static void writeStrings(ByteBuf byteBuf, Object[] values, int nonNullValues) {
+            Map<Object, Integer> dictionary = new HashMap<>();
+            for (Object v : values) {
+                if (v != null) {
+                    dictionary.putIfAbsent(v, dictionary.size());
+                }
+            }
+            if (dictionary.size() * 2 > nonNullValues) {
+                // mostly distinct values, a dictionary would only add indexes
+                byteBuf.writeByte(STRINGS_PLAIN);
+                for (Object v : values) {
+                    if (v != null) {
+                        writeString(byteBuf, v);
+                    }
+                }
+                return;
+            }
+            byteBuf.writeByte(STRINGS_DICTIONARY);
+            ByteBufUtils.writeVInt(byteBuf, dictionary.size());
+            Object[] entries = new Object[dictionary.size()];
+            dictionary.forEach((v, index) -> entries[index] = v);
+            for (Object v : entries) {
+                writeString(byteBuf, v);
+            }
+            for (Object v : values) {
+                if (v != null) {
+                    ByteBufUtils.writeVInt(byteBuf, dictionary.get(v));
+                }
+            }
+        }
+
+        private static void writeString(ByteBuf byteBuf, Object v) {
+            if (v instanceof RawString) {
+                ByteBufUtils.writeRawString(byteBuf, (RawString) v);
+            } else {
+                ByteBufUtils.writeString(byteBuf, (String) v);
+            }
+        }
+
+        /**
+         * Decodes a column written with {@link #FORMAT_COLUMNS}
+         *
+         * @param buffer     the buffer, positioned at the beginning of the
+         *                   column data (after the column length)
+         * @param numRecords number of records in the chunk
+         * @return the values of the column
+         */
+        public static Object[] readColumn(ByteBuf buffer, int numRecords) {
+            Object[] values = new Object[numRecords];
+            byte type = buffer.readByte();
+            if (type == TYPE_NULL) {
+                return values;
+            }
+            if (type == TYPE_MIXED) {
+                for (int i = 0; i < numRecords; i++) {
+                    values[i] = readObject(buffer);
+                }
+                return values;
+            }
+            boolean[] nulls = null;
+            if (buffer.readByte() == NULLABLE_FIELD_PRESENT) {
+                nulls = new boolean[numRecords];
+                int bits = 0;
+                for (int i = 0; i < numRecords; i++) {
+                    if ((i & 7) == 0) {
+                        bits = buffer.readByte();
+                    }
+                    nulls[i] = (bits & (1 << (i & 7))) != 0;
+                }
+            }
+            Object[] dictionary = null;
+            if (type == TYPE_STRING && buffer.readByte() == STRINGS_DICTIONARY) {
+                dictionary = new Object[ByteBufUtils.readVInt(buffer)];
+                for (int i = 0; i < dictionary.length; i++) {
+                    dictionary[i] = ByteBufUtils.readUnpooledRawString(buffer);
+                }
+            }
+            long previous = 0;
+            for (int i = 0; i < numRecords; i++) {
+                if (nulls != null && nulls[i]) {
+                    continue;
+                }
+                switch (type) {
+                    case TYPE_LONG:
+                        previous += ByteBufUtils.readZLong(buffer);
+                        values[i] = previous;
+                        break;
+                    case TYPE_INTEGER:
+                        previous += ByteBufUtils.readZLong(buffer);
+                        values[i] = (int) previous;
+                        break;
+                    case TYPE_TIMESTAMP:
+                        previous += ByteBufUtils.readZLong(buffer);
+                        values[i] = new java.sql.Timestamp(previous);
+                        break;
+                    case TYPE_DOUBLE:
+                        values[i] = buffer.readDouble();
+                        break;
+                    case TYPE_SHORT:
+                        values[i] = buffer.readShort();
+                        break;
+                    case TYPE_BYTE:
+                        values[i] = buffer.readByte();
+                        break;
+                    case TYPE_BOOLEAN:
+                        values[i] = buffer.readBoolean();
+                        break;
+                    case TYPE_BYTEARRAY:
+                        values[i] = ByteBufUtils.readArray(buffer);
+                        break;
+                    case TYPE_STRING:
+                        values[i] = dictionary != null
+                                ? dictionary[ByteBufUtils.readVInt(buffer)]
+                                : ByteBufUtils.readUnpooledRawString(buffer);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("bad column type " + type);
+                }
+            }
+            return values;
+        }
+
         public static long readTx(Pdu pdu) {
             ByteBuf buffer = pdu.buffer;
             return buffer.getLong(VERSION_SIZE
@@ -792,17 +1168,47 @@ public abstract class PduCodec {
                     + MSGID_SIZE);
         }
 
-        public static boolean readIsLast(Pdu pdu) {
+        private static byte readChunkFlags(Pdu pdu) {
             ByteBuf buffer = pdu.buffer;
             return buffer.getByte(VERSION_SIZE
                     + FLAGS_SIZE
                     + TYPE_SIZE
                     + MSGID_SIZE
                     + ONE_LONG
-            ) == 1;
+            );
+        }
+
+        public static boolean readIsLast(Pdu pdu) {
+            return (readChunkFlags(pdu) & FLAG_LAST) != 0;
+        }
+
+        /**
+         * Servers which send chunks with {@link #FORMAT_COLUMNS} serve
+         * FetchScannerData requests in the order of their sequence numbers,
+         * so more requests can be in flight at the same time
+         *
+         * @param pdu
+         * @return true if the client can pipeline fetch requests
+         */
+        public static boolean readSupportsSequencedFetch(Pdu pdu) {
+            return (readChunkFlags(pdu) & FLAG_COLUMNS) != 0;
         }
 
         public static RecordsBatch startReadingData(Pdu pdu) {
+            return startReadingData(pdu, null);
+        }
+
+        /**
+         * Starts reading records
+         *
+         * @param pdu
+         * @param columnNames names of the columns, as received with the first
+         *                    chunk of the same result set, they are used in case
+         *                    the chunk does not carry them
+         * @return the records
+         */
+        public static RecordsBatch startReadingData(Pdu pdu, String[] columnNames) {
+            byte flags = readChunkFlags(pdu);
             ByteBuf buffer = pdu.buffer;
             buffer.readerIndex(VERSION_SIZE
                     + FLAGS_SIZE
@@ -810,13 +1216,33 @@ public abstract class PduCodec {
                     + MSGID_SIZE
                     + ONE_LONG
                     + ONE_BYTE);
-            return new RecordsBatch(pdu);
+            boolean withColumnNames = (flags & FLAG_NO_COLUMN_NAMES) == 0;
+            if (!withColumnNames && columnNames == null) {
+                throw new IllegalStateException("column names are not known for chunk " + pdu);
+            }
+            return new RecordsBatch(pdu, (flags & FLAG_COLUMNS) != 0, withColumnNames ? null : columnNames);
         }
     }
 
     public static class FetchScannerData {
 
         public static ByteBuf write(long messageId, long scannerId, int fetchSize) {
+            return write(messageId, scannerId, fetchSize, -1);
+        }
+
+        /**
+         * Requests a chunk of a result set
+         *
+         * @param messageId
+         * @param scannerId
+         * @param fetchSize
+         * @param sequence  sequence number of the chunk (the first chunk, sent
+         *                  in reply to OpenScanner, is 0), a negative value
+         *                  requests the chunk after the last requested one
+         * @return the encoded message
+         * @see ResultSetChunk#readSupportsSequencedFetch(herddb.proto.Pdu)
+         */
+        public static ByteBuf write(long messageId, long scannerId, int fetchSize, long sequence) {
             ByteBuf byteBuf = PooledByteBufAllocator.DEFAULT
                     .directBuffer(
                             VERSION_SIZE
@@ -824,13 +1250,17 @@ public abstract class PduCodec {
                                     + TYPE_SIZE
                                     + MSGID_SIZE
                                     + ONE_LONG
-                                    + ONE_INT);
+                                    + ONE_INT
+                                    + ONE_LONG);
             byteBuf.writeByte(VERSION_3);
             byteBuf.writeByte(Pdu.FLAGS_ISREQUEST);
             byteBuf.writeByte(Pdu.TYPE_FETCHSCANNERDATA);
             byteBuf.writeLong(messageId);
             byteBuf.writeLong(scannerId);
             byteBuf.writeInt(fetchSize);
+            if (sequence >= 0) {
+                byteBuf.writeLong(sequence);
+            }
             return byteBuf;
         }
 
@@ -850,6 +1280,21 @@ public abstract class PduCodec {
                     + MSGID_SIZE
                     + ONE_LONG);
         }
+
+        public static long readSequence(Pdu pdu) {
+            ByteBuf buffer = pdu.buffer;
+            int index = VERSION_SIZE
+                    + FLAGS_SIZE
+                    + TYPE_SIZE
+                    + MSGID_SIZE
+                    + ONE_LONG
+                    + ONE_INT;
+            if (buffer.writerIndex() < index + ONE_LONG) {
+                // old clients
+                return -1;
+            }
+            return buffer.getLong(index);
+        }
     }
 
     public static class CloseScanner {
@@ -223,11 +223,12 @@ public class ByteBufUtils {
     }
 
     public static void writeZLong(ByteBuf buffer, long i) {
-        writeVLong(buffer, zigZagEncode(i));
+        // values whose magnitude is at least 2^62 are encoded with the sign bit set
+        writeSignedVLong(buffer, zigZagEncode(i));
     }
 
     public static long readZLong(ByteBuf buffer) {
-        return zigZagDecode(readVLong(buffer));
+        return zigZagDecode(readVLong(buffer, true));
     }
 
     public static void writeDouble(ByteBuf buffer, double i) {
@@ -59,6 +59,10 @@ public final class Bytes implements Comparable<Bytes>, SizeAwareObject {
         return value.length + CONSTANT_BYTE_SIZE;
     }
 
+    public static long estimateSize(int length) {
+        return length + CONSTANT_BYTE_SIZE;
+    }
+
     private final byte[] buffer;
     private final int offset;
     private final int length;
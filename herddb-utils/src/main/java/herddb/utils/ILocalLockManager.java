@@ -31,6 +31,30 @@ public interface ILocalLockManager {
 
     LockHandle acquireWriteLockForKey(Bytes key);
 
+    /**
+     * Acquire a read lock on behalf of an owner (usually a transaction). Implementations which could map
+     * different keys to the same lock use the owner to grant reentrant acquisitions.
+     *
+     * @param key   key to lock
+     * @param owner lock owner
+     * @return a lock handle
+     */
+    default LockHandle acquireReadLockForKey(Bytes key, Object owner) {
+        return acquireReadLockForKey(key);
+    }
+
+    /**
+     * Acquire a write lock on behalf of an owner (usually a transaction). Implementations which could map
+     * different keys to the same lock use the owner to grant reentrant acquisitions.
+     *
+     * @param key   key to lock
+     * @param owner lock owner
+     * @return a lock handle
+     */
+    default LockHandle acquireWriteLockForKey(Bytes key, Object owner) {
+        return acquireWriteLockForKey(key);
+    }
+
     void clear();
 
     void releaseLock(LockHandle handle);
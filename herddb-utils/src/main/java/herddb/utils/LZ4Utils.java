@@ -0,0 +1,71 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.utils;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+/**
+ * Utility for LZ4 block compression, the pure Java implementation is used (no native code)
+ */
+public class LZ4Utils {
+
+    private static final LZ4Factory factory = LZ4Factory.safeInstance();
+    private static final LZ4Compressor COMPRESSOR = factory.fastCompressor();
+    private static final LZ4SafeDecompressor DECOMPRESSOR = factory.safeDecompressor();
+
+    public static int maxCompressedLength(int len) {
+        return COMPRESSOR.maxCompressedLength(len);
+    }
+
+    /**
+     * Compresses a block of data
+     *
+     * @param dest   destination, at least {@link #maxCompressedLength(int)} bytes must be available from destOffset
+     * @return the length of compressed data
+     */
+    public static int compress(byte[] src, int offset, int len, byte[] dest, int destOffset) {
+        return COMPRESSOR.compress(src, offset, len, dest, destOffset, dest.length - destOffset);
+    }
+
+    /**
+     * Decompresses a block of data, malformed data is always detected
+     *
+     * @param len            length of compressed data
+     * @param uncompressedLen expected length of decompressed data
+     * @return decompressed data
+     * @throws IllegalArgumentException if data is malformed or it does not decompress to the expected length
+     */
+    public static byte[] decompress(byte[] src, int offset, int len, int uncompressedLen) {
+        byte[] result = new byte[uncompressedLen];
+        try {
+            int actual = DECOMPRESSOR.decompress(src, offset, len, result, 0, uncompressedLen);
+            if (actual != uncompressedLen) {
+                throw new IllegalArgumentException("bad compressed data, length " + actual + " instead of " + uncompressedLen);
+            }
+        } catch (LZ4Exception err) {
+            throw new IllegalArgumentException("bad compressed data: " + err.getMessage(), err);
+        }
+        return result;
+    }
+}
@@ -23,6 +23,8 @@ package herddb.utils;
 import herddb.proto.Pdu;
 import herddb.proto.PduCodec;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -44,22 +46,72 @@ public class RecordsBatch {
     private boolean finished;
     public Map<String, Integer> columnNameToPosition;
 
+    /**
+     * Decoded columns, only for chunks written column by column
+     */
+    private final Object[][] columns;
+
+    /**
+     * Encoded columns not decoded yet, they point to the Pdu until it is
+     * released, then to a copy on heap
+     */
+    private final ByteBuf[] encodedColumns;
+
     public RecordsBatch(Pdu message) {
-        this.buffer = message.buffer;
+        this(message, false, null);
+    }
+
+    /**
+     * Starts reading records
+     *
+     * @param message     the message, positioned at the beginning of data
+     * @param columnar    if the chunk has been written column by column
+     * @param columnNames names of the columns, if they are not written in the
+     *                    chunk
+     */
+    public RecordsBatch(Pdu message, boolean columnar, String[] columnNames) {
         this.message = message;
         this.buffer = message.buffer;
         this.currentRecordIndex = -1;
         int numColumns = buffer.readInt();
-        this.columnNames = new String[numColumns];
-        for (int i = 0; i < numColumns; i++) {
-            this.columnNames[i] = ByteBufUtils.readString(buffer);
+        if (columnNames != null) {
+            if (columnNames.length != numColumns) {
+                throw new IllegalStateException("unexpected number of columns " + numColumns + " <> " + columnNames.length);
+            }
+            this.columnNames = columnNames;
+        } else {
+            this.columnNames = new String[numColumns];
+            for (int i = 0; i < numColumns; i++) {
+                this.columnNames[i] = ByteBufUtils.readString(buffer);
+            }
         }
         this.numRecords = buffer.readInt();
+        if (columnar) {
+            this.columns = new Object[numColumns][];
+            this.encodedColumns = new ByteBuf[numColumns];
+            for (int i = 0; i < numColumns; i++) {
+                int length = buffer.readInt();
+                encodedColumns[i] = buffer.readSlice(length);
+            }
+        } else {
+            this.columns = null;
+            this.encodedColumns = null;
+        }
         if (numRecords == 0) {
             finished = true;
         }
     }
 
+    private Object[] column(int index) {
+        Object[] column = columns[index];
+        if (column == null) {
+            column = PduCodec.ResultSetChunk.readColumn(encodedColumns[index], numRecords);
+            columns[index] = column;
+            encodedColumns[index] = null;
+        }
+        return column;
+    }
+
     private void ensureColumnNameToPosition() {
         if (columnNameToPosition == null) {
             columnNameToPosition = new HashMap<>();
@@ -109,7 +161,45 @@ public class RecordsBatch {
 
     }
 
+    private final class ColumnarRowDataAccessor implements DataAccessor {
+
+        private final int record;
+
+        public ColumnarRowDataAccessor(int record) {
+            this.record = record;
+        }
+
+        @Override
+        public Object get(int index) {
+            return column(index)[record];
+        }
+
+        @Override
+        public int getNumFields() {
+            return columnNames.length;
+        }
+
+        @Override
+        public Object get(String property) {
+            ensureColumnNameToPosition();
+            Integer i = columnNameToPosition.get(property);
+            if (i == null) {
+                return null;
+            }
+            return get(i);
+        }
+
+        @Override
+        public String[] getFieldNames() {
+            return columnNames;
+        }
+
+    }
+
     private DataAccessor readRecordAtCurrentPosition() {
+        if (columns != null) {
+            return new ColumnarRowDataAccessor(currentRecordIndex);
+        }
         Object[] values = new Object[columnNames.length];
         for (int i = 0; i < columnNames.length; i++) {
             values[i] = PduCodec.readObject(buffer);
@@ -150,6 +240,15 @@ public class RecordsBatch {
     }
 
     public void release() {
+        if (encodedColumns != null) {
+            // records may be still in use, keep a copy of columns not decoded yet
+            for (int i = 0; i < encodedColumns.length; i++) {
+                ByteBuf encoded = encodedColumns[i];
+                if (encoded != null) {
+                    encodedColumns[i] = Unpooled.wrappedBuffer(ByteBufUtil.getBytes(encoded));
+                }
+            }
+        }
         message.close();
         message = null;
         next = null;
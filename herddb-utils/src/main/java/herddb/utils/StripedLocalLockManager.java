@@ -0,0 +1,380 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.utils;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handle locks by key using a fixed array of lock stripes.
+ * <p>
+ * Keys are mapped to stripes by hash, a stripe monitor guards the state of its locked keys. Each locked key has
+ * a single state object, which is the handle returned to acquisitions of the key too: readers without an owner
+ * share it and an owner acquiring again a key it holds for write gets it back. Reads with an owner get their own
+ * small handle, in order to track which owners hold the key. No state is kept for unlocked keys and, as
+ * conflicts are checked by key, different keys sharing a stripe never block each other.
+ * </p>
+ * <p>
+ * Acquisitions are reentrant only for the same non {@code null} owner holding the key. An owner holding a key
+ * for read must release it before locking the key for write. Readers give precedence to waiting writers, but
+ * owners already holding the key for read, which would otherwise deadlock with writers waiting for them.
+ * </p>
+ */
+public class StripedLocalLockManager implements ILocalLockManager {
+
+    public static final int DEFAULT_STRIPES = 4096;
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+    private int writeLockTimeout = 60 * 30;
+    private int readLockTimeout = 60 * 30;
+
+    private static final class Stripe {
+
+        /**
+         * Locked keys of the stripe, usually very few
+         */
+        private KeyLock head;
+
+        private KeyLock find(Bytes key) {
+            for (KeyLock lock = head; lock != null; lock = lock.next) {
+                if (lock.key.equals(key)) {
+                    return lock;
+                }
+            }
+            return null;
+        }
+
+        private KeyLock add(Bytes key, boolean write, Object owner) {
+            final KeyLock lock = new KeyLock(key, write, this, owner);
+            lock.next = head;
+            head = lock;
+            return lock;
+        }
+
+        private void remove(KeyLock lock) {
+            if (head == lock) {
+                head = lock.next;
+            } else {
+                KeyLock prev = head;
+                while (prev.next != lock) {
+                    prev = prev.next;
+                }
+                prev.next = lock.next;
+            }
+            lock.next = null;
+        }
+
+        private int size() {
+            int size = 0;
+            for (KeyLock lock = head; lock != null; lock = lock.next) {
+                size++;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * State of a locked key, guarded by its stripe monitor
+     */
+    private static final class KeyLock extends LockHandle {
+
+        /**
+         * Write lock owner, {@code null} for read locks and writes without an owner
+         */
+        private final Object owner;
+
+        /**
+         * Held acquisitions: every read for read locks, the write and reentrant acquisitions for write locks
+         */
+        private int count = 1;
+
+        private int waitingWriters;
+
+        /**
+         * Read acquisitions by owner, {@code null} if there are none
+         */
+        private Map<Object, Integer> readOwners;
+
+        /**
+         * Set when the lock is dropped from its stripe by {@link #clear()}, holders can still release it
+         */
+        private boolean cleared;
+
+        private KeyLock next;
+
+        private KeyLock(Bytes key, boolean write, Stripe stripe, Object owner) {
+            super(0, key, write, stripe);
+            this.owner = owner;
+        }
+
+        private boolean isReadBy(Object owner) {
+            return readOwners != null && readOwners.containsKey(owner);
+        }
+
+        private OwnedReadHandle addReadOwner(Object owner) {
+            if (readOwners == null) {
+                readOwners = new IdentityHashMap<>(2);
+            }
+            readOwners.merge(owner, 1, Integer::sum);
+            return new OwnedReadHandle(this, owner);
+        }
+
+        private void removeReadOwner(Object owner) {
+            if (readOwners.merge(owner, -1, Integer::sum) == 0) {
+                readOwners.remove(owner);
+            }
+        }
+    }
+
+    /**
+     * Handle of a read lock acquired by an owner
+     */
+    private static final class OwnedReadHandle extends LockHandle {
+
+        private final Object owner;
+
+        private OwnedReadHandle(KeyLock lock, Object owner) {
+            super(0, lock.key, false, lock);
+            this.owner = owner;
+        }
+    }
+
+    public StripedLocalLockManager() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes requested number of stripes, rounded up to a power of two
+     */
+    public StripedLocalLockManager(int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("invalid number of stripes " + stripes);
+        }
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes) {
+            size <<= 1;
+        }
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.mask = size - 1;
+    }
+
+    public int getNumStripes() {
+        return stripes.length;
+    }
+
+    public int getWriteLockTimeout() {
+        return writeLockTimeout;
+    }
+
+    public void setWriteLockTimeout(int writeLockTimeout) {
+        this.writeLockTimeout = writeLockTimeout;
+    }
+
+    public int getReadLockTimeout() {
+        return readLockTimeout;
+    }
+
+    public void setReadLockTimeout(int readLockTimeout) {
+        this.readLockTimeout = readLockTimeout;
+    }
+
+    private Stripe stripeFor(Bytes key) {
+        final int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    @Override
+    public LockHandle acquireReadLockForKey(Bytes key) {
+        return acquireReadLockForKey(key, null);
+    }
+
+    @Override
+    public LockHandle acquireReadLockForKey(Bytes key, Object owner) {
+        final Stripe stripe = stripeFor(key);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(readLockTimeout);
+        synchronized (stripe) {
+            while (true) {
+                KeyLock lock = stripe.find(key);
+                if (lock == null) {
+                    lock = stripe.add(key, false, null);
+                    return owner == null ? lock : lock.addReadOwner(owner);
+                }
+                if (lock.write) {
+                    if (owner != null && lock.owner == owner) {
+                        /* Reading under our own write lock */
+                        ++lock.count;
+                        return lock;
+                    }
+                } else if (lock.waitingWriters == 0 || (owner != null && lock.isReadBy(owner))) {
+                    ++lock.count;
+                    return owner == null ? lock : lock.addReadOwner(owner);
+                }
+                if (!await(stripe, deadline)) {
+                    throw new RuntimeException("timedout trying to read lock");
+                }
+            }
+        }
+    }
+
+    @Override
+    public LockHandle acquireWriteLockForKey(Bytes key) {
+        return acquireWriteLockForKey(key, null);
+    }
+
+    @Override
+    public LockHandle acquireWriteLockForKey(Bytes key, Object owner) {
+        final Stripe stripe = stripeFor(key);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(writeLockTimeout);
+        synchronized (stripe) {
+            while (true) {
+                final KeyLock lock = stripe.find(key);
+                if (lock == null) {
+                    return stripe.add(key, true, owner);
+                }
+                if (lock.write && owner != null && lock.owner == owner) {
+                    ++lock.count;
+                    return lock;
+                }
+                ++lock.waitingWriters;
+                final boolean acquirable;
+                try {
+                    acquirable = await(stripe, deadline);
+                } finally {
+                    --lock.waitingWriters;
+                }
+                if (!acquirable) {
+                    /* Readers could have been waiting for us */
+                    stripe.notifyAll();
+                    throw new RuntimeException("timed out acquiring lock for write");
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait on stripe monitor (must be held)
+     *
+     * @return {@code false} if timed out
+     */
+    private static boolean await(Stripe stripe, long deadline) {
+        final long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+            return false;
+        }
+        try {
+            TimeUnit.NANOSECONDS.timedWait(stripe, remaining);
+            return true;
+        } catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(err);
+        }
+    }
+
+    private static void release(LockHandle handle) {
+        final KeyLock lock;
+        final Object readOwner;
+        if (handle instanceof OwnedReadHandle) {
+            lock = (KeyLock) handle.handle;
+            readOwner = ((OwnedReadHandle) handle).owner;
+        } else {
+            lock = (KeyLock) handle;
+            readOwner = null;
+        }
+        final Stripe stripe = (Stripe) lock.handle;
+        synchronized (stripe) {
+            if (lock.count <= 0) {
+                throw new IllegalStateException("trying to release un-owned lock");
+            }
+            if (readOwner != null) {
+                lock.removeReadOwner(readOwner);
+            }
+            if (--lock.count == 0 && !lock.cleared) {
+                stripe.remove(lock);
+                stripe.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void releaseWriteLock(LockHandle handle) {
+        release(handle);
+    }
+
+    @Override
+    public void releaseReadLock(LockHandle handle) {
+        /* Could be a read under a write lock too, both just drop an acquisition */
+        release(handle);
+    }
+
+    @Override
+    public void releaseLock(LockHandle handle) {
+        if (handle == null) {
+            return;
+        }
+        release(handle);
+    }
+
+    /**
+     * Forgets every lock without waiting for them, as other lock managers do: holders can still release dropped
+     * locks and next acquisitions of their keys do not conflict with them.
+     */
+    @Override
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                if (stripe.head == null) {
+                    continue;
+                }
+                KeyLock lock = stripe.head;
+                stripe.head = null;
+                while (lock != null) {
+                    final KeyLock next = lock.next;
+                    lock.cleared = true;
+                    lock.next = null;
+                    lock = next;
+                }
+                /* Waiters look for their keys again */
+                stripe.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of currently locked keys.
+     */
+    @Override
+    public int getNumKeys() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.size();
+            }
+        }
+        return count;
+    }
+
+}
@@ -23,6 +23,7 @@ package herddb.utils;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import net.jpountz.xxhash.StreamingXXHash64;
 import net.jpountz.xxhash.XXHash64;
@@ -50,6 +51,10 @@ public class XXHash64Utils {
         return HASHER.hash(array, offset, len, DEFAULT_SEED);
     }
 
+    public static long hash(ByteBuffer buffer, int offset, int len) {
+        return HASHER.hash(buffer, offset, len, DEFAULT_SEED);
+    }
+
     public static boolean verifyBlockWithFooter(byte[] array, int offset, int len) {
         byte[] expectedFooter = Arrays.copyOfRange(array, len - HASH_LEN, len);
         long expectedHash = HASHER.hash(array, offset, len - HASH_LEN, DEFAULT_SEED);
@@ -33,6 +33,7 @@ import herddb.utils.Sized;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -510,6 +511,55 @@ public class BLinkTest {
         }
     }
 
+    @Test
+    public void testScanDescending() throws Exception {
+
+        BLinkIndexDataStorage<Sized<Long>, Long> storage = new DummyBLinkIndexDataStorage<>();
+
+        try (BLink<Sized<Long>, Long> blink = new BLink<>(2048L, new LongSizeEvaluator(), new RandomPageReplacementPolicy(10), storage)) {
+
+            final long inserts = 1000;
+
+            for (long l = 0; l < inserts; l++) {
+                blink.insert(Sized.valueOf(l), l);
+            }
+            /* Leave holes, even whole nodes without data */
+            for (long l = 300; l < 600; l++) {
+                blink.delete(Sized.valueOf(l));
+            }
+            for (long l = 0; l < inserts; l += 7) {
+                blink.delete(Sized.valueOf(l));
+            }
+
+            BLinkMetadata<Sized<Long>> metadata = blink.checkpoint();
+
+            /* Require at least two nodes! */
+            assertNotEquals(1, metadata.nodes.size());
+
+            long[][] ranges = new long[][]{{-1, -1}, {-1, 500}, {100, -1}, {250, 650}, {350, 450}, {10, 11}, {7, 8}};
+            for (long[] range : ranges) {
+                Sized<Long> from = range[0] < 0 ? null : Sized.valueOf(range[0]);
+                Sized<Long> to = range[1] < 0 ? null : Sized.valueOf(range[1]);
+
+                List<Long> expected = new ArrayList<>();
+                blink.scan(from, to).forEach(entry -> expected.add(entry.getValue()));
+                Collections.reverse(expected);
+
+                List<Long> result = new ArrayList<>();
+                blink.scanDescending(from, to).forEach(entry -> result.add(entry.getValue()));
+
+                assertEquals(Arrays.toString(range), expected, result);
+            }
+
+            assertEquals(0, blink.scanDescending(Sized.valueOf(20L), Sized.valueOf(10L)).count());
+
+            /* Early exit */
+            List<Long> result = new ArrayList<>();
+            blink.scanDescending(null, null).limit(3).forEach(entry -> result.add(entry.getValue()));
+            assertEquals(Arrays.asList(999L, 998L, 997L), result);
+        }
+    }
+
     @Test
     public void testScanMiddleNotExistent() throws Exception {
 
@@ -58,14 +58,14 @@ public class LocalLockManagerTest {
     @Parameters
     public static Collection<Object[]> data() {
         return Arrays.asList(new Object[][]{
-                {true}, {false}
+                {"legacy"}, {"default"}, {"striped"}
         });
     }
 
-    private final boolean legacy;
+    private final String type;
 
-    public LocalLockManagerTest(boolean legacy) {
-        this.legacy = legacy;
+    public LocalLockManagerTest(String type) {
+        this.type = type;
     }
 
     @Test
@@ -265,16 +265,25 @@ public class LocalLockManagerTest {
     }
 
     private ILocalLockManager makeLockManager() {
-        if (legacy) {
-            LegacyLocalLockManager res = new LegacyLocalLockManager();
-            res.setWriteLockTimeout(1);
-            res.setReadLockTimeout(1);
-            return res;
-        } else {
-            LocalLockManager res = new LocalLockManager();
-            res.setWriteLockTimeout(1);
-            res.setReadLockTimeout(1);
-            return res;
+        switch (type) {
+            case "legacy": {
+                LegacyLocalLockManager res = new LegacyLocalLockManager();
+                res.setWriteLockTimeout(1);
+                res.setReadLockTimeout(1);
+                return res;
+            }
+            case "striped": {
+                StripedLocalLockManager res = new StripedLocalLockManager();
+                res.setWriteLockTimeout(1);
+                res.setReadLockTimeout(1);
+                return res;
+            }
+            default: {
+                LocalLockManager res = new LocalLockManager();
+                res.setWriteLockTimeout(1);
+                res.setReadLockTimeout(1);
+                return res;
+            }
         }
     }
 
@@ -0,0 +1,169 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import herddb.proto.Pdu;
+import herddb.proto.PduCodec;
+import io.netty.buffer.ByteBuf;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Tests on encoding and decoding of chunks of result sets
+ */
+public class RecordsBatchTest {
+
+    private static final String[] COLUMNS = {"id", "n1", "n2", "s1", "t1", "d1", "b1", "m1", "empty"};
+
+    private static List<DataAccessor> records(int count) {
+        List<DataAccessor> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("id", RawString.of("id_" + i));
+            map.put("n1", Long.MAX_VALUE - i * 3L);
+            if (i % 3 != 0) {
+                map.put("n2", -i);
+            }
+            map.put("s1", "group_" + (i % 4));
+            map.put("t1", new java.sql.Timestamp(1_500_000_000_000L - i));
+            map.put("d1", i / 3.0);
+            if (i % 2 == 0) {
+                map.put("b1", new byte[]{(byte) i, 1});
+            }
+            // values of different types
+            map.put("m1", i % 2 == 0 ? (Object) i : (Object) ("v" + i));
+            records.add(new MapDataAccessor(map, COLUMNS));
+        }
+        return records;
+    }
+
+    private static void assertRecord(int i, DataAccessor record) {
+        assertEquals(RawString.of("id_" + i), record.get("id"));
+        assertEquals(Long.MAX_VALUE - i * 3L, record.get(1));
+        assertEquals(i % 3 != 0 ? -i : null, record.get("n2"));
+        assertEquals("group_" + (i % 4), record.get("s1").toString());
+        assertEquals(new java.sql.Timestamp(1_500_000_000_000L - i), record.get("t1"));
+        assertEquals(i / 3.0, record.get("d1"));
+        if (i % 2 == 0) {
+            assertArrayEquals(new byte[]{(byte) i, 1}, (byte[]) record.get("b1"));
+            assertEquals(i, record.get("m1"));
+        } else {
+            assertNull(record.get("b1"));
+            assertEquals("v" + i, record.get("m1").toString());
+        }
+        assertNull(record.get("empty"));
+    }
+
+    private static RecordsBatch roundTrip(int count, byte format, boolean writeColumnNames, String[] knownColumnNames) throws Exception {
+        ByteBuf buffer = PduCodec.ResultSetChunk.write(1, new TuplesList(COLUMNS, records(count)), true, 7,
+                format, writeColumnNames);
+        Pdu pdu = PduCodec.decodePdu(buffer);
+        assertTrue(PduCodec.ResultSetChunk.readIsLast(pdu));
+        assertEquals(7, PduCodec.ResultSetChunk.readTx(pdu));
+        return PduCodec.ResultSetChunk.startReadingData(pdu, knownColumnNames);
+    }
+
+    @Test
+    public void testFormats() throws Exception {
+        for (byte format : new byte[]{PduCodec.ResultSetChunk.FORMAT_ROWS, PduCodec.ResultSetChunk.FORMAT_COLUMNS}) {
+            for (int count : new int[]{0, 1, 8, 9, 100}) {
+                RecordsBatch batch = roundTrip(count, format, true, null);
+                assertArrayEquals(COLUMNS, batch.columnNames);
+                assertEquals(count, batch.numRecords);
+                int i = 0;
+                while (batch.hasNext()) {
+                    assertRecord(i++, batch.next());
+                }
+                assertEquals(count, i);
+                batch.release();
+            }
+        }
+    }
+
+    @Test
+    public void testColumnNamesFromPreviousChunk() throws Exception {
+        RecordsBatch batch = roundTrip(10, PduCodec.ResultSetChunk.FORMAT_COLUMNS, false, COLUMNS);
+        assertArrayEquals(COLUMNS, batch.columnNames);
+        int i = 0;
+        while (batch.hasNext()) {
+            assertRecord(i++, batch.next());
+        }
+        assertEquals(10, i);
+        batch.release();
+
+        // column names are always written with rows format
+        batch = roundTrip(10, PduCodec.ResultSetChunk.FORMAT_ROWS, false, null);
+        assertArrayEquals(COLUMNS, batch.columnNames);
+        batch.release();
+    }
+
+    @Test
+    public void testAccessRecordsAfterRelease() throws Exception {
+        RecordsBatch batch = roundTrip(20, PduCodec.ResultSetChunk.FORMAT_COLUMNS, true, null);
+        List<DataAccessor> records = new ArrayList<>();
+        while (batch.hasNext()) {
+            DataAccessor record = batch.next();
+            // decode only one column
+            assertEquals(RawString.of("id_" + records.size()), record.get(0));
+            records.add(record);
+        }
+        batch.release();
+        for (int i = 0; i < records.size(); i++) {
+            assertRecord(i, records.get(i));
+        }
+    }
+
+    @Test
+    public void testDictionaryIsSmaller() throws Exception {
+        List<DataAccessor> records = new ArrayList<>();
+        String[] columns = {"s1"};
+        for (int i = 0; i < 1000; i++) {
+            records.add(new MapDataAccessor(Collections.singletonMap("s1", "a rather long repeated value " + (i % 2)), columns));
+        }
+        TuplesList tuples = new TuplesList(columns, records);
+        ByteBuf rows = PduCodec.ResultSetChunk.write(1, tuples, false, 0);
+        ByteBuf cols = PduCodec.ResultSetChunk.write(1, tuples, false, 0, PduCodec.ResultSetChunk.FORMAT_COLUMNS, false);
+        try {
+            assertTrue(cols.readableBytes() * 10 < rows.readableBytes());
+            Pdu pdu = PduCodec.decodePdu(cols);
+            assertFalse(PduCodec.ResultSetChunk.readIsLast(pdu));
+            RecordsBatch batch = PduCodec.ResultSetChunk.startReadingData(pdu, columns);
+            int i = 0;
+            while (batch.hasNext()) {
+                assertEquals("a rather long repeated value " + (i++ % 2), batch.next().get("s1").toString());
+            }
+            assertEquals(1000, i);
+            batch.release();
+        } finally {
+            rows.release();
+        }
+    }
+
+}
@@ -0,0 +1,284 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+
+package herddb.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+/**
+ * Tests on StripedLocalLockManager, a single stripe is used so every key collides
+ */
+public class StripedLocalLockManagerTest {
+
+    private static final Bytes KEY1 = Bytes.from_int(1);
+    private static final Bytes KEY2 = Bytes.from_int(2);
+    private static final Bytes KEY3 = Bytes.from_int(3);
+    private static final Bytes KEY4 = Bytes.from_int(4);
+
+    @Rule
+    public Timeout timeout = new Timeout(10000);
+
+    private static StripedLocalLockManager makeLockManager() {
+        StripedLocalLockManager res = new StripedLocalLockManager(1);
+        res.setWriteLockTimeout(1);
+        res.setReadLockTimeout(1);
+        return res;
+    }
+
+    @Test
+    public void testStripesRoundedToPowerOfTwo() {
+        assertEquals(1, new StripedLocalLockManager(1).getNumStripes());
+        assertEquals(16, new StripedLocalLockManager(10).getNumStripes());
+        assertEquals(StripedLocalLockManager.DEFAULT_STRIPES, new StripedLocalLockManager().getNumStripes());
+    }
+
+    @Test
+    public void testOwnerReentrantWrites() {
+        StripedLocalLockManager manager = makeLockManager();
+        Object tx = new Object();
+        LockHandle w1 = manager.acquireWriteLockForKey(KEY1, tx);
+        LockHandle w2 = manager.acquireWriteLockForKey(KEY2, tx);
+        LockHandle r2 = manager.acquireReadLockForKey(KEY2, tx);
+        LockHandle w2b = manager.acquireWriteLockForKey(KEY2, tx);
+        assertTrue(w1.write);
+        assertTrue(w2.write);
+        /* Reentrant acquisitions get the same handle */
+        assertSame(w2, r2);
+        assertSame(w2, w2b);
+        assertEquals(2, manager.getNumKeys());
+
+        manager.releaseLock(w1);
+        manager.releaseLock(r2);
+        manager.releaseLock(w2b);
+        assertEquals(1, manager.getNumKeys());
+
+        /* Still locked for other owners */
+        try {
+            manager.acquireReadLockForKey(KEY2, new Object());
+            fail();
+        } catch (RuntimeException ok) {
+        }
+
+        manager.releaseLock(w2);
+        assertEquals(0, manager.getNumKeys());
+
+        manager.releaseLock(manager.acquireWriteLockForKey(KEY2, new Object()));
+        assertEquals(0, manager.getNumKeys());
+
+        try {
+            manager.releaseLock(w2);
+            fail();
+        } catch (IllegalStateException ok) {
+        }
+    }
+
+    @Test
+    public void testSharedReadHandle() {
+        StripedLocalLockManager manager = makeLockManager();
+        LockHandle r1 = manager.acquireReadLockForKey(KEY1);
+        LockHandle r2 = manager.acquireReadLockForKey(KEY1);
+        assertFalse(r1.write);
+        assertSame(r1, r2);
+        /* Reads with an owner get their own handle to the same key state */
+        LockHandle owned = manager.acquireReadLockForKey(KEY1, new Object());
+        assertFalse(owned.write);
+        assertSame(r1, owned.handle);
+        assertEquals(1, manager.getNumKeys());
+        manager.releaseLock(r1);
+        manager.releaseLock(owned);
+        manager.releaseLock(r2);
+        assertEquals(0, manager.getNumKeys());
+
+        /* A new handle once the key has been released */
+        LockHandle r3 = manager.acquireReadLockForKey(KEY1);
+        assertNotSame(r1, r3);
+        manager.releaseLock(r3);
+    }
+
+    @Test
+    public void testUpgradeWaitsForOtherReaders() throws Exception {
+        StripedLocalLockManager manager = makeLockManager();
+        manager.setWriteLockTimeout(5);
+        Object tx1 = new Object();
+        Object tx2 = new Object();
+        LockHandle r1 = manager.acquireReadLockForKey(KEY2, tx1);
+        LockHandle r2 = manager.acquireReadLockForKey(KEY2, tx2);
+
+        /* Owners release their read lock before upgrading */
+        manager.releaseLock(r1);
+        CompletableFuture<LockHandle> upgrade = CompletableFuture.supplyAsync(() -> manager.acquireWriteLockForKey(KEY2, tx1));
+        try {
+            upgrade.get(200, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (TimeoutException ok) {
+        }
+
+        manager.releaseLock(r2);
+        LockHandle w = upgrade.get(5, TimeUnit.SECONDS);
+        manager.releaseLock(w);
+        assertEquals(0, manager.getNumKeys());
+    }
+
+    @Test
+    public void testCollidingKeysWithoutOwner() {
+        StripedLocalLockManager manager = makeLockManager();
+        LockHandle w1 = manager.acquireWriteLockForKey(KEY1);
+        LockHandle w2 = manager.acquireWriteLockForKey(KEY2);
+        LockHandle r3 = manager.acquireReadLockForKey(KEY3);
+        assertEquals(3, manager.getNumKeys());
+
+        /* The same key is never reentrant without an owner */
+        try {
+            manager.acquireWriteLockForKey(KEY1);
+            fail();
+        } catch (RuntimeException ok) {
+        }
+        try {
+            manager.acquireReadLockForKey(KEY2);
+            fail();
+        } catch (RuntimeException ok) {
+        }
+        manager.releaseLock(w1);
+        manager.releaseLock(w2);
+        manager.releaseLock(r3);
+        assertEquals(0, manager.getNumKeys());
+    }
+
+    @Test
+    public void testCollidingKeysCrossWise() {
+        StripedLocalLockManager manager = makeLockManager();
+        Object tx1 = new Object();
+        Object tx2 = new Object();
+        LockHandle w1 = manager.acquireWriteLockForKey(KEY1, tx1);
+        LockHandle w2 = manager.acquireWriteLockForKey(KEY2, tx2);
+        LockHandle w3 = manager.acquireWriteLockForKey(KEY3, tx1);
+        LockHandle w4 = manager.acquireWriteLockForKey(KEY4, tx2);
+        assertEquals(4, manager.getNumKeys());
+        for (LockHandle handle : new LockHandle[]{w1, w2, w3, w4}) {
+            manager.releaseLock(handle);
+        }
+        assertEquals(0, manager.getNumKeys());
+    }
+
+    @Test
+    public void testManyReadersOwners() {
+        StripedLocalLockManager manager = makeLockManager();
+        Object[] owners = new Object[10];
+        LockHandle[] handles = new LockHandle[owners.length];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = new Object();
+            handles[i] = manager.acquireReadLockForKey(KEY1, owners[i]);
+        }
+        for (int i = 1; i < owners.length; i++) {
+            manager.releaseLock(handles[i]);
+        }
+        try {
+            manager.acquireWriteLockForKey(KEY1, owners[1]);
+            fail();
+        } catch (RuntimeException ok) {
+        }
+        manager.releaseLock(handles[0]);
+        LockHandle w = manager.acquireWriteLockForKey(KEY1, owners[1]);
+        manager.releaseLock(w);
+        assertEquals(0, manager.getNumKeys());
+    }
+
+    @Test
+    public void testOwnerReadersDoNotOvertakeWaitingWriters() throws Exception {
+        StripedLocalLockManager manager = makeLockManager();
+        manager.setWriteLockTimeout(5);
+        Object tx1 = new Object();
+        Object tx2 = new Object();
+        LockHandle r1 = manager.acquireReadLockForKey(KEY1, tx1);
+
+        CompletableFuture<LockHandle> writer = CompletableFuture.supplyAsync(() -> manager.acquireWriteLockForKey(KEY1));
+        while (!isWriterWaiting(manager)) {
+            Thread.sleep(10);
+        }
+
+        /* A new owner waits for the writer */
+        try {
+            manager.acquireReadLockForKey(KEY1, tx2);
+            fail();
+        } catch (RuntimeException ok) {
+        }
+
+        /* An owner already holding the key for read does not, it would deadlock with the writer */
+        LockHandle r1again = manager.acquireReadLockForKey(KEY1, tx1);
+        manager.releaseLock(r1again);
+        manager.releaseLock(r1);
+
+        LockHandle w = writer.get(5, TimeUnit.SECONDS);
+        manager.releaseLock(w);
+        assertEquals(0, manager.getNumKeys());
+    }
+
+    private static boolean isWriterWaiting(StripedLocalLockManager manager) {
+        /* A reader without an owner fails only if a writer is waiting */
+        try {
+            manager.releaseLock(manager.acquireReadLockForKey(KEY1));
+            return false;
+        } catch (RuntimeException waiting) {
+            return true;
+        }
+    }
+
+    @Test
+    public void testClearDropsHeldLocks() throws Exception {
+        StripedLocalLockManager manager = makeLockManager();
+        manager.setWriteLockTimeout(5);
+        Object tx1 = new Object();
+        LockHandle w = manager.acquireWriteLockForKey(KEY1);
+        LockHandle r = manager.acquireReadLockForKey(KEY2, tx1);
+        assertEquals(2, manager.getNumKeys());
+
+        CompletableFuture<LockHandle> waiting = CompletableFuture.supplyAsync(() -> manager.acquireWriteLockForKey(KEY1));
+        try {
+            waiting.get(200, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (TimeoutException ok) {
+        }
+
+        /* It does not wait for held locks */
+        manager.clear();
+        LockHandle w2 = waiting.get(5, TimeUnit.SECONDS);
+        assertEquals(1, manager.getNumKeys());
+
+        /* Dropped locks can still be released */
+        manager.releaseLock(w);
+        manager.releaseLock(r);
+        assertEquals(1, manager.getNumKeys());
+        manager.releaseLock(w2);
+        assertEquals(0, manager.getNumKeys());
+        manager.releaseLock(manager.acquireWriteLockForKey(KEY2));
+    }
+
+}
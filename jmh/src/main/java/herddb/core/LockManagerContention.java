@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2014, Oracle America, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of Oracle nor the names of its contributors may be used
+ *    to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package herddb.core;
+
+import herddb.utils.Bytes;
+import herddb.utils.ILocalLockManager;
+import herddb.utils.LegacyLocalLockManager;
+import herddb.utils.LocalLockManager;
+import herddb.utils.LockHandle;
+import herddb.utils.StripedLocalLockManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Compares row lock managers acquiring and releasing locks under contention
+ */
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class LockManagerContention {
+
+    @Param({"default", "legacy", "striped"})
+    public String lockManager;
+
+    /**
+     * Number of distinct keys, 1 is a single hot key
+     */
+    @Param({"1", "16", "100000"})
+    public int keys;
+
+    ILocalLockManager manager;
+    Bytes[] keysArray;
+
+    @Setup
+    public void setup() {
+        switch (lockManager) {
+            case "default":
+                manager = new LocalLockManager();
+                break;
+            case "legacy":
+                manager = new LegacyLocalLockManager();
+                break;
+            case "striped":
+                manager = new StripedLocalLockManager();
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+        keysArray = new Bytes[keys];
+        for (int i = 0; i < keys; i++) {
+            keysArray[i] = Bytes.from_int(i);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        int next = (int) Thread.currentThread().getId() * 7919;
+
+        Bytes nextKey(Bytes[] keysArray) {
+            next = next * 1103515245 + 12345;
+            return keysArray[(next >>> 1) % keysArray.length];
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public LockHandle writeLock(ThreadState state) {
+        LockHandle handle = manager.acquireWriteLockForKey(state.nextKey(keysArray));
+        manager.releaseWriteLock(handle);
+        return handle;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public LockHandle readLock(ThreadState state) {
+        LockHandle handle = manager.acquireReadLockForKey(state.nextKey(keysArray));
+        manager.releaseReadLock(handle);
+        return handle;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public LockHandle mixedLock(ThreadState state) {
+        Bytes key = state.nextKey(keysArray);
+        LockHandle handle = (state.next & 7) == 0
+                ? manager.acquireWriteLockForKey(key) : manager.acquireReadLockForKey(key);
+        manager.releaseLock(handle);
+        return handle;
+    }
+}